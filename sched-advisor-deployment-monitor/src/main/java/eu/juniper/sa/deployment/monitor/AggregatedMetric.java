@@ -27,6 +27,7 @@
  */
 package eu.juniper.sa.deployment.monitor;
 
+import eu.juniper.sa.monitoring.sensor.LatencyHistogram;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
@@ -70,9 +71,30 @@ public class AggregatedMetric {
      * Population standard deviation of metric values in the aggregation.
      */
     public final Double stdDeviation;
+    /**
+     * Median (50th percentile) of metric values in the aggregation or null if
+     * there is no histogram of the values.
+     */
+    public final Double p50;
+    /**
+     * 90th percentile of metric values in the aggregation or null if there is
+     * no histogram of the values.
+     */
+    public final Double p90;
+    /**
+     * 99th percentile of metric values in the aggregation or null if there is
+     * no histogram of the values.
+     */
+    public final Double p99;
+    /**
+     * 99.9th percentile of metric values in the aggregation or null if there is
+     * no histogram of the values.
+     */
+    public final Double p999;
 
     /**
-     * Create an aggregated metric from given aggregated values.
+     * Create an aggregated metric from given aggregated values (without
+     * percentiles).
      *
      * @param count a count of metric values in the aggregation
      * @param min a minimum of metric values in the aggregation
@@ -85,6 +107,28 @@ public class AggregatedMetric {
      * the aggregation
      */
     public AggregatedMetric(Integer count, Double min, Double max, Double avg, Double sum, Double sumOfSquares, Double variance, Double stdDeviation) {
+        this(count, min, max, avg, sum, sumOfSquares, variance, stdDeviation, null, null, null, null);
+    }
+
+    /**
+     * Create an aggregated metric from given aggregated values including
+     * percentiles.
+     *
+     * @param count a count of metric values in the aggregation
+     * @param min a minimum of metric values in the aggregation
+     * @param max a maximum of metric values in the aggregation
+     * @param avg an arithmetic average of metric values in the aggregation
+     * @param sum a sum of metric values in the aggregation
+     * @param sumOfSquares a sum of squares of metric values in the aggregation
+     * @param variance a population variance of metric values in the aggregation
+     * @param stdDeviation a population standard deviation of metric values in
+     * the aggregation
+     * @param p50 a median of metric values in the aggregation
+     * @param p90 a 90th percentile of metric values in the aggregation
+     * @param p99 a 99th percentile of metric values in the aggregation
+     * @param p999 a 99.9th percentile of metric values in the aggregation
+     */
+    public AggregatedMetric(Integer count, Double min, Double max, Double avg, Double sum, Double sumOfSquares, Double variance, Double stdDeviation, Double p50, Double p90, Double p99, Double p999) {
         this.count = count;
         this.min = min;
         this.max = max;
@@ -93,6 +137,10 @@ public class AggregatedMetric {
         this.sumOfSquares = sumOfSquares;
         this.variance = variance;
         this.stdDeviation = stdDeviation;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
     }
 
     /**
@@ -110,6 +158,10 @@ public class AggregatedMetric {
         Double mySumOfSquares = null;
         Double myVariance = null;
         Double myStdDeviation = null;
+        Double myP50 = null;
+        Double myP90 = null;
+        Double myP99 = null;
+        Double myP999 = null;
         try (BufferedReader reader = new BufferedReader(new StringReader(jsonRepresentation))) {
             String line;
             while ((line = reader.readLine()) != null) {
@@ -156,6 +208,18 @@ public class AggregatedMetric {
                     case "std_deviation":
                         myStdDeviation = Double.parseDouble(val);
                         break;
+                    case "p50":
+                        myP50 = Double.parseDouble(val);
+                        break;
+                    case "p90":
+                        myP90 = Double.parseDouble(val);
+                        break;
+                    case "p99":
+                        myP99 = Double.parseDouble(val);
+                        break;
+                    case "p99_9":
+                        myP999 = Double.parseDouble(val);
+                        break;
                 }
             }
         }
@@ -170,11 +234,77 @@ public class AggregatedMetric {
         this.sumOfSquares = mySumOfSquares;
         this.variance = myVariance;
         this.stdDeviation = myStdDeviation;
+        this.p50 = myP50;
+        this.p90 = myP90;
+        this.p99 = myP99;
+        this.p999 = myP999;
+    }
+
+    /**
+     * Create an aggregated metric from given count, minimum, maximum, sum, and
+     * sum of squares of metric values (the other aggregated values are
+     * computed).
+     *
+     * @param count a count of metric values in the aggregation
+     * @param min a minimum of metric values in the aggregation
+     * @param max a maximum of metric values in the aggregation
+     * @param sum a sum of metric values in the aggregation
+     * @param sumOfSquares a sum of squares of metric values in the aggregation
+     * @return the aggregated metric
+     */
+    public static AggregatedMetric fromSums(int count, double min, double max, double sum, double sumOfSquares) {
+        if (count == 0) {
+            return new AggregatedMetric(0, null, null, null, null, null, null, null);
+        }
+        final double avg = sum / count;
+        // the population variance cannot be negative, but it can be due to rounding errors
+        final double variance = Math.max(0, sumOfSquares / count - avg * avg);
+        return new AggregatedMetric(count, min, max, avg, sum, sumOfSquares, variance, Math.sqrt(variance));
+    }
+
+    /**
+     * Merge the aggregated metric with another aggregated metric of disjoint
+     * sets of metric values, e.g., from metric values and from summaries of
+     * other metric values aggregated by sensors. The percentiles cannot be
+     * merged, so they are not set in the merged aggregated metric (see
+     * <code>withPercentiles(...)</code> method).
+     *
+     * @param other the other aggregated metric
+     * @return the merged aggregated metric
+     */
+    public AggregatedMetric merge(AggregatedMetric other) {
+        if ((other == null) || (other.count == null) || (other.count == 0)) {
+            return this;
+        }
+        if ((this.count == null) || (this.count == 0)) {
+            return other;
+        }
+        return fromSums(this.count + other.count, Math.min(this.min, other.min), Math.max(this.max, other.max),
+                this.sum + other.sum, this.sumOfSquares + other.sumOfSquares);
+    }
+
+    /**
+     * Get a copy of the aggregated metric with percentiles computed from a
+     * given histogram of the metric values (e.g., merged from histograms of
+     * all program ranks and time windows).
+     *
+     * @param histogram the histogram of the metric values
+     * @return the aggregated metric with the percentiles or this aggregated
+     * metric if the histogram is empty
+     */
+    public AggregatedMetric withPercentiles(LatencyHistogram histogram) {
+        if ((histogram == null) || histogram.isEmpty()) {
+            return this;
+        }
+        return new AggregatedMetric(this.count, this.min, this.max, this.avg, this.sum, this.sumOfSquares, this.variance, this.stdDeviation,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9));
     }
 
     @Override
     public String toString() {
-        return "AggregatedMetric{" + "count=" + count + ", min=" + min + ", max=" + max + ", avg=" + avg + ", sum=" + sum + ", sumOfSquares=" + sumOfSquares + ", variance=" + variance + ", stdDeviation=" + stdDeviation + '}';
+        return "AggregatedMetric{" + "count=" + count + ", min=" + min + ", max=" + max + ", avg=" + avg + ", sum=" + sum + ", sumOfSquares=" + sumOfSquares + ", variance=" + variance + ", stdDeviation=" + stdDeviation
+                + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", p999=" + p999 + '}';
     }
 
 }
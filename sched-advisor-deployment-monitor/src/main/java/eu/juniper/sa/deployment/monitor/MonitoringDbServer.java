@@ -45,6 +45,11 @@ import org.h2.tools.Server;
 public class MonitoringDbServer {
 
     final static String KEEP_RUNNING_SYSTEM_PROPERTY_NAME = "KeepRunning";
+    /**
+     * Period of the maintenance of time partitions of the records in
+     * milliseconds.
+     */
+    final static long PARTITION_MAINTENANCE_PERIOD_MILLIS = 60L * 1000L;
 
     public static void main(String[] args) throws SQLException, ClassNotFoundException, IOException {
         if (args.length < 1) {
@@ -57,7 +62,10 @@ public class MonitoringDbServer {
                     + "Use system property " + KEEP_RUNNING_SYSTEM_PROPERTY_NAME + ", i.e. -D" + KEEP_RUNNING_SYSTEM_PROPERTY_NAME + ", to keep the server running forever (until killed).\n"
                     + "JDBC username and password can be set by system properties as"
                     + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_JDBC_USER + "=username and"
-                    + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_JDBC_PASSWORD + "=password."
+                    + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_JDBC_PASSWORD + "=password.\n"
+                    + "The records can be partitioned by time and the old partitions dropped periodically by system properties as"
+                    + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_PARTITION_HOURS + "=hours (a length of a partition) and"
+                    + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_RETENTION_HOURS + "=hours (a retention period of the partitions)."
             );
             System.exit(-1);
         }
@@ -75,6 +83,11 @@ public class MonitoringDbServer {
         MonitoringDbActionsInterface monitoringDbActions = new MonitoringDbActionsForH2(jdbcUrl);
         System.out.println("*** Creating database tables (if not exist)...");
         monitoringDbActions.createDatabaseTables();
+        if ((monitoringDbActions.getPartitionLengthNanos() > 0) || (monitoringDbActions.getRetentionNanos() > 0)) {
+            System.out.println("*** Maintaining time partitions of the records every "
+                    + PARTITION_MAINTENANCE_PERIOD_MILLIS / 1000 + " seconds...");
+            startPartitionMaintenance(monitoringDbActions);
+        }
         // wait for clients
         System.out.println("*** Waiting for clients connecting to the JDBC URL above...");
         // waiting for Enter or (in)finite waiting in a loop
@@ -100,4 +113,34 @@ public class MonitoringDbServer {
         // done
         System.out.println("*** Done.");
     }
+
+    private static void startPartitionMaintenance(final MonitoringDbActionsInterface monitoringDbActions) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(PARTITION_MAINTENANCE_PERIOD_MILLIS);
+                        final int partitionId = monitoringDbActions.rotateTimePartitions();
+                        if (partitionId > 0) {
+                            System.out.println("*** New time partition " + partitionId);
+                        }
+                        final int droppedPartitions = monitoringDbActions.dropExpiredTimePartitions();
+                        if (droppedPartitions > 0) {
+                            System.out.println("*** Dropped " + droppedPartitions + " expired time partition(s)");
+                        }
+                    }
+                    catch (InterruptedException ex) {
+                        return;
+                    }
+                    catch (SQLException ex) {
+                        // the next maintenance will try again
+                        System.err.println("*** Cannot maintain time partitions: " + ex.getMessage());
+                    }
+                }
+            }
+        }, MonitoringDbServer.class.getSimpleName() + "-partitions");
+        thread.setDaemon(true);
+        thread.start();
+    }
 }
@@ -27,10 +27,17 @@
  */
 package eu.juniper.sa.deployment.monitor;
 
+import eu.juniper.sa.deployment.monitor.db.ImportWatermark;
 import eu.juniper.sa.deployment.monitor.db.MonitoringDbActionsFactory;
 import eu.juniper.sa.deployment.monitor.db.MonitoringDbActionsFactory.UnkownJdbcDatabase;
 import eu.juniper.sa.deployment.monitor.db.MonitoringDbActionsInterface;
 import eu.juniper.sa.deployment.monitor.db.MonitoringDbActionsForH2;
+import eu.juniper.sa.deployment.monitor.db.MonitoringJsonLoader;
+import eu.juniper.sa.deployment.monitor.db.ProgramRuntimeDeduplicator;
+import eu.juniper.sa.deployment.monitor.db.RollupTables;
+import eu.juniper.sa.monitoring.agent.MetricRecord;
+import eu.juniper.sa.monitoring.sensor.DataConnectionAggregatingSensor;
+import eu.juniper.sa.monitoring.sensor.LatencyHistogram;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,11 +45,13 @@ import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Scanner;
@@ -56,41 +65,46 @@ import org.json.simple.parser.ParseException;
  */
 public class MonitoringDbService implements MonitoringServiceInterface, AutoCloseable {
 
-    private static final String SQL_SELECT_METRICS_NAME = "SELECT DISTINCT name FROM metrics;";
+    // the records and the metrics of all time partitions (see TimePartitions)
+    private static final String SQL_SELECT_METRICS_NAME = "SELECT DISTINCT name FROM metrics_all;";
     private static final String SQL_SELECT_NUMERIC_VALUE = "SELECT CASE WHEN numericvalue IS NULL THEN textvalue ELSE numericvalue END"
-            + " FROM metrics WHERE name=?;";
-    private static final String SQL_SELECT_METRIC_RECORDS = "SELECT DISTINCT time, metrictype, hostname FROM records JOIN metrics ON (records.id = metrics.recordid) "
+            + " FROM metrics_all WHERE name=?;";
+    private static final String SQL_SELECT_METRIC_RECORDS = "SELECT DISTINCT time, metrictype, hostname FROM records_all AS records JOIN metrics_all AS metrics ON (records.id = metrics.recordid) "
             + "WHERE (name=? AND (numericvalue=? OR textvalue=?) "
             + "OR (?='timestamp' AND time=?) "
             + "OR (?='type' AND metrictype=?) "
             + "OR (?='hostname' AND hostname=?));";
     private static final String SQL_SELECT_METRIC_VALUES = "SELECT CASE WHEN v1.numericvalue IS NULL THEN v1.textvalue ELSE v1.numericvalue END "
-            + "FROM records JOIN metrics v1 ON (records.id = v1.recordid) WHERE v1.name=? AND ("
-            + "EXISTS(SELECT 1 FROM metrics v2 WHERE v2.recordid=v1.recordid AND v2.name=? AND (v2.numericvalue=? OR v2.textvalue=?)) "
+            + "FROM records_all AS records JOIN metrics_all AS v1 ON (records.id = v1.recordid) WHERE v1.name=? AND ("
+            + "EXISTS(SELECT 1 FROM metrics_all AS v2 WHERE v2.recordid=v1.recordid AND v2.name=? AND (v2.numericvalue=? OR v2.textvalue=?)) "
             + "OR (?='timestamp' AND time=?) "
             + "OR (?='type' AND metrictype=?) "
             + "OR (?='hostname' AND hostname=?));";
     private static final String SQL_SELECT_RECORD_STATS = "SELECT COUNT(numericvalue), MIN(numericvalue), MAX(numericvalue), AVG(numericvalue), SUM(numericvalue), SUM(numericvalue*numericvalue), VAR_POP(numericvalue), STDDEV_POP(numericvalue) "
-            + "FROM records JOIN metrics ON (records.id = metrics.recordid) WHERE name=? AND time BETWEEN ? AND ?;";
-    private static final String SQL_INSERT_RECORDS = "INSERT INTO records(time, metrictype, hostname) VALUES (?, ?, ?);";
-    private static final String SQL_INSERT_METRICS_NUMERIC = "INSERT INTO metrics(recordid, name, numericvalue) VALUES (?, ?, ?);";
-    private static final String SQL_INSERT_METRICS_TEXT = "INSERT INTO metrics(recordid, name, textvalue) VALUES (?, ?, ?);";
-    private static final String SQL_SELECT_LATEST_PROGRAM_RUNTIMES = "SELECT r.id AS id"
-            + " FROM records AS r JOIN metrics AS m1 ON (r.id = m1.recordid) JOIN metrics AS m2 ON (r.id = m2.recordid)"
-            + " WHERE r.metrictype = 'ProgramRuntime' AND m1.name = 'ProgramGlobalRank' AND m2.name = 'ProgramStartTimestamp'"
-            + " AND NOT EXISTS (SELECT 1"
-            + "  FROM records AS er JOIN metrics AS em1 ON (er.id = em1.recordid) JOIN metrics AS em2 ON (er.id = em2.recordid)"
-            + "  WHERE er.metrictype = 'ProgramRuntime' AND em1.name = 'ProgramGlobalRank' AND em2.name = 'ProgramStartTimestamp'"
-            + "   AND em1.numericvalue = m1.numericvalue AND em2.numericvalue = m2.numericvalue AND er.time > r.time"
-            + "  LIMIT 1"
-            + " )"; // the SQL query is without ending semicolon, it will be included in other SQL queries
-    private static final String SQL_DELETE_OLD_PROGRAM_RUNTIMES = "DELETE FROM records"
-            + " WHERE metrictype = 'ProgramRuntime' AND id NOT IN ("
-            + SQL_SELECT_LATEST_PROGRAM_RUNTIMES + ");";
+            + "FROM records_all AS records JOIN metrics_all AS metrics ON (records.id = metrics.recordid) WHERE name=? AND time BETWEEN ? AND ?;";
+    private static final String SQL_SELECT_SUMMARY_STATS = "SELECT SUM(c.numericvalue), MIN(mn.numericvalue), MAX(mx.numericvalue), SUM(s.numericvalue), SUM(sq.numericvalue) "
+            + "FROM records_all AS records JOIN metrics_all AS c ON (records.id = c.recordid) JOIN metrics_all AS mn ON (records.id = mn.recordid) JOIN metrics_all AS mx ON (records.id = mx.recordid) "
+            + "JOIN metrics_all AS s ON (records.id = s.recordid) JOIN metrics_all AS sq ON (records.id = sq.recordid) "
+            + "WHERE c.name=? AND mn.name=? AND mx.name=? AND s.name=? AND sq.name=? AND c.numericvalue > 0 AND time BETWEEN ? AND ?;";
+    private static final String SQL_SELECT_HISTOGRAMS = "SELECT textvalue "
+            + "FROM records_all AS records JOIN metrics_all AS metrics ON (records.id = metrics.recordid) WHERE name=? AND time BETWEEN ? AND ?;";
+
+    // the time in records table is in nanoseconds since the epoch
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * Default lag of a high-watermark of imports in seconds. Records older than
+     * the high-watermark by at most the lag are imported again (and skipped if
+     * already imported), as records of monitoring agents sending asynchronously
+     * or from different hosts can come to the monitoring service out of order.
+     */
+    public static final double DEFAULT_IMPORT_WATERMARK_LAG = 60;
 
     private final MonitoringDbActionsInterface monitoringDbActions;
     private final String monitoringServiceURL;
     private final String applicationId;
+    private double lastImportRecordsPerSecond = 0;
+    private double importWatermarkLag = DEFAULT_IMPORT_WATERMARK_LAG;
 
     /**
      * Open an H2 database for the monitoring result cache with a given URL.
@@ -229,155 +243,92 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
     }
 
     /**
-     * @deprecated used query <code>SQL_DELETE_OLD_PROGRAM_RUNTIMES</code> to
-     * delete all records and their metrics but those with maximal record time
-     * (the latest) is very slow for large data
-     */
-    private int removeRedundancyInDatabaseTables(Statement statement) throws SQLException {
-        return statement.executeUpdate(MonitoringDbService.SQL_DELETE_OLD_PROGRAM_RUNTIMES);
-    }
-
-    /**
-     * Remove redundant data from the local database cache. This method is
-     * automatically invoked after <code>importDatabase(...)</code> and
-     * <code>importMetrics()</code>.
+     * Remove redundant data from the local database cache, i.e., superseded
+     * "ProgramRuntime" records which have not been deduplicated at their
+     * insertion (e.g., records imported by <code>importDatabase(...)</code>
+     * of the monitoring database actions or stored before the deduplication
+     * has been introduced). The records inserted by
+     * <code>importMetrics()</code> are deduplicated at the insertion, so this
+     * method does not need to be invoked after the import.
      *
      * @return number of removed database records
      * @throws SQLException if a database access error occurs
-     * @deprecated the query used to delete all records and their metrics but
-     * those with maximal record time (the latest) is very slow for large data
      */
     public int removeRedundancyInDatabaseTables() throws SQLException {
-        try (Statement statement = this.monitoringDbActions.getDatabaseConnection().createStatement()) {
-            return this.removeRedundancyInDatabaseTables(statement);
+        try (RollupTables rollupTables = new RollupTables(this.monitoringDbActions.getDatabaseConnection());
+                ProgramRuntimeDeduplicator programRuntimeDeduplicator = new ProgramRuntimeDeduplicator(this.monitoringDbActions.getDatabaseConnection(), rollupTables)) {
+            return programRuntimeDeduplicator.deduplicateUnindexedRecords();
         }
     }
 
     /**
      * Import the application metrics from the monitoring service to an internal
-     * database. TODO: restrict import by start and end timestamps
+     * database. The metrics are streamed by <code>MonitoringJsonLoader</code>
+     * with parsing and inserting in a pipeline, the inserting in JDBC batches
+     * and transactions. The import is incremental, records older than a
+     * high-watermark of the previous imports of the application (the latest
+     * imported record, persisted in the database) decreased by a lag are
+     * skipped. "ProgramRuntime" records are deduplicated at the insertion, so
+     * only the latest record of each program run is kept. TODO: restrict import by start and end timestamps
      *
      * @return number of imported individual metrics (key-value pairs)
      * @throws MalformedURLException if <code>this.monitoringServiceURL</code>
      * is malformed
      * @throws IOException if there is an HTTP error when connecting to or
-     * reading from the monitoring service
+     * reading from the monitoring service, or if the provided JSON is
+     * malformed
      * @throws SQLException if there is a database error when storing metrics
      * into the internal database
      */
     public int importMetrics() throws MalformedURLException, IOException, SQLException {
-        int counter = 0;
         // query a monitoring service via HTTP GET
         URLConnection connection = new URL(this.getMonitoringServiceURL() + this.getApplicationId()).openConnection();
         connection.setRequestProperty("Accept", "application/json");
+        final MonitoringJsonLoader monitoringJsonLoader = new MonitoringJsonLoader(this.monitoringDbActions);
+        final ImportWatermark importWatermark = this.monitoringDbActions.getImportWatermark(this.getApplicationId());
+        if (importWatermark != null) {
+            monitoringJsonLoader.setMinimalTimestampNanos(importWatermark.timestampNanos - (long) (this.importWatermarkLag * NANOS_PER_SECOND));
+        }
         try (InputStream inputStream = connection.getInputStream();
-                InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-                BufferedReader reader = new BufferedReader(inputStreamReader);
-                // prepared statements for insertion of metric records and their values in different formats
-                PreparedStatement preparedStatementRecord
-                = this.monitoringDbActions.getDatabaseConnection().prepareStatement(MonitoringDbService.SQL_INSERT_RECORDS, Statement.RETURN_GENERATED_KEYS);
-                PreparedStatement preparedStatementNumericValue
-                = this.monitoringDbActions.getDatabaseConnection().prepareStatement(MonitoringDbService.SQL_INSERT_METRICS_NUMERIC);
-                PreparedStatement preparedStatementTextValue
-                = this.monitoringDbActions.getDatabaseConnection().prepareStatement(MonitoringDbService.SQL_INSERT_METRICS_TEXT);) {
-            // state variables
-            Integer recId = null;
-            Timestamp recTimestamp = null;
-            String recType = null;
-            String recHostname = null;
-            // JSON parser
-            String line;
-            while ((line = reader.readLine()) != null) {
-                int mark1, mark2;
-                // key in quotation marks
-                if (((mark1 = line.indexOf('"')) < 0) || ((mark2 = line.indexOf('"', mark1 + 1)) < 0)) {
-                    // not JSON key-val -> it is a border between JSON records
-                    recId = null;
-                    continue;
-                }
-                String key = line.substring(mark1 + 1, mark2);
-                // value without quotation marks
-                if ((mark1 = line.indexOf(':', mark2)) < 0) {
-                    // parsing error
-                    continue;
-                }
-                if ((mark2 = line.indexOf(',', mark1 + 1)) < 0) {
-                    mark2 = line.length();
-                }
-                String val = line.substring(mark1 + 1, mark2).trim();
-                // null value -> skip
-                if ("null".equals(val)) {
-                    continue;
-                }
-                // string value -> trim quotation marks
-                if (val.charAt(0) == '"') {
-                    val = val.substring(1, val.length() - 1);
-                }
-                // process the key-vale pair
-                switch (key.toLowerCase()) {
-                    case "timestamp":
-                        recTimestamp = new Timestamp((long) (Double.parseDouble(val) * 1000D));
-                        break;
-                    case "type":
-                        recType = val;
-                        break;
-                    case "hostname":
-                        recHostname = val;
-                        break;
-                    default:
-                        // create records row if ready (metrictype can be null) and not already created for this JSON record
-                        if ((recId == null) && (recTimestamp != null) && (recHostname != null)) {
-                            try {
-                                //System.out.println("# INSERT INTO records: " + recTimestamp + ", " + recType + ", " + recHostname);
-                                preparedStatementRecord.setTimestamp(1, recTimestamp);
-                                recTimestamp = null;
-                                preparedStatementRecord.setString(2, recType);
-                                recType = null;
-                                preparedStatementRecord.setString(3, recHostname);
-                                recHostname = null;
-                                preparedStatementRecord.executeUpdate();
-                                try (ResultSet generatedKeys = preparedStatementRecord.getGeneratedKeys()) {
-                                    if (generatedKeys.next()) {
-                                        recId = generatedKeys.getInt(1);
-                                    }
-                                }
-                            }
-                            catch (SQLException ex) {
-                                // nothing, the record cannot be inserted -> will skip the rest of this JSON record as rec* are null
-                                // this can be the case of duplicate timestamp-type-hostname triplets
-                            }
-                        }
-                        // create metrics row if exist record row for this JSON record
-                        if (recId != null) {
-                            try {
-                                try {
-                                    final double valDouble = Double.parseDouble(val);
-                                    //System.out.println("# INSERT INTO metrics: " + recId + ", " + key + ", " + valDouble);
-                                    preparedStatementNumericValue.setInt(1, recId);
-                                    preparedStatementNumericValue.setString(2, key);
-                                    preparedStatementNumericValue.setDouble(3, valDouble);
-                                    preparedStatementNumericValue.executeUpdate();
-                                    counter++;
-                                }
-                                catch (NumberFormatException ex) {
-                                    //System.out.println("# INSERT INTO metrics: " + recId + ", " + key + ", " + val);
-                                    preparedStatementTextValue.setInt(1, recId);
-                                    preparedStatementTextValue.setString(2, key);
-                                    preparedStatementTextValue.setString(3, val);
-                                    preparedStatementTextValue.executeUpdate();
-                                    counter++;
-                                }
-                            }
-                            catch (SQLException ex) {
-                                // nothing, the mertic cannot be inserted -> will be skipped
-                            }
-                        }
-                        break;
-                }
-            }
+                InputStreamReader inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);) {
+            monitoringJsonLoader.load(inputStreamReader);
+        }
+        this.lastImportRecordsPerSecond = monitoringJsonLoader.getRecordsPerSecond();
+        if (monitoringJsonLoader.getLoadedRecords() > 0) {
+            this.monitoringDbActions.setImportWatermark(this.getApplicationId(), (importWatermark == null)
+                    ? new ImportWatermark(monitoringJsonLoader.getLatestTimestampNanos(), monitoringJsonLoader.getLatestRecordId())
+                    : new ImportWatermark(Math.max(importWatermark.timestampNanos, monitoringJsonLoader.getLatestTimestampNanos()),
+                            Math.max(importWatermark.recordId, monitoringJsonLoader.getLatestRecordId())));
         }
-        this.removeRedundancyInDatabaseTables();
-        return counter;
+        return (int) monitoringJsonLoader.getLoadedMetrics();
+    }
+
+    /**
+     * Get a lag of a high-watermark of imports in seconds.
+     *
+     * @return the lag in seconds
+     */
+    public double getImportWatermarkLag() {
+        return this.importWatermarkLag;
+    }
+
+    /**
+     * Set a lag of a high-watermark of imports in seconds (see
+     * <code>DEFAULT_IMPORT_WATERMARK_LAG</code>).
+     *
+     * @param importWatermarkLag the lag in seconds
+     */
+    public void setImportWatermarkLag(double importWatermarkLag) {
+        this.importWatermarkLag = importWatermarkLag;
+    }
+
+    /**
+     * Get a throughput of the last <code>importMetrics()</code>.
+     *
+     * @return a number of imported records per second
+     */
+    public double getLastImportRecordsPerSecond() {
+        return this.lastImportRecordsPerSecond;
     }
 
     /**
@@ -411,7 +362,8 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
      */
     @Override
     public String[] getMetricsNames() throws SQLException {
-        try (Statement statement = this.monitoringDbActions.getDatabaseConnection().createStatement();
+        try (Connection connection = this.monitoringDbActions.getDataSource().getConnection();
+                Statement statement = connection.createStatement();
                 ResultSet resultSet = statement.executeQuery(SQL_SELECT_METRICS_NAME);) {
             ArrayList<String> resultStrings = new ArrayList<>();
             while (resultSet.next()) {
@@ -430,8 +382,8 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
      */
     @Override
     public String[] getMetricValues(String metricName) throws SQLException {
-        try (PreparedStatement preparedStatement
-                = this.monitoringDbActions.getDatabaseConnection().prepareStatement(SQL_SELECT_NUMERIC_VALUE)) {
+        try (Connection connection = this.monitoringDbActions.getDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_NUMERIC_VALUE)) {
             preparedStatement.setString(1, metricName);
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
                 ArrayList<String> resultStrings = new ArrayList<>();
@@ -471,9 +423,9 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
         catch (NumberFormatException ex) {
             conditionValueDouble = null;
         }
-        Timestamp conditionValueTimestamp;
+        Long conditionValueTimestamp;
         try {
-            conditionValueTimestamp = new Timestamp(Long.parseLong(conditionValue) * 1000);
+            conditionValueTimestamp = MetricRecord.parseTimestampNanos(conditionValue);
         }
         catch (NumberFormatException ex) {
             conditionValueTimestamp = null;
@@ -481,13 +433,13 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
         // query
         if (metricNameIsTimestamp || metricNameIsType || metricNameIsHostname) {
             // metric is in records table
-            try (PreparedStatement preparedStatement
-                    = this.monitoringDbActions.getDatabaseConnection().prepareStatement(SQL_SELECT_METRIC_RECORDS)) {
+            try (Connection connection = this.monitoringDbActions.getDataSource().getConnection();
+                    PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_METRIC_RECORDS)) {
                 preparedStatement.setString(1, conditionName);
                 preparedStatement.setDouble(2, conditionValueDouble);
                 preparedStatement.setString(3, conditionValue);
                 preparedStatement.setString(4, conditionNameLower);
-                preparedStatement.setTimestamp(5, conditionValueTimestamp);
+                setTimestampNanos(preparedStatement, 5, conditionValueTimestamp);
                 preparedStatement.setString(6, conditionNameLower);
                 preparedStatement.setString(7, conditionValue);
                 preparedStatement.setString(8, conditionNameLower);
@@ -496,7 +448,7 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
                     ArrayList<String> resultStrings = new ArrayList<>();
                     while (resultSet.next()) {
                         if (metricNameIsTimestamp) {
-                            resultStrings.add(resultSet.getString(1));
+                            resultStrings.add(MetricRecord.appendTimestamp(new StringBuilder(), resultSet.getLong(1)).toString());
                         } else if (metricNameIsType) {
                             resultStrings.add(resultSet.getString(2));
                         } else {
@@ -508,14 +460,14 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
             }
         } else {
             // metric is in values table
-            try (PreparedStatement preparedStatement
-                    = this.monitoringDbActions.getDatabaseConnection().prepareStatement(SQL_SELECT_METRIC_VALUES)) {
+            try (Connection connection = this.monitoringDbActions.getDataSource().getConnection();
+                    PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_METRIC_VALUES)) {
                 preparedStatement.setString(1, metricName);
                 preparedStatement.setString(2, conditionName);
                 preparedStatement.setDouble(3, conditionValueDouble);
                 preparedStatement.setString(4, conditionValue);
                 preparedStatement.setString(5, conditionNameLower);
-                preparedStatement.setTimestamp(6, conditionValueTimestamp);
+                setTimestampNanos(preparedStatement, 6, conditionValueTimestamp);
                 preparedStatement.setString(7, conditionNameLower);
                 preparedStatement.setString(8, conditionValue);
                 preparedStatement.setString(9, conditionNameLower);
@@ -531,9 +483,50 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
         }
     }
 
+    private static void setTimestampNanos(PreparedStatement preparedStatement, int parameterIndex, Long timestampNanos) throws SQLException {
+        if (timestampNanos == null) {
+            preparedStatement.setNull(parameterIndex, Types.BIGINT);
+        } else {
+            preparedStatement.setLong(parameterIndex, timestampNanos);
+        }
+    }
+
+    /**
+     * Get a histogram of values of a given metric merged from all histograms
+     * of the metric (i.e., of all program ranks and time windows) stored in the
+     * local database cache in a given time period.
+     *
+     * @param metricName a metric to get the histogram of
+     * @param fromTimestamp a start of a given time period
+     * @param toTimestamp an end of a given time period
+     * @return the merged histogram (empty if there are no histograms of the
+     * metric in the time period)
+     * @throws SQLException if a database access error occurs
+     */
+    public LatencyHistogram getMetricHistogram(String metricName, long fromTimestamp, long toTimestamp) throws SQLException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        try (Connection connection = this.monitoringDbActions.getDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_HISTOGRAMS)) {
+            preparedStatement.setString(1, metricName + LatencyHistogram.METRIC_NAME_SUFFIX);
+            preparedStatement.setLong(2, fromTimestamp * NANOS_PER_SECOND);
+            preparedStatement.setLong(3, toTimestamp * NANOS_PER_SECOND);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    final String encodedHistogram = resultSet.getString(1);
+                    if (encodedHistogram != null) {
+                        histogram.addEncoded(encodedHistogram);
+                    }
+                }
+            }
+        }
+        return histogram;
+    }
+
     /**
      * Get aggregated values of a given metric stored in the local database
-     * cache in a given time period.
+     * cache in a given time period. The percentiles of the aggregated values
+     * are computed from histograms of the metric recorded by sensors (see
+     * <code>getMetricHistogram(...)</code> method), if there are any.
      *
      * @param metricName a metric to get the values of
      * @param fromTimestamp a start of a given time period
@@ -544,18 +537,39 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
      */
     @Override
     public AggregatedMetric getMetricAggregated(String metricName, long fromTimestamp, long toTimestamp) throws SQLException {
-        try (PreparedStatement preparedStatement
-                = this.monitoringDbActions.getDatabaseConnection().prepareStatement(SQL_SELECT_RECORD_STATS)) {
+        AggregatedMetric aggregatedMetric;
+        try (Connection connection = this.monitoringDbActions.getDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_RECORD_STATS)) {
             preparedStatement.setString(1, metricName);
-            preparedStatement.setTimestamp(2, new Timestamp(fromTimestamp * 1000));
-            preparedStatement.setTimestamp(3, new Timestamp(toTimestamp * 1000));
+            preparedStatement.setLong(2, fromTimestamp * NANOS_PER_SECOND);
+            preparedStatement.setLong(3, toTimestamp * NANOS_PER_SECOND);
             //System.out.println("# " + preparedStatement.toString());
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                return resultSet.next()
+                aggregatedMetric = resultSet.next()
                         ? new AggregatedMetric(resultSet.getInt(1), resultSet.getDouble(2), resultSet.getDouble(3), resultSet.getDouble(4), resultSet.getDouble(5), resultSet.getDouble(6), resultSet.getDouble(7), resultSet.getDouble(8))
                         : null;
             }
         }
+        // merge summaries of the metric values aggregated by sensors (e.g., by DataConnectionAggregatingSensor)
+        try (Connection connection = this.monitoringDbActions.getDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(SQL_SELECT_SUMMARY_STATS)) {
+            preparedStatement.setString(1, metricName + DataConnectionAggregatingSensor.SUFFIX_COUNT);
+            preparedStatement.setString(2, metricName + DataConnectionAggregatingSensor.SUFFIX_MIN);
+            preparedStatement.setString(3, metricName + DataConnectionAggregatingSensor.SUFFIX_MAX);
+            preparedStatement.setString(4, metricName + DataConnectionAggregatingSensor.SUFFIX_SUM);
+            preparedStatement.setString(5, metricName + DataConnectionAggregatingSensor.SUFFIX_SUM_OF_SQUARES);
+            preparedStatement.setLong(6, fromTimestamp * NANOS_PER_SECOND);
+            preparedStatement.setLong(7, toTimestamp * NANOS_PER_SECOND);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next() && (resultSet.getInt(1) > 0)) {
+                    final AggregatedMetric summaryMetric = AggregatedMetric.fromSums(resultSet.getInt(1),
+                            resultSet.getDouble(2), resultSet.getDouble(3), resultSet.getDouble(4), resultSet.getDouble(5));
+                    aggregatedMetric = (aggregatedMetric == null) ? summaryMetric : aggregatedMetric.merge(summaryMetric);
+                }
+            }
+        }
+        // percentiles from histograms of the metric values recorded by sensors
+        return (aggregatedMetric == null) ? null : aggregatedMetric.withPercentiles(this.getMetricHistogram(metricName, fromTimestamp, toTimestamp));
     }
 
     public static void main(String[] args) throws ClassNotFoundException, SQLException {
@@ -601,7 +615,8 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
                         System.out.println(monitoringService.getApplicationDetails() + "\n");
                         ((MonitoringDbService) monitoringService).getMonitoringDbActions().createDatabaseTables();
                         System.out.println("*** number of imported metrics = "
-                                + ((MonitoringDbService) monitoringService).importMetrics());
+                                + ((MonitoringDbService) monitoringService).importMetrics()
+                                + " (" + (long) ((MonitoringDbService) monitoringService).getLastImportRecordsPerSecond() + " records/sec)");
                         final String[] metrics = (args.length > 5)
                                 ? new String[]{args[5]}
                                 : monitoringService.getMetricsNames();
@@ -619,7 +634,8 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
                     final MonitoringServiceInterface monitoringService = new MonitoringDbService(monitoringServiceURL, applicationId);
                     ((MonitoringDbService) monitoringService).getMonitoringDbActions().createDatabaseTables();
                     System.out.println("*** number of imported metrics = "
-                            + ((MonitoringDbService) monitoringService).importMetrics());
+                            + ((MonitoringDbService) monitoringService).importMetrics()
+                            + " (" + (long) ((MonitoringDbService) monitoringService).getLastImportRecordsPerSecond() + " records/sec)");
                     if (args.length > 5) {
                         String conditionName = args[4];
                         String conditionValue = args[5];
@@ -637,7 +653,8 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
                     final MonitoringDbService monitoringDbService = new MonitoringDbService(monitoringServiceURL, applicationId);
                     monitoringDbService.getMonitoringDbActions().createDatabaseTables();
                     System.out.println("*** number of imported metrics = "
-                            + monitoringDbService.importMetrics());
+                            + monitoringDbService.importMetrics()
+                            + " (" + (long) monitoringDbService.getLastImportRecordsPerSecond() + " records/sec)");
                     try (Statement statement = monitoringDbService.getMonitoringDbActions().getDatabaseConnection().createStatement();
                             ResultSet resultSet = statement.executeQuery(query);) {
                         System.out.println("*** " + query);
@@ -659,7 +676,8 @@ public class MonitoringDbService implements MonitoringServiceInterface, AutoClos
                     final MonitoringDbService monitoringDbService = new MonitoringDbService(monitoringServiceURL, applicationId);
                     monitoringDbService.getMonitoringDbActions().createDatabaseTables();
                     System.out.println("*** number of imported metrics = "
-                            + monitoringDbService.importMetrics());
+                            + monitoringDbService.importMetrics()
+                            + " (" + (long) monitoringDbService.getLastImportRecordsPerSecond() + " records/sec)");
                     System.out.println("*** exporting into " + exportSqlScriptFilename);
                     monitoringDbService.getMonitoringDbActions().exportDatabase(exportSqlScriptFilename);
                 }
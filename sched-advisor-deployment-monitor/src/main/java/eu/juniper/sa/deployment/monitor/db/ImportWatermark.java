@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+/**
+ * The class for a high-watermark of imports of monitoring data of an
+ * application from a monitoring service, i.e., the latest imported record.
+ * The imports are resumed from the timestamp of the record only, as the IDs
+ * of the records are local to the internal database.
+ *
+ * @author rychly
+ */
+public class ImportWatermark {
+
+    /**
+     * Timestamp of the latest imported record in nanoseconds since the epoch.
+     */
+    public final long timestampNanos;
+    /**
+     * ID of the last imported record in the records table (the maximal ID).
+     * It is the local ID in the internal database, which is unknown to the
+     * monitoring service, so it is kept for diagnostics only and it is not
+     * used to resume the imports.
+     */
+    public final int recordId;
+
+    /**
+     * Create a high-watermark for a given latest imported record.
+     *
+     * @param timestampNanos timestamp of the latest imported record in
+     * nanoseconds since the epoch
+     * @param recordId ID of the last imported record in the records table
+     * (for diagnostics only)
+     */
+    public ImportWatermark(long timestampNanos, int recordId) {
+        this.timestampNanos = timestampNanos;
+        this.recordId = recordId;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportWatermark{" + "timestampNanos=" + timestampNanos + ", recordId=" + recordId + '}';
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+import eu.juniper.sa.monitoring.agent.MonitoringBinaryLogReader;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * The class to load records from a binary log written by
+ * <code>MonitoringAgentForBinaryLog</code> into the records and metrics tables
+ * of the database for the monitoring data. The records are inserted in JDBC
+ * batches with IDs pre-allocated by
+ * <code>MonitoringDbActionsInterface.allocateRecordIds(int)</code> and each
+ * batch is committed in a single transaction. The loaded "ProgramRuntime"
+ * records are deduplicated by <code>ProgramRuntimeDeduplicator</code> and the
+ * records of known metric types are materialized by
+ * <code>TypedMetricTables</code> and rolled up by <code>RollupTables</code> in
+ * the transactions of their batches.
+ *
+ * @author rychly
+ */
+public class MonitoringBinaryLogLoader {
+
+    /**
+     * Default number of records in a batch (and in a transaction).
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String SQL_INSERT_RECORD = "INSERT INTO records(id, time, metrictype, hostname) VALUES (?, ?, ?, ?);";
+    private static final String SQL_INSERT_METRIC = "INSERT INTO metrics(recordid, name, numericvalue, textvalue) VALUES (?, ?, ?, ?);";
+    private final MonitoringDbActionsInterface monitoringDbActions;
+    private final int batchSize;
+
+    /**
+     * Create a loader into the database of given actions with a given number
+     * of records in a batch.
+     *
+     * @param monitoringDbActions actions of the database for the monitoring
+     * data
+     * @param batchSize a number of records in a batch (and in a transaction)
+     */
+    public MonitoringBinaryLogLoader(MonitoringDbActionsInterface monitoringDbActions, int batchSize) {
+        this.monitoringDbActions = monitoringDbActions;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Create a loader into the database of given actions with the default
+     * number of records in a batch.
+     *
+     * @param monitoringDbActions actions of the database for the monitoring
+     * data
+     */
+    public MonitoringBinaryLogLoader(MonitoringDbActionsInterface monitoringDbActions) {
+        this(monitoringDbActions, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Load records of all segment files of a given binary log into the
+     * database.
+     *
+     * @param binaryLogDirectoryName a directory of the binary log
+     * @return the number of loaded records
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if the binary log cannot be read
+     */
+    public long load(String binaryLogDirectoryName) throws SQLException, IOException {
+        final Connection databaseConnection = this.monitoringDbActions.getDatabaseConnection();
+        final boolean previousAutoCommit = databaseConnection.getAutoCommit();
+        databaseConnection.setAutoCommit(false);
+        long loadedRecords = 0;
+        try (PreparedStatement preparedStatementRecord = databaseConnection.prepareStatement(SQL_INSERT_RECORD);
+                PreparedStatement preparedStatementMetric = databaseConnection.prepareStatement(SQL_INSERT_METRIC);
+                RollupTables rollupTables = new RollupTables(databaseConnection);
+                ProgramRuntimeDeduplicator programRuntimeDeduplicator = new ProgramRuntimeDeduplicator(databaseConnection, rollupTables);
+                TypedMetricTables typedMetricTables = new TypedMetricTables(databaseConnection)) {
+            int[] recordIds = new int[0];
+            int batchedRecords = 0;
+            // a range of IDs of the batched records to materialize in the typed tables
+            int minimalMaterializedRecordId = Integer.MAX_VALUE;
+            int maximalMaterializedRecordId = Integer.MIN_VALUE;
+            for (File segmentFile : MonitoringBinaryLogReader.listSegmentFiles(binaryLogDirectoryName)) {
+                try (MonitoringBinaryLogReader reader = new MonitoringBinaryLogReader(segmentFile)) {
+                    while (reader.next()) {
+                        if (batchedRecords == recordIds.length) {
+                            // the IDs are allocated per batch, the unused IDs of the last batch make just a gap in the sequence
+                            recordIds = this.monitoringDbActions.allocateRecordIds(this.batchSize);
+                            batchedRecords = 0;
+                        }
+                        final int recordId = recordIds[batchedRecords++];
+                        preparedStatementRecord.setInt(1, recordId);
+                        preparedStatementRecord.setLong(2, reader.getTimestampNanos());
+                        preparedStatementRecord.setString(3, reader.getMetricType());
+                        preparedStatementRecord.setString(4, reader.getHostname());
+                        preparedStatementRecord.addBatch();
+                        final boolean deduplicated = ProgramRuntimeDeduplicator.isDeduplicated(reader.getMetricType());
+                        double programGlobalRank = Double.NaN;
+                        double programStartTimestamp = Double.NaN;
+                        for (int i = 0; i < reader.getMetricsCount(); i++) {
+                            preparedStatementMetric.setInt(1, recordId);
+                            preparedStatementMetric.setString(2, reader.getMetricName(i));
+                            if (reader.hasNumericValue(i)) {
+                                preparedStatementMetric.setDouble(3, reader.getNumericValue(i));
+                                preparedStatementMetric.setNull(4, Types.VARCHAR);
+                                if (deduplicated && ProgramRuntimeDeduplicator.RANK_METRIC_NAME.equals(reader.getMetricName(i))) {
+                                    programGlobalRank = reader.getNumericValue(i);
+                                } else if (deduplicated && ProgramRuntimeDeduplicator.START_METRIC_NAME.equals(reader.getMetricName(i))) {
+                                    programStartTimestamp = reader.getNumericValue(i);
+                                }
+                            } else {
+                                preparedStatementMetric.setNull(3, Types.DOUBLE);
+                                preparedStatementMetric.setString(4, reader.getTextValue(i));
+                            }
+                            preparedStatementMetric.addBatch();
+                        }
+                        if (deduplicated) {
+                            programRuntimeDeduplicator.add(recordId, reader.getTimestampNanos(), programGlobalRank, programStartTimestamp);
+                        }
+                        if (TypedMetricTables.isMaterialized(reader.getMetricType())) {
+                            minimalMaterializedRecordId = Math.min(minimalMaterializedRecordId, recordId);
+                            maximalMaterializedRecordId = Math.max(maximalMaterializedRecordId, recordId);
+                        }
+                        loadedRecords++;
+                        if (batchedRecords == recordIds.length) {
+                            executeBatches(databaseConnection, preparedStatementRecord, preparedStatementMetric, programRuntimeDeduplicator,
+                                    typedMetricTables, rollupTables, minimalMaterializedRecordId, maximalMaterializedRecordId);
+                            minimalMaterializedRecordId = Integer.MAX_VALUE;
+                            maximalMaterializedRecordId = Integer.MIN_VALUE;
+                        }
+                    }
+                }
+            }
+            executeBatches(databaseConnection, preparedStatementRecord, preparedStatementMetric, programRuntimeDeduplicator,
+                    typedMetricTables, rollupTables, minimalMaterializedRecordId, maximalMaterializedRecordId);
+        }
+        catch (SQLException | IOException ex) {
+            databaseConnection.rollback();
+            throw ex;
+        }
+        finally {
+            databaseConnection.setAutoCommit(previousAutoCommit);
+        }
+        return loadedRecords;
+    }
+
+    private static void executeBatches(Connection databaseConnection, PreparedStatement preparedStatementRecord, PreparedStatement preparedStatementMetric,
+            ProgramRuntimeDeduplicator programRuntimeDeduplicator, TypedMetricTables typedMetricTables, RollupTables rollupTables,
+            int minimalMaterializedRecordId, int maximalMaterializedRecordId) throws SQLException {
+        preparedStatementRecord.executeBatch();
+        preparedStatementMetric.executeBatch();
+        if (minimalMaterializedRecordId <= maximalMaterializedRecordId) {
+            // before the deduplication which deletes the superseded records including their typed rows
+            typedMetricTables.materialize(minimalMaterializedRecordId, maximalMaterializedRecordId);
+            rollupTables.invalidate(minimalMaterializedRecordId, maximalMaterializedRecordId);
+        }
+        programRuntimeDeduplicator.flush();
+        rollupTables.refresh();
+        databaseConnection.commit();
+    }
+
+}
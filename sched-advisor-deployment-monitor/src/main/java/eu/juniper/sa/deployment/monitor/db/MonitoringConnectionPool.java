@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * A bounded pool of JDBC connections to the database for the monitoring data.
+ * A connection borrowed from the pool by <code>getConnection()</code> is
+ * returned into the pool by its <code>close()</code> method, which rolls back
+ * its uncommitted transaction and restores its auto-commit mode. The idle
+ * connections are validated before they are borrowed again if they have been
+ * idle for a longer time. As the physical connections are kept open, their
+ * statement caches maintained by the JDBC drivers (e.g., the query cache of H2
+ * sessions or the prepared statement cache of the PostgreSQL driver) are
+ * reused by the subsequent borrowers. A pool for a shared connection (see
+ * <code>forConnection(...)</code>) lends the same connection to all its
+ * borrowers and never closes it. A bounded pool can also lend a single
+ * connection shared by all its borrowers outside its bound (see
+ * <code>getSharedConnection()</code>), e.g., to the borrowers keeping their
+ * connections for their whole life.
+ *
+ * @author rychly
+ */
+public class MonitoringConnectionPool implements DataSource, AutoCloseable {
+
+    /**
+     * The default maximal number of connections borrowed at the same time.
+     */
+    public static final int DEFAULT_MAX_SIZE = 8;
+    private static final long BORROW_TIMEOUT_MILLIS = 60000;
+    private static final long VALIDATION_IDLE_MILLIS = 30000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final String dbURL;
+    private final Properties properties;
+    private final Connection sharedConnection;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    // opened by the first getSharedConnection() of a bounded pool, closed with the pool
+    private Connection unboundedConnection = null;
+    private volatile boolean closed = false;
+    private PrintWriter logWriter;
+    private int loginTimeout;
+
+    /**
+     * Create a pool of connections to a given JDBC URL.
+     *
+     * @param dbURL the JDBC URL of the pooled connections
+     * @param properties the properties of the pooled connections (e.g., user
+     * and password)
+     * @param maxSize the maximal number of connections borrowed at the same
+     * time
+     */
+    public MonitoringConnectionPool(String dbURL, Properties properties, int maxSize) {
+        this.dbURL = dbURL;
+        this.properties = properties;
+        this.sharedConnection = null;
+        this.maxSize = Math.max(1, maxSize);
+        this.permits = new Semaphore(this.maxSize, true);
+    }
+
+    private MonitoringConnectionPool(Connection sharedConnection) {
+        this.dbURL = null;
+        this.properties = null;
+        this.sharedConnection = sharedConnection;
+        this.maxSize = Integer.MAX_VALUE;
+        this.permits = null;
+    }
+
+    /**
+     * Create a pool lending a given shared connection to all its borrowers,
+     * e.g., for a connection given by a caller or for a private in-memory
+     * database, which cannot be opened by another connection. The shared
+     * connection is not closed by the borrowers nor by the pool.
+     *
+     * @param sharedConnection the shared connection
+     * @return the pool of the shared connection
+     */
+    public static MonitoringConnectionPool forConnection(Connection sharedConnection) {
+        return new MonitoringConnectionPool(sharedConnection);
+    }
+
+    /**
+     * Check if the pool lends a single shared connection to all its borrowers.
+     *
+     * @return <code>true</code> if the pool is for a shared connection,
+     * <code>false</code> otherwise
+     */
+    public boolean isShared() {
+        return this.sharedConnection != null;
+    }
+
+    /**
+     * Get a maximal number of connections borrowed at the same time.
+     *
+     * @return the maximal number of borrowed connections or
+     * <code>Integer.MAX_VALUE</code> for a shared connection
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Borrow a connection from the pool, waiting for a connection returned by
+     * another borrower if the pool is exhausted.
+     *
+     * @return the borrowed connection to be returned by its
+     * <code>close()</code> method
+     * @throws SQLException if the pool is closed, if no connection has been
+     * returned in time, or if a database access error occurs
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("The pool of connections to the database for the monitoring data is closed.");
+        }
+        if (this.isShared()) {
+            return this.lend(this.sharedConnection, false);
+        }
+        try {
+            if (!this.permits.tryAcquire(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Cannot borrow a connection to the database for the monitoring data in "
+                        + BORROW_TIMEOUT_MILLIS + " ms, all connections of the pool are in use.");
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to the database for the monitoring data.", ex);
+        }
+        try {
+            return this.lend(this.takeConnection(), true);
+        }
+        catch (SQLException | RuntimeException ex) {
+            this.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Open a new connection with given credentials, which is not pooled.
+     *
+     * @param username the database user
+     * @param password the user's password
+     * @return the new connection
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (this.isShared()) {
+            throw new SQLFeatureNotSupportedException("Cannot open a new connection in the pool of a shared connection.");
+        }
+        final Properties userProperties = new Properties();
+        userProperties.putAll(this.properties);
+        userProperties.setProperty("user", username);
+        userProperties.setProperty("password", password);
+        return DriverManager.getConnection(this.dbURL, userProperties);
+    }
+
+    /**
+     * Lend a single connection shared by all its borrowers, which does not
+     * count into the maximal number of borrowed connections, so it never waits
+     * for a connection returned by another borrower. The shared connection of
+     * a bounded pool is opened by the first borrower and closed with the pool,
+     * it is not closed by the borrowers.
+     *
+     * @return the shared connection, whose <code>close()</code> method does
+     * not close it
+     * @throws SQLException if the pool is closed or if a database access error
+     * occurs
+     */
+    public Connection getSharedConnection() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("The pool of connections to the database for the monitoring data is closed.");
+        }
+        if (this.isShared()) {
+            return this.lend(this.sharedConnection, false);
+        }
+        synchronized (this.idleConnections) {
+            if ((this.unboundedConnection == null) || this.unboundedConnection.isClosed()) {
+                this.unboundedConnection = DriverManager.getConnection(this.dbURL, this.properties);
+            }
+            return this.lend(this.unboundedConnection, false);
+        }
+    }
+
+    private Connection takeConnection() throws SQLException {
+        while (true) {
+            final IdleConnection idleConnection;
+            synchronized (this.idleConnections) {
+                // the most recently used connection first (its caches are warm)
+                idleConnection = this.idleConnections.pollFirst();
+            }
+            if (idleConnection == null) {
+                return DriverManager.getConnection(this.dbURL, this.properties);
+            }
+            if ((System.currentTimeMillis() - idleConnection.idleSince < VALIDATION_IDLE_MILLIS)
+                    || idleConnection.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                return idleConnection.connection;
+            }
+            closeQuietly(idleConnection.connection);
+        }
+    }
+
+    private void returnConnection(Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (this.closed) {
+                connection.close();
+            } else {
+                synchronized (this.idleConnections) {
+                    this.idleConnections.addFirst(new IdleConnection(connection));
+                }
+            }
+        }
+        catch (SQLException ex) {
+            closeQuietly(connection);
+        }
+        finally {
+            this.permits.release();
+        }
+    }
+
+    private Connection lend(final Connection connection, final boolean pooled) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new InvocationHandler() {
+            private boolean returned = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!this.returned) {
+                            this.returned = true;
+                            if (pooled) {
+                                MonitoringConnectionPool.this.returnConnection(connection);
+                            }
+                        }
+                        return null;
+                    case "isClosed":
+                        return this.returned || connection.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled" + connection.toString();
+                    default:
+                        if (this.returned) {
+                            throw new SQLException("The connection has been returned into the pool.");
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        }
+                        catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        }
+                }
+            }
+        });
+    }
+
+    /**
+     * Close the pool and all its idle connections. The borrowed connections
+     * are closed when returned. A shared connection given to the pool is not
+     * closed, a shared connection opened by the pool is closed.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        synchronized (this.idleConnections) {
+            for (IdleConnection idleConnection : this.idleConnections) {
+                closeQuietly(idleConnection.connection);
+            }
+            this.idleConnections.clear();
+            if (this.unboundedConnection != null) {
+                closeQuietly(this.unboundedConnection);
+                this.unboundedConnection = null;
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (SQLException ex) {
+            // the connection is broken, nothing to do
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("The pool is not a wrapper for " + iface.getName() + ".");
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+
+    private static class IdleConnection {
+
+        private final Connection connection;
+        private final long idleSince = System.currentTimeMillis();
+
+        private IdleConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+}
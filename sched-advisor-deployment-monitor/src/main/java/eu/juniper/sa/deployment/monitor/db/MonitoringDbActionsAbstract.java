@@ -31,6 +31,7 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
+import javax.sql.DataSource;
 
 /**
  * Methods of actions for JDBC relational databases utilized for a local
@@ -50,8 +51,29 @@ public abstract class MonitoringDbActionsAbstract implements MonitoringDbActions
      * for the monitoring data.
      */
     public static final String SYSTEM_PROPERTY_NAME_FOR_JDBC_PASSWORD = "MonitoringJdbcPassword";
+    /**
+     * System property name for a length of time partitions of the records in
+     * hours (see <code>TimePartitions</code>). The records are not partitioned
+     * by default.
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_PARTITION_HOURS = "MonitoringPartitionHours";
+    /**
+     * System property name for a retention period of the time partitions of
+     * the records in hours. The partitions are kept forever by default.
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_RETENTION_HOURS = "MonitoringRetentionHours";
+    /**
+     * System property name for a maximal number of pooled JDBC connections to
+     * the database for the monitoring data borrowed at the same time (see
+     * <code>getDataSource()</code>).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_POOL_SIZE = "MonitoringPoolSize";
+    private static final long HOUR_NANOS = 60L * 60L * 1000000000L;
 
     protected final Connection databaseConnection;
+    private final MonitoringConnectionPool dataSource;
+    private long partitionLengthNanos = Integer.getInteger(SYSTEM_PROPERTY_NAME_FOR_PARTITION_HOURS, 0) * HOUR_NANOS;
+    private long retentionNanos = Integer.getInteger(SYSTEM_PROPERTY_NAME_FOR_RETENTION_HOURS, 0) * HOUR_NANOS;
 
     /**
      * Create an actions provider for a particular JDBC connection.
@@ -61,6 +83,7 @@ public abstract class MonitoringDbActionsAbstract implements MonitoringDbActions
      */
     public MonitoringDbActionsAbstract(Connection databaseConnection) {
         this.databaseConnection = databaseConnection;
+        this.dataSource = MonitoringConnectionPool.forConnection(databaseConnection);
     }
 
     /**
@@ -73,6 +96,7 @@ public abstract class MonitoringDbActionsAbstract implements MonitoringDbActions
      */
     public MonitoringDbActionsAbstract(String dbURL) throws ClassNotFoundException, SQLException {
         this.databaseConnection = openDatabaseConnection(dbURL);
+        this.dataSource = this.createDataSource(dbURL);
     }
 
     /**
@@ -84,6 +108,7 @@ public abstract class MonitoringDbActionsAbstract implements MonitoringDbActions
      */
     public MonitoringDbActionsAbstract() throws ClassNotFoundException, SQLException {
         this.databaseConnection = openDatabaseConnection();
+        this.dataSource = this.createDataSource(null);
     }
 
     /**
@@ -97,18 +122,40 @@ public abstract class MonitoringDbActionsAbstract implements MonitoringDbActions
     }
 
     /**
-     * Open a new JDBC connection to a given URL.
+     * Get a data source of pooled JDBC connections to the database of the
+     * monitoring data. The connections should be borrowed for particular
+     * tasks (and returned by their <code>close()</code> methods), so the
+     * tasks reading the monitoring data can run concurrently.
      *
-     * @param dbURL the URL of a new JDBC connection to open
-     * @return the new JDBC connection
-     * @throws ClassNotFoundException if class name of a JDBC driver for the
-     * database cannot be found
-     * @throws SQLException if a database access error occurs
+     * @return the data source of pooled JDBC connections to the database
      */
     @Override
-    public final Connection openDatabaseConnection(String dbURL) throws ClassNotFoundException, SQLException {
-        // load driver classs
-        Class.forName(this.getJdbcDriverClassName());
+    public final DataSource getDataSource() {
+        return this.dataSource;
+    }
+
+    /**
+     * Check if a given JDBC URL can be opened by more connections, so the
+     * connections to the URL can be pooled.
+     *
+     * @param dbURL the JDBC URL to check
+     * @return <code>true</code> if the connections to the URL can be pooled,
+     * <code>false</code> if the connection of the actions provider has to be
+     * shared
+     */
+    protected boolean isPoolableUrl(String dbURL) {
+        return true;
+    }
+
+    private MonitoringConnectionPool createDataSource(String dbURL) {
+        final String url = (dbURL == null) ? this.getJdbcDefaultUrl() : dbURL;
+        return this.isPoolableUrl(url)
+                ? new MonitoringConnectionPool(url, getConnectionProperties(),
+                        Integer.getInteger(SYSTEM_PROPERTY_NAME_FOR_POOL_SIZE, MonitoringConnectionPool.DEFAULT_MAX_SIZE))
+                : MonitoringConnectionPool.forConnection(this.databaseConnection);
+    }
+
+    private static Properties getConnectionProperties() {
         // load JDBC user and password from system properties
         final String jdbcUser = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_JDBC_USER);
         final String jdbcPassword = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_JDBC_PASSWORD);
@@ -119,8 +166,70 @@ public abstract class MonitoringDbActionsAbstract implements MonitoringDbActions
         if (jdbcPassword != null) {
             properties.setProperty("password", jdbcPassword);
         }
+        return properties;
+    }
+
+    /**
+     * Get a length of time partitions of the records (see
+     * <code>TimePartitions</code>).
+     *
+     * @return the length of a partition in nanoseconds or zero if the records
+     * are not partitioned
+     */
+    @Override
+    public long getPartitionLengthNanos() {
+        return this.partitionLengthNanos;
+    }
+
+    /**
+     * Set a length of time partitions of the records (see
+     * <code>TimePartitions</code>).
+     *
+     * @param partitionLengthNanos the length of a partition in nanoseconds or
+     * zero if the records should not be partitioned
+     */
+    @Override
+    public void setPartitionLengthNanos(long partitionLengthNanos) {
+        this.partitionLengthNanos = partitionLengthNanos;
+    }
+
+    /**
+     * Get a retention period of the time partitions of the records.
+     *
+     * @return the retention period in nanoseconds or zero if the partitions
+     * are kept forever
+     */
+    @Override
+    public long getRetentionNanos() {
+        return this.retentionNanos;
+    }
+
+    /**
+     * Set a retention period of the time partitions of the records.
+     *
+     * @param retentionNanos the retention period in nanoseconds or zero if the
+     * partitions should be kept forever
+     */
+    @Override
+    public void setRetentionNanos(long retentionNanos) {
+        this.retentionNanos = retentionNanos;
+    }
+
+    /**
+     * Open a new JDBC connection to a given URL.
+     *
+     * @param dbURL the URL of a new JDBC connection to open
+     * @return the new JDBC connection
+     * @throws ClassNotFoundException if class name of a JDBC driver for the
+     * database cannot be found
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public final Connection openDatabaseConnection(String dbURL) throws ClassNotFoundException, SQLException {
+        // load driver classs
+        Class.forName(this.getJdbcDriverClassName());
         // connect
-        return DriverManager.getConnection(dbURL == null ? this.getJdbcDefaultUrl() : dbURL, properties);
+        return DriverManager.getConnection(dbURL == null ? this.getJdbcDefaultUrl() : dbURL, getConnectionProperties());
     }
 
     /**
@@ -137,12 +246,14 @@ public abstract class MonitoringDbActionsAbstract implements MonitoringDbActions
     }
 
     /**
-     * Close the database for the monitoring result cache.
+     * Close the database for the monitoring result cache and the pool of its
+     * connections.
      *
      * @throws SQLException if a database access error occurs
      */
     @Override
     public final void closeDatabaseConenction() throws SQLException {
+        this.dataSource.close();
         if (!this.databaseConnection.isClosed()) {
             this.databaseConnection.close();
         }
@@ -27,6 +27,7 @@
  */
 package eu.juniper.sa.deployment.monitor.db;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -133,11 +134,18 @@ public class MonitoringDbActionsFactory {
                     + "Connect to a target database via a given JDBC URL and perform a given sequence of actions that can be the following:\n"
                     + "* (create|drop|clean): to create, drop, or clean tables for monitoring data (cleaning the tables means to delete all their data)\n"
                     + "* (import|export) <file.sql>: to import data from or export data to a given SQL script file\n"
+                    + "* load <directory.binlog>: to import records from a given binary log of monitoring agents\n"
+                    + "* partition <hours>: to move the records into a new time partition if they span a given number of hours\n"
+                    + "* retain <hours>: to drop the time partitions of records older than a given number of hours\n"
                     + "* query <sql-query>: to execute a given SQL query\n"
                     + "\n"
                     + "JDBC username and password can be set by system properties as"
                     + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_JDBC_USER + "=username and"
                     + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_JDBC_PASSWORD + "=password."
+                    + " The time partitioning and the retention of records in hours can be set by system properties as"
+                    + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_PARTITION_HOURS + "=hours and"
+                    + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_RETENTION_HOURS + "=hours"
+                    + " for the database server (see MonitoringDbServer)."
             );
             System.exit(-1);
         }
@@ -171,6 +179,30 @@ public class MonitoringDbActionsFactory {
                         monitoringDbActions.importDatabase(file);
                     }
                     break;
+                    case "load": {
+                        final String directory = args[pos++];
+                        System.out.println("*** Loading from binary log " + directory);
+                        final long startTime = System.nanoTime();
+                        final long records = monitoringDbActions.importBinaryLog(directory);
+                        final double duration = (System.nanoTime() - startTime) / 1e9;
+                        System.out.println("*** Loaded " + records + " records in " + duration + " sec (" + (long) (records / duration) + " records/sec)");
+                    }
+                    break;
+                    case "partition": {
+                        final int hours = Integer.parseInt(args[pos++]);
+                        System.out.println("*** Partitioning records by " + hours + " hours...");
+                        monitoringDbActions.setPartitionLengthNanos(hours * 3600L * 1000000000L);
+                        final int partitionId = monitoringDbActions.rotateTimePartitions();
+                        System.out.println(partitionId == 0 ? "*** No new partition" : "*** New partition " + partitionId);
+                    }
+                    break;
+                    case "retain": {
+                        final int hours = Integer.parseInt(args[pos++]);
+                        System.out.println("*** Dropping partitions of records older than " + hours + " hours...");
+                        monitoringDbActions.setRetentionNanos(hours * 3600L * 1000000000L);
+                        System.out.println("*** Dropped " + monitoringDbActions.dropExpiredTimePartitions() + " partitions");
+                    }
+                    break;
                     case "export": {
                         final String file = args[pos++];
                         System.out.println("*** Exporting into file " + file);
@@ -202,7 +234,7 @@ public class MonitoringDbActionsFactory {
             }
             System.err.println("*** Done (" + (pos - 1) + " actions or parameters processed)");
         }
-        catch (ClassNotFoundException | SQLException ex) {
+        catch (ClassNotFoundException | SQLException | IOException ex) {
             ex.printStackTrace();
             if (ex instanceof SQLException) {
                 for (SQLException nextEx = ((SQLException) ex).getNextException();
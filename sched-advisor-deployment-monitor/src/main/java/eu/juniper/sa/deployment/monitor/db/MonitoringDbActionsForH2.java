@@ -28,9 +28,21 @@
 package eu.juniper.sa.deployment.monitor.db;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Methods of actions that are specific for H2 database utilized for a local
@@ -54,11 +66,11 @@ public class MonitoringDbActionsForH2 extends MonitoringDbActionsAbstract implem
     private static final String SQL_CREATE_TABLE_RECORDS = "CREATE TABLE IF NOT EXISTS records ("
             // "SERIAL" is equivalent to "int IDENTITY" in H2 (undocumented) and compatible with PostgreSQL (documented)
             + "id SERIAL, "
-            + "time timestamp NOT NULL, "
+            // nanoseconds since the epoch by monotonic clocks of the agents (strictly increasing per agent)
+            + "time bigint NOT NULL, "
             + "metrictype varchar, "
             + "hostname varchar NOT NULL, "
-            // disabled due to fast generating agents that may break this constraint (timestamp has insufficient precision)
-            //+ "CONSTRAINT unique_records UNIQUE (time, metrictype, hostname), "
+            + "CONSTRAINT unique_records UNIQUE (time, metrictype, hostname), "
             + "PRIMARY KEY (id)"
             + ");";
     private static final String SQL_CREATE_TABLE_METRICS = "CREATE TABLE IF NOT EXISTS metrics ("
@@ -70,13 +82,110 @@ public class MonitoringDbActionsForH2 extends MonitoringDbActionsAbstract implem
             + "CONSTRAINT record_has_recorded_metrics FOREIGN KEY (recordid) REFERENCES records (id) ON UPDATE Cascade ON DELETE Cascade, "
             + "PRIMARY KEY (recordid, name)"
             + ");";
+    private static final String SQL_CREATE_TABLE_PROGRAM_RUNTIME_KEYS = "CREATE TABLE IF NOT EXISTS program_runtime_keys ("
+            // the latest ProgramRuntime record per a program global rank and a program start timestamp (see ProgramRuntimeDeduplicator)
+            + "programglobalrank double precision NOT NULL, "
+            + "programstarttimestamp double precision NOT NULL, "
+            + "recordid int NOT NULL, "
+            + "time bigint NOT NULL, "
+            + "CONSTRAINT key_has_latest_record FOREIGN KEY (recordid) REFERENCES records (id) ON UPDATE Cascade ON DELETE Cascade, "
+            + "PRIMARY KEY (programglobalrank, programstarttimestamp)"
+            + ");";
+    private static final String SQL_CREATE_TABLE_IMPORTS = "CREATE TABLE IF NOT EXISTS imports ("
+            + "applicationid varchar NOT NULL, "
+            // a high-watermark of imports of the application, i.e., the latest imported record
+            + "time bigint NOT NULL, "
+            // the local ID of the record for diagnostics, the imports are resumed by the time only
+            + "recordid int NOT NULL, "
+            + "PRIMARY KEY (applicationid)"
+            + ");";
+    private static final String SQL_CREATE_TABLE_SCHEMA_VERSION = "CREATE TABLE IF NOT EXISTS schema_version ("
+            // applied migrations of the tables (see SCHEMA_MIGRATIONS), no rows for the initial schema version zero
+            + "version int NOT NULL, "
+            + "description varchar NOT NULL, "
+            // nanoseconds since the epoch when the migration has been applied
+            + "time bigint NOT NULL, "
+            + "PRIMARY KEY (version)"
+            + ");";
     //private static final String SQL_CREATE_ALIAS_SECONDS = "CREATE ALIAS IF NOT EXISTS seconds "
     //        + "DETERMINISTIC AS $$ long seconds(Timestamp timestamp) { return timestamp.getTime() / 1000; } $$;";
     //private static final String SQL_DROP_ALIAS_SECONDS = "DROP ALIAS IF EXISTS seconds;";
     private static final String SQL_DROP_TABLE_METRICS = "DROP TABLE IF EXISTS metrics;";
     private static final String SQL_DROP_TABLE_RECORDS = "DROP TABLE IF EXISTS records;";
+    private static final String SQL_DROP_TABLE_PROGRAM_RUNTIME_KEYS = "DROP TABLE IF EXISTS program_runtime_keys;";
+    private static final String SQL_DROP_TABLE_IMPORTS = "DROP TABLE IF EXISTS imports;";
+    private static final String SQL_DROP_TABLE_SCHEMA_VERSION = "DROP TABLE IF EXISTS schema_version;";
     private static final String SQL_DROP_ALL_AND_DELETE = "DROP ALL OBJECTS DELETE FILES;";
     private static final String SQL_DELETE_FROM_RECORDS = "DELETE FROM records;";
+    private static final String SQL_DELETE_FROM_PROGRAM_RUNTIME_KEYS = "DELETE FROM program_runtime_keys;";
+    private static final String SQL_DELETE_FROM_IMPORTS = "DELETE FROM imports;";
+    private static final String SQL_DELETE_FROM_SCHEMA_VERSION = "DELETE FROM schema_version;";
+    private static final String SQL_SELECT_SCHEMA_VERSION = "SELECT MAX(version) FROM schema_version;";
+    private static final String SQL_INSERT_SCHEMA_VERSION = "INSERT INTO schema_version(version, description, time) VALUES (?, ?, ?);";
+    private static final String SQL_SELECT_IMPORT_WATERMARK = "SELECT time, recordid FROM imports WHERE applicationid = ?;";
+    private static final String SQL_UPDATE_IMPORT_WATERMARK = "UPDATE imports SET time = ?, recordid = ? WHERE applicationid = ?;";
+    private static final String SQL_INSERT_IMPORT_WATERMARK = "INSERT INTO imports(time, recordid, applicationid) VALUES (?, ?, ?);";
+    private static final String SQL_SELECT_RECORDS_SEQUENCE = "SELECT sequence_name FROM information_schema.columns "
+            + "WHERE UPPER(table_name) = 'RECORDS' AND UPPER(column_name) = 'ID' AND table_schema = SCHEMA();";
+    private static final String SQL_SELECT_NEXT_IDS = "SELECT NEXT VALUE FOR %s FROM SYSTEM_RANGE(1, ?);";
+    // the records of the initial schema had timestamps in milliseconds and no unique records (see migrateRecordsTimeToNanos)
+    private static final String SQL_ADD_COLUMN_RECORDS_TIME_NANOS = "ALTER TABLE records ADD COLUMN IF NOT EXISTS timenanos bigint;";
+    private static final String SQL_SELECT_RECORDS_TIMESTAMPS = "SELECT id, time, metrictype, hostname FROM records "
+            + "ORDER BY metrictype, hostname, time, id;";
+    private static final String SQL_UPDATE_RECORDS_TIME_NANOS = "UPDATE records SET timenanos = ? WHERE id = ?;";
+    private static final String SQL_DROP_COLUMN_RECORDS_TIME = "ALTER TABLE records DROP COLUMN time;";
+    private static final String SQL_RENAME_COLUMN_RECORDS_TIME_NANOS = "ALTER TABLE records ALTER COLUMN timenanos RENAME TO time;";
+    private static final String SQL_RENAME_COLUMN_RECORDS_TIME_NANOS_PGSQL = "ALTER TABLE records RENAME COLUMN timenanos TO time;";
+    private static final String SQL_SET_NOT_NULL_RECORDS_TIME = "ALTER TABLE records ALTER COLUMN time SET NOT NULL;";
+    private static final String SQL_ADD_CONSTRAINT_UNIQUE_RECORDS = "ALTER TABLE records ADD CONSTRAINT unique_records UNIQUE (time, metrictype, hostname);";
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+    // also created on the head tables of new time partitions (see TimePartitions)
+    static final String SQL_CREATE_INDEX_RECORDS_METRICTYPE_TIME = "CREATE INDEX IF NOT EXISTS records_metrictype_time ON records (metrictype, time, id);";
+    static final String SQL_CREATE_INDEX_METRICS_NAME_RECORDID = "CREATE INDEX IF NOT EXISTS metrics_name_recordid ON metrics (name, recordid, numericvalue);";
+    /**
+     * Migrations of the tables of the database for the monitoring data
+     * ordered by their schema versions, which start from one and have no gaps.
+     * New migrations must be appended to the end as the applied migrations are
+     * recorded in the database and never applied again. The SQL statements of
+     * the migrations are compatible with both H2 and PostgreSQL and each
+     * migration can be applied again after it has been applied partially
+     * (see <code>SchemaMigration</code>). The first
+     * migration also converts the records of the initial schema with
+     * timestamps in milliseconds, if any, to nanoseconds (see
+     * <code>migrateRecordsTimeToNanos(Connection)</code>), as the following
+     * migrations expect the nanoseconds.
+     */
+    private static final SchemaMigration[] SCHEMA_MIGRATIONS = {
+        new SchemaMigration(1, "nanosecond times of records, unique records, and covering indexes for advisor queries",
+        // the advisors select records by metric types and intervals of time and join their metrics by names
+        SQL_CREATE_INDEX_RECORDS_METRICTYPE_TIME,
+        SQL_CREATE_INDEX_METRICS_NAME_RECORDID,
+        "ANALYZE;"),
+        new SchemaMigration(2, "typed tables of ProgramRuntime and SendReceive records",
+        concat(TypedMetricTables.getCreateTablesSql(), TypedMetricTables.getMaterializeAllSql())),
+        new SchemaMigration(3, "rollup tables of the typed tables by minutes and hours",
+        // the rollup tables are emptied first as the rollup of all records is not idempotent
+        concat(RollupTables.getCreateTablesSql(), concat(RollupTables.getDeleteAllSql(), RollupTables.getRollupAllSql()))),
+        new SchemaMigration(4, "time partitions of the records and views of all partitions",
+        concat(TimePartitions.getCreateTablesSql(),
+        // the keys are deleted by ranges of record IDs of dropped partitions
+        "CREATE INDEX IF NOT EXISTS program_runtime_keys_recordid ON program_runtime_keys (recordid);"))
+    };
+    /**
+     * The schema version of the rollup tables, which are maintained together
+     * with the typed tables since this version.
+     */
+    private static final int ROLLUP_TABLES_SCHEMA_VERSION = 3;
+    /**
+     * The schema version of the time partitions and the views of all
+     * partitions, which are read since this version.
+     */
+    private static final int TIME_PARTITIONS_SCHEMA_VERSION = 4;
+    /**
+     * The schema version of the nanosecond times and the unique records, which
+     * are converted from the timestamps of the initial schema by this version.
+     */
+    private static final int NANOSECOND_TIMES_SCHEMA_VERSION = 1;
 
     /**
      * Create an actions provider for a particular JDBC connection.
@@ -134,30 +243,458 @@ public class MonitoringDbActionsForH2 extends MonitoringDbActionsAbstract implem
     }
 
     /**
-     * Create tables of the database for the monitoring data.
+     * Check if a given JDBC URL can be opened by more connections. A private
+     * in-memory H2 database (i.e., "jdbc:h2:mem:" without a name) is visible
+     * to its single connection only.
+     *
+     * @param dbURL the JDBC URL to check
+     * @return <code>false</code> for a private in-memory database,
+     * <code>true</code> otherwise
+     */
+    @Override
+    protected boolean isPoolableUrl(String dbURL) {
+        return !(dbURL.startsWith("jdbc:h2:mem:") && (dbURL.length() == "jdbc:h2:mem:".length()
+                || dbURL.charAt("jdbc:h2:mem:".length()) == ';'));
+    }
+
+    /**
+     * Create tables of the database for the monitoring data and migrate them
+     * to the latest schema version.
      *
      * @param databaseConnection a JDBC connection to the database for the
      * monitoring data
      * @throws SQLException if a database access error occurs
      */
     public static void createDatabaseTables(Connection databaseConnection) throws SQLException {
+        createDatabaseTables(databaseConnection, getLatestSchemaVersion());
+    }
+
+    /**
+     * Create tables of the database for the monitoring data and migrate them
+     * to the latest schema version.
+     *
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public void createDatabaseTables() throws SQLException {
+        createDatabaseTables(this.databaseConnection);
+    }
+
+    /**
+     * Create tables of the database for the monitoring data and migrate them
+     * up to a given schema version. Existing tables are kept and migrated, if
+     * necessary.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param schemaVersion the schema version to migrate to (zero for the
+     * initial schema version without migrations)
+     * @throws SQLException if a database access error occurs
+     */
+    public static void createDatabaseTables(Connection databaseConnection, int schemaVersion) throws SQLException {
         try (final Statement statement = databaseConnection.createStatement()) {
             statement.addBatch(SQL_CREATE_TABLE_RECORDS);
             statement.addBatch(SQL_CREATE_TABLE_METRICS);
+            statement.addBatch(SQL_CREATE_TABLE_PROGRAM_RUNTIME_KEYS);
+            statement.addBatch(SQL_CREATE_TABLE_IMPORTS);
+            statement.addBatch(SQL_CREATE_TABLE_SCHEMA_VERSION);
             // disabled as it is not utilized and due to non-standardized SQL
             //statement.addBatch(SQL_CREATE_ALIAS_SECONDS);
             statement.executeBatch();
         }
+        migrateDatabaseTables(databaseConnection, schemaVersion);
     }
 
     /**
-     * Create tables of the database for the monitoring data.
+     * Create tables of the database for the monitoring data and migrate them
+     * up to a given schema version. Existing tables are kept and migrated, if
+     * necessary.
      *
+     * @param schemaVersion the schema version to migrate to (zero for the
+     * initial schema version without migrations)
      * @throws SQLException if a database access error occurs
      */
     @Override
-    public void createDatabaseTables() throws SQLException {
-        createDatabaseTables(this.databaseConnection);
+    public void createDatabaseTables(int schemaVersion) throws SQLException {
+        createDatabaseTables(this.databaseConnection, schemaVersion);
+    }
+
+    private static String[] concat(String[] first, String... second) {
+        final String[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Get the latest schema version of tables of the database for the
+     * monitoring data, i.e., the version of the last migration.
+     *
+     * @return the latest schema version
+     */
+    public static int getLatestSchemaVersion() {
+        return SCHEMA_MIGRATIONS.length;
+    }
+
+    /**
+     * Get the current schema version of tables of the database for the
+     * monitoring data, i.e., the version of the last applied migration.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @return the current schema version (zero for the initial schema version
+     * without migrations)
+     * @throws SQLException if a database access error occurs
+     */
+    public static int getSchemaVersion(Connection databaseConnection) throws SQLException {
+        try (final Statement statement = databaseConnection.createStatement();
+                final ResultSet resultSet = statement.executeQuery(SQL_SELECT_SCHEMA_VERSION)) {
+            // MAX of no rows is NULL which is returned as zero
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Get the current schema version of tables of the database for the
+     * monitoring data, i.e., the version of the last applied migration.
+     *
+     * @return the current schema version (zero for the initial schema version
+     * without migrations)
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public int getSchemaVersion() throws SQLException {
+        return getSchemaVersion(this.databaseConnection);
+    }
+
+    /**
+     * Migrate tables of the database for the monitoring data from the current
+     * schema version up to a given schema version. Each migration is recorded
+     * after all its SQL statements have been executed. The statements are
+     * executed in a transaction per migration, however, H2 commits each DDL
+     * statement implicitly, so a failed migration may be applied partially.
+     * As the statements of each migration can be executed again (e.g., by
+     * <code>IF NOT EXISTS</code> or by emptying the tables they fill), a
+     * failed migration is applied again as a whole by the next migration of
+     * the tables.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param schemaVersion the schema version to migrate to
+     * @return the number of applied migrations
+     * @throws SQLException if a database access error occurs
+     */
+    public static int migrateDatabaseTables(Connection databaseConnection, int schemaVersion) throws SQLException {
+        final int currentSchemaVersion = getSchemaVersion(databaseConnection);
+        final int targetSchemaVersion = Math.min(schemaVersion, getLatestSchemaVersion());
+        if (currentSchemaVersion >= targetSchemaVersion) {
+            return 0;
+        }
+        final boolean autoCommit = databaseConnection.getAutoCommit();
+        databaseConnection.setAutoCommit(false);
+        try (final Statement statement = databaseConnection.createStatement();
+                final PreparedStatement preparedStatement = databaseConnection.prepareStatement(SQL_INSERT_SCHEMA_VERSION)) {
+            for (int version = currentSchemaVersion + 1; version <= targetSchemaVersion; version++) {
+                final SchemaMigration schemaMigration = SCHEMA_MIGRATIONS[version - 1];
+                try {
+                    if (version == NANOSECOND_TIMES_SCHEMA_VERSION) {
+                        migrateRecordsTimeToNanos(databaseConnection);
+                    }
+                    for (String sqlStatement : schemaMigration.sqlStatements) {
+                        statement.execute(sqlStatement);
+                    }
+                    preparedStatement.setInt(1, schemaMigration.version);
+                    preparedStatement.setString(2, schemaMigration.description);
+                    preparedStatement.setLong(3, System.currentTimeMillis() * 1000000L);
+                    preparedStatement.executeUpdate();
+                    databaseConnection.commit();
+                }
+                catch (SQLException ex) {
+                    databaseConnection.rollback();
+                    throw ex;
+                }
+            }
+        }
+        finally {
+            databaseConnection.setAutoCommit(autoCommit);
+        }
+        return targetSchemaVersion - currentSchemaVersion;
+    }
+
+    /**
+     * Get a type of a given column of a given table of the database for the
+     * monitoring data.
+     *
+     * @param databaseMetaData metadata of the database for the monitoring data
+     * @param tableName the name of the table
+     * @param columnName the name of the column
+     * @return the SQL type of the column from <code>java.sql.Types</code> or
+     * <code>null</code> if there is no such column
+     * @throws SQLException if a database access error occurs
+     */
+    private static Integer getColumnType(DatabaseMetaData databaseMetaData, String tableName, String columnName) throws SQLException {
+        final boolean upperCase = databaseMetaData.storesUpperCaseIdentifiers();
+        try (final ResultSet resultSet = databaseMetaData.getColumns(null, null,
+                upperCase ? tableName.toUpperCase() : tableName, upperCase ? columnName.toUpperCase() : columnName)) {
+            return resultSet.next() ? resultSet.getInt("DATA_TYPE") : null;
+        }
+    }
+
+    /**
+     * Check if there is a unique index of the records by their times, metric
+     * types, and hostnames (i.e., by constraint <code>unique_records</code>).
+     *
+     * @param databaseMetaData metadata of the database for the monitoring data
+     * @return <code>true</code> if there is the unique index,
+     * <code>false</code> otherwise
+     * @throws SQLException if a database access error occurs
+     */
+    private static boolean hasUniqueRecords(DatabaseMetaData databaseMetaData) throws SQLException {
+        final String tableName = databaseMetaData.storesUpperCaseIdentifiers() ? "RECORDS" : "records";
+        final Map<String, Set<String>> columnsByIndexes = new HashMap<>();
+        try (final ResultSet resultSet = databaseMetaData.getIndexInfo(null, null, tableName, true, false)) {
+            while (resultSet.next()) {
+                final String indexName = resultSet.getString("INDEX_NAME");
+                final String columnName = resultSet.getString("COLUMN_NAME");
+                if ((indexName != null) && (columnName != null)) {
+                    Set<String> columns = columnsByIndexes.get(indexName);
+                    if (columns == null) {
+                        columns = new HashSet<>();
+                        columnsByIndexes.put(indexName, columns);
+                    }
+                    columns.add(columnName.toLowerCase());
+                }
+            }
+        }
+        return columnsByIndexes.containsValue(new HashSet<>(Arrays.asList("time", "metrictype", "hostname")));
+    }
+
+    /**
+     * Convert timestamps of records of the initial schema, i.e., column
+     * <code>records.time</code> of type timestamp in milliseconds, into
+     * nanoseconds since the epoch and add constraint
+     * <code>unique_records</code>, which has been disabled in the initial
+     * schema. A bigint column is added, backfilled from the timestamps, and
+     * renamed in place of the dropped timestamp column. The records with the
+     * same timestamp, metric type, and hostname (i.e., generated in the same
+     * millisecond) get the following nanoseconds in the order of their IDs.
+     * Each step is skipped if it has been already done, so the conversion can
+     * be restarted after a failure. Tables created in nanoseconds are kept.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @throws SQLException if a database access error occurs
+     */
+    static void migrateRecordsTimeToNanos(Connection databaseConnection) throws SQLException {
+        final DatabaseMetaData databaseMetaData = databaseConnection.getMetaData();
+        final Integer timeType = getColumnType(databaseMetaData, "records", "time");
+        try (final Statement statement = databaseConnection.createStatement()) {
+            if ((timeType != null) && ((timeType == Types.TIMESTAMP) || (timeType == Types.DATE))) {
+                statement.execute(SQL_ADD_COLUMN_RECORDS_TIME_NANOS);
+                // all records are backfilled as the previous records of each metric type and hostname are needed
+                try (final Statement selectStatement = databaseConnection.createStatement();
+                        final ResultSet resultSet = selectStatement.executeQuery(SQL_SELECT_RECORDS_TIMESTAMPS);
+                        final PreparedStatement preparedStatement = databaseConnection.prepareStatement(SQL_UPDATE_RECORDS_TIME_NANOS)) {
+                    String previousMetricType = null;
+                    String previousHostname = null;
+                    long previousTimeNanos = Long.MIN_VALUE;
+                    int batchSize = 0;
+                    while (resultSet.next()) {
+                        final Timestamp timestamp = resultSet.getTimestamp(2);
+                        final String metricType = resultSet.getString(3);
+                        final String hostname = resultSet.getString(4);
+                        // the milliseconds are in the time, the nanoseconds below them are given by the timestamp
+                        long timeNanos = timestamp.getTime() * 1000000L + timestamp.getNanos() % 1000000;
+                        if ((timeNanos <= previousTimeNanos) && Objects.equals(metricType, previousMetricType)
+                                && Objects.equals(hostname, previousHostname)) {
+                            timeNanos = previousTimeNanos + 1;
+                        }
+                        previousMetricType = metricType;
+                        previousHostname = hostname;
+                        previousTimeNanos = timeNanos;
+                        preparedStatement.setLong(1, timeNanos);
+                        preparedStatement.setInt(2, resultSet.getInt(1));
+                        preparedStatement.addBatch();
+                        if (++batchSize >= BACKFILL_BATCH_SIZE) {
+                            preparedStatement.executeBatch();
+                            batchSize = 0;
+                        }
+                    }
+                    if (batchSize > 0) {
+                        preparedStatement.executeBatch();
+                    }
+                }
+                statement.execute(SQL_DROP_COLUMN_RECORDS_TIME);
+            }
+            // the timestamp column may have been dropped before a failure
+            if (getColumnType(databaseMetaData, "records", "timenanos") != null) {
+                statement.execute("PostgreSQL".equals(databaseMetaData.getDatabaseProductName())
+                        ? SQL_RENAME_COLUMN_RECORDS_TIME_NANOS_PGSQL : SQL_RENAME_COLUMN_RECORDS_TIME_NANOS);
+                statement.execute(SQL_SET_NOT_NULL_RECORDS_TIME);
+            }
+            if (!hasUniqueRecords(databaseMetaData)) {
+                statement.execute(SQL_ADD_CONSTRAINT_UNIQUE_RECORDS);
+            }
+        }
+    }
+
+    /**
+     * Migrate tables of the database for the monitoring data from the current
+     * schema version up to a given schema version.
+     *
+     * @param schemaVersion the schema version to migrate to
+     * @return the number of applied migrations
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public int migrateDatabaseTables(int schemaVersion) throws SQLException {
+        return migrateDatabaseTables(this.databaseConnection, schemaVersion);
+    }
+
+    /**
+     * Migrate tables of the database for the monitoring data from the current
+     * schema version to the latest schema version.
+     *
+     * @return the number of applied migrations
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public int migrateDatabaseTables() throws SQLException {
+        return migrateDatabaseTables(this.databaseConnection, getLatestSchemaVersion());
+    }
+
+    /**
+     * Materialize all records of known metric types which are missing in
+     * typed tables of the database for the monitoring data (e.g., records
+     * inserted by monitoring agents directly or imported from SQL dumps) and
+     * roll them up into the rollup tables (if the schema version has them).
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @return the number of materialized records
+     * @throws SQLException if a database access error occurs
+     */
+    public static long materializeTypedMetricTables(Connection databaseConnection) throws SQLException {
+        if (getSchemaVersion(databaseConnection) < ROLLUP_TABLES_SCHEMA_VERSION) {
+            long result = 0;
+            try (final Statement statement = databaseConnection.createStatement()) {
+                for (String sqlStatement : TypedMetricTables.getMaterializeAllSql()) {
+                    result += statement.executeUpdate(sqlStatement);
+                }
+            }
+            return result;
+        }
+        // roll up the materialized records in the same transaction
+        final boolean autoCommit = databaseConnection.getAutoCommit();
+        databaseConnection.setAutoCommit(false);
+        try (final Statement statement = databaseConnection.createStatement();
+                final RollupTables rollupTables = new RollupTables(databaseConnection)) {
+            rollupTables.invalidateUnmaterializedRecords();
+            long result = 0;
+            for (String sqlStatement : TypedMetricTables.getMaterializeAllSql()) {
+                result += statement.executeUpdate(sqlStatement);
+            }
+            rollupTables.refresh();
+            databaseConnection.commit();
+            return result;
+        }
+        catch (SQLException ex) {
+            databaseConnection.rollback();
+            throw ex;
+        }
+        finally {
+            databaseConnection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Materialize all records of known metric types which are missing in
+     * typed tables of the database for the monitoring data (e.g., records
+     * inserted by monitoring agents directly or imported from SQL dumps) and
+     * roll them up into the rollup tables (if the schema version has them).
+     *
+     * @return the number of materialized records
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public long materializeTypedMetricTables() throws SQLException {
+        return materializeTypedMetricTables(this.databaseConnection);
+    }
+
+    /**
+     * Rotate the head tables of the records into a new time partition if
+     * their records span a given length of a partition (see
+     * <code>TimePartitions</code>).
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param partitionLengthNanos the length of a partition in nanoseconds
+     * @return the ID of the new partition or zero if the head tables have not
+     * been rotated
+     * @throws SQLException if a database access error occurs
+     */
+    public static int rotateTimePartitions(Connection databaseConnection, long partitionLengthNanos) throws SQLException {
+        if (getSchemaVersion(databaseConnection) < TIME_PARTITIONS_SCHEMA_VERSION) {
+            throw new SQLException("The monitoring database must be migrated to schema version "
+                    + TIME_PARTITIONS_SCHEMA_VERSION + " to be partitioned.");
+        }
+        return TimePartitions.rotate(databaseConnection, partitionLengthNanos);
+    }
+
+    /**
+     * Rotate the head tables of the records into a new time partition if
+     * their records span the length of a partition.
+     *
+     * @return the ID of the new partition or zero if the head tables have not
+     * been rotated (e.g., the records are not partitioned)
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public int rotateTimePartitions() throws SQLException {
+        return rotateTimePartitions(this.databaseConnection, this.getPartitionLengthNanos());
+    }
+
+    /**
+     * Drop the time partitions whose all records are older than a given time.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param timestampNanos the time in nanoseconds since the epoch
+     * @return the number of dropped partitions
+     * @throws SQLException if a database access error occurs
+     */
+    public static int dropTimePartitions(Connection databaseConnection, long timestampNanos) throws SQLException {
+        if (getSchemaVersion(databaseConnection) < TIME_PARTITIONS_SCHEMA_VERSION) {
+            return 0;
+        }
+        return TimePartitions.drop(databaseConnection, timestampNanos);
+    }
+
+    /**
+     * Drop the time partitions whose all records are older than a given time.
+     *
+     * @param timestampNanos the time in nanoseconds since the epoch
+     * @return the number of dropped partitions
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public int dropTimePartitions(long timestampNanos) throws SQLException {
+        return dropTimePartitions(this.databaseConnection, timestampNanos);
+    }
+
+    /**
+     * Drop the time partitions whose all records are older than the retention
+     * period.
+     *
+     * @return the number of dropped partitions or zero if the partitions are
+     * kept forever
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public int dropExpiredTimePartitions() throws SQLException {
+        if (this.getRetentionNanos() <= 0) {
+            return 0;
+        }
+        return dropTimePartitions(this.databaseConnection, System.currentTimeMillis() * 1000000L - this.getRetentionNanos());
     }
 
     /**
@@ -168,8 +705,22 @@ public class MonitoringDbActionsForH2 extends MonitoringDbActionsAbstract implem
      * @throws SQLException if a database access error occurs
      */
     public static void dropDatabaseTables(Connection databaseConnection) throws SQLException {
+        // the partitions are read from a table before the batch
+        final String[] dropTimePartitionsSql = TimePartitions.getDropTablesSql(databaseConnection);
         try (final Statement statement = databaseConnection.createStatement()) {
             //statement.addBatch(SQL_DROP_ALIAS_SECONDS);
+            for (String sqlStatement : dropTimePartitionsSql) {
+                statement.addBatch(sqlStatement);
+            }
+            statement.addBatch(SQL_DROP_TABLE_SCHEMA_VERSION);
+            statement.addBatch(SQL_DROP_TABLE_IMPORTS);
+            statement.addBatch(SQL_DROP_TABLE_PROGRAM_RUNTIME_KEYS);
+            for (String sqlStatement : RollupTables.getDropTablesSql()) {
+                statement.addBatch(sqlStatement);
+            }
+            for (String sqlStatement : TypedMetricTables.getDropTablesSql()) {
+                statement.addBatch(sqlStatement);
+            }
             statement.addBatch(SQL_DROP_TABLE_METRICS);
             statement.addBatch(SQL_DROP_TABLE_RECORDS);
             statement.executeBatch();
@@ -249,8 +800,20 @@ public class MonitoringDbActionsForH2 extends MonitoringDbActionsAbstract implem
                 compression = "";
         }
         try (final Statement statement = databaseConnection.createStatement()) {
+            // the dump replaces the tables with their indexes, so the applied migrations are given by the dump
+            statement.execute(SQL_CREATE_TABLE_SCHEMA_VERSION);
+            statement.execute(SQL_DELETE_FROM_SCHEMA_VERSION);
             statement.execute("RUNSCRIPT FROM '" + importSqlScriptFilename + "'" + compression + ";");
         }
+        // migrate the tables of the dump if it is of a previous schema version
+        createDatabaseTables(databaseConnection);
+        if (getSchemaVersion(databaseConnection) >= TIME_PARTITIONS_SCHEMA_VERSION) {
+            try (final Statement statement = databaseConnection.createStatement()) {
+                for (String sqlStatement : TimePartitions.getCreateViewsSql(databaseConnection)) {
+                    statement.execute(sqlStatement);
+                }
+            }
+        }
     }
 
     /**
@@ -298,8 +861,21 @@ public class MonitoringDbActionsForH2 extends MonitoringDbActionsAbstract implem
      * @throws SQLException if a database access error occurs
      */
     public static void cleanDatabaseTables(Connection databaseConnection) throws SQLException {
+        if (getSchemaVersion(databaseConnection) >= TIME_PARTITIONS_SCHEMA_VERSION) {
+            TimePartitions.drop(databaseConnection, Long.MAX_VALUE);
+        }
         try (final Statement statement = databaseConnection.createStatement()) {
             statement.execute(SQL_DELETE_FROM_RECORDS);
+            // the keys are not deleted in cascade with the records since the first time partition
+            statement.execute(SQL_DELETE_FROM_PROGRAM_RUNTIME_KEYS);
+            // the rollup tables are not deleted in cascade with the records
+            if (getSchemaVersion(databaseConnection) >= ROLLUP_TABLES_SCHEMA_VERSION) {
+                for (String sqlStatement : RollupTables.getDeleteAllSql()) {
+                    statement.execute(sqlStatement);
+                }
+            }
+            // the next imports will be complete
+            statement.execute(SQL_DELETE_FROM_IMPORTS);
         }
     }
 
@@ -313,4 +889,158 @@ public class MonitoringDbActionsForH2 extends MonitoringDbActionsAbstract implem
         cleanDatabaseTables(this.databaseConnection);
     }
 
+    /**
+     * Import records from a local binary log written by
+     * <code>MonitoringAgentForBinaryLog</code> into the database for the
+     * monitoring data. Method <code>createDatabaseTables()</code> should be
+     * invoked before to create tables for the imported data.
+     *
+     * @param binaryLogDirectoryName a local directory of the binary log to
+     * import records from
+     * @return the number of imported records
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if the binary log cannot be read
+     */
+    @Override
+    public long importBinaryLog(String binaryLogDirectoryName) throws SQLException, IOException {
+        return new MonitoringBinaryLogLoader(this).load(binaryLogDirectoryName);
+    }
+
+    /**
+     * Get a high-watermark of imports of a given application from a monitoring
+     * service.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param applicationId the application ID
+     * @return the high-watermark or null if the application has not been
+     * imported yet
+     * @throws SQLException if a database access error occurs
+     */
+    public static ImportWatermark getImportWatermark(Connection databaseConnection, String applicationId) throws SQLException {
+        try (final PreparedStatement preparedStatement = databaseConnection.prepareStatement(SQL_SELECT_IMPORT_WATERMARK)) {
+            preparedStatement.setString(1, applicationId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? new ImportWatermark(resultSet.getLong(1), resultSet.getInt(2)) : null;
+            }
+        }
+    }
+
+    /**
+     * Get a high-watermark of imports of a given application from a monitoring
+     * service.
+     *
+     * @param applicationId the application ID
+     * @return the high-watermark or null if the application has not been
+     * imported yet
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public ImportWatermark getImportWatermark(String applicationId) throws SQLException {
+        return getImportWatermark(this.databaseConnection, applicationId);
+    }
+
+    /**
+     * Set a high-watermark of imports of a given application from a monitoring
+     * service.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param applicationId the application ID
+     * @param importWatermark the high-watermark
+     * @throws SQLException if a database access error occurs
+     */
+    public static void setImportWatermark(Connection databaseConnection, String applicationId, ImportWatermark importWatermark) throws SQLException {
+        // UPDATE or INSERT instead of non-standardized MERGE
+        try (final PreparedStatement preparedStatement = databaseConnection.prepareStatement(SQL_UPDATE_IMPORT_WATERMARK)) {
+            preparedStatement.setLong(1, importWatermark.timestampNanos);
+            preparedStatement.setInt(2, importWatermark.recordId);
+            preparedStatement.setString(3, applicationId);
+            if (preparedStatement.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (final PreparedStatement preparedStatement = databaseConnection.prepareStatement(SQL_INSERT_IMPORT_WATERMARK)) {
+            preparedStatement.setLong(1, importWatermark.timestampNanos);
+            preparedStatement.setInt(2, importWatermark.recordId);
+            preparedStatement.setString(3, applicationId);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Set a high-watermark of imports of a given application from a monitoring
+     * service.
+     *
+     * @param applicationId the application ID
+     * @param importWatermark the high-watermark
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public void setImportWatermark(String applicationId, ImportWatermark importWatermark) throws SQLException {
+        setImportWatermark(this.databaseConnection, applicationId, importWatermark);
+    }
+
+    /**
+     * Allocate IDs for a given number of new records from a sequence of the
+     * records table, so the records can be inserted with the IDs in a batch.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param count the number of IDs to allocate
+     * @return the allocated IDs
+     * @throws SQLException if a database access error occurs
+     */
+    public static int[] allocateRecordIds(Connection databaseConnection, int count) throws SQLException {
+        String sequenceName = null;
+        try (final Statement statement = databaseConnection.createStatement();
+                final ResultSet resultSet = statement.executeQuery(SQL_SELECT_RECORDS_SEQUENCE)) {
+            if (resultSet.next()) {
+                sequenceName = resultSet.getString(1);
+            }
+        }
+        if (sequenceName == null) {
+            throw new SQLException("Cannot find a sequence of the records table in the monitoring database.");
+        }
+        try (final PreparedStatement preparedStatement = databaseConnection.prepareStatement(String.format(SQL_SELECT_NEXT_IDS, sequenceName))) {
+            return allocateRecordIds(preparedStatement, count);
+        }
+    }
+
+    /**
+     * Allocate IDs for a given number of new records by a given prepared
+     * statement returning the IDs for a given count as its only parameter.
+     *
+     * @param preparedStatement a prepared statement to select the IDs
+     * @param count the number of IDs to allocate
+     * @return the allocated IDs
+     * @throws SQLException if a database access error occurs
+     */
+    protected static int[] allocateRecordIds(PreparedStatement preparedStatement, int count) throws SQLException {
+        final int[] recordIds = new int[count];
+        preparedStatement.setInt(1, count);
+        try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+            for (int i = 0; i < count; i++) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Cannot allocate IDs of the records in the monitoring database.");
+                }
+                recordIds[i] = resultSet.getInt(1);
+            }
+        }
+        return recordIds;
+    }
+
+    /**
+     * Allocate IDs for a given number of new records from a sequence of the
+     * records table, so the records can be inserted with the IDs in a batch.
+     *
+     * @param count the number of IDs to allocate
+     * @return the allocated IDs
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public int[] allocateRecordIds(int count) throws SQLException {
+        return allocateRecordIds(this.databaseConnection, count);
+    }
+
 }
@@ -28,6 +28,7 @@
 package eu.juniper.sa.deployment.monitor.db;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 /**
@@ -40,6 +41,8 @@ import java.sql.SQLException;
  */
 public class MonitoringDbActionsForPgSQL extends MonitoringDbActionsForH2 implements MonitoringDbActionsInterface {
 
+    private static final String SQL_SELECT_NEXT_IDS = "SELECT nextval(pg_get_serial_sequence('records', 'id')) FROM generate_series(1, ?);";
+
     /**
      * Create an actions provider for a particular JDBC connection.
      *
@@ -110,4 +113,19 @@ public class MonitoringDbActionsForPgSQL extends MonitoringDbActionsForH2 implem
         throw new UnsupportedOperationException("Method not implemented.");
     }
 
+    /**
+     * Allocate IDs for a given number of new records from a sequence of the
+     * records table, so the records can be inserted with the IDs in a batch.
+     *
+     * @param count the number of IDs to allocate
+     * @return the allocated IDs
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public int[] allocateRecordIds(int count) throws SQLException {
+        try (final PreparedStatement preparedStatement = this.databaseConnection.prepareStatement(SQL_SELECT_NEXT_IDS)) {
+            return allocateRecordIds(preparedStatement, count);
+        }
+    }
+
 }
@@ -27,8 +27,10 @@
  */
 package eu.juniper.sa.deployment.monitor.db;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import javax.sql.DataSource;
 
 /**
  * Interface with methods of actions that are specific for particular types of
@@ -40,12 +42,129 @@ import java.sql.SQLException;
 public interface MonitoringDbActionsInterface {
 
     /**
-     * Create tables of the database for the monitoring data.
+     * Create tables of the database for the monitoring data and migrate them
+     * to the latest schema version.
      *
      * @throws SQLException if a database access error occurs
      */
     void createDatabaseTables() throws SQLException;
 
+    /**
+     * Create tables of the database for the monitoring data and migrate them
+     * up to a given schema version. Existing tables are kept and migrated, if
+     * necessary.
+     *
+     * @param schemaVersion the schema version to migrate to (zero for the
+     * initial schema version without migrations)
+     * @throws SQLException if a database access error occurs
+     */
+    void createDatabaseTables(int schemaVersion) throws SQLException;
+
+    /**
+     * Get the current schema version of tables of the database for the
+     * monitoring data, i.e., the version of the last applied migration.
+     *
+     * @return the current schema version (zero for the initial schema version
+     * without migrations)
+     * @throws SQLException if a database access error occurs
+     */
+    int getSchemaVersion() throws SQLException;
+
+    /**
+     * Migrate tables of the database for the monitoring data from the current
+     * schema version up to a given schema version.
+     *
+     * @param schemaVersion the schema version to migrate to
+     * @return the number of applied migrations
+     * @throws SQLException if a database access error occurs
+     */
+    int migrateDatabaseTables(int schemaVersion) throws SQLException;
+
+    /**
+     * Migrate tables of the database for the monitoring data from the current
+     * schema version to the latest schema version.
+     *
+     * @return the number of applied migrations
+     * @throws SQLException if a database access error occurs
+     */
+    int migrateDatabaseTables() throws SQLException;
+
+    /**
+     * Materialize all records of known metric types which are missing in
+     * typed tables of the database for the monitoring data (e.g., records
+     * inserted by monitoring agents directly or imported from SQL dumps) and
+     * roll them up into the rollup tables. The records inserted by
+     * <code>importBinaryLog(...)</code> and by the loaders are materialized and
+     * rolled up at their insertion.
+     *
+     * @return the number of materialized records
+     * @throws SQLException if a database access error occurs
+     */
+    long materializeTypedMetricTables() throws SQLException;
+
+    /**
+     * Get a length of time partitions of the records (see
+     * <code>TimePartitions</code>).
+     *
+     * @return the length of a partition in nanoseconds or zero if the records
+     * are not partitioned
+     */
+    long getPartitionLengthNanos();
+
+    /**
+     * Set a length of time partitions of the records (see
+     * <code>TimePartitions</code>).
+     *
+     * @param partitionLengthNanos the length of a partition in nanoseconds or
+     * zero if the records should not be partitioned
+     */
+    void setPartitionLengthNanos(long partitionLengthNanos);
+
+    /**
+     * Get a retention period of the time partitions of the records.
+     *
+     * @return the retention period in nanoseconds or zero if the partitions
+     * are kept forever
+     */
+    long getRetentionNanos();
+
+    /**
+     * Set a retention period of the time partitions of the records.
+     *
+     * @param retentionNanos the retention period in nanoseconds or zero if the
+     * partitions should be kept forever
+     */
+    void setRetentionNanos(long retentionNanos);
+
+    /**
+     * Rotate the head tables of the records into a new time partition if
+     * their records span the length of a partition.
+     *
+     * @return the ID of the new partition or zero if the head tables have not
+     * been rotated (e.g., the records are not partitioned)
+     * @throws SQLException if a database access error occurs
+     */
+    int rotateTimePartitions() throws SQLException;
+
+    /**
+     * Drop the time partitions whose all records are older than a given time.
+     *
+     * @param timestampNanos the time in nanoseconds since the epoch
+     * @return the number of dropped partitions
+     * @throws SQLException if a database access error occurs
+     */
+    int dropTimePartitions(long timestampNanos) throws SQLException;
+
+    /**
+     * Drop the time partitions whose all records are older than the retention
+     * period.
+     *
+     * @return the number of dropped partitions or zero if the partitions are
+     * kept forever
+     * @throws SQLException if a database access error occurs
+     */
+    int dropExpiredTimePartitions() throws SQLException;
+
     /**
      * Delete the database from a database server.
      *
@@ -88,6 +207,51 @@ public interface MonitoringDbActionsInterface {
      */
     void importDatabase(String importSqlScriptFilename) throws SQLException;
 
+    /**
+     * Import records from a local binary log written by
+     * <code>MonitoringAgentForBinaryLog</code> into the database for the
+     * monitoring data. Method <code>createDatabaseTables()</code> should be
+     * invoked before to create tables for the imported data.
+     *
+     * @param binaryLogDirectoryName a local directory of the binary log to
+     * import records from
+     * @return the number of imported records
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if the binary log cannot be read
+     */
+    long importBinaryLog(String binaryLogDirectoryName) throws SQLException, IOException;
+
+    /**
+     * Allocate IDs for a given number of new records from a sequence of the
+     * records table, so the records can be inserted with the IDs in a batch.
+     *
+     * @param count the number of IDs to allocate
+     * @return the allocated IDs
+     * @throws SQLException if a database access error occurs
+     */
+    int[] allocateRecordIds(int count) throws SQLException;
+
+    /**
+     * Get a high-watermark of imports of a given application from a monitoring
+     * service.
+     *
+     * @param applicationId the application ID
+     * @return the high-watermark or null if the application has not been
+     * imported yet
+     * @throws SQLException if a database access error occurs
+     */
+    ImportWatermark getImportWatermark(String applicationId) throws SQLException;
+
+    /**
+     * Set a high-watermark of imports of a given application from a monitoring
+     * service.
+     *
+     * @param applicationId the application ID
+     * @param importWatermark the high-watermark
+     * @throws SQLException if a database access error occurs
+     */
+    void setImportWatermark(String applicationId, ImportWatermark importWatermark) throws SQLException;
+
     /**
      * Get a JDBC connection for the database of the monitoring data.
      *
@@ -95,6 +259,14 @@ public interface MonitoringDbActionsInterface {
      */
     Connection getDatabaseConnection();
 
+    /**
+     * Get a data source of pooled JDBC connections to the database of the
+     * monitoring data.
+     *
+     * @return the data source of pooled JDBC connections to the database
+     */
+    DataSource getDataSource();
+
     /**
      * Get a class name of a JDBC driver for the database for the monitoring
      * data.
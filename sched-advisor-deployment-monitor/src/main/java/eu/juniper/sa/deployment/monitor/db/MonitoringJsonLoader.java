@@ -0,0 +1,734 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+import eu.juniper.sa.monitoring.agent.MetricRecord;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The class to load records of metrics in JSON provided by a monitoring
+ * service into the records and metrics tables of the database for the
+ * monitoring data. The JSON is processed by a pipeline of two stages connected
+ * by a bounded queue: a parsing thread tokenizes the JSON as a stream
+ * (independently of its layout into lines) and the calling thread inserts the
+ * parsed records in JDBC batches with IDs pre-allocated by
+ * <code>MonitoringDbActionsInterface.allocateRecordIds(int)</code>, each batch
+ * in a single transaction. A record is each JSON object with "timestamp" and
+ * "hostname" keys (case-insensitive), its "type" key is a metric type and
+ * other keys with non-null primitive values are its metrics. Records older
+ * than a given minimal timestamp (e.g., a high-watermark of previous imports)
+ * are skipped by the parsing thread. The records which are not newer than the
+ * latest time partition (see <code>TimePartitions</code>), e.g., the records
+ * read again after a rotation, are looked up in the partitions and the
+ * records already stored there are skipped, since the unique records are
+ * enforced by the head tables only. If a batch fails
+ * (e.g., because of records already stored in the database), its records are
+ * inserted one by one and the failing records are skipped. The loaded
+ * "ProgramRuntime" records are deduplicated by
+ * <code>ProgramRuntimeDeduplicator</code> and the records of known metric
+ * types are materialized by <code>TypedMetricTables</code> and rolled up by
+ * <code>RollupTables</code> in the transactions of their batches.
+ *
+ * @author rychly
+ */
+public class MonitoringJsonLoader {
+
+    /**
+     * Default number of records in a batch (and in a transaction).
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    /**
+     * Default number of parsed records in the queue between the parsing and
+     * the inserting.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private static final String SQL_INSERT_RECORD = "INSERT INTO records(id, time, metrictype, hostname) VALUES (?, ?, ?, ?);";
+    private static final String SQL_INSERT_METRIC = "INSERT INTO metrics(recordid, name, numericvalue, textvalue) VALUES (?, ?, ?, ?);";
+    private static final String SQL_SELECT_STORED_RECORD = "SELECT 1 FROM " + TimePartitions.RECORDS_VIEW
+            + " WHERE time = ? AND hostname = ? AND metrictype = ?;";
+    private static final String SQL_SELECT_STORED_RECORD_WITHOUT_TYPE = "SELECT 1 FROM " + TimePartitions.RECORDS_VIEW
+            + " WHERE time = ? AND hostname = ? AND metrictype IS NULL;";
+    private static final String KEY_TIMESTAMP = "timestamp";
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_HOSTNAME = "hostname";
+    private static final JsonRecord END_OF_RECORDS = new JsonRecord();
+
+    private final MonitoringDbActionsInterface monitoringDbActions;
+    private final int batchSize;
+    private final int queueCapacity;
+    private long minimalTimestampNanos = Long.MIN_VALUE;
+    private long loadedRecords;
+    private long loadedMetrics;
+    private long skippedRecords;
+    private long olderRecords;
+    private long removedRecords;
+    private long latestTimestampNanos;
+    private int latestRecordId;
+    private double duration;
+
+    /**
+     * A record parsed from JSON.
+     */
+    private static final class JsonRecord {
+
+        long timestampNanos = -1;
+        String metricType = null;
+        String hostname = null;
+        boolean malformed = false;
+        final List<String> metricNames = new ArrayList<>();
+        // a text value or null for a numeric value
+        final List<String> textValues = new ArrayList<>();
+        double[] numericValues = new double[16];
+
+        void putMetric(String name, String value, boolean isNumber) {
+            if (this.metricNames.contains(name)) {
+                // the first value of a duplicate key is kept (the metric name is the primary key with the record ID)
+                return;
+            }
+            final int index = this.metricNames.size();
+            if (index == this.numericValues.length) {
+                this.numericValues = Arrays.copyOf(this.numericValues, index * 2);
+            }
+            String textValue = null;
+            try {
+                // also strings with numbers are numeric values
+                this.numericValues[index] = Double.parseDouble(value);
+            }
+            catch (NumberFormatException ex) {
+                if (isNumber) {
+                    this.malformed = true;
+                    return;
+                }
+                textValue = value;
+            }
+            this.metricNames.add(name);
+            this.textValues.add(textValue);
+        }
+
+        double getNumericValue(String name) {
+            final int index = this.metricNames.indexOf(name);
+            return ((index < 0) || (this.textValues.get(index) != null)) ? Double.NaN : this.numericValues[index];
+        }
+
+        boolean isComplete() {
+            return !this.malformed && (this.timestampNanos >= 0) && (this.hostname != null);
+        }
+    }
+
+    /**
+     * Tokens of JSON.
+     */
+    private enum Token {
+
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, LITERAL, NULL, END_OF_DOCUMENT
+    }
+
+    /**
+     * A streaming tokenizer of JSON. The separators (commas and colons) are
+     * skipped, so the tokenizer is lenient to their misplacement.
+     */
+    private static final class JsonTokenizer {
+
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position = 0;
+        private int limit = 0;
+        private final StringBuilder text = new StringBuilder();
+
+        JsonTokenizer(Reader reader) {
+            this.reader = reader;
+        }
+
+        private int read() throws IOException {
+            if (this.position == this.limit) {
+                this.limit = this.reader.read(this.buffer);
+                this.position = 0;
+                if (this.limit <= 0) {
+                    this.limit = 0;
+                    return -1;
+                }
+            }
+            return this.buffer[this.position++];
+        }
+
+        private int peek() throws IOException {
+            final int character = this.read();
+            if (character >= 0) {
+                this.position--;
+            }
+            return character;
+        }
+
+        /**
+         * Read the next token.
+         *
+         * @return the token
+         * @throws IOException if the JSON cannot be read or it is malformed
+         */
+        Token next() throws IOException {
+            int character;
+            do {
+                character = this.read();
+            } while ((character == ' ') || (character == '\t') || (character == '\n') || (character == '\r')
+                    || (character == ',') || (character == ':'));
+            switch (character) {
+                case -1:
+                    return Token.END_OF_DOCUMENT;
+                case '{':
+                    return Token.BEGIN_OBJECT;
+                case '}':
+                    return Token.END_OBJECT;
+                case '[':
+                    return Token.BEGIN_ARRAY;
+                case ']':
+                    return Token.END_ARRAY;
+                case '"':
+                    this.readString();
+                    return Token.STRING;
+                default:
+                    this.text.setLength(0);
+                    this.text.append((char) character);
+                    while (((character = this.peek()) >= 0) && (Character.isLetterOrDigit(character)
+                            || (character == '-') || (character == '+') || (character == '.'))) {
+                        this.text.append((char) this.read());
+                    }
+                    if ("null".contentEquals(this.text)) {
+                        return Token.NULL;
+                    }
+                    if ("true".contentEquals(this.text) || "false".contentEquals(this.text)) {
+                        return Token.LITERAL;
+                    }
+                    final char first = this.text.charAt(0);
+                    if ((first == '-') || ((first >= '0') && (first <= '9'))) {
+                        return Token.NUMBER;
+                    }
+                    throw new IOException("Unexpected characters '" + this.text + "' in JSON.");
+            }
+        }
+
+        private void readString() throws IOException {
+            this.text.setLength(0);
+            int character;
+            while ((character = this.read()) != '"') {
+                if (character < 0) {
+                    throw new IOException("Unterminated string in JSON.");
+                }
+                if (character == '\\') {
+                    character = this.read();
+                    switch (character) {
+                        case 'b':
+                            character = '\b';
+                            break;
+                        case 'f':
+                            character = '\f';
+                            break;
+                        case 'n':
+                            character = '\n';
+                            break;
+                        case 'r':
+                            character = '\r';
+                            break;
+                        case 't':
+                            character = '\t';
+                            break;
+                        case 'u':
+                            character = 0;
+                            for (int i = 0; i < 4; i++) {
+                                final int digit = Character.digit(this.read(), 16);
+                                if (digit < 0) {
+                                    throw new IOException("Malformed unicode escape in JSON.");
+                                }
+                                character = (character << 4) | digit;
+                            }
+                            break;
+                        case -1:
+                            throw new IOException("Unterminated string in JSON.");
+                        default:
+                        // the character itself, e.g., '"', '\\', or '/'
+                    }
+                }
+                this.text.append((char) character);
+            }
+        }
+
+        /**
+         * Get a text of the last string, number, or literal token.
+         *
+         * @return the text
+         */
+        String getText() {
+            return this.text.toString();
+        }
+    }
+
+    /**
+     * The parsing stage of the pipeline.
+     */
+    private static final class Parser implements Runnable {
+
+        private final JsonTokenizer tokenizer;
+        private final BlockingQueue<JsonRecord> queue;
+        private final long minimalTimestampNanos;
+        private volatile Exception exception = null;
+        // read by the inserting stage after the end of records in the queue
+        private long incompleteRecords = 0;
+        private long olderRecords = 0;
+
+        Parser(Reader reader, BlockingQueue<JsonRecord> queue, long minimalTimestampNanos) {
+            this.tokenizer = new JsonTokenizer(reader);
+            this.queue = queue;
+            this.minimalTimestampNanos = minimalTimestampNanos;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Token token;
+                while ((token = this.tokenizer.next()) != Token.END_OF_DOCUMENT) {
+                    this.parseValue(token, null, null);
+                }
+            }
+            catch (IOException | RuntimeException ex) {
+                this.exception = ex;
+            }
+            catch (InterruptedException ex) {
+                // the inserting stage has failed
+                return;
+            }
+            try {
+                this.queue.put(END_OF_RECORDS);
+            }
+            catch (InterruptedException ex) {
+                // the inserting stage has failed
+            }
+        }
+
+        private void parseValue(Token token, JsonRecord record, String key) throws IOException, InterruptedException {
+            switch (token) {
+                case BEGIN_OBJECT:
+                    this.parseObject();
+                    break;
+                case BEGIN_ARRAY:
+                    Token item;
+                    while ((item = this.tokenizer.next()) != Token.END_ARRAY) {
+                        if (item == Token.END_OF_DOCUMENT) {
+                            throw new IOException("Unterminated array in JSON.");
+                        }
+                        // primitive items of arrays are not metrics
+                        this.parseValue(item, null, null);
+                    }
+                    break;
+                case STRING:
+                case NUMBER:
+                case LITERAL:
+                    if ((record != null) && (key != null)) {
+                        this.putValue(record, key, this.tokenizer.getText(), token == Token.NUMBER);
+                    }
+                    break;
+                case NULL:
+                    // null values are skipped
+                    break;
+                default:
+                    throw new IOException("Unexpected " + token + " in JSON.");
+            }
+        }
+
+        private void parseObject() throws IOException, InterruptedException {
+            final JsonRecord record = new JsonRecord();
+            Token token;
+            while ((token = this.tokenizer.next()) != Token.END_OBJECT) {
+                if (token != Token.STRING) {
+                    throw new IOException("Unexpected " + token + " instead of a key in JSON.");
+                }
+                final String key = this.tokenizer.getText();
+                this.parseValue(this.tokenizer.next(), record, key);
+            }
+            if (record.isComplete()) {
+                if (record.timestampNanos < this.minimalTimestampNanos) {
+                    this.olderRecords++;
+                } else {
+                    this.queue.put(record);
+                }
+            } else if ((record.timestampNanos >= 0) || (record.hostname != null) || record.malformed) {
+                // an incomplete record of metrics, not a nested object
+                this.incompleteRecords++;
+            }
+        }
+
+        private void putValue(JsonRecord record, String key, String value, boolean isNumber) {
+            switch (key.toLowerCase()) {
+                case KEY_TIMESTAMP:
+                    try {
+                        record.timestampNanos = MetricRecord.parseTimestampNanos(value);
+                    }
+                    catch (NumberFormatException ex) {
+                        record.malformed = true;
+                    }
+                    break;
+                case KEY_TYPE:
+                    record.metricType = value;
+                    break;
+                case KEY_HOSTNAME:
+                    record.hostname = value;
+                    break;
+                default:
+                    record.putMetric(key, value, isNumber);
+            }
+        }
+    }
+
+    /**
+     * Create a loader into the database of given actions with a given number
+     * of records in a batch and a given capacity of the queue between the
+     * parsing and the inserting.
+     *
+     * @param monitoringDbActions actions of the database for the monitoring
+     * data
+     * @param batchSize a number of records in a batch (and in a transaction)
+     * @param queueCapacity a number of parsed records in the queue
+     */
+    public MonitoringJsonLoader(MonitoringDbActionsInterface monitoringDbActions, int batchSize, int queueCapacity) {
+        this.monitoringDbActions = monitoringDbActions;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Create a loader into the database of given actions with the default
+     * number of records in a batch and the default capacity of the queue.
+     *
+     * @param monitoringDbActions actions of the database for the monitoring
+     * data
+     */
+    public MonitoringJsonLoader(MonitoringDbActionsInterface monitoringDbActions) {
+        this(monitoringDbActions, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Set a minimal timestamp of records to load, older records are skipped.
+     *
+     * @param minimalTimestampNanos the minimal timestamp in nanoseconds since
+     * the epoch or <code>Long.MIN_VALUE</code> to load all records
+     */
+    public void setMinimalTimestampNanos(long minimalTimestampNanos) {
+        this.minimalTimestampNanos = minimalTimestampNanos;
+    }
+
+    /**
+     * Load records of metrics from a given reader of JSON into the database.
+     * The reader is read by a parsing thread, but it is not closed.
+     *
+     * @param reader the reader of JSON
+     * @return the number of loaded records
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if the JSON cannot be read or it is malformed
+     */
+    public long load(Reader reader) throws SQLException, IOException {
+        this.loadedRecords = 0;
+        this.loadedMetrics = 0;
+        this.skippedRecords = 0;
+        this.olderRecords = 0;
+        this.removedRecords = 0;
+        this.latestTimestampNanos = -1;
+        this.latestRecordId = -1;
+        final long start = System.nanoTime();
+        final BlockingQueue<JsonRecord> queue = new ArrayBlockingQueue<>(this.queueCapacity);
+        final Parser parser = new Parser(reader, queue, this.minimalTimestampNanos);
+        final Thread parserThread = new Thread(parser, MonitoringJsonLoader.class.getSimpleName() + "-parser");
+        parserThread.setDaemon(true);
+        parserThread.start();
+        final Connection databaseConnection = this.monitoringDbActions.getDatabaseConnection();
+        final boolean previousAutoCommit = databaseConnection.getAutoCommit();
+        databaseConnection.setAutoCommit(false);
+        try (PreparedStatement preparedStatementRecord = databaseConnection.prepareStatement(SQL_INSERT_RECORD);
+                PreparedStatement preparedStatementMetric = databaseConnection.prepareStatement(SQL_INSERT_METRIC);
+                PreparedStatement preparedStatementStored = databaseConnection.prepareStatement(SQL_SELECT_STORED_RECORD);
+                PreparedStatement preparedStatementStoredWithoutType = databaseConnection.prepareStatement(SQL_SELECT_STORED_RECORD_WITHOUT_TYPE);
+                RollupTables rollupTables = new RollupTables(databaseConnection);
+                ProgramRuntimeDeduplicator programRuntimeDeduplicator = new ProgramRuntimeDeduplicator(databaseConnection, rollupTables);
+                TypedMetricTables typedMetricTables = new TypedMetricTables(databaseConnection)) {
+            final List<JsonRecord> batchedRecords = new ArrayList<>(this.batchSize);
+            int[] recordIds = new int[0];
+            long partitionedTimeNanos = Long.MIN_VALUE;
+            JsonRecord record;
+            while ((record = queue.take()) != END_OF_RECORDS) {
+                if (batchedRecords.size() == recordIds.length) {
+                    // the IDs are allocated per batch, the unused IDs of the last batch make just a gap in the sequence
+                    recordIds = this.monitoringDbActions.allocateRecordIds(this.batchSize);
+                    batchedRecords.clear();
+                    // the head tables may have been rotated since the previous batch
+                    partitionedTimeNanos = TimePartitions.getPartitionedTimeNanos(databaseConnection);
+                }
+                if ((record.timestampNanos <= partitionedTimeNanos)
+                        && isStored(record.metricType == null ? preparedStatementStoredWithoutType : preparedStatementStored, record)) {
+                    this.skippedRecords++;
+                    continue;
+                }
+                addBatch(preparedStatementRecord, preparedStatementMetric, recordIds[batchedRecords.size()], record);
+                batchedRecords.add(record);
+                if (batchedRecords.size() == recordIds.length) {
+                    this.executeBatches(databaseConnection, preparedStatementRecord, preparedStatementMetric, programRuntimeDeduplicator, typedMetricTables, rollupTables,
+                            batchedRecords, recordIds);
+                }
+            }
+            if (batchedRecords.size() < recordIds.length) {
+                this.executeBatches(databaseConnection, preparedStatementRecord, preparedStatementMetric, programRuntimeDeduplicator, typedMetricTables, rollupTables,
+                        batchedRecords, recordIds);
+            }
+            this.skippedRecords += parser.incompleteRecords;
+            this.olderRecords = parser.olderRecords;
+            if (parser.exception instanceof IOException) {
+                throw (IOException) parser.exception;
+            } else if (parser.exception != null) {
+                throw new IOException("Cannot parse JSON.", parser.exception);
+            }
+        }
+        catch (InterruptedException ex) {
+            databaseConnection.rollback();
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading of JSON has been interrupted.", ex);
+        }
+        catch (SQLException | IOException ex) {
+            databaseConnection.rollback();
+            throw ex;
+        }
+        finally {
+            parserThread.interrupt();
+            databaseConnection.setAutoCommit(previousAutoCommit);
+            this.duration = (System.nanoTime() - start) / 1e9;
+        }
+        return this.loadedRecords;
+    }
+
+    private static void addBatch(PreparedStatement preparedStatementRecord, PreparedStatement preparedStatementMetric,
+            int recordId, JsonRecord record) throws SQLException {
+        preparedStatementRecord.setInt(1, recordId);
+        preparedStatementRecord.setLong(2, record.timestampNanos);
+        preparedStatementRecord.setString(3, record.metricType);
+        preparedStatementRecord.setString(4, record.hostname);
+        preparedStatementRecord.addBatch();
+        for (int i = 0; i < record.metricNames.size(); i++) {
+            preparedStatementMetric.setInt(1, recordId);
+            preparedStatementMetric.setString(2, record.metricNames.get(i));
+            final String textValue = record.textValues.get(i);
+            if (textValue == null) {
+                preparedStatementMetric.setDouble(3, record.numericValues[i]);
+                preparedStatementMetric.setNull(4, Types.VARCHAR);
+            } else {
+                preparedStatementMetric.setNull(3, Types.DOUBLE);
+                preparedStatementMetric.setString(4, textValue);
+            }
+            preparedStatementMetric.addBatch();
+        }
+    }
+
+    private static boolean isStored(PreparedStatement preparedStatementStored, JsonRecord record) throws SQLException {
+        preparedStatementStored.setLong(1, record.timestampNanos);
+        preparedStatementStored.setString(2, record.hostname);
+        if (record.metricType != null) {
+            preparedStatementStored.setString(3, record.metricType);
+        }
+        try (ResultSet resultSet = preparedStatementStored.executeQuery()) {
+            return resultSet.next();
+        }
+    }
+
+    private static void addDeduplicated(ProgramRuntimeDeduplicator programRuntimeDeduplicator, int recordId, JsonRecord record) {
+        if (ProgramRuntimeDeduplicator.isDeduplicated(record.metricType)) {
+            programRuntimeDeduplicator.add(recordId, record.timestampNanos,
+                    record.getNumericValue(ProgramRuntimeDeduplicator.RANK_METRIC_NAME),
+                    record.getNumericValue(ProgramRuntimeDeduplicator.START_METRIC_NAME));
+        }
+    }
+
+    private void executeBatches(Connection databaseConnection, PreparedStatement preparedStatementRecord, PreparedStatement preparedStatementMetric,
+            ProgramRuntimeDeduplicator programRuntimeDeduplicator, TypedMetricTables typedMetricTables, RollupTables rollupTables,
+            List<JsonRecord> batchedRecords, int[] recordIds) throws SQLException {
+        try {
+            preparedStatementRecord.executeBatch();
+            preparedStatementMetric.executeBatch();
+            int minimalMaterializedRecordId = Integer.MAX_VALUE;
+            int maximalMaterializedRecordId = Integer.MIN_VALUE;
+            for (int i = 0; i < batchedRecords.size(); i++) {
+                addDeduplicated(programRuntimeDeduplicator, recordIds[i], batchedRecords.get(i));
+                if (TypedMetricTables.isMaterialized(batchedRecords.get(i).metricType)) {
+                    minimalMaterializedRecordId = Math.min(minimalMaterializedRecordId, recordIds[i]);
+                    maximalMaterializedRecordId = Math.max(maximalMaterializedRecordId, recordIds[i]);
+                }
+            }
+            if (minimalMaterializedRecordId <= maximalMaterializedRecordId) {
+                // before the deduplication which deletes the superseded records including their typed rows
+                typedMetricTables.materialize(minimalMaterializedRecordId, maximalMaterializedRecordId);
+                rollupTables.invalidate(minimalMaterializedRecordId, maximalMaterializedRecordId);
+            }
+            final int removed = programRuntimeDeduplicator.flush();
+            rollupTables.refresh();
+            databaseConnection.commit();
+            this.removedRecords += removed;
+            for (int i = 0; i < batchedRecords.size(); i++) {
+                this.recordLoaded(batchedRecords.get(i), recordIds[i]);
+            }
+        }
+        catch (SQLException ex) {
+            // e.g., some of the records are already in the database, so insert the records one by one
+            databaseConnection.rollback();
+            preparedStatementRecord.clearBatch();
+            preparedStatementMetric.clearBatch();
+            programRuntimeDeduplicator.clear();
+            rollupTables.clear();
+            for (int i = 0; i < batchedRecords.size(); i++) {
+                final JsonRecord record = batchedRecords.get(i);
+                final Savepoint savepoint = databaseConnection.setSavepoint();
+                try {
+                    addBatch(preparedStatementRecord, preparedStatementMetric, recordIds[i], record);
+                    preparedStatementRecord.executeBatch();
+                    preparedStatementMetric.executeBatch();
+                    if (TypedMetricTables.isMaterialized(record.metricType)) {
+                        typedMetricTables.materialize(recordIds[i], recordIds[i]);
+                        rollupTables.invalidate(recordIds[i], recordIds[i]);
+                    }
+                    addDeduplicated(programRuntimeDeduplicator, recordIds[i], record);
+                    final int removed = programRuntimeDeduplicator.flush();
+                    databaseConnection.releaseSavepoint(savepoint);
+                    this.removedRecords += removed;
+                    this.recordLoaded(record, recordIds[i]);
+                }
+                catch (SQLException recordException) {
+                    databaseConnection.rollback(savepoint);
+                    preparedStatementRecord.clearBatch();
+                    preparedStatementMetric.clearBatch();
+                    programRuntimeDeduplicator.clear();
+                    this.skippedRecords++;
+                }
+            }
+            // the buckets invalidated by the skipped records are just recomputed without them
+            rollupTables.refresh();
+            databaseConnection.commit();
+        }
+    }
+
+    private void recordLoaded(JsonRecord record, int recordId) {
+        this.loadedRecords++;
+        this.loadedMetrics += record.metricNames.size();
+        this.latestTimestampNanos = Math.max(this.latestTimestampNanos, record.timestampNanos);
+        this.latestRecordId = Math.max(this.latestRecordId, recordId);
+    }
+
+    /**
+     * Get the number of records loaded by the last <code>load(...)</code>.
+     *
+     * @return the number of loaded records
+     */
+    public long getLoadedRecords() {
+        return this.loadedRecords;
+    }
+
+    /**
+     * Get the number of metrics (key-value pairs) of the records loaded by the
+     * last <code>load(...)</code>.
+     *
+     * @return the number of loaded metrics
+     */
+    public long getLoadedMetrics() {
+        return this.loadedMetrics;
+    }
+
+    /**
+     * Get the number of records skipped by the last <code>load(...)</code>
+     * because they are malformed, incomplete, or already in the database.
+     *
+     * @return the number of skipped records
+     */
+    public long getSkippedRecords() {
+        return this.skippedRecords;
+    }
+
+    /**
+     * Get the number of records skipped by the last <code>load(...)</code>
+     * because they are older than the minimal timestamp.
+     *
+     * @return the number of older records
+     */
+    public long getOlderRecords() {
+        return this.olderRecords;
+    }
+
+    /**
+     * Get the number of "ProgramRuntime" records deleted by the last
+     * <code>load(...)</code> as superseded by later records of the same
+     * program run (either records stored before or loaded ones).
+     *
+     * @return the number of deleted records
+     */
+    public long getRemovedRecords() {
+        return this.removedRecords;
+    }
+
+    /**
+     * Get the latest timestamp of records loaded by the last
+     * <code>load(...)</code>.
+     *
+     * @return the latest timestamp in nanoseconds since the epoch or -1 if no
+     * record has been loaded
+     */
+    public long getLatestTimestampNanos() {
+        return this.latestTimestampNanos;
+    }
+
+    /**
+     * Get the maximal ID of records loaded by the last <code>load(...)</code>.
+     *
+     * @return the maximal ID or -1 if no record has been loaded
+     */
+    public int getLatestRecordId() {
+        return this.latestRecordId;
+    }
+
+    /**
+     * Get the throughput of the last <code>load(...)</code> including both the
+     * parsing and the inserting.
+     *
+     * @return the number of loaded records per second
+     */
+    public double getRecordsPerSecond() {
+        return (this.duration > 0) ? this.loadedRecords / this.duration : 0;
+    }
+}
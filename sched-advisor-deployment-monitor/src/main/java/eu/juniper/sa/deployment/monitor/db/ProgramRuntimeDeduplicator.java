@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The class to deduplicate "ProgramRuntime" records at their insertion into
+ * the database for the monitoring data. A program instance sensor reports a
+ * program run repeatedly (e.g., by <code>programDoesNotEnd()</code>), so only
+ * the latest record per a program global rank and a program start timestamp is
+ * kept. The latest records are indexed by the program_runtime_keys table, the
+ * inserted records are checked against the index in batches and the superseded
+ * records (either the indexed or the inserted ones) are deleted in the same
+ * transaction. Therefore, no post-pass over the whole records table is needed.
+ * The superseded records in time partitions (see <code>TimePartitions</code>)
+ * are deleted from the tables of their partitions.
+ * The buckets of the deleted records are invalidated in given rollup tables
+ * (if any), which should be refreshed after the flush.
+ *
+ * @author rychly
+ */
+public class ProgramRuntimeDeduplicator implements AutoCloseable {
+
+    /**
+     * Type of the deduplicated records.
+     */
+    public static final String METRIC_TYPE = "ProgramRuntime";
+    /**
+     * Name of the metric with a program global rank (a part of the key).
+     */
+    public static final String RANK_METRIC_NAME = "ProgramGlobalRank";
+    /**
+     * Name of the metric with a program start timestamp (a part of the key).
+     */
+    public static final String START_METRIC_NAME = "ProgramStartTimestamp";
+    /**
+     * Maximal number of keys cached between flushes.
+     */
+    private static final int MAX_CACHED_KEYS = 100000;
+
+    private static final String SQL_SELECT_KEY = "SELECT recordid, time FROM program_runtime_keys"
+            + " WHERE programglobalrank = ? AND programstarttimestamp = ?;";
+    private static final String SQL_UPDATE_KEY = "UPDATE program_runtime_keys SET recordid = ?, time = ?"
+            + " WHERE programglobalrank = ? AND programstarttimestamp = ?;";
+    private static final String SQL_INSERT_KEY = "INSERT INTO program_runtime_keys(recordid, time, programglobalrank, programstarttimestamp)"
+            + " VALUES (?, ?, ?, ?);";
+    private static final String SQL_DELETE_RECORD = "DELETE FROM records WHERE id = ?;";
+    private static final String SQL_DELETE_RECORD_OF_PARTITION = "DELETE FROM %s WHERE id = ?;";
+    private static final String SQL_SELECT_UNINDEXED_RECORDS = "SELECT r.id, r.time, m1.numericvalue, m2.numericvalue"
+            + " FROM records_all AS r JOIN metrics_all AS m1 ON (r.id = m1.recordid) JOIN metrics_all AS m2 ON (r.id = m2.recordid)"
+            + " WHERE r.metrictype = '" + METRIC_TYPE + "' AND m1.name = '" + RANK_METRIC_NAME + "' AND m2.name = '" + START_METRIC_NAME + "'"
+            + " AND NOT EXISTS (SELECT 1 FROM program_runtime_keys AS k WHERE k.recordid = r.id)"
+            + " ORDER BY r.id;";
+
+    /**
+     * A key of records.
+     */
+    private static final class Key {
+
+        final double programGlobalRank;
+        final double programStartTimestamp;
+
+        Key(double programGlobalRank, double programStartTimestamp) {
+            this.programGlobalRank = programGlobalRank;
+            this.programStartTimestamp = programStartTimestamp;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) object;
+            return (Double.compare(this.programGlobalRank, other.programGlobalRank) == 0)
+                    && (Double.compare(this.programStartTimestamp, other.programStartTimestamp) == 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Double.hashCode(this.programGlobalRank) + Double.hashCode(this.programStartTimestamp);
+        }
+    }
+
+    /**
+     * The latest record of a key.
+     */
+    private static final class Entry {
+
+        int recordId;
+        long timestampNanos;
+        // the entry is in the index table
+        boolean stored;
+        // the entry has been changed since the last flush
+        boolean changed;
+
+        Entry(int recordId, long timestampNanos, boolean stored) {
+            this.recordId = recordId;
+            this.timestampNanos = timestampNanos;
+            this.stored = stored;
+            this.changed = !stored;
+        }
+    }
+
+    private final Connection databaseConnection;
+    private final RollupTables rollupTables;
+    private final PreparedStatement preparedStatementSelectKey;
+    private final PreparedStatement preparedStatementUpdateKey;
+    private final PreparedStatement preparedStatementInsertKey;
+    private final PreparedStatement preparedStatementDeleteRecord;
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private final List<Key> pendingKeys = new ArrayList<>();
+    private final List<Entry> pendingRecords = new ArrayList<>();
+    private final List<Key> changedKeys = new ArrayList<>();
+    private final List<Integer> deletedRecordIds = new ArrayList<>();
+
+    /**
+     * Create a deduplicator for a given database connection which invalidates
+     * the buckets of the deleted records in given rollup tables.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param rollupTables the rollup tables of the database or
+     * <code>null</code> for no rollup tables
+     * @throws SQLException if a database access error occurs
+     */
+    public ProgramRuntimeDeduplicator(Connection databaseConnection, RollupTables rollupTables) throws SQLException {
+        this.databaseConnection = databaseConnection;
+        this.rollupTables = rollupTables;
+        this.preparedStatementSelectKey = databaseConnection.prepareStatement(SQL_SELECT_KEY);
+        this.preparedStatementUpdateKey = databaseConnection.prepareStatement(SQL_UPDATE_KEY);
+        this.preparedStatementInsertKey = databaseConnection.prepareStatement(SQL_INSERT_KEY);
+        this.preparedStatementDeleteRecord = databaseConnection.prepareStatement(SQL_DELETE_RECORD);
+    }
+
+    /**
+     * Check if records of a given type are deduplicated.
+     *
+     * @param metricType the type of records
+     * @return true if the records are deduplicated, false otherwise
+     */
+    public static boolean isDeduplicated(String metricType) {
+        return METRIC_TYPE.equals(metricType);
+    }
+
+    /**
+     * Add an inserted record to be checked by the next <code>flush()</code>.
+     * Records without the key metrics (NaN values) are ignored.
+     *
+     * @param recordId an ID of the inserted record
+     * @param timestampNanos a timestamp of the inserted record
+     * @param programGlobalRank a program global rank of the inserted record
+     * @param programStartTimestamp a program start timestamp of the inserted
+     * record
+     */
+    public void add(int recordId, long timestampNanos, double programGlobalRank, double programStartTimestamp) {
+        if (Double.isNaN(programGlobalRank) || Double.isNaN(programStartTimestamp)) {
+            return;
+        }
+        this.pendingKeys.add(new Key(programGlobalRank, programStartTimestamp));
+        this.pendingRecords.add(new Entry(recordId, timestampNanos, false));
+    }
+
+    /**
+     * Check the records added since the last flush against the index, delete
+     * the superseded records, and update the index. Should be invoked after
+     * the insertion of the added records in the same transaction.
+     *
+     * @return the number of deleted records
+     * @throws SQLException if a database access error occurs
+     */
+    public int flush() throws SQLException {
+        int deletedRecords = 0;
+        for (int i = 0; i < this.pendingKeys.size(); i++) {
+            final Key key = this.pendingKeys.get(i);
+            final Entry record = this.pendingRecords.get(i);
+            Entry latest = this.entries.get(key);
+            if (latest == null) {
+                latest = this.selectEntry(key);
+            }
+            if (latest == null) {
+                this.entries.put(key, record);
+                this.changedKeys.add(key);
+                continue;
+            }
+            final int supersededRecordId;
+            final long supersededTimestampNanos;
+            if ((record.timestampNanos > latest.timestampNanos)
+                    || ((record.timestampNanos == latest.timestampNanos) && (record.recordId > latest.recordId))) {
+                supersededRecordId = latest.recordId;
+                supersededTimestampNanos = latest.timestampNanos;
+                latest.recordId = record.recordId;
+                latest.timestampNanos = record.timestampNanos;
+                if (!latest.changed) {
+                    latest.changed = true;
+                    this.changedKeys.add(key);
+                }
+            } else {
+                supersededRecordId = record.recordId;
+                supersededTimestampNanos = record.timestampNanos;
+            }
+            if (this.rollupTables != null) {
+                this.rollupTables.invalidate(supersededTimestampNanos);
+            }
+            this.preparedStatementDeleteRecord.setInt(1, supersededRecordId);
+            this.preparedStatementDeleteRecord.addBatch();
+            this.deletedRecordIds.add(supersededRecordId);
+            deletedRecords++;
+        }
+        this.pendingKeys.clear();
+        this.pendingRecords.clear();
+        // update the index before the deletion, which would cascade to the index entries of the superseded records
+        final List<Key> updatedKeys = new ArrayList<>();
+        boolean inserts = false;
+        for (Key key : this.changedKeys) {
+            final Entry entry = this.entries.get(key);
+            if (entry.stored) {
+                setKeyParameters(this.preparedStatementUpdateKey, key, entry);
+                updatedKeys.add(key);
+            } else {
+                setKeyParameters(this.preparedStatementInsertKey, key, entry);
+                inserts = true;
+            }
+            entry.stored = true;
+            entry.changed = false;
+        }
+        this.changedKeys.clear();
+        if (!updatedKeys.isEmpty()) {
+            final int[] updateCounts = this.preparedStatementUpdateKey.executeBatch();
+            for (int i = 0; i < updateCounts.length; i++) {
+                if (updateCounts[i] == 0) {
+                    // the index entry has been deleted meanwhile (e.g., with its record)
+                    final Key key = updatedKeys.get(i);
+                    setKeyParameters(this.preparedStatementInsertKey, key, this.entries.get(key));
+                    inserts = true;
+                }
+            }
+        }
+        if (inserts) {
+            this.preparedStatementInsertKey.executeBatch();
+        }
+        if (deletedRecords > 0) {
+            final int[] deleteCounts = this.preparedStatementDeleteRecord.executeBatch();
+            for (int i = 0; i < deleteCounts.length; i++) {
+                if (deleteCounts[i] == 0) {
+                    // the record is not in the head table of the records
+                    this.deleteRecordOfPartition(this.deletedRecordIds.get(i));
+                }
+            }
+            this.deletedRecordIds.clear();
+        }
+        if (this.entries.size() > MAX_CACHED_KEYS) {
+            this.entries.clear();
+        }
+        return deletedRecords;
+    }
+
+    private void deleteRecordOfPartition(int recordId) throws SQLException {
+        final int partitionId = TimePartitions.getPartitionOfRecord(this.databaseConnection, recordId);
+        if (partitionId == 0) {
+            return;
+        }
+        try (PreparedStatement preparedStatement = this.databaseConnection.prepareStatement(
+                String.format(SQL_DELETE_RECORD_OF_PARTITION, TimePartitions.getPartitionTableName("records", partitionId)))) {
+            preparedStatement.setInt(1, recordId);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private static void setKeyParameters(PreparedStatement preparedStatement, Key key, Entry entry) throws SQLException {
+        preparedStatement.setInt(1, entry.recordId);
+        preparedStatement.setLong(2, entry.timestampNanos);
+        preparedStatement.setDouble(3, key.programGlobalRank);
+        preparedStatement.setDouble(4, key.programStartTimestamp);
+        preparedStatement.addBatch();
+    }
+
+    private Entry selectEntry(Key key) throws SQLException {
+        this.preparedStatementSelectKey.setDouble(1, key.programGlobalRank);
+        this.preparedStatementSelectKey.setDouble(2, key.programStartTimestamp);
+        try (ResultSet resultSet = this.preparedStatementSelectKey.executeQuery()) {
+            if (!resultSet.next()) {
+                return null;
+            }
+            final Entry entry = new Entry(resultSet.getInt(1), resultSet.getLong(2), true);
+            this.entries.put(key, entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Forget the added records and the cached index, e.g., after a rollback
+     * of the transaction.
+     */
+    public void clear() {
+        this.pendingKeys.clear();
+        this.pendingRecords.clear();
+        this.changedKeys.clear();
+        this.deletedRecordIds.clear();
+        this.entries.clear();
+    }
+
+    /**
+     * Deduplicate the records which are already in the database but they are
+     * not indexed, e.g., records imported from an SQL dump, in a single pass
+     * and in a single transaction.
+     *
+     * @return the number of deleted records
+     * @throws SQLException if a database access error occurs
+     */
+    public int deduplicateUnindexedRecords() throws SQLException {
+        final boolean previousAutoCommit = this.databaseConnection.getAutoCommit();
+        this.databaseConnection.setAutoCommit(false);
+        try {
+            try (Statement statement = this.databaseConnection.createStatement();
+                    ResultSet resultSet = statement.executeQuery(SQL_SELECT_UNINDEXED_RECORDS)) {
+                while (resultSet.next()) {
+                    this.add(resultSet.getInt(1), resultSet.getLong(2), resultSet.getDouble(3), resultSet.getDouble(4));
+                }
+            }
+            final int deletedRecords = this.flush();
+            if (this.rollupTables != null) {
+                this.rollupTables.refresh();
+            }
+            this.databaseConnection.commit();
+            return deletedRecords;
+        }
+        catch (SQLException ex) {
+            this.databaseConnection.rollback();
+            this.clear();
+            if (this.rollupTables != null) {
+                this.rollupTables.clear();
+            }
+            throw ex;
+        }
+        finally {
+            this.databaseConnection.setAutoCommit(previousAutoCommit);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        this.preparedStatementSelectKey.close();
+        this.preparedStatementUpdateKey.close();
+        this.preparedStatementInsertKey.close();
+        this.preparedStatementDeleteRecord.close();
+    }
+}
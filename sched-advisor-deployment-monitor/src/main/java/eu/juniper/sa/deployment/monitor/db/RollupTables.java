@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The class to maintain rollup tables of the typed tables (see
+ * <code>TypedMetricTables</code>) with aggregates of measures of records per a
+ * global rank and per a time bucket of one minute and of one hour. A measure
+ * is a named SQL expression over columns of a typed table, e.g., a metric or a
+ * metric of the records with some other metrics, and its aggregates are the
+ * count, the sum, the sum of squares, the minimum, and the maximum of its
+ * non-NULL values, so aggregates of a window of time can be computed from the
+ * buckets of the window. The buckets of inserted or deleted records are
+ * invalidated and recomputed by <code>refresh()</code> from the typed table
+ * and its time partitions (the minute buckets, see <code>TimePartitions</code>)
+ * and from the minute buckets (the hour buckets) in the transaction modifying
+ * the records, so the rollup tables are consistent with the typed tables.
+ *
+ * @author rychly
+ */
+public class RollupTables implements AutoCloseable {
+
+    /**
+     * Length of a minute bucket in nanoseconds (the unit of the time of
+     * records).
+     */
+    public static final long MINUTE_BUCKET_NANOS = 60L * 1000000000L;
+    /**
+     * Length of an hour bucket in nanoseconds (the unit of the time of
+     * records).
+     */
+    public static final long HOUR_BUCKET_NANOS = 60L * MINUTE_BUCKET_NANOS;
+
+    private static final String[] TYPED_TABLE_NAMES = {TypedMetricTables.PROGRAM_RUNTIME_TABLE, TypedMetricTables.SEND_RECEIVE_TABLE};
+    private static final String[] RANK_METRIC_NAMES = {"ProgramGlobalRank", "ReceiverGlobalRank"};
+    // pairs of a name and an SQL expression of a measure, new measures need a schema migration to roll up the existing records
+    private static final String[][][] MEASURES = {
+        {
+            {"ProgramDuration", "ProgramDuration"},
+            // records of sampling sensors represent SampleWeight invocations
+            {"ProgramInvocations", "CASE WHEN ProgramDuration IS NOT NULL THEN COALESCE(SampleWeight, 1) END"},
+            {"ProgramDurationPerInvocation", "ProgramDuration / COALESCE(SampleWeight, 1)"},
+            {"GarbageCollectionCount", "CASE WHEN ProgramDuration IS NOT NULL AND GarbageCollectionTime IS NOT NULL THEN GarbageCollectionCount END"},
+            {"GarbageCollectionTime", "CASE WHEN ProgramDuration IS NOT NULL AND GarbageCollectionCount IS NOT NULL THEN GarbageCollectionTime END"},
+            // the thread CPU time and the allocated bytes are missing if not supported by the JVM
+            {"AllocatingProgramDuration", "CASE WHEN ProgramThreadCpuTime IS NOT NULL AND ProgramAllocatedBytes IS NOT NULL THEN ProgramDuration END"},
+            {"ProgramThreadCpuTime", "CASE WHEN ProgramDuration IS NOT NULL AND ProgramAllocatedBytes IS NOT NULL THEN ProgramThreadCpuTime END"},
+            {"ProgramAllocatedBytes", "CASE WHEN ProgramDuration IS NOT NULL AND ProgramThreadCpuTime IS NOT NULL THEN ProgramAllocatedBytes END"},
+            // the CPU throttling is missing if not supported by the cgroups
+            {"ThrottledProgramDuration", "CASE WHEN CpuThrottledCount IS NOT NULL AND CpuThrottledTime IS NOT NULL THEN ProgramDuration END"},
+            {"CpuThrottledCount", "CASE WHEN ProgramDuration IS NOT NULL AND CpuThrottledTime IS NOT NULL THEN CpuThrottledCount END"},
+            {"CpuThrottledTime", "CASE WHEN ProgramDuration IS NOT NULL AND CpuThrottledCount IS NOT NULL THEN CpuThrottledTime END"}
+        },
+        {
+            {"SendReceiveDuration", "SendReceiveDuration"}
+        }
+    };
+    private static final String MINUTE_BUCKET_OF_TIME = "time - MOD(time, " + MINUTE_BUCKET_NANOS + ")";
+    private static final String HOUR_BUCKET_OF_MINUTE_BUCKET = "bucket - MOD(bucket, " + HOUR_BUCKET_NANOS + ")";
+
+    private final PreparedStatement[] preparedStatementsSelectMinuteBuckets = new PreparedStatement[TYPED_TABLE_NAMES.length];
+    private final PreparedStatement[] preparedStatementsSelectUnmaterializedMinuteBuckets = new PreparedStatement[TYPED_TABLE_NAMES.length];
+    private final PreparedStatement[] preparedStatementsDeleteMinuteBuckets = new PreparedStatement[TYPED_TABLE_NAMES.length];
+    private final PreparedStatement[] preparedStatementsInsertMinuteBuckets = new PreparedStatement[TYPED_TABLE_NAMES.length];
+    private final PreparedStatement[] preparedStatementsDeleteHourBuckets = new PreparedStatement[TYPED_TABLE_NAMES.length];
+    private final PreparedStatement[] preparedStatementsInsertHourBuckets = new PreparedStatement[TYPED_TABLE_NAMES.length];
+    private final TreeSet<Long> invalidatedMinuteBuckets = new TreeSet<>();
+    // pairs of the first and the last minute bucket of the invalidated ranges of time
+    private final List<long[]> invalidatedMinuteBucketRanges = new ArrayList<>();
+
+    /**
+     * Create a maintainer of the rollup tables of a given database for the
+     * monitoring data. The typed tables, the rollup tables, and the views of
+     * the time partitions must already exist.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @throws SQLException if a database access error occurs
+     */
+    public RollupTables(Connection databaseConnection) throws SQLException {
+        try {
+            for (int i = 0; i < TYPED_TABLE_NAMES.length; i++) {
+                final String minuteTableName = getRollupTableName(TYPED_TABLE_NAMES[i], MINUTE_BUCKET_NANOS);
+                final String hourTableName = getRollupTableName(TYPED_TABLE_NAMES[i], HOUR_BUCKET_NANOS);
+                this.preparedStatementsSelectMinuteBuckets[i] = databaseConnection.prepareStatement(
+                        "SELECT DISTINCT " + MINUTE_BUCKET_OF_TIME + " FROM " + TimePartitions.getViewName(TYPED_TABLE_NAMES[i])
+                        + " WHERE recordid BETWEEN ? AND ?;");
+                this.preparedStatementsSelectUnmaterializedMinuteBuckets[i] = databaseConnection.prepareStatement(
+                        "SELECT DISTINCT " + MINUTE_BUCKET_OF_TIME + " FROM records"
+                        + " WHERE records.metrictype = '" + TypedMetricTables.getMetricType(TYPED_TABLE_NAMES[i]) + "'"
+                        + " AND NOT EXISTS (SELECT 1 FROM " + TYPED_TABLE_NAMES[i] + " WHERE " + TYPED_TABLE_NAMES[i] + ".recordid = records.id);");
+                this.preparedStatementsDeleteMinuteBuckets[i] = databaseConnection.prepareStatement(
+                        "DELETE FROM " + minuteTableName + " WHERE bucket BETWEEN ? AND ?;");
+                this.preparedStatementsInsertMinuteBuckets[i] = databaseConnection.prepareStatement(
+                        generateRollupMinutesSql(i, TimePartitions.getViewName(TYPED_TABLE_NAMES[i]), "time BETWEEN ? AND ?"));
+                this.preparedStatementsDeleteHourBuckets[i] = databaseConnection.prepareStatement(
+                        "DELETE FROM " + hourTableName + " WHERE bucket BETWEEN ? AND ?;");
+                this.preparedStatementsInsertHourBuckets[i] = databaseConnection.prepareStatement(
+                        generateRollupHoursSql(i, "bucket BETWEEN ? AND ?"));
+            }
+        }
+        catch (SQLException ex) {
+            this.close();
+            throw ex;
+        }
+    }
+
+    private static int getTypedTableIndex(String typedTableName) {
+        for (int i = 0; i < TYPED_TABLE_NAMES.length; i++) {
+            if (TYPED_TABLE_NAMES[i].equals(typedTableName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Typed table " + typedTableName + " has no rollup tables.");
+    }
+
+    /**
+     * Get a name of the rollup table of a given typed table and of a given
+     * length of buckets.
+     *
+     * @param typedTableName the name of the typed table
+     * @param bucketNanos the length of buckets, i.e.,
+     * <code>MINUTE_BUCKET_NANOS</code> or <code>HOUR_BUCKET_NANOS</code>
+     * @return the name of the rollup table
+     * @throws IllegalArgumentException if there is no such rollup table
+     */
+    public static String getRollupTableName(String typedTableName, long bucketNanos) {
+        getTypedTableIndex(typedTableName);
+        if (bucketNanos == MINUTE_BUCKET_NANOS) {
+            return typedTableName + "_rollup_1m";
+        } else if (bucketNanos == HOUR_BUCKET_NANOS) {
+            return typedTableName + "_rollup_1h";
+        }
+        throw new IllegalArgumentException("Rollup tables have no buckets of " + bucketNanos + " nanoseconds.");
+    }
+
+    /**
+     * Get a name of the metric (a column of a given typed table) with the
+     * global rank which the records are rolled up by.
+     *
+     * @param typedTableName the name of the typed table
+     * @return the name of the metric
+     * @throws IllegalArgumentException if there are no rollup tables of the
+     * typed table
+     */
+    public static String getRankMetricName(String typedTableName) {
+        return RANK_METRIC_NAMES[getTypedTableIndex(typedTableName)];
+    }
+
+    /**
+     * Get an SQL expression of a given measure over columns of a given typed
+     * table.
+     *
+     * @param typedTableName the name of the typed table
+     * @param measureName the name of the measure
+     * @return the SQL expression of the measure
+     * @throws IllegalArgumentException if there is no such measure
+     */
+    public static String getMeasureExpression(String typedTableName, String measureName) {
+        for (String[] measure : MEASURES[getTypedTableIndex(typedTableName)]) {
+            if (measure[0].equals(measureName)) {
+                return measure[1];
+            }
+        }
+        throw new IllegalArgumentException("Typed table " + typedTableName + " has no rolled up measure " + measureName + ".");
+    }
+
+    /**
+     * Get SQL statements to create the rollup tables. The tables have columns
+     * <code>bucket</code> (the time of the start of a bucket),
+     * <code>globalrank</code>, <code>name</code> (of a measure),
+     * <code>valuecount</code>, <code>valuesum</code>,
+     * <code>valuesumsq</code>, <code>valuemin</code>, and
+     * <code>valuemax</code>.
+     *
+     * @return the SQL statements
+     */
+    public static String[] getCreateTablesSql() {
+        final String[] result = new String[TYPED_TABLE_NAMES.length * 2];
+        for (int i = 0; i < TYPED_TABLE_NAMES.length; i++) {
+            result[i * 2] = generateCreateTableSql(getRollupTableName(TYPED_TABLE_NAMES[i], MINUTE_BUCKET_NANOS));
+            result[i * 2 + 1] = generateCreateTableSql(getRollupTableName(TYPED_TABLE_NAMES[i], HOUR_BUCKET_NANOS));
+        }
+        return result;
+    }
+
+    private static String generateCreateTableSql(String rollupTableName) {
+        return "CREATE TABLE IF NOT EXISTS " + rollupTableName + " ("
+                // nanoseconds since the epoch as in the records table
+                + "bucket bigint NOT NULL, "
+                + "globalrank double precision NOT NULL, "
+                + "name varchar NOT NULL, "
+                + "valuecount bigint NOT NULL, "
+                + "valuesum double precision NOT NULL, "
+                + "valuesumsq double precision NOT NULL, "
+                + "valuemin double precision NOT NULL, "
+                + "valuemax double precision NOT NULL, "
+                + "PRIMARY KEY (bucket, globalrank, name)"
+                + ");";
+    }
+
+    /**
+     * Get SQL statements to drop the rollup tables.
+     *
+     * @return the SQL statements
+     */
+    public static String[] getDropTablesSql() {
+        final String[] result = new String[TYPED_TABLE_NAMES.length * 2];
+        for (int i = 0; i < TYPED_TABLE_NAMES.length; i++) {
+            result[i * 2] = "DROP TABLE IF EXISTS " + getRollupTableName(TYPED_TABLE_NAMES[i], MINUTE_BUCKET_NANOS) + ";";
+            result[i * 2 + 1] = "DROP TABLE IF EXISTS " + getRollupTableName(TYPED_TABLE_NAMES[i], HOUR_BUCKET_NANOS) + ";";
+        }
+        return result;
+    }
+
+    /**
+     * Get SQL statements to delete all buckets from the rollup tables (e.g.,
+     * after a deletion of all records).
+     *
+     * @return the SQL statements
+     */
+    public static String[] getDeleteAllSql() {
+        final String[] result = new String[TYPED_TABLE_NAMES.length * 2];
+        for (int i = 0; i < TYPED_TABLE_NAMES.length; i++) {
+            result[i * 2] = "DELETE FROM " + getRollupTableName(TYPED_TABLE_NAMES[i], MINUTE_BUCKET_NANOS) + ";";
+            result[i * 2 + 1] = "DELETE FROM " + getRollupTableName(TYPED_TABLE_NAMES[i], HOUR_BUCKET_NANOS) + ";";
+        }
+        return result;
+    }
+
+    /**
+     * Get SQL statements to roll up all records of the typed tables into the
+     * empty rollup tables (e.g., at their creation).
+     *
+     * @return the SQL statements
+     */
+    public static String[] getRollupAllSql() {
+        final String[] result = new String[TYPED_TABLE_NAMES.length * 2];
+        for (int i = 0; i < TYPED_TABLE_NAMES.length; i++) {
+            result[i * 2] = generateRollupMinutesSql(i, TYPED_TABLE_NAMES[i], "time IS NOT NULL");
+            result[i * 2 + 1] = generateRollupHoursSql(i, "bucket IS NOT NULL");
+        }
+        return result;
+    }
+
+    private static String generateRollupMinutesSql(int table, String sourceName, String timeCondition) {
+        final String rankMetricName = RANK_METRIC_NAMES[table];
+        final StringBuilder stringBuilder = new StringBuilder("INSERT INTO ")
+                .append(getRollupTableName(TYPED_TABLE_NAMES[table], MINUTE_BUCKET_NANOS))
+                .append(" (bucket, globalrank, name, valuecount, valuesum, valuesumsq, valuemin, valuemax)");
+        for (int i = 0; i < MEASURES[table].length; i++) {
+            final String expression = "(" + MEASURES[table][i][1] + ")";
+            stringBuilder.append((i == 0) ? " SELECT " : " UNION ALL SELECT ")
+                    .append(MINUTE_BUCKET_OF_TIME).append(", ").append(rankMetricName).append(", '").append(MEASURES[table][i][0]).append("', ")
+                    .append("COUNT(").append(expression).append("), SUM(").append(expression).append("), ")
+                    .append("SUM(").append(expression).append(" * ").append(expression).append("), ")
+                    .append("MIN(").append(expression).append("), MAX(").append(expression).append(")")
+                    .append(" FROM ").append(sourceName)
+                    .append(" WHERE (").append(timeCondition).append(") AND (").append(rankMetricName).append(" IS NOT NULL)")
+                    .append(" AND (").append(expression).append(" IS NOT NULL)")
+                    .append(" GROUP BY ").append(MINUTE_BUCKET_OF_TIME).append(", ").append(rankMetricName);
+        }
+        return stringBuilder.append(";").toString();
+    }
+
+    private static String generateRollupHoursSql(int table, String bucketCondition) {
+        return "INSERT INTO " + getRollupTableName(TYPED_TABLE_NAMES[table], HOUR_BUCKET_NANOS)
+                + " (bucket, globalrank, name, valuecount, valuesum, valuesumsq, valuemin, valuemax)"
+                + " SELECT " + HOUR_BUCKET_OF_MINUTE_BUCKET + ", globalrank, name,"
+                + " SUM(valuecount), SUM(valuesum), SUM(valuesumsq), MIN(valuemin), MAX(valuemax)"
+                + " FROM " + getRollupTableName(TYPED_TABLE_NAMES[table], MINUTE_BUCKET_NANOS)
+                + " WHERE " + bucketCondition
+                + " GROUP BY " + HOUR_BUCKET_OF_MINUTE_BUCKET + ", globalrank, name;";
+    }
+
+    /**
+     * Invalidate the buckets of the materialized records in a given range of
+     * IDs, e.g., after their insertion into the typed tables.
+     *
+     * @param minimalRecordId the minimal ID of the records
+     * @param maximalRecordId the maximal ID of the records
+     * @throws SQLException if a database access error occurs
+     */
+    public void invalidate(int minimalRecordId, int maximalRecordId) throws SQLException {
+        for (PreparedStatement preparedStatement : this.preparedStatementsSelectMinuteBuckets) {
+            preparedStatement.setInt(1, minimalRecordId);
+            preparedStatement.setInt(2, maximalRecordId);
+            this.addInvalidatedMinuteBuckets(preparedStatement);
+        }
+    }
+
+    /**
+     * Invalidate the buckets of records of the known metric types which are
+     * not materialized in the typed tables yet. It should be invoked before
+     * their materialization.
+     *
+     * @throws SQLException if a database access error occurs
+     */
+    public void invalidateUnmaterializedRecords() throws SQLException {
+        for (PreparedStatement preparedStatement : this.preparedStatementsSelectUnmaterializedMinuteBuckets) {
+            this.addInvalidatedMinuteBuckets(preparedStatement);
+        }
+    }
+
+    private void addInvalidatedMinuteBuckets(PreparedStatement preparedStatement) throws SQLException {
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                this.invalidatedMinuteBuckets.add(resultSet.getLong(1));
+            }
+        }
+    }
+
+    /**
+     * Invalidate the buckets of a record of a given time, e.g., of a deleted
+     * record.
+     *
+     * @param timestampNanos the time of the record
+     */
+    public void invalidate(long timestampNanos) {
+        this.invalidatedMinuteBuckets.add(timestampNanos - Math.floorMod(timestampNanos, MINUTE_BUCKET_NANOS));
+    }
+
+    /**
+     * Invalidate the buckets of a given range of time, e.g., of the records
+     * of a dropped time partition which cannot be selected anymore. The range
+     * is recomputed as a whole regardless of the buckets of its records.
+     *
+     * @param minimalTimestampNanos the minimal time of the range
+     * @param maximalTimestampNanos the maximal time of the range
+     */
+    public void invalidate(long minimalTimestampNanos, long maximalTimestampNanos) {
+        this.invalidatedMinuteBucketRanges.add(new long[]{
+            minimalTimestampNanos - Math.floorMod(minimalTimestampNanos, MINUTE_BUCKET_NANOS),
+            maximalTimestampNanos - Math.floorMod(maximalTimestampNanos, MINUTE_BUCKET_NANOS)});
+    }
+
+    /**
+     * Recompute the invalidated buckets of the rollup tables. It should be
+     * invoked after the modification of the typed tables in the same
+     * transaction. The contiguous invalidated buckets are recomputed together.
+     *
+     * @return the number of recomputed minute buckets
+     * @throws SQLException if a database access error occurs
+     */
+    public int refresh() throws SQLException {
+        long rangeBuckets = 0;
+        for (long[] range : this.invalidatedMinuteBucketRanges) {
+            refresh(range[0], range[1], MINUTE_BUCKET_NANOS,
+                    this.preparedStatementsDeleteMinuteBuckets, this.preparedStatementsInsertMinuteBuckets);
+            refresh(range[0] - Math.floorMod(range[0], HOUR_BUCKET_NANOS), range[1] - Math.floorMod(range[1], HOUR_BUCKET_NANOS), HOUR_BUCKET_NANOS,
+                    this.preparedStatementsDeleteHourBuckets, this.preparedStatementsInsertHourBuckets);
+            rangeBuckets += (range[1] - range[0]) / MINUTE_BUCKET_NANOS + 1;
+        }
+        this.invalidatedMinuteBucketRanges.clear();
+        final TreeSet<Long> invalidatedHourBuckets = new TreeSet<>();
+        for (long minuteBucket : this.invalidatedMinuteBuckets) {
+            invalidatedHourBuckets.add(minuteBucket - Math.floorMod(minuteBucket, HOUR_BUCKET_NANOS));
+        }
+        refresh(this.invalidatedMinuteBuckets, MINUTE_BUCKET_NANOS,
+                this.preparedStatementsDeleteMinuteBuckets, this.preparedStatementsInsertMinuteBuckets);
+        refresh(invalidatedHourBuckets, HOUR_BUCKET_NANOS,
+                this.preparedStatementsDeleteHourBuckets, this.preparedStatementsInsertHourBuckets);
+        final int result = (int) Math.min(Integer.MAX_VALUE, rangeBuckets + this.invalidatedMinuteBuckets.size());
+        this.invalidatedMinuteBuckets.clear();
+        return result;
+    }
+
+    private static void refresh(TreeSet<Long> buckets, long bucketNanos,
+            PreparedStatement[] preparedStatementsDelete, PreparedStatement[] preparedStatementsInsert) throws SQLException {
+        Long firstBucket = null;
+        long lastBucket = 0;
+        for (long bucket : buckets) {
+            if ((firstBucket != null) && (bucket != lastBucket + bucketNanos)) {
+                refresh(firstBucket, lastBucket, bucketNanos, preparedStatementsDelete, preparedStatementsInsert);
+                firstBucket = null;
+            }
+            if (firstBucket == null) {
+                firstBucket = bucket;
+            }
+            lastBucket = bucket;
+        }
+        if (firstBucket != null) {
+            refresh(firstBucket, lastBucket, bucketNanos, preparedStatementsDelete, preparedStatementsInsert);
+        }
+    }
+
+    private static void refresh(long firstBucket, long lastBucket, long bucketNanos,
+            PreparedStatement[] preparedStatementsDelete, PreparedStatement[] preparedStatementsInsert) throws SQLException {
+        for (int i = 0; i < TYPED_TABLE_NAMES.length; i++) {
+            preparedStatementsDelete[i].setLong(1, firstBucket);
+            preparedStatementsDelete[i].setLong(2, lastBucket);
+            preparedStatementsDelete[i].executeUpdate();
+            // each part of the statement has its own range of the time or of the buckets
+            final int parameterCount = preparedStatementsInsert[i].getParameterMetaData().getParameterCount();
+            for (int parameterIndex = 1; parameterIndex < parameterCount; parameterIndex += 2) {
+                preparedStatementsInsert[i].setLong(parameterIndex, firstBucket);
+                preparedStatementsInsert[i].setLong(parameterIndex + 1, lastBucket + bucketNanos - 1);
+            }
+            preparedStatementsInsert[i].executeUpdate();
+        }
+    }
+
+    /**
+     * Forget the invalidated buckets, e.g., after a rollback of the
+     * transaction.
+     */
+    public void clear() {
+        this.invalidatedMinuteBuckets.clear();
+        this.invalidatedMinuteBucketRanges.clear();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement[] preparedStatements : new PreparedStatement[][]{
+            this.preparedStatementsSelectMinuteBuckets, this.preparedStatementsSelectUnmaterializedMinuteBuckets,
+            this.preparedStatementsDeleteMinuteBuckets, this.preparedStatementsInsertMinuteBuckets,
+            this.preparedStatementsDeleteHourBuckets, this.preparedStatementsInsertHourBuckets}) {
+            for (PreparedStatement preparedStatement : preparedStatements) {
+                if (preparedStatement != null) {
+                    preparedStatement.close();
+                }
+            }
+        }
+    }
+}
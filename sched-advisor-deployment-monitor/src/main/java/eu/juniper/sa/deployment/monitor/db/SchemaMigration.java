@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+/**
+ * The class for a migration of tables of the database for the monitoring data
+ * from the previous schema version to a given schema version. SQL statements
+ * of the migration should be compatible with all supported types of JDBC
+ * databases and they should neither fail nor duplicate data if the migration
+ * has been already applied partially (e.g., by <code>IF NOT EXISTS</code>),
+ * as H2 commits DDL statements implicitly and a failed migration is applied
+ * again as a whole.
+ *
+ * @author rychly
+ */
+public class SchemaMigration {
+
+    /**
+     * The schema version after the migration (the first migration leads to
+     * the version one).
+     */
+    public final int version;
+    /**
+     * A description of changes of the migration.
+     */
+    public final String description;
+    /**
+     * SQL statements of the migration executed in the given order.
+     */
+    public final String[] sqlStatements;
+
+    /**
+     * Create a migration to a given schema version by given SQL statements.
+     *
+     * @param version the schema version after the migration
+     * @param description a description of changes of the migration
+     * @param sqlStatements SQL statements of the migration executed in the
+     * given order
+     */
+    public SchemaMigration(int version, String description, String... sqlStatements) {
+        this.version = version;
+        this.description = description;
+        this.sqlStatements = sqlStatements;
+    }
+
+    @Override
+    public String toString() {
+        return "SchemaMigration{" + "version=" + version + ", description=" + description + '}';
+    }
+}
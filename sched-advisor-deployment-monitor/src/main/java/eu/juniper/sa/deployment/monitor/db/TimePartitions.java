@@ -0,0 +1,615 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The class to partition the tables of records (records, metrics, and the
+ * typed tables, see <code>TypedMetricTables</code>) by time. The records are
+ * inserted into head tables of their original names, so the monitoring agents
+ * and the loaders are not affected by the partitioning. When the records of
+ * the head tables span a given length of a partition, the head tables are
+ * rotated, i.e., they are renamed into tables of a new partition with suffix
+ * <code>_p&lt;id&gt;</code> and new empty head tables are created (the IDs of
+ * the records keep coming from the same sequence). The time ranges and the
+ * ranges of record IDs of the partitions are kept in the record_partitions
+ * table, so old partitions can be dropped as whole tables, which is much
+ * cheaper than deletion of their records. The records of the head tables and
+ * of all partitions are read by UNION ALL views records_all, metrics_all,
+ * program_runtime_all, and send_receive_all, which are recreated on each
+ * change of the partitions, so a time predicate on a view is evaluated by an
+ * index lookup per partition. The uniqueness of records is enforced per a
+ * table, i.e., not across the partitions, so the loaders look up the records
+ * not newer than the latest partitioned time in the partitions before their
+ * insertion (see <code>getPartitionedTimeNanos(Connection)</code>). In H2, the
+ * DDL statements are committed implicitly, so the rotation and the dropping
+ * of partitions are not atomic there. Their steps are restartable instead: an
+ * interrupted rotation is completed by the next rotation and an interrupted
+ * drop is completed by the next drop of the same or a later time.
+ *
+ * @author rychly
+ */
+public class TimePartitions {
+
+    /**
+     * Suffix of names of the views of the head tables and of all partitions.
+     */
+    public static final String VIEW_SUFFIX = "_all";
+    /**
+     * Name of the view of the records of the head table and of all
+     * partitions.
+     */
+    public static final String RECORDS_VIEW = "records" + VIEW_SUFFIX;
+    /**
+     * Name of the view of the metrics of the head table and of all
+     * partitions.
+     */
+    public static final String METRICS_VIEW = "metrics" + VIEW_SUFFIX;
+    /**
+     * Maximal number of attempts to lock the head tables (see
+     * <code>rotate(Connection, long)</code>).
+     */
+    private static final int MAX_LOCK_ATTEMPTS = 600;
+    /**
+     * Delay in milliseconds between the attempts to lock the head tables.
+     */
+    private static final long LOCK_ATTEMPT_DELAY_MILLIS = 100;
+
+    private static final String SQL_CREATE_TABLE_RECORD_PARTITIONS = "CREATE TABLE IF NOT EXISTS record_partitions ("
+            + "partitionid int NOT NULL, "
+            // nanoseconds since the epoch as in the records table
+            + "mintime bigint NOT NULL, "
+            + "maxtime bigint NOT NULL, "
+            + "minrecordid int NOT NULL, "
+            + "maxrecordid int NOT NULL, "
+            + "PRIMARY KEY (partitionid)"
+            + ");";
+    private static final String SQL_DROP_TABLE_RECORD_PARTITIONS = "DROP TABLE IF EXISTS record_partitions;";
+    // the tables are in the order of their foreign keys, i.e., the records table first
+    private static final String SQL_CREATE_HEAD_TABLE_RECORDS = "CREATE TABLE IF NOT EXISTS records ("
+            + "%s, "
+            + "time bigint NOT NULL, "
+            + "metrictype varchar, "
+            + "hostname varchar NOT NULL, "
+            + "UNIQUE (time, metrictype, hostname), "
+            + "PRIMARY KEY (id)"
+            + ");";
+    private static final String SQL_CREATE_HEAD_TABLE_METRICS = "CREATE TABLE IF NOT EXISTS metrics ("
+            + "recordid int NOT NULL, "
+            + "name varchar NOT NULL, "
+            + "numericvalue double precision, "
+            + "textvalue varchar, "
+            + "CHECK (numericvalue IS NOT NULL OR textvalue IS NOT NULL), "
+            + "FOREIGN KEY (recordid) REFERENCES records (id) ON UPDATE Cascade ON DELETE Cascade, "
+            + "PRIMARY KEY (recordid, name)"
+            + ");";
+    private static final String SQL_H2_ID_COLUMN = "id int DEFAULT (NEXT VALUE FOR %1$s) NOT NULL NULL_TO_DEFAULT SEQUENCE %1$s";
+    private static final String SQL_PGSQL_ID_COLUMN = "id int NOT NULL DEFAULT nextval('%s')";
+    private static final String SQL_H2_SELECT_SEQUENCE = "SELECT sequence_name FROM information_schema.columns"
+            + " WHERE UPPER(table_name) = UPPER('%s') AND UPPER(column_name) = 'ID' AND table_schema = SCHEMA();";
+    private static final String SQL_PGSQL_SELECT_SEQUENCE = "SELECT pg_get_serial_sequence('%s', 'id');";
+    private static final String SQL_PGSQL_ALTER_RECORDS_SEQUENCE = "ALTER SEQUENCE %s OWNED BY records.id;";
+    private static final String SQL_PGSQL_LOCK_HEAD_TABLES = "LOCK TABLE %s IN ACCESS EXCLUSIVE MODE;";
+    private static final String SQL_H2_SET_EXCLUSIVE = "SET EXCLUSIVE 1;";
+    private static final String SQL_H2_UNSET_EXCLUSIVE = "SET EXCLUSIVE 0;";
+    private static final String SQL_H2_SELECT_UNCOMMITTED_SESSIONS = "SELECT COUNT(*) FROM information_schema.sessions"
+            + " WHERE id <> SESSION_ID() AND contains_uncommitted;";
+    // the index of the latest records is not dropped with the foreign key
+    private static final String SQL_DROP_KEYS_FOREIGN_KEY = "ALTER TABLE program_runtime_keys DROP CONSTRAINT IF EXISTS key_has_latest_record;";
+    private static final String SQL_DELETE_KEYS = "DELETE FROM program_runtime_keys WHERE recordid BETWEEN %d AND %d;";
+    private static final String SQL_SELECT_HEAD_TIMES = "SELECT MIN(time), MAX(time) FROM records;";
+    private static final String SQL_SELECT_NEXT_PARTITION = "SELECT COALESCE(MAX(partitionid), 0) + 1 FROM record_partitions;";
+    private static final String SQL_SELECT_PARTITIONED_TIME = "SELECT MAX(maxtime) FROM record_partitions;";
+    private static final String SQL_SELECT_PARTITIONS = "SELECT partitionid FROM record_partitions ORDER BY partitionid;";
+    private static final String SQL_SELECT_PARTITIONS_OLDER_THAN = "SELECT partitionid, minrecordid, maxrecordid, mintime, maxtime FROM record_partitions"
+            + " WHERE maxtime < %d ORDER BY partitionid;";
+    private static final String SQL_SELECT_PARTITION_OF_RECORD = "SELECT partitionid FROM record_partitions"
+            + " WHERE minrecordid <= ? AND maxrecordid >= ?;";
+    private static final String SQL_INSERT_PARTITION = "INSERT INTO record_partitions(partitionid, mintime, maxtime, minrecordid, maxrecordid)"
+            + " SELECT %1$d, MIN(time), MAX(time), MIN(id), MAX(id) FROM records_p%1$d;";
+    private static final String SQL_DELETE_PARTITION = "DELETE FROM record_partitions WHERE partitionid = %d;";
+
+    private TimePartitions() {
+    }
+
+    /**
+     * Get names of the partitioned tables in the order of their foreign keys,
+     * i.e., the records table first.
+     *
+     * @return the names of the partitioned tables
+     */
+    public static String[] getTableNames() {
+        final String[] typedTableNames = TypedMetricTables.getTableNames();
+        final String[] result = new String[typedTableNames.length + 2];
+        result[0] = "records";
+        result[1] = "metrics";
+        System.arraycopy(typedTableNames, 0, result, 2, typedTableNames.length);
+        return result;
+    }
+
+    /**
+     * Get a name of the view of the head table and of all partitions of a
+     * given partitioned table.
+     *
+     * @param tableName the name of the partitioned table
+     * @return the name of the view
+     */
+    public static String getViewName(String tableName) {
+        return tableName + VIEW_SUFFIX;
+    }
+
+    /**
+     * Get a name of a table of a given partition of a given partitioned
+     * table.
+     *
+     * @param tableName the name of the partitioned table
+     * @param partitionId the ID of the partition
+     * @return the name of the table of the partition
+     */
+    public static String getPartitionTableName(String tableName, int partitionId) {
+        return tableName + "_p" + partitionId;
+    }
+
+    /**
+     * Get SQL statements to create the table of partitions and the views of
+     * the head tables (there are no partitions yet). The SQL statements are
+     * compatible with both H2 and PostgreSQL.
+     *
+     * @return the SQL statements
+     */
+    public static String[] getCreateTablesSql() {
+        final List<String> result = new ArrayList<>();
+        result.add(SQL_CREATE_TABLE_RECORD_PARTITIONS);
+        result.addAll(generateCreateViewsSql(new ArrayList<Integer>()));
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Get SQL statements to drop the views, the tables of all partitions, and
+     * the table of partitions (if it exists) of a given database for the
+     * monitoring data. The head tables are not dropped.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @return the SQL statements
+     */
+    public static String[] getDropTablesSql(Connection databaseConnection) {
+        final List<String> result = new ArrayList<>();
+        result.addAll(generateDropViewsSql());
+        List<Integer> partitionIds;
+        try {
+            partitionIds = selectPartitionIds(databaseConnection);
+        }
+        catch (SQLException ex) {
+            // the table of partitions does not exist (e.g., an older schema version)
+            partitionIds = new ArrayList<>();
+        }
+        for (int partitionId : partitionIds) {
+            result.addAll(generateDropPartitionSql(partitionId));
+        }
+        result.add(SQL_DROP_TABLE_RECORD_PARTITIONS);
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Get SQL statements to create or replace the views of the head tables and
+     * of all partitions of a given database for the monitoring data (e.g.,
+     * after an import of an SQL dump, which can create a view before its
+     * tables).
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @return the SQL statements
+     * @throws SQLException if a database access error occurs
+     */
+    public static String[] getCreateViewsSql(Connection databaseConnection) throws SQLException {
+        final List<String> result = generateCreateViewsSql(selectPartitionIds(databaseConnection));
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static String[] getIndexNames(String tableName) {
+        switch (tableName) {
+            case "records":
+                return new String[]{"records_metrictype_time"};
+            case "metrics":
+                return new String[]{"metrics_name_recordid"};
+            default:
+                // see TypedMetricTables.getCreateTablesSql()
+                return new String[]{tableName + "_time"};
+        }
+    }
+
+    private static List<String> generateCreateViewsSql(List<Integer> partitionIds) {
+        final List<String> result = new ArrayList<>();
+        for (String tableName : getTableNames()) {
+            final StringBuilder stringBuilder = new StringBuilder("CREATE OR REPLACE VIEW ").append(getViewName(tableName))
+                    .append(" AS SELECT * FROM ").append(tableName);
+            for (int partitionId : partitionIds) {
+                stringBuilder.append(" UNION ALL SELECT * FROM ").append(getPartitionTableName(tableName, partitionId));
+            }
+            result.add(stringBuilder.append(";").toString());
+        }
+        return result;
+    }
+
+    private static List<String> generateDropViewsSql() {
+        final List<String> result = new ArrayList<>();
+        for (String tableName : getTableNames()) {
+            result.add("DROP VIEW IF EXISTS " + getViewName(tableName) + ";");
+        }
+        return result;
+    }
+
+    private static List<String> generateDropPartitionSql(int partitionId) {
+        final List<String> result = new ArrayList<>();
+        final String[] tableNames = getTableNames();
+        // the tables referencing the records table first
+        for (int i = tableNames.length - 1; i >= 0; i--) {
+            result.add("DROP TABLE IF EXISTS " + getPartitionTableName(tableNames[i], partitionId) + ";");
+        }
+        return result;
+    }
+
+    private static List<Integer> selectPartitionIds(Connection databaseConnection) throws SQLException {
+        final List<Integer> result = new ArrayList<>();
+        try (final Statement statement = databaseConnection.createStatement();
+                final ResultSet resultSet = statement.executeQuery(SQL_SELECT_PARTITIONS)) {
+            while (resultSet.next()) {
+                result.add(resultSet.getInt(1));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isPostgreSQL(Connection databaseConnection) throws SQLException {
+        return "PostgreSQL".equals(databaseConnection.getMetaData().getDatabaseProductName());
+    }
+
+    private static String selectString(Statement statement, String sqlQuery) throws SQLException {
+        try (final ResultSet resultSet = statement.executeQuery(sqlQuery)) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    private static boolean existsTable(Connection databaseConnection, String tableName) throws SQLException {
+        final DatabaseMetaData databaseMetaData = databaseConnection.getMetaData();
+        try (final ResultSet resultSet = databaseMetaData.getTables(null, null,
+                databaseMetaData.storesUpperCaseIdentifiers() ? tableName.toUpperCase() : tableName, new String[]{"TABLE"})) {
+            return resultSet.next();
+        }
+    }
+
+    private static boolean existsIndex(Connection databaseConnection, String tableName, String indexName) throws SQLException {
+        final DatabaseMetaData databaseMetaData = databaseConnection.getMetaData();
+        try (final ResultSet resultSet = databaseMetaData.getIndexInfo(null, null,
+                databaseMetaData.storesUpperCaseIdentifiers() ? tableName.toUpperCase() : tableName, false, false)) {
+            while (resultSet.next()) {
+                if (indexName.equalsIgnoreCase(resultSet.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the latest time of the records in the partitions. The records of
+     * the head tables which are not newer than the time may be already
+     * in the partitions, e.g., when they are loaded again after a rotation.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @return the latest time in nanoseconds since the epoch or
+     * <code>Long.MIN_VALUE</code> if there are no partitions
+     * @throws SQLException if a database access error occurs
+     */
+    public static long getPartitionedTimeNanos(Connection databaseConnection) throws SQLException {
+        try (final Statement statement = databaseConnection.createStatement();
+                final ResultSet resultSet = statement.executeQuery(SQL_SELECT_PARTITIONED_TIME)) {
+            if (!resultSet.next()) {
+                return Long.MIN_VALUE;
+            }
+            final long result = resultSet.getLong(1);
+            return resultSet.wasNull() ? Long.MIN_VALUE : result;
+        }
+    }
+
+    /**
+     * Get a partition of the tables of a record of a given ID.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param recordId the ID of the record
+     * @return the ID of the partition or zero if the record is not in the
+     * range of any partition (e.g., it is in the head tables)
+     * @throws SQLException if a database access error occurs
+     */
+    public static int getPartitionOfRecord(Connection databaseConnection, int recordId) throws SQLException {
+        try (final PreparedStatement preparedStatement = databaseConnection.prepareStatement(SQL_SELECT_PARTITION_OF_RECORD)) {
+            preparedStatement.setInt(1, recordId);
+            preparedStatement.setInt(2, recordId);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Rotate the head tables into a new partition if their records span at
+     * least a given length of a partition, i.e., if the latest record is at
+     * least the length after the start of the period (of the length since the
+     * epoch) of the earliest record. The head tables are renamed as a whole,
+     * so the boundaries of the partitions are not aligned to the periods and
+     * the time ranges of the partitions may overlap (e.g., for records
+     * inserted late). The unmaterialized records are materialized into the
+     * typed tables before the rotation. The head tables are locked exclusively
+     * during the rotation, i.e., the concurrent writers wait for its end (in
+     * H2, the database is switched into the exclusive mode when no other
+     * session has uncommitted changes, which requires admin rights). The new
+     * partition is recorded in the record_partitions table as the last step,
+     * so a rotation interrupted after the renaming of the head tables (in H2,
+     * which commits each DDL statement) is detected by the table of records of
+     * the next partition and it is completed by the next invocation regardless
+     * of the records of the head tables (the views are missing until then).
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param partitionLengthNanos the length of a partition in nanoseconds
+     * @return the ID of the new partition or zero if the head tables have not
+     * been rotated
+     * @throws SQLException if a database access error occurs
+     */
+    public static int rotate(Connection databaseConnection, long partitionLengthNanos) throws SQLException {
+        final boolean interrupted = isRotationInterrupted(databaseConnection);
+        if (!interrupted && ((partitionLengthNanos <= 0) || !isRotationDue(databaseConnection, partitionLengthNanos))) {
+            return 0;
+        }
+        if (!interrupted) {
+            // most of the records are materialized without the lock
+            MonitoringDbActionsForH2.materializeTypedMetricTables(databaseConnection);
+        }
+        final boolean postgreSQL = isPostgreSQL(databaseConnection);
+        final boolean autoCommit = databaseConnection.getAutoCommit();
+        databaseConnection.setAutoCommit(false);
+        try (final Statement statement = databaseConnection.createStatement()) {
+            lockHeadTables(statement, postgreSQL);
+            try {
+                final int partitionId = rotateLockedHeadTables(databaseConnection, statement, postgreSQL);
+                databaseConnection.commit();
+                return partitionId;
+            }
+            finally {
+                if (!postgreSQL) {
+                    statement.execute(SQL_H2_UNSET_EXCLUSIVE);
+                }
+            }
+        }
+        catch (SQLException ex) {
+            databaseConnection.rollback();
+            throw ex;
+        }
+        finally {
+            databaseConnection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean isRotationInterrupted(Connection databaseConnection) throws SQLException {
+        final String partitionId;
+        try (final Statement statement = databaseConnection.createStatement()) {
+            partitionId = selectString(statement, SQL_SELECT_NEXT_PARTITION);
+        }
+        return existsTable(databaseConnection, getPartitionTableName("records", Integer.parseInt(partitionId)));
+    }
+
+    private static boolean isRotationDue(Connection databaseConnection, long partitionLengthNanos) throws SQLException {
+        try (final Statement statement = databaseConnection.createStatement();
+                final ResultSet resultSet = statement.executeQuery(SQL_SELECT_HEAD_TIMES)) {
+            if (!resultSet.next()) {
+                return false;
+            }
+            final long minimalTime = resultSet.getLong(1);
+            if (resultSet.wasNull()) {
+                return false;
+            }
+            final long maximalTime = resultSet.getLong(2);
+            return maximalTime - (minimalTime - Math.floorMod(minimalTime, partitionLengthNanos)) >= partitionLengthNanos;
+        }
+    }
+
+    private static void lockHeadTables(Statement statement, boolean postgreSQL) throws SQLException {
+        if (postgreSQL) {
+            // in the order of the foreign keys as the writers
+            final StringBuilder tableNames = new StringBuilder();
+            for (String tableName : getTableNames()) {
+                tableNames.append((tableNames.length() == 0) ? "" : ", ").append(tableName);
+            }
+            statement.execute(String.format(SQL_PGSQL_LOCK_HEAD_TABLES, tableNames));
+            return;
+        }
+        // the exclusive mode pauses other sessions, but their open transactions would be split by the rotation
+        for (int attempt = 0; attempt < MAX_LOCK_ATTEMPTS; attempt++) {
+            statement.execute(SQL_H2_SET_EXCLUSIVE);
+            final String uncommittedSessions = selectString(statement, SQL_H2_SELECT_UNCOMMITTED_SESSIONS);
+            if ("0".equals(uncommittedSessions)) {
+                return;
+            }
+            statement.execute(SQL_H2_UNSET_EXCLUSIVE);
+            try {
+                Thread.sleep(LOCK_ATTEMPT_DELAY_MILLIS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new SQLException("Cannot lock the head tables of the monitoring database for their rotation.");
+    }
+
+    private static int rotateLockedHeadTables(Connection databaseConnection, Statement statement, boolean postgreSQL) throws SQLException {
+        final int partitionId = Integer.parseInt(selectString(statement, SQL_SELECT_NEXT_PARTITION));
+        final String partitionRecordsTableName = getPartitionTableName("records", partitionId);
+        // the steps of an interrupted rotation which have been done are skipped
+        if (!existsTable(databaseConnection, partitionRecordsTableName)) {
+            // the records inserted since the materialization above
+            MonitoringDbActionsForH2.materializeTypedMetricTables(databaseConnection);
+        }
+        // the renamed records table keeps the sequence until the new head table is created
+        final String sequenceName = selectString(statement, String.format(postgreSQL ? SQL_PGSQL_SELECT_SEQUENCE : SQL_H2_SELECT_SEQUENCE,
+                existsTable(databaseConnection, "records") ? "records" : partitionRecordsTableName));
+        if (sequenceName == null) {
+            throw new SQLException("Cannot find a sequence of the records table in the monitoring database.");
+        }
+        // the views would refer to the renamed tables
+        for (String sqlStatement : generateDropViewsSql()) {
+            statement.execute(sqlStatement);
+        }
+        for (String tableName : getTableNames()) {
+            final String partitionTableName = getPartitionTableName(tableName, partitionId);
+            if (!existsTable(databaseConnection, partitionTableName)) {
+                statement.execute("ALTER TABLE " + tableName + " RENAME TO " + partitionTableName + ";");
+            }
+        }
+        // the named indexes, the constraints of the partitions keep their names
+        for (String tableName : getTableNames()) {
+            final String partitionTableName = getPartitionTableName(tableName, partitionId);
+            for (String indexName : getIndexNames(tableName)) {
+                if (existsIndex(databaseConnection, partitionTableName, indexName)) {
+                    statement.execute("ALTER INDEX " + indexName + " RENAME TO "
+                            + partitionTableName + indexName.substring(tableName.length()) + ";");
+                }
+            }
+        }
+        // the new head tables with the indexes of the schema
+        statement.execute(String.format(SQL_CREATE_HEAD_TABLE_RECORDS,
+                String.format(postgreSQL ? SQL_PGSQL_ID_COLUMN : SQL_H2_ID_COLUMN, sequenceName)));
+        if (postgreSQL) {
+            statement.execute(String.format(SQL_PGSQL_ALTER_RECORDS_SEQUENCE, sequenceName));
+        }
+        statement.execute(SQL_CREATE_HEAD_TABLE_METRICS);
+        for (String sqlStatement : TypedMetricTables.getCreateHeadTablesSql()) {
+            statement.execute(sqlStatement);
+        }
+        statement.execute(MonitoringDbActionsForH2.SQL_CREATE_INDEX_RECORDS_METRICTYPE_TIME);
+        statement.execute(MonitoringDbActionsForH2.SQL_CREATE_INDEX_METRICS_NAME_RECORDID);
+        // the latest records of the keys may be in any partition
+        statement.execute(SQL_DROP_KEYS_FOREIGN_KEY);
+        final List<Integer> partitionIds = selectPartitionIds(databaseConnection);
+        partitionIds.add(partitionId);
+        for (String sqlStatement : generateCreateViewsSql(partitionIds)) {
+            statement.execute(sqlStatement);
+        }
+        // the last step, see isRotationInterrupted(Connection)
+        statement.execute(String.format(SQL_INSERT_PARTITION, partitionId));
+        return partitionId;
+    }
+
+    /**
+     * Drop the partitions whose all records are older than a given time. The
+     * buckets of the rollup tables in the time ranges of the dropped
+     * partitions are recomputed and the keys of the deduplicated records in
+     * the dropped partitions are deleted. The views are replaced without the
+     * dropped partitions before their tables are dropped and the partitions
+     * are deleted from the record_partitions table as the last step, so a drop
+     * interrupted after the dropping of the tables (in H2, which commits each
+     * DDL statement) is completed by the next drop of the same or a later
+     * time.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @param timestampNanos the time in nanoseconds since the epoch
+     * @return the number of dropped partitions
+     * @throws SQLException if a database access error occurs
+     */
+    public static int drop(Connection databaseConnection, long timestampNanos) throws SQLException {
+        final List<long[]> partitions = new ArrayList<>();
+        try (final Statement statement = databaseConnection.createStatement();
+                final ResultSet resultSet = statement.executeQuery(String.format(SQL_SELECT_PARTITIONS_OLDER_THAN, timestampNanos))) {
+            while (resultSet.next()) {
+                partitions.add(new long[]{resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3), resultSet.getLong(4), resultSet.getLong(5)});
+            }
+        }
+        if (partitions.isEmpty()) {
+            return 0;
+        }
+        final List<Integer> keptPartitionIds = selectPartitionIds(databaseConnection);
+        for (long[] partition : partitions) {
+            keptPartitionIds.remove(Integer.valueOf((int) partition[0]));
+        }
+        final boolean postgreSQL = isPostgreSQL(databaseConnection);
+        final boolean autoCommit = databaseConnection.getAutoCommit();
+        databaseConnection.setAutoCommit(false);
+        try (final Statement statement = databaseConnection.createStatement();
+                final RollupTables rollupTables = new RollupTables(databaseConnection)) {
+            for (long[] partition : partitions) {
+                // by the time range, the records of an interrupted drop may be missing in the views already
+                rollupTables.invalidate(partition[3], partition[4]);
+            }
+            // the readers in H2 are paused while the views are replaced and the tables are dropped
+            if (!postgreSQL) {
+                lockHeadTables(statement, false);
+            }
+            try {
+                for (String sqlStatement : generateCreateViewsSql(keptPartitionIds)) {
+                    statement.execute(sqlStatement);
+                }
+                for (long[] partition : partitions) {
+                    for (String sqlStatement : generateDropPartitionSql((int) partition[0])) {
+                        statement.execute(sqlStatement);
+                    }
+                }
+            }
+            finally {
+                if (!postgreSQL) {
+                    statement.execute(SQL_H2_UNSET_EXCLUSIVE);
+                }
+            }
+            for (long[] partition : partitions) {
+                statement.execute(String.format(SQL_DELETE_KEYS, partition[1], partition[2]));
+                statement.execute(String.format(SQL_DELETE_PARTITION, partition[0]));
+            }
+            rollupTables.refresh();
+            databaseConnection.commit();
+            return partitions.size();
+        }
+        catch (SQLException ex) {
+            databaseConnection.rollback();
+            throw ex;
+        }
+        finally {
+            databaseConnection.setAutoCommit(autoCommit);
+        }
+    }
+}
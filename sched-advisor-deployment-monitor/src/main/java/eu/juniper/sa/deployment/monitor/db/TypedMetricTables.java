@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.deployment.monitor.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * The class to materialize records of known metric types from the
+ * entity-attribute-value tables (records and metrics) into typed tables with
+ * one column per a known metric of the type, so the records can be queried by
+ * a single-table scan instead of a self-join of the metrics table per a metric.
+ * Each row of a typed table has the ID, the time, and the hostname of its
+ * record and it is deleted together with the record (e.g., by
+ * <code>ProgramRuntimeDeduplicator</code>). The column names are the metric
+ * names, so they can be used in SQL case-insensitively, and the metrics
+ * missing in a record are NULLs. The records of other metric types are kept
+ * only in the entity-attribute-value tables.
+ *
+ * @author rychly
+ */
+public class TypedMetricTables implements AutoCloseable {
+
+    /**
+     * Name of the typed table for "ProgramRuntime" records (see
+     * <code>ProgramInstanceSensor</code>).
+     */
+    public static final String PROGRAM_RUNTIME_TABLE = "program_runtime";
+    /**
+     * Name of the typed table for "SendReceive" records (see
+     * <code>DataConnectionSensor</code>).
+     */
+    public static final String SEND_RECEIVE_TABLE = "send_receive";
+
+    private static final String[] TABLE_NAMES = {PROGRAM_RUNTIME_TABLE, SEND_RECEIVE_TABLE};
+    private static final String[] METRIC_TYPES = {"ProgramRuntime", "SendReceive"};
+    private static final String[][] NUMERIC_METRIC_NAMES = {
+        {
+            "ProgramGlobalRank",
+            "ProgramStartTimestamp",
+            "ProgramDuration",
+            "GarbageCollectionCount",
+            "GarbageCollectionTime",
+            "ProgramCpuTime",
+            "StartHeapMemory",
+            "UsedHeapMemory",
+            "MaxHeapMemory",
+            "StartNonHeapMemory",
+            "UsedNonHeapMemory",
+            "MaxNonHeapMemory",
+            "StartSwapSpaceSize",
+            "UsedSwapSpaceSize",
+            "MaxSwapSpaceSize",
+            "ProgramThreadCpuTime",
+            "ProgramThreadUserTime",
+            "ProgramAllocatedBytes",
+            "CpuThrottledCount",
+            "CpuThrottledTime",
+            "SampleWeight"
+        },
+        {
+            "ReceiverGlobalRank",
+            "ReceiveStartTimestamp",
+            "SendReceiveDuration",
+            "ReceivedData",
+            "AverageSpeedBytesPerSecond"
+        }
+    };
+    private static final String[][] TEXT_METRIC_NAMES = {
+        {},
+        {
+            "ConnectionName"
+        }
+    };
+
+    private final PreparedStatement[] preparedStatementsMaterialize = new PreparedStatement[TABLE_NAMES.length];
+
+    /**
+     * Create a materializer of records into the typed tables of a given
+     * database for the monitoring data. The typed tables must already exist.
+     *
+     * @param databaseConnection a JDBC connection to the database for the
+     * monitoring data
+     * @throws SQLException if a database access error occurs
+     */
+    public TypedMetricTables(Connection databaseConnection) throws SQLException {
+        try {
+            for (int i = 0; i < TABLE_NAMES.length; i++) {
+                this.preparedStatementsMaterialize[i] = databaseConnection.prepareStatement(
+                        generateMaterializeSql(i, "records.id BETWEEN ? AND ?"));
+            }
+        }
+        catch (SQLException ex) {
+            this.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Check if records of a given metric type are materialized in a typed
+     * table.
+     *
+     * @param metricType the metric type of the records
+     * @return <code>true</code> if the records are materialized,
+     * <code>false</code> otherwise
+     */
+    public static boolean isMaterialized(String metricType) {
+        for (String materializedMetricType : METRIC_TYPES) {
+            if (materializedMetricType.equals(metricType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get a metric type of the records materialized in a given typed table.
+     *
+     * @param tableName the name of the typed table
+     * @return the metric type of the records
+     * @throws IllegalArgumentException if there is no such typed table
+     */
+    public static String getMetricType(String tableName) {
+        for (int i = 0; i < TABLE_NAMES.length; i++) {
+            if (TABLE_NAMES[i].equals(tableName)) {
+                return METRIC_TYPES[i];
+            }
+        }
+        throw new IllegalArgumentException("There is no typed table " + tableName + ".");
+    }
+
+    /**
+     * Get names of the typed tables.
+     *
+     * @return the names of the typed tables
+     */
+    public static String[] getTableNames() {
+        return TABLE_NAMES.clone();
+    }
+
+    /**
+     * Get SQL statements to create the typed tables and their indexes.
+     *
+     * @return the SQL statements
+     */
+    public static String[] getCreateTablesSql() {
+        return generateCreateTablesSql(true);
+    }
+
+    /**
+     * Get SQL statements to create empty typed tables and their indexes as
+     * new head tables of time partitions (see <code>TimePartitions</code>).
+     * Their constraints are not named, so they do not collide with the
+     * constraints of the former head tables.
+     *
+     * @return the SQL statements
+     */
+    public static String[] getCreateHeadTablesSql() {
+        return generateCreateTablesSql(false);
+    }
+
+    private static String[] generateCreateTablesSql(boolean namedConstraints) {
+        final String[] result = new String[TABLE_NAMES.length * 2];
+        for (int i = 0; i < TABLE_NAMES.length; i++) {
+            final StringBuilder stringBuilder = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(TABLE_NAMES[i]).append(" (")
+                    .append("recordid int NOT NULL, ")
+                    // nanoseconds since the epoch as in the records table
+                    .append("time bigint NOT NULL, ")
+                    .append("hostname varchar NOT NULL, ");
+            for (String metricName : NUMERIC_METRIC_NAMES[i]) {
+                stringBuilder.append(metricName.toLowerCase()).append(" double precision, ");
+            }
+            for (String metricName : TEXT_METRIC_NAMES[i]) {
+                stringBuilder.append(metricName.toLowerCase()).append(" varchar, ");
+            }
+            if (namedConstraints) {
+                stringBuilder.append("CONSTRAINT ").append(TABLE_NAMES[i]).append("_has_record ");
+            }
+            result[i * 2] = stringBuilder
+                    .append("FOREIGN KEY (recordid)")
+                    .append(" REFERENCES records (id) ON UPDATE Cascade ON DELETE Cascade, ")
+                    .append("PRIMARY KEY (recordid)")
+                    .append(");").toString();
+            result[i * 2 + 1] = "CREATE INDEX IF NOT EXISTS " + TABLE_NAMES[i] + "_time ON " + TABLE_NAMES[i] + " (time);";
+        }
+        return result;
+    }
+
+    /**
+     * Get SQL statements to drop the typed tables.
+     *
+     * @return the SQL statements
+     */
+    public static String[] getDropTablesSql() {
+        final String[] result = new String[TABLE_NAMES.length];
+        for (int i = 0; i < TABLE_NAMES.length; i++) {
+            result[i] = "DROP TABLE IF EXISTS " + TABLE_NAMES[i] + ";";
+        }
+        return result;
+    }
+
+    /**
+     * Get SQL statements to materialize all records of the known metric types
+     * that are not in the typed tables yet (e.g., records inserted by
+     * monitoring agents directly or imported from SQL dumps).
+     *
+     * @return the SQL statements
+     */
+    public static String[] getMaterializeAllSql() {
+        final String[] result = new String[TABLE_NAMES.length];
+        for (int i = 0; i < TABLE_NAMES.length; i++) {
+            result[i] = generateMaterializeSql(i, "records.id IS NOT NULL");
+        }
+        return result;
+    }
+
+    private static String generateMaterializeSql(int table, String recordsCondition) {
+        final StringBuilder columns = new StringBuilder("recordid, time, hostname");
+        final StringBuilder values = new StringBuilder("records.id, records.time, records.hostname");
+        for (String metricName : NUMERIC_METRIC_NAMES[table]) {
+            columns.append(", ").append(metricName.toLowerCase());
+            values.append(", MAX(CASE WHEN metrics.name = '").append(metricName).append("' THEN metrics.numericvalue END)");
+        }
+        for (String metricName : TEXT_METRIC_NAMES[table]) {
+            columns.append(", ").append(metricName.toLowerCase());
+            values.append(", MAX(CASE WHEN metrics.name = '").append(metricName).append("' THEN metrics.textvalue END)");
+        }
+        // pivot the metrics of the records which have not been materialized yet
+        return "INSERT INTO " + TABLE_NAMES[table] + " (" + columns + ")"
+                + " SELECT " + values
+                + " FROM records JOIN metrics ON (records.id = metrics.recordid)"
+                + " WHERE records.metrictype = '" + METRIC_TYPES[table] + "' AND " + recordsCondition
+                + " AND NOT EXISTS (SELECT 1 FROM " + TABLE_NAMES[table] + " WHERE " + TABLE_NAMES[table] + ".recordid = records.id)"
+                + " GROUP BY records.id, records.time, records.hostname;";
+    }
+
+    /**
+     * Materialize records of the known metric types in a given range of IDs
+     * into the typed tables. The records already materialized are skipped.
+     * It should be invoked in the transaction inserting the records, so the
+     * typed tables are consistent with the records.
+     *
+     * @param minimalRecordId the minimal ID of the records
+     * @param maximalRecordId the maximal ID of the records
+     * @return the number of materialized records
+     * @throws SQLException if a database access error occurs
+     */
+    public int materialize(int minimalRecordId, int maximalRecordId) throws SQLException {
+        int result = 0;
+        for (PreparedStatement preparedStatement : this.preparedStatementsMaterialize) {
+            preparedStatement.setInt(1, minimalRecordId);
+            preparedStatement.setInt(2, maximalRecordId);
+            result += preparedStatement.executeUpdate();
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement preparedStatement : this.preparedStatementsMaterialize) {
+            if (preparedStatement != null) {
+                preparedStatement.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+#!/bin/sh
+
+PACKAGE=eu.juniper.sa.monitoring.agent
+
+[[ -n "${REINSTALL}" ]] \
+&& mvn -q --file $(dirname "${0}")/../pom.xml clean install
+
+exec mvn -q --file $(dirname "${0}")/pom.xml \
+	exec:java -e -Dexec.mainClass="${PACKAGE}.$(basename ${0} .sh)" -Dexec.args="$*"
+
+# Example:
+# $ ./MonitoringAgentForBinaryLog.sh /tmp/test.binlog 100000
+# $ ../sched-advisor-deployment-monitor/MonitoringDbActionsFactory.sh "jdbc:h2:/tmp/test" create load /tmp/test.binlog
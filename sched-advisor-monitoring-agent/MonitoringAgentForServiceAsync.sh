@@ -0,0 +1,14 @@
+#!/bin/sh
+
+PACKAGE=eu.juniper.sa.monitoring.agent
+
+[[ -n "${REINSTALL}" ]] \
+&& mvn -q --file $(dirname "${0}")/../pom.xml clean install
+
+exec mvn -q --file $(dirname "${0}")/pom.xml \
+	exec:java -e -Dexec.mainClass="${PACKAGE}.$(basename ${0} .sh)" -Dexec.args="$*"
+
+# Example (send to a local stand-in server, then in gzipped batches of 500 records to a tunnelled monitoring service):
+# $ ./MonitoringAgentForServiceAsync.sh stand-in 100000
+# $ ssh 172.18.2.117 -L 3000:0.0.0.0:3000 -N
+# $ ./MonitoringAgentForServiceAsync.sh "http://localhost:3000/executions/" 100000 500 gzip
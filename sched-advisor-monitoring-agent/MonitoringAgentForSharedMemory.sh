@@ -0,0 +1,12 @@
+#!/bin/sh
+
+PACKAGE=eu.juniper.sa.monitoring.agent
+
+[[ -n "${REINSTALL}" ]] \
+&& mvn -q --file $(dirname "${0}")/../pom.xml clean install
+
+exec mvn -q --file $(dirname "${0}")/pom.xml \
+	exec:java -e -Dexec.mainClass="${PACKAGE}.$(basename ${0} .sh)" -Dexec.args="$*"
+
+# Example (see MonitoringSharedMemoryCollector.sh to forward the records):
+# $ ./MonitoringAgentForSharedMemory.sh /dev/shm/sched-advisor 4 10000
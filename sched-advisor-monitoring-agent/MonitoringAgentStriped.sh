@@ -0,0 +1,13 @@
+#!/bin/sh
+
+PACKAGE=eu.juniper.sa.monitoring.agent
+
+[[ -n "${REINSTALL}" ]] \
+&& mvn -q --file $(dirname "${0}")/../pom.xml clean install
+
+exec mvn -q --file $(dirname "${0}")/pom.xml \
+	exec:java -e -Dexec.mainClass="${PACKAGE}.$(basename ${0} .sh)" -Dexec.args="$*"
+
+# Example (stress test up to 64 threads, then send into an SQL file from 64 threads):
+# $ ./MonitoringAgentStriped.sh 64 100000
+# $ ./MonitoringAgentStriped.sh 64 10000 /tmp/striped-test.sql
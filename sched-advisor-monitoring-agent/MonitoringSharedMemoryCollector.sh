@@ -0,0 +1,13 @@
+#!/bin/sh
+
+PACKAGE=eu.juniper.sa.monitoring.agent
+
+[[ -n "${REINSTALL}" ]] \
+&& mvn -q --file $(dirname "${0}")/../pom.xml clean install
+
+exec mvn -q --file $(dirname "${0}")/pom.xml \
+	exec:java -e -Dexec.mainClass="${PACKAGE}.$(basename ${0} .sh)" -Dexec.args="$*"
+
+# Example:
+# $ ./MonitoringSharedMemoryCollector.sh /dev/shm/sched-advisor "jdbc:h2:tcp://localhost/~/monitoring" &
+# $ ./MonitoringAgentForSharedMemory.sh /dev/shm/sched-advisor 4 10000
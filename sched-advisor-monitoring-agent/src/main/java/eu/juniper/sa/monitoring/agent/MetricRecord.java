@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * The class of a reusable record of a set of metrics of a particular type. The
+ * metric names are given once when the record is created and their positions
+ * in the record (metric IDs) are used to set the metric values as primitive
+ * numbers or strings afterwards, so a sensor can fill and send the same record
+ * repeatedly without formatting or parsing the values and without producing
+ * garbage. A monitoring agent must not keep a reference to the record after its
+ * <code>sendMetric(MetricRecord)</code> method returned (it should make a copy
+ * by <code>copy()</code> method if needed).
+ *
+ * @author rychly
+ */
+public final class MetricRecord {
+
+    private final String metricType;
+    private final String[] metricNames;
+    private final double[] numericValues;
+    private final String[] textValues;
+    private final boolean[] numericValuesSet;
+    private long timestampNanos;
+    private String hostname;
+
+    /**
+     * Create a record of a given set of metrics of a particular type. The
+     * metric IDs are positions of the metric names in the given array.
+     *
+     * @param metricType a type of metrics in the set
+     * @param metricNames names of metrics in the set
+     */
+    public MetricRecord(String metricType, String... metricNames) {
+        this.metricType = metricType;
+        this.metricNames = new String[metricNames.length];
+        for (int i = 0; i < metricNames.length; i++) {
+            // interned names can be compared and used as keys by their identity
+            this.metricNames[i] = (metricNames[i] == null) ? null : metricNames[i].intern();
+        }
+        this.numericValues = new double[metricNames.length];
+        this.textValues = new String[metricNames.length];
+        this.numericValuesSet = new boolean[metricNames.length];
+    }
+
+    private MetricRecord(MetricRecord metricRecord) {
+        this.metricType = metricRecord.metricType;
+        this.metricNames = metricRecord.metricNames;
+        this.numericValues = metricRecord.numericValues.clone();
+        this.textValues = metricRecord.textValues.clone();
+        this.numericValuesSet = metricRecord.numericValuesSet.clone();
+        this.timestampNanos = metricRecord.timestampNanos;
+        this.hostname = metricRecord.hostname;
+    }
+
+    /**
+     * Create a record of a given set of metrics of a particular type with
+     * given values in strings. Each value is set as a numeric value if it can
+     * be parsed as a double number and as a text value otherwise. Metrics with
+     * null names or values are not set.
+     *
+     * @param metricType a type of metrics in the set
+     * @param metricNames names of metrics in the set
+     * @param metricValues values of metrics in the set
+     * @param timestampSec a timestamp in seconds of the metric set origin
+     * @param hostname a hostname of a client sending the metric
+     * @return the new record
+     */
+    public static MetricRecord fromStrings(String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) {
+        final MetricRecord metricRecord = new MetricRecord(metricType,
+                Arrays.copyOf(metricNames, Math.min(metricNames.length, metricValues.length)));
+        for (int i = 0; i < metricRecord.metricNames.length; i++) {
+            if ((metricNames[i] != null) && (metricValues[i] != null)) {
+                try {
+                    // use the value as a double number value if possible
+                    metricRecord.setNumericValue(i, Double.parseDouble(metricValues[i]));
+                }
+                catch (NumberFormatException e) {
+                    // use the value as a string value otherwise
+                    metricRecord.setTextValue(i, metricValues[i]);
+                }
+            }
+        }
+        metricRecord.setTimestamp(timestampSec);
+        metricRecord.setHostname(hostname);
+        return metricRecord;
+    }
+
+    /**
+     * Parse a timestamp in seconds given as a decimal number into nanoseconds
+     * without the loss of precision of double numbers.
+     *
+     * @param timestampSec the timestamp in seconds as a decimal number
+     * @return the timestamp in nanoseconds
+     * @throws NumberFormatException if the timestamp is not a decimal number
+     */
+    public static long parseTimestampNanos(String timestampSec) throws NumberFormatException {
+        return new BigDecimal(timestampSec.trim()).movePointRight(9).setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+
+    /**
+     * Append a timestamp in nanoseconds to a given string builder as a decimal
+     * number of seconds with nine decimal places, so it can be parsed by
+     * <code>parseTimestampNanos(String)</code> without the loss of precision.
+     *
+     * @param stringBuilder the string builder to append to
+     * @param timestampNanos the timestamp in nanoseconds (not negative)
+     * @return the string builder
+     */
+    public static StringBuilder appendTimestamp(StringBuilder stringBuilder, long timestampNanos) {
+        stringBuilder.append(timestampNanos / 1000000000L).append('.');
+        final long nanos = timestampNanos % 1000000000L;
+        for (long digit = 100000000L; (digit > nanos) && (digit > 1); digit /= 10) {
+            stringBuilder.append('0');
+        }
+        return stringBuilder.append(nanos);
+    }
+
+    /**
+     * Create a copy of the record with the same metric names and a copy of
+     * the current values.
+     *
+     * @return the copy of the record
+     */
+    public MetricRecord copy() {
+        return new MetricRecord(this);
+    }
+
+    /**
+     * Check if a given record has the same type and names of metrics as this
+     * record, i.e., if its values can be copied into this record by
+     * <code>copyFrom(MetricRecord)</code>.
+     *
+     * @param metricRecord the record to check
+     * @return true if the records have the same type and names of metrics,
+     * false otherwise
+     */
+    public boolean hasSameMetricsAs(MetricRecord metricRecord) {
+        // the copies of a record share its names, other records are compared by their interned names
+        return ((this.metricType == null) ? (metricRecord.metricType == null) : this.metricType.equals(metricRecord.metricType))
+                && ((this.metricNames == metricRecord.metricNames) || Arrays.equals(this.metricNames, metricRecord.metricNames));
+    }
+
+    /**
+     * Copy the current values, the timestamp, and the hostname of a given
+     * record with the same type and names of metrics (see
+     * <code>hasSameMetricsAs(MetricRecord)</code>) into this record without
+     * allocation of any objects.
+     *
+     * @param metricRecord the record to copy from
+     * @return this record
+     */
+    public MetricRecord copyFrom(MetricRecord metricRecord) {
+        System.arraycopy(metricRecord.numericValues, 0, this.numericValues, 0, this.numericValues.length);
+        System.arraycopy(metricRecord.textValues, 0, this.textValues, 0, this.textValues.length);
+        System.arraycopy(metricRecord.numericValuesSet, 0, this.numericValuesSet, 0, this.numericValuesSet.length);
+        this.timestampNanos = metricRecord.timestampNanos;
+        this.hostname = metricRecord.hostname;
+        return this;
+    }
+
+    /**
+     * Get the type of metrics in the set.
+     *
+     * @return the type of metrics
+     */
+    public String getMetricType() {
+        return this.metricType;
+    }
+
+    /**
+     * Get the number of metrics in the set (including the metrics without
+     * values).
+     *
+     * @return the number of metrics
+     */
+    public int getMetricsCount() {
+        return this.metricNames.length;
+    }
+
+    /**
+     * Get the (interned) name of a metric of a given ID.
+     *
+     * @param metricId the ID of the metric
+     * @return the name of the metric
+     */
+    public String getMetricName(int metricId) {
+        return this.metricNames[metricId];
+    }
+
+    /**
+     * Get the ID of a metric of a given name.
+     *
+     * @param metricName the name of the metric
+     * @return the ID of the metric or -1 if there is no such metric
+     */
+    public int getMetricId(String metricName) {
+        for (int i = 0; i < this.metricNames.length; i++) {
+            if ((this.metricNames[i] != null) && this.metricNames[i].equals(metricName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the timestamp in seconds of the metric set origin.
+     *
+     * @return the timestamp in seconds
+     */
+    public double getTimestamp() {
+        return this.timestampNanos / 1e9;
+    }
+
+    /**
+     * Set the timestamp in seconds of the metric set origin (it is rounded to
+     * nanoseconds).
+     *
+     * @param timestampSec the timestamp in seconds
+     * @return this record
+     */
+    public MetricRecord setTimestamp(double timestampSec) {
+        this.timestampNanos = Math.round(timestampSec * 1e9);
+        return this;
+    }
+
+    /**
+     * Get the timestamp in nanoseconds of the metric set origin.
+     *
+     * @return the timestamp in nanoseconds
+     */
+    public long getTimestampNanos() {
+        return this.timestampNanos;
+    }
+
+    /**
+     * Set the timestamp in nanoseconds of the metric set origin.
+     *
+     * @param timestampNanos the timestamp in nanoseconds
+     * @return this record
+     */
+    public MetricRecord setTimestampNanos(long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+        return this;
+    }
+
+    /**
+     * Get the hostname of a client sending the metric.
+     *
+     * @return the hostname
+     */
+    public String getHostname() {
+        return this.hostname;
+    }
+
+    /**
+     * Set the hostname of a client sending the metric.
+     *
+     * @param hostname the hostname
+     * @return this record
+     */
+    public MetricRecord setHostname(String hostname) {
+        this.hostname = hostname;
+        return this;
+    }
+
+    /**
+     * Set a numeric value of a metric of a given ID.
+     *
+     * @param metricId the ID of the metric
+     * @param value the numeric value
+     * @return this record
+     */
+    public MetricRecord setNumericValue(int metricId, double value) {
+        this.numericValues[metricId] = value;
+        this.numericValuesSet[metricId] = true;
+        this.textValues[metricId] = null;
+        return this;
+    }
+
+    /**
+     * Set a text value of a metric of a given ID.
+     *
+     * @param metricId the ID of the metric
+     * @param value the text value (null to clear the value)
+     * @return this record
+     */
+    public MetricRecord setTextValue(int metricId, String value) {
+        this.textValues[metricId] = value;
+        this.numericValuesSet[metricId] = false;
+        return this;
+    }
+
+    /**
+     * Clear a value of a metric of a given ID, i.e., the metric will not be
+     * sent.
+     *
+     * @param metricId the ID of the metric
+     * @return this record
+     */
+    public MetricRecord clearValue(int metricId) {
+        this.textValues[metricId] = null;
+        this.numericValuesSet[metricId] = false;
+        return this;
+    }
+
+    /**
+     * Clear values of all metrics in the set.
+     *
+     * @return this record
+     */
+    public MetricRecord clearValues() {
+        Arrays.fill(this.textValues, null);
+        Arrays.fill(this.numericValuesSet, false);
+        return this;
+    }
+
+    /**
+     * Check if a metric of a given ID has a value (numeric or text) and a
+     * name, i.e., if the metric should be sent.
+     *
+     * @param metricId the ID of the metric
+     * @return true if the metric has a value, false otherwise
+     */
+    public boolean hasValue(int metricId) {
+        return (this.metricNames[metricId] != null)
+                && (this.numericValuesSet[metricId] || (this.textValues[metricId] != null));
+    }
+
+    /**
+     * Check if a metric of a given ID has a numeric value.
+     *
+     * @param metricId the ID of the metric
+     * @return true if the metric has a numeric value, false otherwise
+     */
+    public boolean hasNumericValue(int metricId) {
+        return this.numericValuesSet[metricId];
+    }
+
+    /**
+     * Get a numeric value of a metric of a given ID.
+     *
+     * @param metricId the ID of the metric
+     * @return the numeric value (undefined if the metric has no numeric value)
+     */
+    public double getNumericValue(int metricId) {
+        return this.numericValues[metricId];
+    }
+
+    /**
+     * Get a text value of a metric of a given ID.
+     *
+     * @param metricId the ID of the metric
+     * @return the text value or null if the metric has no text value
+     */
+    public String getTextValue(int metricId) {
+        return this.textValues[metricId];
+    }
+}
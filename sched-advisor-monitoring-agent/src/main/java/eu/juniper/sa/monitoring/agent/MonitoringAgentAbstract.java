@@ -27,12 +27,16 @@
  */
 package eu.juniper.sa.monitoring.agent;
 
-import eu.juniper.sa.monitoring.resources.MonitoredResourcesDefaultStrategy;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesCachingStrategy;
 import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.sensor.DataConnectionAggregatingSensor;
 import eu.juniper.sa.monitoring.sensor.DataConnectionSensor;
 import eu.juniper.sa.monitoring.sensor.DataConnectionSensorInterface;
 import eu.juniper.sa.monitoring.sensor.ProgramInstanceSensor;
 import eu.juniper.sa.monitoring.sensor.ProgramInstanceSensorInterface;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import javax.management.ObjectName;
 
 /**
  * The abstract class for monitoring agent implementations.
@@ -43,10 +47,13 @@ public abstract class MonitoringAgentAbstract implements MonitoringAgentInterfac
 
     protected final String applicationId;
     protected final MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy;
+    protected final MonitoringAgentStatistics statistics;
 
     /**
      * Create a monitorign agent for monitoring of a given application with a
-     * given default monitored resource strategy.
+     * given default monitored resource strategy. Statistics of the agent are
+     * not registered in the platform MBean server of the JVM until
+     * <code>registerStatistics()</code> is invoked on the constructed agent.
      *
      * @param applicationId an application ID
      * @param monitoredResourcesDefaultStrategy a default monitored resource
@@ -55,17 +62,19 @@ public abstract class MonitoringAgentAbstract implements MonitoringAgentInterfac
     public MonitoringAgentAbstract(String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) {
         this.applicationId = applicationId;
         this.monitoredResourcesDefaultStrategy = monitoredResourcesDefaultStrategy;
+        this.statistics = new MonitoringAgentStatistics(this);
     }
 
     /**
      * Create a monitorign agent for monitoring of a given application with
      * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
-     * strategy.
+     * strategy decorated by <code>MonitoredResourcesCachingStrategy</code>
+     * (static and slow-changing resources are not re-queried on each report).
      *
      * @param applicationId an application ID
      */
     public MonitoringAgentAbstract(String applicationId) {
-        this(applicationId, new MonitoredResourcesDefaultStrategy());
+        this(applicationId, new MonitoredResourcesCachingStrategy());
     }
 
     /**
@@ -88,9 +97,116 @@ public abstract class MonitoringAgentAbstract implements MonitoringAgentInterfac
         return this.monitoredResourcesDefaultStrategy;
     }
 
+    /**
+     * Get statistics of an overhead of the agent which can be registered in
+     * the platform MBean server of the JVM as
+     * <code>MonitoringAgentMXBean</code> (see <code>registerStatistics()</code>).
+     *
+     * @return the statistics of the agent
+     */
+    public MonitoringAgentStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Register statistics of an overhead of the agent in the platform MBean
+     * server of the JVM (see <code>MonitoringAgentMXBean</code>). The
+     * statistics query the agent, so they are registered after the agent has
+     * been constructed (e.g., by <code>MonitoringAgentFactory</code>) and they
+     * are unregistered by closing the agent.
+     *
+     * @return the object name of the registered statistics or null if they
+     * cannot be registered
+     */
+    public ObjectName registerStatistics() {
+        return this.statistics.register();
+    }
+
+    /**
+     * Get the number of records currently waiting to be sent by the agent. The
+     * default implementation returns zero as the records are sent
+     * synchronously.
+     *
+     * @return the number of waiting records
+     */
+    public long getQueueDepth() {
+        return 0;
+    }
+
+    /**
+     * Send a set of given metrics of a particular type from the application to
+     * the monitoring target. The method is an adapter which converts the
+     * string values into a new <code>MetricRecord</code> and sends it by
+     * <code>sendMetric(MetricRecord)</code> method.
+     *
+     * @param metricType a type of metrics in the set to send
+     * @param metricNames names of metrics in the set to send
+     * @param metricValues values of metrics in the set to send
+     * @param timestampSec a timestamp in seconds of the metric set origin
+     * @param hostname a hostname of a client sending the metric
+     * @return the monitoring target response
+     * @throws MalformedURLException if <code>monitoringServiceURL</code> is
+     * malformed
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    @Override
+    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) throws MalformedURLException, IOException {
+        return this.sendMetric(MetricRecord.fromStrings(metricType, metricNames, metricValues, timestampSec, hostname));
+    }
+
+    /**
+     * Send a set of given metrics of a particular type from the application to
+     * the monitoring target. The method utilizes <code>getHostname()</code>
+     * method of the default monitored resource strategy to get a hostname of a
+     * client sending the metric.
+     *
+     * @param metricType a type of metrics in the set to send
+     * @param metricNames names of metrics in the set to send
+     * @param metricValues values of metrics in the set to send
+     * @param timestampSec a timestamp in seconds of the metric set origin
+     * @return the monitoring target response
+     * @throws MalformedURLException if <code>monitoringServiceURL</code> is
+     * malformed
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    @Override
+    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec) throws MalformedURLException, IOException {
+        return this.sendMetric(metricType, metricNames, metricValues, timestampSec, this.getMonitoredResourcesDefaultStrategy().getHostname());
+    }
+
+    /**
+     * Send the latest set of given metrics of a particular type from the
+     * application to the monitoring target. The method utilizes methods of the
+     * default monitored resource strategy, namely <code>getTimestamp()</code>
+     * method to get a timestamp of metric to send and
+     * <code>getHostname()</code> method to get a hostname of a client sending
+     * the metric.
+     *
+     * @param metricType a type of metrics in the set to send
+     * @param metricNames names of metrics in the set to send
+     * @param metricValues values of metrics in the set to send
+     * @return the monitoring target response
+     * @throws MalformedURLException if <code>monitoringServiceURL</code> is
+     * malformed
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    @Override
+    public String sendMetric(String metricType, String[] metricNames, String[] metricValues) throws MalformedURLException, IOException {
+        return this.sendMetric(metricType, metricNames, metricValues, this.getMonitoredResourcesDefaultStrategy().getTimestamp(), this.getMonitoredResourcesDefaultStrategy().getHostname());
+    }
+
     /**
      * Create a sensor for a data connection between Juniper programs that will
-     * utilize this monitoring agent.
+     * utilize this monitoring agent. If system property named according to
+     * <code>MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_AGGREGATION_WINDOW</code>
+     * is set, the sensor aggregates the transfers in windows of a given
+     * duration. If system property named according to
+     * <code>MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_HISTOGRAM_WINDOW</code>
+     * is set, the sensor records histograms of the transfer durations in
+     * windows of a given duration.
      *
      * @param receiverGlobalRank an MPI global rank of a receiving Juniper
      * program of a monitored connection (value of
@@ -103,12 +219,43 @@ public abstract class MonitoringAgentAbstract implements MonitoringAgentInterfac
      */
     @Override
     public DataConnectionSensorInterface createDataConnectionSensor(int receiverGlobalRank, String connectionName) {
-        return new DataConnectionSensor(this, this.monitoredResourcesDefaultStrategy, receiverGlobalRank, connectionName);
+        final double aggregationWindow = MonitoringAgentFactory.getAggregationWindow();
+        return (aggregationWindow > 0)
+                ? this.createDataConnectionSensor(receiverGlobalRank, connectionName, aggregationWindow)
+                : new DataConnectionSensor(this, this.monitoredResourcesDefaultStrategy, receiverGlobalRank, connectionName, MonitoringAgentFactory.getHistogramWindow());
+    }
+
+    /**
+     * Create a sensor for a data connection between Juniper programs that will
+     * utilize this monitoring agent and aggregate the transfers in windows of a
+     * given duration (a summary record is sent per window).
+     *
+     * @param receiverGlobalRank an MPI global rank of a receiving Juniper
+     * program of a monitored connection (value of
+     * <code>JuniperProgram.myGlobalRank</code>)
+     * @param connectionName a name of an incomming monitored connection of a
+     * Juniper program (value used in
+     * <code>JuniperProgram.transferData(...)</code>)
+     * @param windowDuration a duration of aggregation windows in seconds
+     * @return a sensor for a data connection between Juniper programs that will
+     * utilize this monitoring agent
+     */
+    public DataConnectionSensorInterface createDataConnectionSensor(int receiverGlobalRank, String connectionName, double windowDuration) {
+        return new DataConnectionAggregatingSensor(this, this.monitoredResourcesDefaultStrategy, receiverGlobalRank, connectionName, windowDuration);
     }
 
     /**
      * Create a sensor for a Juniper program instance that will utilize this
-     * monitoring agent.
+     * monitoring agent. If system property named according to
+     * <code>MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_HISTOGRAM_WINDOW</code>
+     * is set, the sensor records histograms of the program durations in
+     * windows of a given duration. If system property named according to
+     * <code>MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_GC_PAUSES</code>
+     * is set, the sensor reports garbage collection pauses of the JVM. If
+     * system property named according to
+     * <code>MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_PROGRAM_SAMPLING</code>
+     * is set, the sensor measures in full only invocations of the program
+     * sampled by a given sampling policy.
      *
      * @param programGlobalRank an MPI global rank of a monitored Juniper
      * program (value of <code>JuniperProgram.myGlobalRank</code>)
@@ -116,7 +263,8 @@ public abstract class MonitoringAgentAbstract implements MonitoringAgentInterfac
      */
     @Override
     public ProgramInstanceSensorInterface createProgramInstanceSensor(int programGlobalRank) {
-        return new ProgramInstanceSensor(this, this.monitoredResourcesDefaultStrategy, programGlobalRank);
+        return new ProgramInstanceSensor(this, this.monitoredResourcesDefaultStrategy, programGlobalRank,
+                MonitoringAgentFactory.getHistogramWindow(), MonitoringAgentFactory.isReportingGcPauses(), MonitoringAgentFactory.createProgramSamplingPolicy());
     }
 
 }
@@ -0,0 +1,508 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The abstract class for monitoring agent implementations which send metric
+ * values asynchronously (write-behind). The metric values sent by the
+ * application are put into a bounded in-memory queue and a background flusher
+ * thread takes them from the queue in batches and passes the batches to
+ * <code>sendRecords(List)</code> method of the particular implementation. A
+ * batch is sent if it reaches a given size or if a given flush interval
+ * elapsed since its first record was queued. If the queue is full, an overflow
+ * policy decides whether the application should wait or which records should
+ * be dropped.
+ *
+ * @author rychly
+ */
+public abstract class MonitoringAgentAsyncAbstract extends MonitoringAgentAbstract implements MonitoringAgentInterface, AutoCloseable {
+
+    /**
+     * Policies of dealing with new records if the queue of the agent is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Block the sending thread of the application until there is a free
+         * space in the queue (backpressure, no records are dropped).
+         */
+        BLOCK,
+        /**
+         * Drop the new record that cannot be put into the queue.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest records in the queue to make a space for the new
+         * record.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Default capacity of the queue of records waiting to be sent.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    /**
+     * Default maximal number of records sent in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    /**
+     * Default maximal time in milliseconds a record waits in the queue for a
+     * batch to fill up.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    /**
+     * Default policy of dealing with new records if the queue is full.
+     */
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_NEWEST;
+
+    private final static String DROPPED_RECORD_MESSAGE = "The record has been dropped as the queue of the monitoring agent is full.";
+    private final static String CLOSED_AGENT_MESSAGE = "The record has been dropped as the monitoring agent has been closed.";
+
+    private final BlockingQueue<MetricRecord> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread flusherThread;
+    private final Thread shutdownHookThread;
+    private final AtomicLong queuedRecordsCount = new AtomicLong();
+    // the producers between their check of the closed flag and the end of their enqueue
+    private final AtomicInteger activeProducersCount = new AtomicInteger();
+    private volatile String lastErrorMessage = null;
+    // the records of the current batch skipped by sendRecords(List), accessed by the flusher thread only
+    private int skippedBatchRecordsCount = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Create an asynchronous monitorign agent for monitoring of a given
+     * application with a given default monitored resource strategy. The
+     * background flusher thread is not started until
+     * <code>startFlusher()</code> is called by the particular implementation.
+     *
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @param queueCapacity a capacity of the queue of records waiting to be
+     * sent
+     * @param batchSize a maximal number of records sent in one batch
+     * @param flushIntervalMillis a maximal time in milliseconds a record waits
+     * in the queue for a batch to fill up
+     * @param overflowPolicy a policy of dealing with new records if the queue
+     * is full
+     */
+    public MonitoringAgentAsyncAbstract(String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy,
+            int queueCapacity, int batchSize, long flushIntervalMillis, OverflowPolicy overflowPolicy) {
+        super(applicationId, monitoredResourcesDefaultStrategy);
+        if ((queueCapacity < 1) || (batchSize < 1) || (flushIntervalMillis < 1)) {
+            throw new IllegalArgumentException("The queue capacity, batch size, and flush interval have to be positive numbers.");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.overflowPolicy = (overflowPolicy == null) ? DEFAULT_OVERFLOW_POLICY : overflowPolicy;
+        this.flusherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, this.getClass().getSimpleName() + "-flusher");
+        this.flusherThread.setDaemon(true);
+        this.shutdownHookThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeAndFlush();
+                }
+                catch (Exception ex) {
+                    // nothing can be done during the JVM shutdown
+                }
+            }
+        }, this.getClass().getSimpleName() + "-shutdown");
+    }
+
+    /**
+     * Start the background flusher thread. It should be called at the end of
+     * the constructor of the particular implementation, i.e., after its
+     * resources for <code>sendRecords(List)</code> are ready. A shutdown hook
+     * is also registered to flush the queued records at the JVM exit.
+     */
+    protected final void startFlusher() {
+        this.flusherThread.start();
+        Runtime.getRuntime().addShutdownHook(this.shutdownHookThread);
+    }
+
+    /**
+     * Send a batch of records taken from the queue. The method is called by
+     * the background flusher thread only, i.e., the implementations do not
+     * need to be thread-safe.
+     *
+     * @param records the records to send
+     * @throws IOException if there is an I/O error when sending the records
+     * @throws SQLException if there is a database error when sending the
+     * records
+     */
+    protected abstract void sendRecords(List<MetricRecord> records) throws IOException, SQLException;
+
+    /**
+     * Report a record of the batch being sent by
+     * <code>sendRecords(List)</code> which has been skipped while the other
+     * records of the batch have been sent (e.g., a duplicate record rejected
+     * by the database). The record is counted as failed instead of sent.
+     *
+     * @param errorMessage the error message of the skipped record
+     */
+    protected void recordSkipped(String errorMessage) {
+        this.skippedBatchRecordsCount++;
+        this.statistics.recordsFailed(1);
+        this.lastErrorMessage = errorMessage;
+    }
+
+    /**
+     * Release resources utilized by <code>sendRecords(List)</code> method. The
+     * method is called after the background flusher thread sent all the
+     * records remaining in the queue and terminated.
+     *
+     * @throws IOException if there is an I/O error when releasing the
+     * resources
+     * @throws SQLException if there is a database error when releasing the
+     * resources
+     */
+    protected abstract void closeResources() throws IOException, SQLException;
+
+    private void flushLoop() {
+        final List<MetricRecord> batch = new ArrayList<>(this.batchSize);
+        // after the agent is closed, the producers that passed the closed check are waited for
+        // (the order of the checks matters, a producer registers itself before checking the flag)
+        while (!this.closed || (this.activeProducersCount.get() > 0) || !this.queue.isEmpty()) {
+            try {
+                final MetricRecord first = this.queue.poll(this.flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // fill up the batch until its size or the flush interval is reached
+                final long deadline = System.currentTimeMillis() + this.flushIntervalMillis;
+                while (batch.size() < this.batchSize) {
+                    this.queue.drainTo(batch, this.batchSize - batch.size());
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if ((batch.size() >= this.batchSize) || (remaining <= 0) || this.closed) {
+                        break;
+                    }
+                    final MetricRecord next = this.queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            }
+            catch (InterruptedException ex) {
+                // the remaining records will be sent in the next iterations
+            }
+            if (!batch.isEmpty()) {
+                sendBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendBatch(List<MetricRecord> batch) {
+        this.skippedBatchRecordsCount = 0;
+        try {
+            this.sendRecords(batch);
+            this.statistics.recordsSent(batch.size() - this.skippedBatchRecordsCount);
+            this.statistics.flushed();
+        }
+        catch (IOException | SQLException | RuntimeException ex) {
+            this.statistics.recordsFailed(batch.size() - this.skippedBatchRecordsCount);
+            this.lastErrorMessage = ex.getMessage();
+        }
+    }
+
+    /**
+     * Put a copy of a given record of a set of metrics of a particular type
+     * from the application into the queue to be sent later by the background
+     * flusher thread.
+     *
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
+     * @return null if the metrics have been queued, or an error message if
+     * they have been dropped
+     */
+    @Override
+    public String sendMetric(MetricRecord metricRecord) {
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
+        try {
+            return this.enqueue(metricRecord.copy());
+        }
+        finally {
+            this.statistics.sendMetricEnds(sendMetricStartsNanos);
+        }
+    }
+
+    /**
+     * Put a set of given metrics of a particular type from the application
+     * into the queue to be sent later by the background flusher thread.
+     *
+     * @param metricType a type of metrics in the set to send
+     * @param metricNames names of metrics in the set to send
+     * @param metricValues values of metrics in the set to send
+     * @param timestampSec a timestamp in seconds of the metric set origin
+     * @param hostname a hostname of a client sending the metric
+     * @return null if the metrics have been queued, or an error message if
+     * they have been dropped
+     */
+    @Override
+    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) {
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
+        try {
+            return this.enqueue(MetricRecord.fromStrings(metricType, metricNames, metricValues, timestampSec, hostname));
+        }
+        finally {
+            this.statistics.sendMetricEnds(sendMetricStartsNanos);
+        }
+    }
+
+    private String enqueue(MetricRecord record) {
+        this.activeProducersCount.incrementAndGet();
+        try {
+            return this.enqueueActive(record);
+        }
+        finally {
+            this.activeProducersCount.decrementAndGet();
+        }
+    }
+
+    private String enqueueActive(MetricRecord record) {
+        if (this.closed) {
+            this.statistics.recordsDropped(1);
+            return CLOSED_AGENT_MESSAGE;
+        }
+        switch (this.overflowPolicy) {
+            case BLOCK: {
+                try {
+                    this.queue.put(record);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    this.statistics.recordsDropped(1);
+                    return DROPPED_RECORD_MESSAGE;
+                }
+            }
+            break;
+            case DROP_NEWEST: {
+                if (!this.queue.offer(record)) {
+                    this.statistics.recordsDropped(1);
+                    return DROPPED_RECORD_MESSAGE;
+                }
+            }
+            break;
+            case DROP_OLDEST: {
+                while (!this.queue.offer(record)) {
+                    if (this.queue.poll() != null) {
+                        this.statistics.recordsDropped(1);
+                    }
+                }
+            }
+            break;
+        }
+        this.queuedRecordsCount.incrementAndGet();
+        return null;
+    }
+
+    private void closeAndFlush() throws IOException, SQLException {
+        synchronized (this.flusherThread) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            // wait until the flusher thread sends the remaining records (it is not interrupted
+            // as an interrupt may break I/O of a JDBC driver; it checks the flag at least once per flush interval)
+            boolean interrupted = false;
+            while (this.flusherThread.isAlive()) {
+                try {
+                    this.flusherThread.join();
+                }
+                catch (InterruptedException ex) {
+                    // the records would be lost, so the waiting continues and the interrupt is restored later
+                    interrupted = true;
+                }
+            }
+            try {
+                this.statistics.unregister();
+                this.closeResources();
+            }
+            finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the agent. New records are refused, the records remaining in the
+     * queue (including the records of producers which were queueing them
+     * while the agent was being closed) are sent, and resources allocated by
+     * the agent are released. An interrupt of the closing thread does not
+     * stop the sending, it is restored when the agent is closed.
+     *
+     * @throws IOException if there is an I/O error when releasing the
+     * resources
+     * @throws SQLException if there is a database error when releasing the
+     * resources
+     */
+    @Override
+    public void close() throws IOException, SQLException {
+        try {
+            Runtime.getRuntime().removeShutdownHook(this.shutdownHookThread);
+        }
+        catch (IllegalStateException ex) {
+            // the JVM is shutting down, the hook is running or will run
+        }
+        this.closeAndFlush();
+    }
+
+    /**
+     * Check if the agent has been closed, i.e., the background flusher thread
+     * is sending the records remaining in the queue and then it will
+     * terminate.
+     *
+     * @return true if the agent has been closed, false otherwise
+     */
+    protected boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Get the number of records currently waiting in the queue.
+     *
+     * @return the number of records in the queue
+     */
+    @Override
+    public long getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * Get the number of records successfully put into the queue.
+     *
+     * @return the number of queued records
+     */
+    public long getMetricRecordsCount() {
+        return this.queuedRecordsCount.get();
+    }
+
+    /**
+     * Get the number of records dropped due to the overflow policy or the
+     * closed agent.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedRecordsCount() {
+        return this.statistics.getRecordsDroppedCount();
+    }
+
+    /**
+     * Get the number of records successfully sent by the background flusher
+     * thread.
+     *
+     * @return the number of sent records
+     */
+    public long getSentRecordsCount() {
+        return this.statistics.getRecordsSentCount();
+    }
+
+    /**
+     * Get the number of records which the background flusher thread failed to
+     * send (and which were lost).
+     *
+     * @return the number of failed records
+     */
+    public long getFailedRecordsCount() {
+        return this.statistics.getRecordsFailedCount();
+    }
+
+    /**
+     * Get the number of batches successfully sent by the background flusher
+     * thread.
+     *
+     * @return the number of sent batches
+     */
+    public long getSentBatchesCount() {
+        return this.statistics.getFlushesCount();
+    }
+
+    /**
+     * Get the error message of the last failed batch.
+     *
+     * @return the error message of the last failed batch or null if no batch
+     * failed
+     */
+    public String getLastErrorMessage() {
+        return this.lastErrorMessage;
+    }
+
+    /**
+     * Get the maximal number of records sent in one batch.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Get the maximal time in milliseconds a record waits in the queue for a
+     * batch to fill up.
+     *
+     * @return the flush interval in milliseconds
+     */
+    public long getFlushIntervalMillis() {
+        return this.flushIntervalMillis;
+    }
+
+    /**
+     * Get the policy of dealing with new records if the queue is full.
+     *
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+}
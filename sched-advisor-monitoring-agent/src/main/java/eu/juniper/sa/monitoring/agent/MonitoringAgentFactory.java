@@ -27,11 +27,23 @@
  */
 package eu.juniper.sa.monitoring.agent;
 
+import eu.juniper.sa.monitoring.instrument.InstrumentationAgent;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesCachingStrategy;
 import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.sensor.DataConnectionAggregatingSensor;
+import eu.juniper.sa.monitoring.sensor.GarbageCollectionPauseSensor;
+import eu.juniper.sa.monitoring.sensor.AdaptiveSamplingPolicy;
+import eu.juniper.sa.monitoring.sensor.EveryNthSamplingPolicy;
+import eu.juniper.sa.monitoring.sensor.ProcessSampleSensor;
+import eu.juniper.sa.monitoring.sensor.ReservoirSamplingPolicy;
+import eu.juniper.sa.monitoring.sensor.SamplingPolicyInterface;
+import eu.juniper.sa.monitoring.sensor.TimeBudgetSamplingPolicy;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Properties;
 
 /**
@@ -62,11 +74,107 @@ public final class MonitoringAgentFactory {
      */
     public static final String SYSTEM_PROPERTY_NAME_FOR_AGENT_STATUS = "MonitoringAgentEnabled";
 
+    /**
+     * System property name for the asynchronous (write-behind) mode of the
+     * monitoring agents created for JDBC connections and monitoring services
+     * (enabled if set).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_ASYNC = "MonitoringAgentAsync";
+    /**
+     * System property name for a capacity of the queue of records waiting to
+     * be sent by an asynchronous monitoring agent.
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_QUEUE_CAPACITY = "MonitoringAgentQueueCapacity";
+    /**
+     * System property name for a maximal number of records sent in one batch
+     * by an asynchronous monitoring agent.
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_BATCH_SIZE = "MonitoringAgentBatchSize";
+    /**
+     * System property name for a maximal time in milliseconds a record waits
+     * in the queue of an asynchronous monitoring agent for a batch to fill up.
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_FLUSH_INTERVAL = "MonitoringAgentFlushInterval";
+    /**
+     * System property name for a policy of dealing with new records if the
+     * queue of an asynchronous monitoring agent is full (BLOCK, DROP_NEWEST, or
+     * DROP_OLDEST).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_OVERFLOW_POLICY = "MonitoringAgentOverflowPolicy";
+    /**
+     * System property name for the compression of request bodies by gzip in an
+     * asynchronous monitoring agent for a monitoring service (enabled if set).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_GZIP = "MonitoringAgentGzip";
+    /**
+     * System property name for a maximal number of retries of a failed request
+     * in an asynchronous monitoring agent for a monitoring service.
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_MAX_RETRIES = "MonitoringAgentMaxRetries";
+    /**
+     * System property name for a delay in milliseconds before the first retry
+     * of a failed request in an asynchronous monitoring agent for a monitoring
+     * service (the delay is doubled for each next retry).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_RETRY_BACKOFF = "MonitoringAgentRetryBackoff";
+    /**
+     * System property name for the mode of the synchronous monitoring agents
+     * created for SQL files, JDBC connections, and monitoring services which
+     * makes them usable by concurrent threads (enabled if set, see
+     * <code>MonitoringAgentStriped</code>).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_STRIPED = "MonitoringAgentStriped";
+    /**
+     * System property name for a capacity of a buffer of each thread in a
+     * monitoring agent for concurrent threads.
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_STRIPE_CAPACITY = "MonitoringAgentStripeCapacity";
+
+    /**
+     * System property name for a duration in seconds of windows of sensors for
+     * data connections (if set, the sensors aggregate the transfers in the
+     * windows and send a summary record per window).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_AGGREGATION_WINDOW = "MonitoringAgentAggregationWindow";
+    /**
+     * System property name for a duration in seconds of windows of latency
+     * histograms of sensors (if set, the sensors record durations of programs
+     * and data transfers into the histograms and send a histogram record per
+     * window).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_HISTOGRAM_WINDOW = "MonitoringAgentHistogramWindow";
+    /**
+     * System property name for the reporting of garbage collection pauses by
+     * sensors for Juniper program instances (enabled if set, see
+     * <code>GarbageCollectionPauseSensor</code>).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_GC_PAUSES = "MonitoringAgentGcPauses";
+    /**
+     * System property name for a period in seconds of a background sampling
+     * of resources of the JVM process from the /proc filesystem (if set, the
+     * agents created from a monitoring URL start a sampler thread, which is
+     * stopped when the agent is closed, see <code>MonitoringAgentSampled</code>).
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_SAMPLING_PERIOD = "MonitoringAgentSamplingPeriod";
+    /**
+     * System property name for a sampling policy of sensors for Juniper
+     * program instances (if set, the sensors measure in full only the sampled
+     * invocations of the programs, see <code>SamplingPolicyInterface</code>).
+     * The value is <code>every:N</code>, <code>budget:ratio</code>,
+     * <code>reservoir:size:seconds</code>, or <code>adaptive:ratio</code> for
+     * <code>EveryNthSamplingPolicy</code>,
+     * <code>TimeBudgetSamplingPolicy</code>,
+     * <code>ReservoirSamplingPolicy</code>, or
+     * <code>AdaptiveSamplingPolicy</code>, respectively.
+     */
+    public static final String SYSTEM_PROPERTY_NAME_FOR_PROGRAM_SAMPLING = "MonitoringAgentProgramSampling";
+
     private static final String STATUS_VALUE = System.getProperty(MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_AGENT_STATUS);
     private static final String STATUS_PROPERTY_EXCEPTION = "System property " + MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_AGENT_STATUS + " has to be set to a local file path of a monitoring SQL file, a JDBC connection to a monitoring database, or an URL of a monitoring service.";
     private static final String STATUS_VALUE_PREF_JDBC = "jdbc:";
     private static final String STATUS_VALUE_PREF_HTTP = "http://";
     private static final String STATUS_VALUE_PREF_HTTPS = "https://";
+    private static final String STATUS_VALUE_PREF_SHM = "shm:";
     private static boolean enabled = (STATUS_VALUE != null);
     private static MonitoringAgentInterface monitoringAgentSingleton = null;
 
@@ -133,7 +241,7 @@ public final class MonitoringAgentFactory {
      */
     public static MonitoringAgentInterface createMonitoringAgentForService(String monitoringServiceURL, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) {
         return MonitoringAgentFactory.enabled
-                ? new MonitoringAgentForService(monitoringServiceURL, applicationId, monitoredResourcesDefaultStrategy)
+                ? registered(new MonitoringAgentForService(monitoringServiceURL, applicationId, monitoredResourcesDefaultStrategy))
                 : new MonitoringAgentForNullDevice();
     }
 
@@ -150,7 +258,7 @@ public final class MonitoringAgentFactory {
      */
     public static MonitoringAgentInterface createMonitoringAgentForService(String monitoringServiceURL, String applicationId) {
         return MonitoringAgentFactory.enabled
-                ? new MonitoringAgentForService(monitoringServiceURL, applicationId)
+                ? registered(new MonitoringAgentForService(monitoringServiceURL, applicationId))
                 : new MonitoringAgentForNullDevice();
     }
 
@@ -169,7 +277,7 @@ public final class MonitoringAgentFactory {
      */
     public static MonitoringAgentInterface createMonitoringAgentForSqlFile(String monitoringSqlFileName, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException {
         return MonitoringAgentFactory.enabled
-                ? new MonitoringAgentForSqlFile(monitoringSqlFileName, applicationId, monitoredResourcesDefaultStrategy)
+                ? registered(new MonitoringAgentForSqlFile(monitoringSqlFileName, applicationId, monitoredResourcesDefaultStrategy))
                 : new MonitoringAgentForNullDevice();
     }
 
@@ -187,7 +295,83 @@ public final class MonitoringAgentFactory {
      */
     public static MonitoringAgentInterface createMonitoringAgentForSqlFile(String monitoringSqlFileName, String applicationId) throws IOException {
         return MonitoringAgentFactory.enabled
-                ? new MonitoringAgentForSqlFile(monitoringSqlFileName, applicationId)
+                ? registered(new MonitoringAgentForSqlFile(monitoringSqlFileName, applicationId))
+                : new MonitoringAgentForNullDevice();
+    }
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * given binary log directory with a given default monitored resource
+     * strategy.
+     *
+     * @param binaryLogDirectoryName a binary log directory name
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @return a created monitoring agent
+     * @throws java.io.IOException if the binary log directory or its segment
+     * file cannot be created
+     */
+    public static MonitoringAgentInterface createMonitoringAgentForBinaryLog(String binaryLogDirectoryName, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException {
+        return MonitoringAgentFactory.enabled
+                ? registered(new MonitoringAgentForBinaryLog(binaryLogDirectoryName, applicationId, monitoredResourcesDefaultStrategy))
+                : new MonitoringAgentForNullDevice();
+    }
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * given binary log directory with
+     * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
+     * strategy.
+     *
+     * @param binaryLogDirectoryName a binary log directory name
+     * @param applicationId an application ID
+     * @return a created monitoring agent
+     * @throws java.io.IOException if the binary log directory or its segment
+     * file cannot be created
+     */
+    public static MonitoringAgentInterface createMonitoringAgentForBinaryLog(String binaryLogDirectoryName, String applicationId) throws IOException {
+        return MonitoringAgentFactory.enabled
+                ? registered(new MonitoringAgentForBinaryLog(binaryLogDirectoryName, applicationId))
+                : new MonitoringAgentForNullDevice();
+    }
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * ring buffer in a given shared memory directory (to be drained by
+     * <code>MonitoringSharedMemoryCollector</code>) with a given default
+     * monitored resource strategy.
+     *
+     * @param sharedMemoryDirectoryName a shared memory directory name
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @return a created monitoring agent
+     * @throws java.io.IOException if the shared memory directory or its ring
+     * buffer file cannot be created
+     */
+    public static MonitoringAgentInterface createMonitoringAgentForSharedMemory(String sharedMemoryDirectoryName, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException {
+        return MonitoringAgentFactory.enabled
+                ? registered(new MonitoringAgentForSharedMemory(sharedMemoryDirectoryName, applicationId, monitoredResourcesDefaultStrategy))
+                : new MonitoringAgentForNullDevice();
+    }
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * ring buffer in a given shared memory directory (to be drained by
+     * <code>MonitoringSharedMemoryCollector</code>) with
+     * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
+     * strategy.
+     *
+     * @param sharedMemoryDirectoryName a shared memory directory name
+     * @param applicationId an application ID
+     * @return a created monitoring agent
+     * @throws java.io.IOException if the shared memory directory or its ring
+     * buffer file cannot be created
+     */
+    public static MonitoringAgentInterface createMonitoringAgentForSharedMemory(String sharedMemoryDirectoryName, String applicationId) throws IOException {
+        return MonitoringAgentFactory.enabled
+                ? registered(new MonitoringAgentForSharedMemory(sharedMemoryDirectoryName, applicationId))
                 : new MonitoringAgentForNullDevice();
     }
 
@@ -206,7 +390,7 @@ public final class MonitoringAgentFactory {
      */
     public static MonitoringAgentInterface createMonitoringAgentForDatabase(Connection monitoringDatabaseConnection, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws SQLException {
         return MonitoringAgentFactory.enabled
-                ? new MonitoringAgentForDatabase(monitoringDatabaseConnection, applicationId, monitoredResourcesDefaultStrategy)
+                ? registered(new MonitoringAgentForDatabase(monitoringDatabaseConnection, applicationId, monitoredResourcesDefaultStrategy))
                 : new MonitoringAgentForNullDevice();
     }
 
@@ -224,10 +408,256 @@ public final class MonitoringAgentFactory {
      */
     public static MonitoringAgentInterface createMonitoringAgentForDatabase(Connection monitoringDatabaseConnection, String applicationId) throws SQLException {
         return MonitoringAgentFactory.enabled
-                ? new MonitoringAgentForDatabase(monitoringDatabaseConnection, applicationId)
+                ? registered(new MonitoringAgentForDatabase(monitoringDatabaseConnection, applicationId))
+                : new MonitoringAgentForNullDevice();
+    }
+
+    /**
+     * Create an asynchronous (write-behind) monitoring agent for monitoring of
+     * a given application to a given monitoring database connection with a
+     * given default monitored resource strategy. Settings of the queue of the
+     * agent are given by system properties named according to
+     * <code>SYSTEM_PROPERTY_NAME_FOR_QUEUE_CAPACITY</code>,
+     * <code>SYSTEM_PROPERTY_NAME_FOR_BATCH_SIZE</code>,
+     * <code>SYSTEM_PROPERTY_NAME_FOR_FLUSH_INTERVAL</code>, and
+     * <code>SYSTEM_PROPERTY_NAME_FOR_OVERFLOW_POLICY</code> values or by their
+     * defaults.
+     *
+     * @param monitoringDatabaseConnection a monitoring database connection
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @return a created monitoring agent
+     * @throws java.sql.SQLException if the monitoring database connection
+     * cannot be used
+     */
+    public static MonitoringAgentInterface createMonitoringAgentForDatabaseAsync(Connection monitoringDatabaseConnection, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws SQLException {
+        return MonitoringAgentFactory.enabled
+                ? registered(new MonitoringAgentForDatabaseAsync(monitoringDatabaseConnection, applicationId, monitoredResourcesDefaultStrategy,
+                        getQueueCapacity(), getBatchSize(), getFlushIntervalMillis(), getOverflowPolicy()))
                 : new MonitoringAgentForNullDevice();
     }
 
+    /**
+     * Create an asynchronous (write-behind) monitoring agent for monitoring of
+     * a given application to a given monitoring database connection with
+     * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
+     * strategy. Settings of the queue of the agent are given by system
+     * properties named according to
+     * <code>SYSTEM_PROPERTY_NAME_FOR_QUEUE_CAPACITY</code>,
+     * <code>SYSTEM_PROPERTY_NAME_FOR_BATCH_SIZE</code>,
+     * <code>SYSTEM_PROPERTY_NAME_FOR_FLUSH_INTERVAL</code>, and
+     * <code>SYSTEM_PROPERTY_NAME_FOR_OVERFLOW_POLICY</code> values or by their
+     * defaults.
+     *
+     * @param monitoringDatabaseConnection a monitoring database connection
+     * @param applicationId an application ID
+     * @return a created monitoring agent
+     * @throws java.sql.SQLException if the monitoring database connection
+     * cannot be used
+     */
+    public static MonitoringAgentInterface createMonitoringAgentForDatabaseAsync(Connection monitoringDatabaseConnection, String applicationId) throws SQLException {
+        return MonitoringAgentFactory.createMonitoringAgentForDatabaseAsync(monitoringDatabaseConnection, applicationId, new MonitoredResourcesCachingStrategy());
+    }
+
+    /**
+     * Create an asynchronous monitoring agent for monitoring of a given
+     * application to a given monitoring service with a given default monitored
+     * resource strategy. The records are sent in batches as JSON arrays over
+     * keep-alive connections. Settings of the queue of the agent are given as
+     * in <code>createMonitoringAgentForDatabaseAsync(...)</code> method and
+     * settings of the transport are given by system properties named according
+     * to <code>SYSTEM_PROPERTY_NAME_FOR_GZIP</code>,
+     * <code>SYSTEM_PROPERTY_NAME_FOR_MAX_RETRIES</code>, and
+     * <code>SYSTEM_PROPERTY_NAME_FOR_RETRY_BACKOFF</code> values or by their
+     * defaults.
+     *
+     * @param monitoringServiceURL a monitoring service URL (it should end with
+     * '/' character)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @return a created monitoring agent
+     * @throws java.io.IOException if the monitoring service URL is malformed
+     */
+    public static MonitoringAgentInterface createMonitoringAgentForServiceAsync(String monitoringServiceURL, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException {
+        return MonitoringAgentFactory.enabled
+                ? registered(new MonitoringAgentForServiceAsync(monitoringServiceURL, applicationId, monitoredResourcesDefaultStrategy,
+                        getQueueCapacity(), getBatchSize(), getFlushIntervalMillis(), getOverflowPolicy(),
+                        System.getProperty(SYSTEM_PROPERTY_NAME_FOR_GZIP) != null,
+                        Integer.getInteger(SYSTEM_PROPERTY_NAME_FOR_MAX_RETRIES, MonitoringAgentForServiceAsync.DEFAULT_MAX_RETRIES),
+                        Long.getLong(SYSTEM_PROPERTY_NAME_FOR_RETRY_BACKOFF, MonitoringAgentForServiceAsync.DEFAULT_INITIAL_BACKOFF_MILLIS)))
+                : new MonitoringAgentForNullDevice();
+    }
+
+    /**
+     * Create an asynchronous monitoring agent for monitoring of a given
+     * application to a given monitoring service with
+     * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
+     * strategy. See
+     * <code>createMonitoringAgentForServiceAsync(String, String, MonitoredResourcesStrategyInterface)</code>
+     * for its settings.
+     *
+     * @param monitoringServiceURL a monitoring service URL (it should end with
+     * '/' character)
+     * @param applicationId an application ID
+     * @return a created monitoring agent
+     * @throws java.io.IOException if the monitoring service URL is malformed
+     */
+    public static MonitoringAgentInterface createMonitoringAgentForServiceAsync(String monitoringServiceURL, String applicationId) throws IOException {
+        return MonitoringAgentFactory.createMonitoringAgentForServiceAsync(monitoringServiceURL, applicationId, new MonitoredResourcesCachingStrategy());
+    }
+
+    /**
+     * Create a monitoring agent which makes a given monitoring agent usable by
+     * concurrent threads. The agent has a buffer for each thread with a
+     * capacity set by system property named according to
+     * <code>SYSTEM_PROPERTY_NAME_FOR_STRIPE_CAPACITY</code> and an overflow
+     * policy set by system property named according to
+     * <code>SYSTEM_PROPERTY_NAME_FOR_OVERFLOW_POLICY</code>. If the factory is
+     * disabled, the given agent is returned.
+     *
+     * @param monitoringAgent the monitoring agent to be made usable by
+     * concurrent threads
+     * @return a created monitoring agent
+     */
+    public static MonitoringAgentInterface createMonitoringAgentStriped(MonitoringAgentInterface monitoringAgent) {
+        return MonitoringAgentFactory.enabled
+                ? registered(new MonitoringAgentStriped(monitoringAgent,
+                        Integer.getInteger(SYSTEM_PROPERTY_NAME_FOR_STRIPE_CAPACITY, MonitoringAgentStriped.DEFAULT_STRIPE_CAPACITY), getOverflowPolicy()))
+                : monitoringAgent;
+    }
+
+    /**
+     * Close a given monitoring agent if it is closeable, e.g., to flush its
+     * pending records. If the closing thread is interrupted, the interrupt is
+     * restored.
+     *
+     * @param monitoringAgent the monitoring agent to close
+     * @throws IOException if the agent cannot be closed due to an I/O error
+     * (or due to an exception which is not an SQL exception)
+     * @throws SQLException if the agent cannot be closed due to a database
+     * error
+     */
+    public static void closeMonitoringAgent(MonitoringAgentInterface monitoringAgent) throws IOException, SQLException {
+        if (monitoringAgent instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) monitoringAgent).close();
+            }
+            catch (IOException | SQLException | RuntimeException ex) {
+                throw ex;
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch (Exception ex) {
+                throw new IOException("Cannot close the monitoring agent.", ex);
+            }
+        }
+    }
+
+    private static <T extends MonitoringAgentAbstract> T registered(T monitoringAgent) {
+        // the statistics query the agent, so they are registered after the agent has been constructed
+        monitoringAgent.registerStatistics();
+        return monitoringAgent;
+    }
+
+    private static MonitoringAgentInterface stripedIfRequested(MonitoringAgentInterface monitoringAgent) {
+        return (System.getProperty(SYSTEM_PROPERTY_NAME_FOR_STRIPED) != null)
+                ? createMonitoringAgentStriped(monitoringAgent)
+                : monitoringAgent;
+    }
+
+    private static MonitoringAgentInterface sampledIfRequested(MonitoringAgentInterface monitoringAgent) {
+        final double samplingPeriod = getSamplingPeriod();
+        if (!MonitoringAgentFactory.enabled || (samplingPeriod <= 0) || !ProcessSampleSensor.isSupported()) {
+            return monitoringAgent;
+        }
+        // the sampler thread sends the records concurrently to the application threads (the agent for a shared memory is lock-free)
+        final MonitoringAgentInterface concurrentMonitoringAgent
+                = ((monitoringAgent instanceof MonitoringAgentForSqlFile) || (monitoringAgent instanceof MonitoringAgentForDatabase))
+                        ? createMonitoringAgentStriped(monitoringAgent)
+                        : monitoringAgent;
+        // the sensor is closed by the returned agent before its target agent
+        return new MonitoringAgentSampled(concurrentMonitoringAgent, samplingPeriod);
+    }
+
+    private static boolean isAsync() {
+        return System.getProperty(SYSTEM_PROPERTY_NAME_FOR_ASYNC) != null;
+    }
+
+    static double getSamplingPeriod() {
+        final String samplingPeriod = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_SAMPLING_PERIOD);
+        return (samplingPeriod == null) ? 0 : Double.parseDouble(samplingPeriod);
+    }
+
+    /**
+     * Create a new sampling policy for a sensor for a Juniper program instance
+     * according to <code>SYSTEM_PROPERTY_NAME_FOR_PROGRAM_SAMPLING</code>
+     * value (each sensor needs its own policy).
+     *
+     * @return the sampling policy or null if no sampling is set
+     * @throws IllegalArgumentException if the value of the system property
+     * is not valid
+     */
+    static SamplingPolicyInterface createProgramSamplingPolicy() throws IllegalArgumentException {
+        final String programSampling = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_PROGRAM_SAMPLING);
+        if (programSampling == null) {
+            return null;
+        }
+        final String[] splittedValue = programSampling.split(":");
+        try {
+            switch (splittedValue[0].toLowerCase(Locale.ROOT)) {
+                case "every":
+                    return new EveryNthSamplingPolicy(Long.parseLong(splittedValue[1]));
+                case "budget":
+                    return new TimeBudgetSamplingPolicy(Double.parseDouble(splittedValue[1]));
+                case "reservoir":
+                    return new ReservoirSamplingPolicy(Integer.parseInt(splittedValue[1]), Double.parseDouble(splittedValue[2]));
+                case "adaptive":
+                    return new AdaptiveSamplingPolicy(Double.parseDouble(splittedValue[1]));
+            }
+        }
+        catch (IndexOutOfBoundsException ex) {
+            // NOP, the exception below
+        }
+        throw new IllegalArgumentException("System property " + SYSTEM_PROPERTY_NAME_FOR_PROGRAM_SAMPLING
+                + " has to be every:N, budget:ratio, reservoir:size:seconds, or adaptive:ratio.");
+    }
+
+    private static int getQueueCapacity() {
+        return Integer.getInteger(SYSTEM_PROPERTY_NAME_FOR_QUEUE_CAPACITY, MonitoringAgentAsyncAbstract.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    private static int getBatchSize() {
+        return Integer.getInteger(SYSTEM_PROPERTY_NAME_FOR_BATCH_SIZE, MonitoringAgentAsyncAbstract.DEFAULT_BATCH_SIZE);
+    }
+
+    private static long getFlushIntervalMillis() {
+        return Long.getLong(SYSTEM_PROPERTY_NAME_FOR_FLUSH_INTERVAL, MonitoringAgentAsyncAbstract.DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    static double getAggregationWindow() {
+        final String aggregationWindow = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_AGGREGATION_WINDOW);
+        return (aggregationWindow == null) ? 0 : Double.parseDouble(aggregationWindow);
+    }
+
+    static double getHistogramWindow() {
+        final String histogramWindow = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_HISTOGRAM_WINDOW);
+        return (histogramWindow == null) ? 0 : Double.parseDouble(histogramWindow);
+    }
+
+    static boolean isReportingGcPauses() {
+        return System.getProperty(SYSTEM_PROPERTY_NAME_FOR_GC_PAUSES) != null;
+    }
+
+    private static MonitoringAgentAsyncAbstract.OverflowPolicy getOverflowPolicy() {
+        final String overflowPolicy = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_OVERFLOW_POLICY);
+        return (overflowPolicy == null)
+                ? MonitoringAgentAsyncAbstract.DEFAULT_OVERFLOW_POLICY
+                : MonitoringAgentAsyncAbstract.OverflowPolicy.valueOf(overflowPolicy.toUpperCase(Locale.ROOT));
+    }
+
     private static Connection createDatabaseConnection(String jdbcUrl) throws SQLException {
         // load JDBC user and password from system properties
         final String jdbcUser = System.getProperty(SYSTEM_PROPERTY_NAME_FOR_JDBC_USER);
@@ -244,13 +674,17 @@ public final class MonitoringAgentFactory {
 
     /**
      * Create a monitoring agent for monitoring of a given application to a
-     * given monitoring SQL file, JDBC database, or a given monitoring service
-     * (if <code>monitoringUrl</code> is a local file path, JDBC connectino
-     * string, or an URL, respectively) with a given default monitored resource
+     * given monitoring SQL file, binary log, shared memory, JDBC database, or
+     * a given monitoring service (if <code>monitoringUrl</code> is a local file
+     * path, a local directory path with <code>.binlog</code> suffix, a local
+     * directory path with <code>shm:</code> prefix, JDBC connectino string, or
+     * an URL, respectively) with a given default monitored resource
      * strategy.
      *
-     * @param monitoringUrl a local file path to the monitoring SQL file, a JDBC
-     * connection string, or an URL to the monitoring service
+     * @param monitoringUrl a local file path to the monitoring SQL file, a
+     * local directory path to the binary log, a prefixed local directory path
+     * to the shared memory, a JDBC connection string, or an URL to the
+     * monitoring service
      * @param applicationId an application ID
      * @param monitoredResourcesDefaultStrategy a default monitored resource
      * strategy used by the agent
@@ -263,25 +697,37 @@ public final class MonitoringAgentFactory {
     public static MonitoringAgentInterface createMonitoringAgent(String monitoringUrl, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException, SQLException {
         MonitoringAgentInterface monitoringAgent;
         if (monitoringUrl.startsWith(MonitoringAgentFactory.STATUS_VALUE_PREF_JDBC)) {
-            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForDatabase(createDatabaseConnection(monitoringUrl), applicationId, monitoredResourcesDefaultStrategy);
+            monitoringAgent = isAsync()
+                    ? MonitoringAgentFactory.createMonitoringAgentForDatabaseAsync(createDatabaseConnection(monitoringUrl), applicationId, monitoredResourcesDefaultStrategy)
+                    : stripedIfRequested(MonitoringAgentFactory.createMonitoringAgentForDatabase(createDatabaseConnection(monitoringUrl), applicationId, monitoredResourcesDefaultStrategy));
         } else if (monitoringUrl.startsWith(MonitoringAgentFactory.STATUS_VALUE_PREF_HTTP) || monitoringUrl.startsWith(MonitoringAgentFactory.STATUS_VALUE_PREF_HTTPS)) {
-            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForService(monitoringUrl, applicationId, monitoredResourcesDefaultStrategy);
+            monitoringAgent = isAsync()
+                    ? MonitoringAgentFactory.createMonitoringAgentForServiceAsync(monitoringUrl, applicationId, monitoredResourcesDefaultStrategy)
+                    : stripedIfRequested(MonitoringAgentFactory.createMonitoringAgentForService(monitoringUrl, applicationId, monitoredResourcesDefaultStrategy));
+        } else if (monitoringUrl.startsWith(MonitoringAgentFactory.STATUS_VALUE_PREF_SHM)) {
+            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForSharedMemory(monitoringUrl.substring(MonitoringAgentFactory.STATUS_VALUE_PREF_SHM.length()), applicationId, monitoredResourcesDefaultStrategy);
+        } else if (monitoringUrl.endsWith(MonitoringAgentForBinaryLog.BINARY_LOG_SUFFIX)) {
+            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForBinaryLog(monitoringUrl, applicationId, monitoredResourcesDefaultStrategy);
         } else {
-            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForSqlFile(monitoringUrl, applicationId, monitoredResourcesDefaultStrategy);
+            monitoringAgent = stripedIfRequested(MonitoringAgentFactory.createMonitoringAgentForSqlFile(monitoringUrl, applicationId, monitoredResourcesDefaultStrategy));
         }
-        return monitoringAgent;
+        return sampledIfRequested(monitoringAgent);
     }
 
     /**
      * Create a monitoring agent for monitoring of a given application to a
-     * given monitoring SQL file, JDBC database, or a given monitoring service
-     * (if <code>monitoringUrl</code> is a local file path, JDBC connectino
-     * string, or an URL, respectively) with
+     * given monitoring SQL file, binary log, shared memory, JDBC database, or
+     * a given monitoring service (if <code>monitoringUrl</code> is a local file
+     * path, a local directory path with <code>.binlog</code> suffix, a local
+     * directory path with <code>shm:</code> prefix, JDBC connectino string, or
+     * an URL, respectively) with
      * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
      * strategy.
      *
-     * @param monitoringUrl a local file path to the monitoring SQL file, a JDBC
-     * connection string, or an URL to the monitoring service
+     * @param monitoringUrl a local file path to the monitoring SQL file, a
+     * local directory path to the binary log, a prefixed local directory path
+     * to the shared memory, a JDBC connection string, or an URL to the
+     * monitoring service
      * @param applicationId an application ID
      * @return a created monitoring agent
      * @throws java.io.IOException if the monitoring SQL file cannot be opened
@@ -292,13 +738,21 @@ public final class MonitoringAgentFactory {
     public static MonitoringAgentInterface createMonitoringAgent(String monitoringUrl, String applicationId) throws IOException, SQLException {
         MonitoringAgentInterface monitoringAgent;
         if (monitoringUrl.startsWith(MonitoringAgentFactory.STATUS_VALUE_PREF_JDBC)) {
-            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForDatabase(createDatabaseConnection(monitoringUrl), applicationId);
+            monitoringAgent = isAsync()
+                    ? MonitoringAgentFactory.createMonitoringAgentForDatabaseAsync(createDatabaseConnection(monitoringUrl), applicationId)
+                    : stripedIfRequested(MonitoringAgentFactory.createMonitoringAgentForDatabase(createDatabaseConnection(monitoringUrl), applicationId));
         } else if (monitoringUrl.startsWith(MonitoringAgentFactory.STATUS_VALUE_PREF_HTTP) || monitoringUrl.startsWith(MonitoringAgentFactory.STATUS_VALUE_PREF_HTTPS)) {
-            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForService(monitoringUrl, applicationId);
+            monitoringAgent = isAsync()
+                    ? MonitoringAgentFactory.createMonitoringAgentForServiceAsync(monitoringUrl, applicationId)
+                    : stripedIfRequested(MonitoringAgentFactory.createMonitoringAgentForService(monitoringUrl, applicationId));
+        } else if (monitoringUrl.startsWith(MonitoringAgentFactory.STATUS_VALUE_PREF_SHM)) {
+            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForSharedMemory(monitoringUrl.substring(MonitoringAgentFactory.STATUS_VALUE_PREF_SHM.length()), applicationId);
+        } else if (monitoringUrl.endsWith(MonitoringAgentForBinaryLog.BINARY_LOG_SUFFIX)) {
+            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForBinaryLog(monitoringUrl, applicationId);
         } else {
-            monitoringAgent = MonitoringAgentFactory.createMonitoringAgentForSqlFile(monitoringUrl, applicationId);
+            monitoringAgent = stripedIfRequested(MonitoringAgentFactory.createMonitoringAgentForSqlFile(monitoringUrl, applicationId));
         }
-        return monitoringAgent;
+        return sampledIfRequested(monitoringAgent);
     }
 
     /**
@@ -373,10 +827,43 @@ public final class MonitoringAgentFactory {
     public static void main(String[] args) {
         System.err.println(MonitoringAgentFactory.class.getCanonicalName() + ".enabled = " + MonitoringAgentFactory.enabled + "\n"
                 + "Set " + SYSTEM_PROPERTY_NAME_FOR_AGENT_STATUS + " system property to enable the class property above."
-                + " If createMonitoringAgentBySystemProperty method is used, the system property value should be a local file path of a monitoring SQL file, a JDBC connection to a monitoring database, or an URL of a monitoring service."
+                + " If createMonitoringAgentBySystemProperty method is used, the system property value should be a local file path of a monitoring SQL file, a local directory path with " + MonitoringAgentForBinaryLog.BINARY_LOG_SUFFIX + " suffix of a binary log, a local directory path with " + STATUS_VALUE_PREF_SHM + " prefix of a shared memory drained by " + MonitoringSharedMemoryCollector.class.getSimpleName() + ", a JDBC connection to a monitoring database, or an URL of a monitoring service."
                 + " Current value of " + SYSTEM_PROPERTY_NAME_FOR_AGENT_STATUS + " system property is '" + STATUS_VALUE + "'\n"
                 + "JDBC username and password can be set by system properties as"
                 + " -D" + SYSTEM_PROPERTY_NAME_FOR_JDBC_USER + "=username and"
-                + " -D" + SYSTEM_PROPERTY_NAME_FOR_JDBC_PASSWORD + "=password.");
+                + " -D" + SYSTEM_PROPERTY_NAME_FOR_JDBC_PASSWORD + "=password.\n"
+                + "Set " + SYSTEM_PROPERTY_NAME_FOR_ASYNC + " system property to send metrics into a JDBC database or a monitoring service asynchronously by a background thread in batches"
+                + " (with optional -D" + SYSTEM_PROPERTY_NAME_FOR_QUEUE_CAPACITY + "=" + MonitoringAgentAsyncAbstract.DEFAULT_QUEUE_CAPACITY
+                + " -D" + SYSTEM_PROPERTY_NAME_FOR_BATCH_SIZE + "=" + MonitoringAgentAsyncAbstract.DEFAULT_BATCH_SIZE
+                + " -D" + SYSTEM_PROPERTY_NAME_FOR_FLUSH_INTERVAL + "=" + MonitoringAgentAsyncAbstract.DEFAULT_FLUSH_INTERVAL_MILLIS + " (milliseconds)"
+                + " -D" + SYSTEM_PROPERTY_NAME_FOR_OVERFLOW_POLICY + "=" + MonitoringAgentAsyncAbstract.DEFAULT_OVERFLOW_POLICY + " (or "
+                + Arrays.toString(MonitoringAgentAsyncAbstract.OverflowPolicy.values()) + "))."
+                + " Batches for a monitoring service can be compressed by -D" + SYSTEM_PROPERTY_NAME_FOR_GZIP
+                + " and their failed requests are retried -D" + SYSTEM_PROPERTY_NAME_FOR_MAX_RETRIES + "=" + MonitoringAgentForServiceAsync.DEFAULT_MAX_RETRIES
+                + " times with an exponential backoff starting at -D" + SYSTEM_PROPERTY_NAME_FOR_RETRY_BACKOFF + "=" + MonitoringAgentForServiceAsync.DEFAULT_INITIAL_BACKOFF_MILLIS + " milliseconds.\n"
+                + "Set " + SYSTEM_PROPERTY_NAME_FOR_STRIPED + " system property to make synchronous agents for an SQL file, a JDBC database, or a monitoring service usable by concurrent threads"
+                + " (each thread puts its metrics into its own buffer of -D" + SYSTEM_PROPERTY_NAME_FOR_STRIPE_CAPACITY + "=" + MonitoringAgentStriped.DEFAULT_STRIPE_CAPACITY
+                + " records and a single background thread sends them; the overflow policy above applies to the buffers).\n"
+                + "Set -D" + SYSTEM_PROPERTY_NAME_FOR_AGGREGATION_WINDOW + "=<seconds> system property to aggregate data transfers of each data connection in windows of a given duration"
+                + " and to send one " + DataConnectionAggregatingSensor.METRIC_TYPE + " record per window instead of one record per transfer.\n"
+                + "Set -D" + SYSTEM_PROPERTY_NAME_FOR_HISTOGRAM_WINDOW + "=<seconds> system property to record durations of programs and data transfers into latency histograms"
+                + " and to send one histogram record per window of a given duration (the aggregated records of data transfers always include the histograms).\n"
+                + "Set " + SYSTEM_PROPERTY_NAME_FOR_GC_PAUSES + " system property to record each garbage collection pause of the JVM by a notification listener"
+                + " and to send one " + GarbageCollectionPauseSensor.METRIC_TYPE + " record per pause with each report of a program"
+                + " (supported " + GarbageCollectionPauseSensor.isSupported() + ").\n"
+                + "Set -D" + SYSTEM_PROPERTY_NAME_FOR_SAMPLING_PERIOD + "=<seconds> system property to sample CPU times, memory, page faults, context switches, I/O, and load averages"
+                + " of the JVM process from the /proc filesystem by a background thread at a fixed rate and to send one " + ProcessSampleSensor.METRIC_TYPE + " record per sample"
+                + " (synchronous agents for an SQL file or a JDBC database are made striped for the thread; supported " + ProcessSampleSensor.isSupported() + ").\n"
+                + "Set -D" + SYSTEM_PROPERTY_NAME_FOR_PROGRAM_SAMPLING + "=every:<N>, budget:<ratio>, reservoir:<size>:<seconds>, or adaptive:<ratio> system property"
+                + " to measure in full only every N-th invocation of each program, invocations within a budget of a ratio of each second for the measuring,"
+                + " a random sample of a given size per window of a given duration, or invocations keeping the measuring overhead close to a ratio of the execution time, respectively"
+                + " (the other invocations are just timed and their counts and durations are included into the sent records with a SampleWeight metric).\n"
+                + "Run a JVM with -javaagent:<this-jar-with-dependencies>[=applicationId=<id>,programClass=<class>,providedAnnotation=<annotation>,rankField=<field>] option"
+                + " to instrument execute() methods of Juniper programs and methods of their provided interfaces by timing probes"
+                + " reporting into a monitoring agent singleton created according to the system properties above (see "
+                + InstrumentationAgent.class.getCanonicalName() + ").\n"
+                + "Statistics of the monitoring overhead of each created agent (sent and dropped records, queue depth, latencies of sendMetric methods, written bytes, and flushes)"
+                + " are registered in the platform MBean server as " + MonitoringAgentMXBean.class.getSimpleName()
+                + " " + MonitoringAgentStatistics.OBJECT_NAME_DOMAIN + ":type=" + MonitoringAgentStatistics.OBJECT_NAME_TYPE + ",agent=<class>,id=<number>.");
     }
 }
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesCachingStrategy;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The class to send metric values to a binary append-only log, i.e., a
+ * directory of memory-mapped segment files. Each agent (JVM process) writes its
+ * own segment files named
+ * <code>&lt;hostname&gt;-&lt;pid&gt;-&lt;start-time&gt;-&lt;sequence-number&gt;.seg</code>,
+ * so several agents can share the directory. A segment file starts with a
+ * header (an int <code>SEGMENT_MAGIC</code>, a short
+ * <code>SEGMENT_VERSION</code>, and an application ID as a short length and
+ * UTF-8 bytes) followed by length-prefixed entries (an int length of the entry
+ * after the length field, a byte entry kind, and the entry data). A
+ * <code>ENTRY_DICTIONARY</code> entry defines a string (an int ID, and a short
+ * length and UTF-8 bytes) used by the following entries in the same segment.
+ * A <code>ENTRY_RECORD</code> entry contains a record (a long timestamp in
+ * nanoseconds, int IDs of its metric type and hostname strings, a short number of
+ * metrics, and for each metric an int ID of its name string, a byte value kind
+ * <code>VALUE_NUMERIC</code> or <code>VALUE_TEXT</code>, and a double value or
+ * an int length and UTF-8 bytes). A zero length terminates the entries. The
+ * length of the first entry written by a particular append is written last,
+ * so an incomplete append of a crashed process is never read.
+ *
+ * @author rychly
+ */
+public class MonitoringAgentForBinaryLog extends MonitoringAgentAbstract implements MonitoringAgentInterface, AutoCloseable {
+
+    /**
+     * Suffix of the directory of a binary log.
+     */
+    public static final String BINARY_LOG_SUFFIX = ".binlog";
+    /**
+     * Suffix of segment files of a binary log.
+     */
+    public static final String SEGMENT_FILE_SUFFIX = ".seg";
+    /**
+     * Magic number at the start of each segment file.
+     */
+    public static final int SEGMENT_MAGIC = 0x4A534142; // "JSAB"
+    /**
+     * Version of the format of segment files.
+     */
+    public static final short SEGMENT_VERSION = 2;
+    /**
+     * Kind of a dictionary entry.
+     */
+    public static final byte ENTRY_DICTIONARY = 1;
+    /**
+     * Kind of a record entry.
+     */
+    public static final byte ENTRY_RECORD = 2;
+    /**
+     * Kind of a numeric metric value.
+     */
+    public static final byte VALUE_NUMERIC = 0;
+    /**
+     * Kind of a text metric value.
+     */
+    public static final byte VALUE_TEXT = 1;
+    /**
+     * Default size of segment files in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    private final File binaryLogDirectory;
+    private final String segmentFilePrefix;
+    private final int segmentSize;
+    private final byte[] applicationIdBytes;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private ByteBuffer stagingBuffer = ByteBuffer.allocate(4096);
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segmentBuffer;
+    private int segmentSequenceNumber = 0;
+    // guarded by the agent as the segment buffer, it is null after the closing
+    private boolean closed = false;
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * given binary log directory with a given default monitored resource
+     * strategy and a given size of segment files.
+     *
+     * @param binaryLogDirectoryName a binary log directory name (it will be
+     * created if it does not exist)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @param segmentSize a size of segment files in bytes
+     * @throws IOException if the binary log directory or its first segment
+     * file cannot be created
+     */
+    public MonitoringAgentForBinaryLog(String binaryLogDirectoryName, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy, int segmentSize) throws IOException {
+        super(applicationId, monitoredResourcesDefaultStrategy);
+        this.binaryLogDirectory = new File(binaryLogDirectoryName);
+        if (!this.binaryLogDirectory.isDirectory() && !this.binaryLogDirectory.mkdirs()) {
+            throw new IOException("Cannot create the binary log directory " + binaryLogDirectoryName);
+        }
+        this.segmentFilePrefix = String.format(Locale.ROOT, "%s-%d-%d-",
+                monitoredResourcesDefaultStrategy.getHostname(), monitoredResourcesDefaultStrategy.getProcessID(), System.currentTimeMillis());
+        this.segmentSize = segmentSize;
+        this.applicationIdBytes = (applicationId == null ? "" : applicationId).getBytes(StandardCharsets.UTF_8);
+        this.openNextSegment();
+    }
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * given binary log directory with a given default monitored resource
+     * strategy and the default size of segment files.
+     *
+     * @param binaryLogDirectoryName a binary log directory name (it will be
+     * created if it does not exist)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @throws IOException if the binary log directory or its first segment
+     * file cannot be created
+     */
+    public MonitoringAgentForBinaryLog(String binaryLogDirectoryName, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException {
+        this(binaryLogDirectoryName, applicationId, monitoredResourcesDefaultStrategy, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * given binary log directory with
+     * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
+     * strategy decorated by <code>MonitoredResourcesCachingStrategy</code> and
+     * the default size of segment files.
+     *
+     * @param binaryLogDirectoryName a binary log directory name (it will be
+     * created if it does not exist)
+     * @param applicationId an application ID
+     * @throws IOException if the binary log directory or its first segment
+     * file cannot be created
+     */
+    public MonitoringAgentForBinaryLog(String binaryLogDirectoryName, String applicationId) throws IOException {
+        this(binaryLogDirectoryName, applicationId, new MonitoredResourcesCachingStrategy());
+    }
+
+    private void openNextSegment() throws IOException {
+        this.closeSegment();
+        final File file = new File(this.binaryLogDirectory, String.format(Locale.ROOT, "%s%06d%s",
+                this.segmentFilePrefix, this.segmentSequenceNumber++, SEGMENT_FILE_SUFFIX));
+        this.segmentFile = new RandomAccessFile(file, "rw");
+        // the mapping extends the file, its unwritten part is filled by zeros (i.e., zero lengths of entries)
+        this.segmentBuffer = this.segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        this.segmentBuffer.putInt(SEGMENT_MAGIC);
+        this.segmentBuffer.putShort(SEGMENT_VERSION);
+        this.segmentBuffer.putShort((short) this.applicationIdBytes.length);
+        this.segmentBuffer.put(this.applicationIdBytes);
+        this.dictionary.clear();
+    }
+
+    private void closeSegment() throws IOException {
+        if (this.segmentFile != null) {
+            this.segmentBuffer.force();
+            this.statistics.flushed();
+            final int length = this.segmentBuffer.position();
+            this.segmentBuffer = null;
+            try {
+                // cut off the unused part (it may not be possible while the file is still mapped on some platforms)
+                this.segmentFile.setLength(length + 4);
+            }
+            catch (IOException ex) {
+                // NOP, the unused part is filled by zeros
+            }
+            this.segmentFile.close();
+            this.segmentFile = null;
+        }
+    }
+
+    private void ensureStagingCapacity(int length) {
+        if (this.stagingBuffer.remaining() < length) {
+            final ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(this.stagingBuffer.capacity() * 2, this.stagingBuffer.position() + length));
+            this.stagingBuffer.flip();
+            newBuffer.put(this.stagingBuffer);
+            this.stagingBuffer = newBuffer;
+        }
+    }
+
+    private int stringId(String string) {
+        final Integer id = this.dictionary.get(string);
+        if (id != null) {
+            return id;
+        }
+        final int newId = this.dictionary.size();
+        this.dictionary.put(string, newId);
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        this.ensureStagingCapacity(4 + 1 + 4 + 2 + bytes.length);
+        this.stagingBuffer.putInt(1 + 4 + 2 + bytes.length);
+        this.stagingBuffer.put(ENTRY_DICTIONARY);
+        this.stagingBuffer.putInt(newId);
+        this.stagingBuffer.putShort((short) bytes.length);
+        this.stagingBuffer.put(bytes);
+        return newId;
+    }
+
+    private void encodeRecord(MetricRecord metricRecord) {
+        this.stagingBuffer.clear();
+        // dictionary entries of new strings are staged before the record
+        final int typeId = this.stringId(metricRecord.getMetricType() == null ? "" : metricRecord.getMetricType());
+        final int hostnameId = this.stringId(metricRecord.getHostname() == null ? "" : metricRecord.getHostname());
+        short count = 0;
+        for (int i = 0; i < metricRecord.getMetricsCount(); i++) {
+            if (metricRecord.hasValue(i)) {
+                this.stringId(metricRecord.getMetricName(i));
+                count++;
+            }
+        }
+        final int recordStart = this.stagingBuffer.position();
+        this.ensureStagingCapacity(4 + 1 + 8 + 4 + 4 + 2);
+        this.stagingBuffer.putInt(0);
+        this.stagingBuffer.put(ENTRY_RECORD);
+        this.stagingBuffer.putLong(metricRecord.getTimestampNanos());
+        this.stagingBuffer.putInt(typeId);
+        this.stagingBuffer.putInt(hostnameId);
+        this.stagingBuffer.putShort(count);
+        for (int i = 0; i < metricRecord.getMetricsCount(); i++) {
+            if (metricRecord.hasValue(i)) {
+                final int nameId = this.stringId(metricRecord.getMetricName(i));
+                if (metricRecord.hasNumericValue(i)) {
+                    this.ensureStagingCapacity(4 + 1 + 8);
+                    this.stagingBuffer.putInt(nameId);
+                    this.stagingBuffer.put(VALUE_NUMERIC);
+                    this.stagingBuffer.putDouble(metricRecord.getNumericValue(i));
+                } else {
+                    final byte[] bytes = metricRecord.getTextValue(i).getBytes(StandardCharsets.UTF_8);
+                    this.ensureStagingCapacity(4 + 1 + 4 + bytes.length);
+                    this.stagingBuffer.putInt(nameId);
+                    this.stagingBuffer.put(VALUE_TEXT);
+                    this.stagingBuffer.putInt(bytes.length);
+                    this.stagingBuffer.put(bytes);
+                }
+            }
+        }
+        this.stagingBuffer.putInt(recordStart, this.stagingBuffer.position() - recordStart - 4);
+        this.stagingBuffer.flip();
+    }
+
+    /**
+     * Send a given record of a set of metrics of a particular type from the
+     * application to the binary log. The record is appended to the current
+     * segment file or to a new segment file if the current one is full.
+     *
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
+     * @return null or an error message if the record cannot be appended
+     * (e.g., if the agent has been closed)
+     */
+    @Override
+    public synchronized String sendMetric(MetricRecord metricRecord) {
+        if (this.closed) {
+            this.statistics.recordsDropped(1);
+            return "The monitoring agent has been closed.";
+        }
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
+        try {
+            this.encodeRecord(metricRecord);
+            // keep space for the terminating zero length
+            if (this.stagingBuffer.remaining() + 4 > this.segmentBuffer.remaining()) {
+                this.openNextSegment();
+                // the dictionary of the new segment is empty, encode it again with the dictionary entries
+                this.encodeRecord(metricRecord);
+                if (this.stagingBuffer.remaining() + 4 > this.segmentBuffer.remaining()) {
+                    // the staged dictionary entries will not be written
+                    this.dictionary.clear();
+                    this.statistics.recordsDropped(1);
+                    return "The record is larger than the segment size of the binary log.";
+                }
+            }
+            // append the staged entries and write the length of the first entry last to commit the append
+            final int start = this.segmentBuffer.position();
+            final int stagedLength = this.stagingBuffer.remaining();
+            final int firstLength = this.stagingBuffer.getInt();
+            this.segmentBuffer.position(start + 4);
+            this.segmentBuffer.put(this.stagingBuffer);
+            this.segmentBuffer.putInt(start, firstLength);
+            this.statistics.recordsSent(1);
+            this.statistics.bytesWritten(stagedLength);
+        }
+        catch (IOException ex) {
+            this.statistics.recordsFailed(1);
+            return ex.getMessage();
+        }
+        finally {
+            this.statistics.sendMetricEnds(sendMetricStartsNanos);
+        }
+        return null;
+    }
+
+    /**
+     * Close the current segment file (its content is forced to the storage
+     * device). The records sent after the closing are dropped.
+     *
+     * @throws IOException if the segment file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.closed = true;
+        this.statistics.unregister();
+        this.closeSegment();
+    }
+
+    /**
+     * Get the binary log directory.
+     *
+     * @return the binary log directory
+     */
+    public File getBinaryLogDirectory() {
+        return this.binaryLogDirectory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            final String className = MonitoringAgentForBinaryLog.class.getCanonicalName();
+            System.err.println(""
+                    + "Usage: " + className + " <binary-log-directory" + BINARY_LOG_SUFFIX + "> <number-of-records>\n"
+                    + "Append a given number of testing records (of the same format as produced by the program instance sensor) into a binary log"
+                    + " and into an SQL file in the same directory and print the time of both.\n"
+            );
+            System.exit(-1);
+        }
+        final int numberOfRecords = Integer.parseInt(args[1]);
+        final MonitoredResourcesStrategyInterface strategy = new MonitoredResourcesCachingStrategy();
+        final MetricRecord metricRecord = new MetricRecord("ProgramRuntime",
+                "ProgramGlobalRank", "ProgramStartTimestamp", "ProgramDuration", "GarbageCollectionCount", "GarbageCollectionTime",
+                "ProgramCpuTime", "StartHeapMemory", "UsedHeapMemory", "MaxHeapMemory", "StartNonHeapMemory",
+                "UsedNonHeapMemory", "MaxNonHeapMemory", "StartSwapSpaceSize", "UsedSwapSpaceSize", "MaxSwapSpaceSize");
+        metricRecord.setHostname(strategy.getHostname());
+        final MonitoringAgentInterface[] monitoringAgents;
+        try (MonitoringAgentForBinaryLog binaryLogAgent = new MonitoringAgentForBinaryLog(args[0], "test-application", strategy);
+                MonitoringAgentForSqlFile sqlFileAgent = new MonitoringAgentForSqlFile(new File(args[0], "test.sql").getPath(), "test-application", strategy)) {
+            monitoringAgents = new MonitoringAgentInterface[]{binaryLogAgent, sqlFileAgent};
+            for (MonitoringAgentInterface monitoringAgent : monitoringAgents) {
+                final long startTime = System.nanoTime();
+                for (int i = 0; i < numberOfRecords; i++) {
+                    final long timestampNanos = strategy.getTimestampNanos();
+                    metricRecord.setTimestampNanos(timestampNanos);
+                    for (int m = 0; m < metricRecord.getMetricsCount(); m++) {
+                        metricRecord.setNumericValue(m, m == 1 ? timestampNanos / 1e9 : i * m);
+                    }
+                    monitoringAgent.sendMetric(metricRecord);
+                }
+                System.out.printf("%s: %d records in %f sec\n", monitoringAgent.getClass().getSimpleName(),
+                        numberOfRecords, (System.nanoTime() - startTime) / 1e9);
+            }
+        }
+    }
+}
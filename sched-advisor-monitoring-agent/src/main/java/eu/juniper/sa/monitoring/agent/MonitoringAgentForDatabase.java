@@ -33,7 +33,6 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Timestamp;
 
 /**
  * The class to send metric values to an SQL database over a JDBC connection.
@@ -112,6 +111,7 @@ public class MonitoringAgentForDatabase extends MonitoringAgentAbstract implemen
      */
     @Override
     public void close() throws SQLException {
+        this.statistics.unregister();
         // set the auto-commit to the previous value
         this.monitoringDatabaseConnection.setAutoCommit(this.previousAutoCommit);
         // free prepared statement resources
@@ -121,24 +121,22 @@ public class MonitoringAgentForDatabase extends MonitoringAgentAbstract implemen
     }
 
     /**
-     * Send a set of given metrics of a particular type from the application to
-     * the monitoring database.
+     * Send a given record of a set of metrics of a particular type from the
+     * application to the monitoring database.
      *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @param timestampSec a timestamp in seconds of the metric set origin
-     * @param hostname a hostname of a client sending the metric
-     * @return null
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
+     * @return null or an error message if the record cannot be sent
      */
     @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) {
+    public String sendMetric(MetricRecord metricRecord) {
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
         try {
             Integer recId = null;
             // generate the metrics data header and send them into the database
-            preparedStatementRecord.setTimestamp(1, new Timestamp((long) (timestampSec * 1000)));
-            preparedStatementRecord.setString(2, metricType);
-            preparedStatementRecord.setString(3, hostname);
+            preparedStatementRecord.setLong(1, metricRecord.getTimestampNanos());
+            preparedStatementRecord.setString(2, metricRecord.getMetricType());
+            preparedStatementRecord.setString(3, metricRecord.getHostname());
             preparedStatementRecord.executeUpdate();
             try (ResultSet generatedKeys = preparedStatementRecord.getGeneratedKeys()) {
                 if (generatedKeys.next()) {
@@ -146,64 +144,31 @@ public class MonitoringAgentForDatabase extends MonitoringAgentAbstract implemen
                 }
             }
             // generate the metrics data key-value pairs and send them into the database
-            for (int i = 0; i < metricNames.length && i < metricValues.length; i++) {
-                if ((metricNames[i] != null) && (metricValues[i] != null)) {
-                    try {
-                        // use the value as a double number value if possible
-                        double doubleValue = Double.parseDouble(metricValues[i]);
+            for (int i = 0; i < metricRecord.getMetricsCount(); i++) {
+                if (metricRecord.hasValue(i)) {
+                    if (metricRecord.hasNumericValue(i)) {
                         preparedStatementNumericValue.setInt(1, recId);
-                        preparedStatementNumericValue.setString(2, metricNames[i]);
-                        preparedStatementNumericValue.setDouble(3, doubleValue);
+                        preparedStatementNumericValue.setString(2, metricRecord.getMetricName(i));
+                        preparedStatementNumericValue.setDouble(3, metricRecord.getNumericValue(i));
                         preparedStatementNumericValue.executeUpdate();
-                    } catch (NumberFormatException e) {
-                        // use the value as a string value otherwise
+                    } else {
                         preparedStatementTextValue.setInt(1, recId);
-                        preparedStatementTextValue.setString(2, metricNames[i]);
-                        preparedStatementTextValue.setString(3, metricValues[i]);
+                        preparedStatementTextValue.setString(2, metricRecord.getMetricName(i));
+                        preparedStatementTextValue.setString(3, metricRecord.getTextValue(i));
                         preparedStatementTextValue.executeUpdate();
                     }
                 }
             }
             // commit the sent data in the database
             this.monitoringDatabaseConnection.commit();
+            this.statistics.recordsSent(1);
+            this.statistics.flushed();
         } catch (SQLException ex) {
+            this.statistics.recordsFailed(1);
             return ex.getMessage();
+        } finally {
+            this.statistics.sendMetricEnds(sendMetricStartsNanos);
         }
         return null;
     }
-
-    /**
-     * Send a set of given metrics of a particular type from the application to
-     * the monitoring database. The method utilizes <code>getHostname()</code>
-     * method of the default monitored resource strategy to get a hostname of a
-     * client sending the metric.
-     *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @param timestampSec a timestamp in seconds of the metric set origin
-     * @return null
-     */
-    @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec) {
-        return this.sendMetric(metricType, metricNames, metricValues, timestampSec, this.getMonitoredResourcesDefaultStrategy().getHostname());
-    }
-
-    /**
-     * Send the latest set of given metrics of a particular type from the
-     * application to the monitoring database. The method utilizes methods of
-     * the default monitored resource strategy, namely
-     * <code>getTimestamp()</code> method to get a timestamp of metric to send
-     * and <code>getHostname()</code> method to get a hostname of a client
-     * sending the metric.
-     *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @return null
-     */
-    @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues) {
-        return this.sendMetric(metricType, metricNames, metricValues, this.getMonitoredResourcesDefaultStrategy().getTimestamp(), this.getMonitoredResourcesDefaultStrategy().getHostname());
-    }
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesCachingStrategy;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The class to send metric values to an SQL database over a JDBC connection
+ * asynchronously (write-behind). The metric values are queued and written by a
+ * background flusher thread in batches by JDBC <code>addBatch</code> and
+ * <code>executeBatch</code> methods with one commit per batch. IDs of the
+ * records in a batch are pre-allocated from a sequence of the records table by
+ * a single query for H2 and PostgreSQL databases (as H2 returns just the last
+ * generated key of a batch). For other databases, the records are inserted one
+ * by one to get their generated keys and only their metrics are batched. If a
+ * batch violates a constraint of the database (e.g., a record of the same
+ * time, metric type, and hostname sent by another process on the host), its
+ * records are inserted one by one and the violating records are skipped.
+ *
+ * @author rychly
+ */
+public class MonitoringAgentForDatabaseAsync extends MonitoringAgentAsyncAbstract implements MonitoringAgentInterface, AutoCloseable {
+
+    private final static String SQL_INSERT_RECORD = "INSERT INTO records(time, metrictype, hostname) VALUES (?, ?, ?);";
+    private final static String SQL_INSERT_RECORD_WITH_ID = "INSERT INTO records(id, time, metrictype, hostname) VALUES (?, ?, ?, ?);";
+    private final static String SQL_INSERT_NUMERIC_VALUE = "INSERT INTO metrics(recordid, name, numericvalue) VALUES (?, ?, ?);";
+    private final static String SQL_INSERT_TEXT_VALUE = "INSERT INTO metrics(recordid, name, textvalue) VALUES (?, ?, ?);";
+    private final static String SQL_SELECT_RECORDS_SEQUENCE_H2 = "SELECT SEQUENCE_NAME FROM INFORMATION_SCHEMA.COLUMNS"
+            + " WHERE UPPER(TABLE_NAME)='RECORDS' AND UPPER(COLUMN_NAME)='ID' AND TABLE_SCHEMA=SCHEMA();";
+    private final static String SQL_SELECT_NEXT_IDS_H2 = "SELECT NEXT VALUE FOR %s FROM SYSTEM_RANGE(1, ?);";
+    private final static String SQL_SELECT_NEXT_IDS_PGSQL = "SELECT nextval(pg_get_serial_sequence('records', 'id')) FROM generate_series(1, ?);";
+    private final Connection monitoringDatabaseConnection;
+    private final boolean previousAutoCommit;
+    private final PreparedStatement preparedStatementRecord;
+    private final PreparedStatement preparedStatementNumericValue;
+    private final PreparedStatement preparedStatementTextValue;
+    private final PreparedStatement preparedStatementNextIds;
+
+    /**
+     * Create an asynchronous monitoring agent for monitoring of a given
+     * application to a given monitoring database connection with a given
+     * default monitored resource strategy and given queue settings.
+     *
+     * @param monitoringDatabaseConnection a monitoring database connection (the
+     * auto-commit on this connection will be temporarily turned off during the
+     * monitoring and the connection should not be used by other threads)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @param queueCapacity a capacity of the queue of records waiting to be
+     * sent
+     * @param batchSize a maximal number of records sent in one batch
+     * @param flushIntervalMillis a maximal time in milliseconds a record waits
+     * in the queue for a batch to fill up
+     * @param overflowPolicy a policy of dealing with new records if the queue
+     * is full
+     * @throws java.sql.SQLException if the monitoring database connection
+     * cannot be used
+     */
+    public MonitoringAgentForDatabaseAsync(Connection monitoringDatabaseConnection, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy,
+            int queueCapacity, int batchSize, long flushIntervalMillis, OverflowPolicy overflowPolicy) throws SQLException {
+        super(applicationId, monitoredResourcesDefaultStrategy, queueCapacity, batchSize, flushIntervalMillis, overflowPolicy);
+        this.monitoringDatabaseConnection = monitoringDatabaseConnection;
+        this.previousAutoCommit = monitoringDatabaseConnection.getAutoCommit();
+        // trun off the auto-commit
+        this.monitoringDatabaseConnection.setAutoCommit(false);
+        // prepare statements for later
+        this.preparedStatementNextIds = prepareStatementNextIds(monitoringDatabaseConnection);
+        this.preparedStatementRecord = (this.preparedStatementNextIds != null)
+                ? monitoringDatabaseConnection.prepareStatement(SQL_INSERT_RECORD_WITH_ID)
+                : monitoringDatabaseConnection.prepareStatement(SQL_INSERT_RECORD, Statement.RETURN_GENERATED_KEYS);
+        this.preparedStatementNumericValue = monitoringDatabaseConnection.prepareStatement(SQL_INSERT_NUMERIC_VALUE);
+        this.preparedStatementTextValue = monitoringDatabaseConnection.prepareStatement(SQL_INSERT_TEXT_VALUE);
+        this.startFlusher();
+    }
+
+    /**
+     * Create an asynchronous monitoring agent for monitoring of a given
+     * application to a given monitoring database connection with a given
+     * default monitored resource strategy and default queue settings.
+     *
+     * @param monitoringDatabaseConnection a monitoring database connection (the
+     * auto-commit on this connection will be temporarily turned off during the
+     * monitoring and the connection should not be used by other threads)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @throws java.sql.SQLException if the monitoring database connection
+     * cannot be used
+     */
+    public MonitoringAgentForDatabaseAsync(Connection monitoringDatabaseConnection, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws SQLException {
+        this(monitoringDatabaseConnection, applicationId, monitoredResourcesDefaultStrategy,
+                DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    /**
+     * Create an asynchronous monitoring agent for monitoring of a given
+     * application to a given monitoring database connection with
+     * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
+     * strategy and default queue settings.
+     *
+     * @param monitoringDatabaseConnection a monitoring database connection (the
+     * auto-commit on this connection will be temporarily turned off during the
+     * monitoring and the connection should not be used by other threads)
+     * @param applicationId an application ID
+     * @throws java.sql.SQLException if the monitoring database connection
+     * cannot be used
+     */
+    public MonitoringAgentForDatabaseAsync(Connection monitoringDatabaseConnection, String applicationId) throws SQLException {
+        this(monitoringDatabaseConnection, applicationId, new MonitoredResourcesCachingStrategy());
+    }
+
+    private static PreparedStatement prepareStatementNextIds(Connection monitoringDatabaseConnection) throws SQLException {
+        switch (monitoringDatabaseConnection.getMetaData().getDatabaseProductName()) {
+            case "H2": {
+                String sequenceName = null;
+                try (Statement statement = monitoringDatabaseConnection.createStatement();
+                        ResultSet resultSet = statement.executeQuery(SQL_SELECT_RECORDS_SEQUENCE_H2)) {
+                    if (resultSet.next()) {
+                        sequenceName = resultSet.getString(1);
+                    }
+                }
+                monitoringDatabaseConnection.commit();
+                return (sequenceName == null) ? null
+                        : monitoringDatabaseConnection.prepareStatement(String.format(SQL_SELECT_NEXT_IDS_H2, sequenceName));
+            }
+            case "PostgreSQL":
+                return monitoringDatabaseConnection.prepareStatement(SQL_SELECT_NEXT_IDS_PGSQL);
+            default:
+                return null;
+        }
+    }
+
+    private int[] allocateRecordIds(int count) throws SQLException {
+        final int[] recIds = new int[count];
+        this.preparedStatementNextIds.setInt(1, count);
+        try (ResultSet resultSet = this.preparedStatementNextIds.executeQuery()) {
+            for (int i = 0; i < count; i++) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Cannot allocate IDs of the records in the monitoring database.");
+                }
+                recIds[i] = resultSet.getInt(1);
+            }
+        }
+        return recIds;
+    }
+
+    private int insertRecordAndGetId(MetricRecord record) throws SQLException {
+        this.preparedStatementRecord.setLong(1, record.getTimestampNanos());
+        this.preparedStatementRecord.setString(2, record.getMetricType());
+        this.preparedStatementRecord.setString(3, record.getHostname());
+        this.preparedStatementRecord.executeUpdate();
+        try (ResultSet generatedKeys = this.preparedStatementRecord.getGeneratedKeys()) {
+            if (!generatedKeys.next()) {
+                throw new SQLException("Cannot get the generated ID of a record in the monitoring database.");
+            }
+            return generatedKeys.getInt(1);
+        }
+    }
+
+    /**
+     * Write a batch of records into the monitoring database and commit them in
+     * one transaction. If the batch violates a constraint of the database, the
+     * records are written one by one and the violating records are skipped.
+     *
+     * @param records the records to write
+     * @throws SQLException if a database access error occurs (the transaction
+     * is rolled back)
+     */
+    @Override
+    protected void sendRecords(List<MetricRecord> records) throws SQLException {
+        try {
+            this.insertRecords(records);
+            // commit the sent data in the database
+            this.monitoringDatabaseConnection.commit();
+        }
+        catch (SQLException ex) {
+            this.clearBatches();
+            this.monitoringDatabaseConnection.rollback();
+            if (!isIntegrityConstraintViolation(ex)) {
+                throw ex;
+            }
+            this.sendRecordsOneByOne(records);
+        }
+    }
+
+    private void sendRecordsOneByOne(List<MetricRecord> records) throws SQLException {
+        try {
+            for (MetricRecord record : records) {
+                final Savepoint savepoint = this.monitoringDatabaseConnection.setSavepoint();
+                try {
+                    this.insertRecords(Collections.singletonList(record));
+                    this.monitoringDatabaseConnection.releaseSavepoint(savepoint);
+                }
+                catch (SQLException recordException) {
+                    this.clearBatches();
+                    this.monitoringDatabaseConnection.rollback(savepoint);
+                    this.recordSkipped(recordException.getMessage());
+                }
+            }
+            this.monitoringDatabaseConnection.commit();
+        }
+        catch (SQLException ex) {
+            this.clearBatches();
+            this.monitoringDatabaseConnection.rollback();
+            throw ex;
+        }
+    }
+
+    private static boolean isIntegrityConstraintViolation(SQLException exception) {
+        // the SQL states of class 23, e.g., 23505 of a unique constraint
+        for (SQLException ex = exception; ex != null; ex = ex.getNextException()) {
+            if ((ex.getSQLState() != null) && ex.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void insertRecords(List<MetricRecord> records) throws SQLException {
+        final int[] recIds;
+        if (this.preparedStatementNextIds != null) {
+            recIds = this.allocateRecordIds(records.size());
+            for (int r = 0; r < recIds.length; r++) {
+                final MetricRecord record = records.get(r);
+                this.preparedStatementRecord.setInt(1, recIds[r]);
+                this.preparedStatementRecord.setLong(2, record.getTimestampNanos());
+                this.preparedStatementRecord.setString(3, record.getMetricType());
+                this.preparedStatementRecord.setString(4, record.getHostname());
+                this.preparedStatementRecord.addBatch();
+            }
+            this.preparedStatementRecord.executeBatch();
+        } else {
+            recIds = new int[records.size()];
+            for (int r = 0; r < recIds.length; r++) {
+                recIds[r] = this.insertRecordAndGetId(records.get(r));
+            }
+        }
+        // generate the metrics data key-value pairs of all the records and send them in batches
+        boolean numericValues = false;
+        boolean textValues = false;
+        for (int r = 0; r < recIds.length; r++) {
+            final MetricRecord record = records.get(r);
+            for (int i = 0; i < record.getMetricsCount(); i++) {
+                if (record.hasValue(i)) {
+                    if (record.hasNumericValue(i)) {
+                        this.preparedStatementNumericValue.setInt(1, recIds[r]);
+                        this.preparedStatementNumericValue.setString(2, record.getMetricName(i));
+                        this.preparedStatementNumericValue.setDouble(3, record.getNumericValue(i));
+                        this.preparedStatementNumericValue.addBatch();
+                        numericValues = true;
+                    } else {
+                        this.preparedStatementTextValue.setInt(1, recIds[r]);
+                        this.preparedStatementTextValue.setString(2, record.getMetricName(i));
+                        this.preparedStatementTextValue.setString(3, record.getTextValue(i));
+                        this.preparedStatementTextValue.addBatch();
+                        textValues = true;
+                    }
+                }
+            }
+        }
+        if (numericValues) {
+            this.preparedStatementNumericValue.executeBatch();
+        }
+        if (textValues) {
+            this.preparedStatementTextValue.executeBatch();
+        }
+    }
+
+    private void clearBatches() throws SQLException {
+        this.preparedStatementRecord.clearBatch();
+        this.preparedStatementNumericValue.clearBatch();
+        this.preparedStatementTextValue.clearBatch();
+    }
+
+    /**
+     * Close resources alocated by the class instance after the remaining
+     * queued records have been written.
+     *
+     * @throws java.sql.SQLException if the resources of a database cannot be
+     * closed
+     */
+    @Override
+    protected void closeResources() throws SQLException {
+        // set the auto-commit to the previous value
+        this.monitoringDatabaseConnection.setAutoCommit(this.previousAutoCommit);
+        // free prepared statement resources
+        if (this.preparedStatementNextIds != null) {
+            this.preparedStatementNextIds.close();
+        }
+        this.preparedStatementRecord.close();
+        this.preparedStatementNumericValue.close();
+        this.preparedStatementTextValue.close();
+    }
+}
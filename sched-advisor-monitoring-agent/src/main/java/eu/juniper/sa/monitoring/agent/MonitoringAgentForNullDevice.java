@@ -30,6 +30,7 @@ package eu.juniper.sa.monitoring.agent;
 import eu.juniper.sa.monitoring.sensor.DataConnectionSensorInterface;
 import eu.juniper.sa.monitoring.sensor.NullSensor;
 import eu.juniper.sa.monitoring.sensor.ProgramInstanceSensorInterface;
+import javax.management.ObjectName;
 
 /**
  * The class to send metric values to the null device.
@@ -40,12 +41,35 @@ public class MonitoringAgentForNullDevice extends MonitoringAgentAbstract implem
 
     /**
      * Implicit constructor as the null device target does not require any
-     * setting.
+     * setting (statistics of the agent are not registered as there is no
+     * overhead).
      */
     public MonitoringAgentForNullDevice() {
         super(null, null);
     }
 
+    /**
+     * The statistics of the agent are not registered as there is no overhead.
+     *
+     * @return null
+     */
+    @Override
+    public ObjectName registerStatistics() {
+        return null;
+    }
+
+    /**
+     * Send a given record of a set of metrics of a particular type from the
+     * application to the null device.
+     *
+     * @param metricRecord a record of metrics to send
+     * @return null
+     */
+    @Override
+    public String sendMetric(MetricRecord metricRecord) {
+        return null;
+    }
+
     /**
      * Send a set of given metrics of a particular type from the application to
      * the null device.
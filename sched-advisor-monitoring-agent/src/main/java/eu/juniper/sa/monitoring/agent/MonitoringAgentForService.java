@@ -28,6 +28,7 @@
 package eu.juniper.sa.monitoring.agent;
 
 import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesCachingStrategy;
 import eu.juniper.sa.monitoring.resources.MonitoredResourcesDefaultStrategy;
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,7 +37,6 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.Locale;
 import java.util.Scanner;
 
 /**
@@ -49,9 +49,11 @@ import java.util.Scanner;
  *
  * @author rychly
  */
-public class MonitoringAgentForService extends MonitoringAgentAbstract implements MonitoringAgentInterface {
+public class MonitoringAgentForService extends MonitoringAgentAbstract implements MonitoringAgentInterface, AutoCloseable {
     
     private final String monitoringServiceURL;
+    // a strategy shared by the static methods to avoid resolving of the hostname on each call
+    private static final MonitoredResourcesStrategyInterface STATIC_METHODS_STRATEGY = new MonitoredResourcesCachingStrategy();
 
     /**
      * Create a monitoring agent for monitoring of a given application to a
@@ -84,6 +86,16 @@ public class MonitoringAgentForService extends MonitoringAgentAbstract implement
         this.monitoringServiceURL = monitoringServiceURL;
     }
 
+    /**
+     * Close the agent, i.e., unregister its statistics from the platform MBean
+     * server of the JVM. The records are sent synchronously, so there are no
+     * other resources to release.
+     */
+    @Override
+    public void close() {
+        this.statistics.unregister();
+    }
+
     /**
      * Get the monitoring service URL.
      *
@@ -112,6 +124,30 @@ public class MonitoringAgentForService extends MonitoringAgentAbstract implement
      * to the monitoring service
      */
     public static String sendMetric(String monitoringServiceURL, String applicationId, String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) throws MalformedURLException, IOException {
+        return MonitoringAgentForService.sendMetric(monitoringServiceURL, applicationId,
+                MetricRecord.fromStrings(metricType, metricNames, metricValues, timestampSec, hostname));
+    }
+
+    /**
+     * Send a given record of a set of metrics of a particular type from an
+     * application to a monitoring service.
+     *
+     * @param monitoringServiceURL a monitoring service URL (it should end with
+     * '/' character)
+     * @param applicationId an application ID
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
+     * @return the monitoring service response
+     * @throws MalformedURLException if <code>monitoringServiceURL</code> is
+     * malformed
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    public static String sendMetric(String monitoringServiceURL, String applicationId, MetricRecord metricRecord) throws MalformedURLException, IOException {
+        return MonitoringAgentForService.post(monitoringServiceURL, applicationId, appendJson(new StringBuilder(), metricRecord).toString().getBytes("UTF-8"));
+    }
+
+    private static String post(String monitoringServiceURL, String applicationId, byte[] requestBody) throws MalformedURLException, IOException {
         // access a monitoring service via HTTP POST
         URLConnection connection = new URL(monitoringServiceURL + applicationId).openConnection();
         connection.setDoOutput(true);
@@ -119,34 +155,8 @@ public class MonitoringAgentForService extends MonitoringAgentAbstract implement
         connection.setRequestProperty("Accept", "application/json");
         ((HttpURLConnection) connection).setRequestMethod("POST");
         try (OutputStream outputStream = connection.getOutputStream()) {
-            // prepare the metrics data header
-            String postString = String.format(Locale.ROOT, "{ "
-                    + "\"Timestamp\": %f, "
-                    + "\"hostname\": \"%s\", "
-                    + "\"type\": \"%s\"",
-                    timestampSec,
-                    hostname,
-                    metricType);
-            // prepare the metrics data key-value pairs
-            for (int i = 0; i < metricNames.length && i < metricValues.length; i++) {
-                if ((metricNames[i] != null) && (metricValues[i] != null)) {
-                    try {
-                        // send the value as a double number value if possible
-                        postString += String.format(Locale.ROOT, ", \"%s\": %f",
-                                metricNames[i],
-                                Double.parseDouble(metricValues[i]));
-                    }
-                    catch (NumberFormatException e) {
-                        // send the value as a string value otherwise
-                        postString += String.format(Locale.ROOT, ", \"%s\": \"%s\"",
-                                metricNames[i],
-                                metricValues[i]);
-                    }
-                }
-            }
-            postString += " }";
-            // send the prepared
-            outputStream.write(postString.getBytes("UTF-8"));
+            // send the metrics data
+            outputStream.write(requestBody);
         }
         try (InputStream inputStream = connection.getInputStream();
                 Scanner scanner = new Scanner(inputStream);) {
@@ -155,6 +165,57 @@ public class MonitoringAgentForService extends MonitoringAgentAbstract implement
         }
     }
 
+    /**
+     * Append a JSON object of a given record of metrics to a given string
+     * builder. The object has the following format <code>{ "Timestamp":
+     * timestamp_in_seconds_with_nine_decimal_places, "hostname": "hostname", "type": "metric_type",
+     * "numeric_metric_name": numeric_value, "text_metric_name": "text_value",
+     * ... }</code>.
+     *
+     * @param stringBuilder the string builder to append to
+     * @param metricRecord the record of metrics
+     * @return the string builder
+     */
+    static StringBuilder appendJson(StringBuilder stringBuilder, MetricRecord metricRecord) {
+        // prepare the metrics data header
+        stringBuilder.append("{ \"Timestamp\": ");
+        MetricRecord.appendTimestamp(stringBuilder, metricRecord.getTimestampNanos());
+        stringBuilder.append(", \"hostname\": ");
+        appendJsonString(stringBuilder, metricRecord.getHostname());
+        stringBuilder.append(", \"type\": ");
+        appendJsonString(stringBuilder, metricRecord.getMetricType());
+        // prepare the metrics data key-value pairs
+        for (int i = 0; i < metricRecord.getMetricsCount(); i++) {
+            if (metricRecord.hasValue(i)) {
+                stringBuilder.append(", ");
+                appendJsonString(stringBuilder, metricRecord.getMetricName(i));
+                stringBuilder.append(": ");
+                if (metricRecord.hasNumericValue(i)) {
+                    stringBuilder.append(metricRecord.getNumericValue(i));
+                } else {
+                    appendJsonString(stringBuilder, metricRecord.getTextValue(i));
+                }
+            }
+        }
+        return stringBuilder.append(" }");
+    }
+
+    private static void appendJsonString(StringBuilder stringBuilder, String string) {
+        if (string == null) {
+            stringBuilder.append("null");
+            return;
+        }
+        stringBuilder.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            final char character = string.charAt(i);
+            if ((character == '"') || (character == '\\')) {
+                stringBuilder.append('\\');
+            }
+            stringBuilder.append(character);
+        }
+        stringBuilder.append('"');
+    }
+
     /**
      * Send a set of given metrics of a particular type from an application to a
      * monitoring service. The method utilizes
@@ -175,7 +236,7 @@ public class MonitoringAgentForService extends MonitoringAgentAbstract implement
      * to the monitoring service
      */
     public static String sendMetric(String monitoringServiceURL, String applicationId, String metricType, String[] metricNames, String[] metricValues, double timestampSec) throws MalformedURLException, IOException {
-        return MonitoringAgentForService.sendMetric(monitoringServiceURL, applicationId, metricType, metricNames, metricValues, timestampSec, new MonitoredResourcesDefaultStrategy().getHostname());
+        return MonitoringAgentForService.sendMetric(monitoringServiceURL, applicationId, metricType, metricNames, metricValues, timestampSec, STATIC_METHODS_STRATEGY.getHostname());
     }
 
     /**
@@ -199,39 +260,15 @@ public class MonitoringAgentForService extends MonitoringAgentAbstract implement
      * to the monitoring service
      */
     public static String sendMetric(String monitoringServiceURL, String applicationId, String metricType, String[] metricNames, String[] metricValues) throws MalformedURLException, IOException {
-        return MonitoringAgentForService.sendMetric(monitoringServiceURL, applicationId, metricType, metricNames, metricValues, new MonitoredResourcesDefaultStrategy().getTimestamp(), new MonitoredResourcesDefaultStrategy().getHostname());
-    }
-
-    /**
-     * Send a set of given metrics of a particular type from the application to
-     * the monitoring service.
-     *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @param timestampSec a timestamp in seconds of the metric set origin
-     * @param hostname a hostname of a client sending the metric
-     * @return the monitoring service response
-     * @throws MalformedURLException if <code>monitoringServiceURL</code> is
-     * malformed
-     * @throws IOException if there is an HTTP error when connecting or sending
-     * to the monitoring service
-     */
-    @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) throws MalformedURLException, IOException {
-        return MonitoringAgentForService.sendMetric(this.monitoringServiceURL, this.getApplicationId(), metricType, metricNames, metricValues, timestampSec, hostname);
+        return MonitoringAgentForService.sendMetric(monitoringServiceURL, applicationId, metricType, metricNames, metricValues, STATIC_METHODS_STRATEGY.getTimestamp(), STATIC_METHODS_STRATEGY.getHostname());
     }
 
     /**
-     * Send a set of given metrics of a particular type from the application to
-     * the monitoring service. The method utilizes <code>getHostname()</code>
-     * method of the default monitored resource strategy to get a hostname of a
-     * client sending the metric.
+     * Send a given record of a set of metrics of a particular type from the
+     * application to the monitoring service.
      *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @param timestampSec a timestamp in seconds of the metric set origin
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
      * @return the monitoring service response
      * @throws MalformedURLException if <code>monitoringServiceURL</code> is
      * malformed
@@ -239,32 +276,25 @@ public class MonitoringAgentForService extends MonitoringAgentAbstract implement
      * to the monitoring service
      */
     @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec) throws MalformedURLException, IOException {
-        return MonitoringAgentForService.sendMetric(this.monitoringServiceURL, this.getApplicationId(), metricType, metricNames, metricValues, timestampSec, this.getMonitoredResourcesDefaultStrategy().getHostname());
+    public String sendMetric(MetricRecord metricRecord) throws MalformedURLException, IOException {
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
+        try {
+            final byte[] requestBody = appendJson(new StringBuilder(), metricRecord).toString().getBytes("UTF-8");
+            final String result = MonitoringAgentForService.post(this.monitoringServiceURL, this.getApplicationId(), requestBody);
+            this.statistics.recordsSent(1);
+            this.statistics.bytesWritten(requestBody.length);
+            this.statistics.flushed();
+            return result;
+        }
+        catch (IOException ex) {
+            this.statistics.recordsFailed(1);
+            throw ex;
+        }
+        finally {
+            this.statistics.sendMetricEnds(sendMetricStartsNanos);
+        }
     }
 
-    /**
-     * Send the latest set of given metrics of a particular type from the
-     * application to the monitoring service. The method utilizes methods of the
-     * default monitored resource strategy, namely <code>getTimestamp()</code>
-     * method to get a timestamp of metric to send and
-     * <code>getHostname()</code> method to get a hostname of a client sending
-     * the metric.
-     *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @return the monitoring service response
-     * @throws MalformedURLException if <code>monitoringServiceURL</code> is
-     * malformed
-     * @throws IOException if there is an HTTP error when connecting or sending
-     * to the monitoring service
-     */
-    @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues) throws MalformedURLException, IOException {
-        return MonitoringAgentForService.sendMetric(this.monitoringServiceURL, this.getApplicationId(), metricType, metricNames, metricValues, this.getMonitoredResourcesDefaultStrategy().getTimestamp(), this.getMonitoredResourcesDefaultStrategy().getHostname());
-    }
-    
     public static void main(String[] args) throws IOException {
         if (args.length < 5) {
             final String className = MonitoringAgentForService.class.getCanonicalName();
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesCachingStrategy;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The class to send metric values to a monitoring service asynchronously. The
+ * metric values are queued and sent by a background flusher thread in batches,
+ * each batch as a JSON array of the records in one HTTP POST request (see
+ * <code>MonitoringAgentForService.appendJson(...)</code> for a format of the
+ * records). The HTTP connections are kept alive and reused by the subsequent
+ * requests, the request body can be compressed by gzip, and failed requests are
+ * retried with an exponential backoff (except for requests rejected by HTTP
+ * client errors).
+ *
+ * @author rychly
+ */
+public class MonitoringAgentForServiceAsync extends MonitoringAgentAsyncAbstract implements MonitoringAgentInterface, AutoCloseable {
+
+    /**
+     * Default maximal number of retries of a failed request.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    /**
+     * Default delay in milliseconds before the first retry of a failed
+     * request (the delay is doubled for each next retry).
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+    /**
+     * Maximal delay in milliseconds between retries of a failed request.
+     */
+    public static final long MAX_BACKOFF_MILLIS = 10000;
+
+    /**
+     * The exception of a request rejected by the monitoring service which
+     * should not be retried (HTTP client errors except for timeouts and too
+     * many requests).
+     */
+    private static final class RejectedRequestException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        RejectedRequestException(String message) {
+            super(message);
+        }
+    }
+
+    private final URL monitoringServiceURL;
+    private final boolean gzipEnabled;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final StringBuilder requestStringBuilder = new StringBuilder();
+    private final ByteArrayOutputStream requestBodyStream = new ByteArrayOutputStream();
+    private final byte[] responseBuffer = new byte[4096];
+    private final AtomicLong retriesCount = new AtomicLong();
+
+    /**
+     * Create an asynchronous monitoring agent for monitoring of a given
+     * application to a given monitoring service with a given default monitored
+     * resource strategy and given queue and transport settings.
+     *
+     * @param monitoringServiceURL a monitoring service URL (it should end with
+     * '/' character)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @param queueCapacity a capacity of the queue of records waiting to be
+     * sent
+     * @param batchSize a maximal number of records sent in one batch
+     * @param flushIntervalMillis a maximal time in milliseconds a record waits
+     * in the queue for a batch to fill up
+     * @param overflowPolicy a policy of dealing with new records if the queue
+     * is full
+     * @param gzipEnabled true to compress request bodies by gzip
+     * @param maxRetries a maximal number of retries of a failed request
+     * @param initialBackoffMillis a delay in milliseconds before the first
+     * retry of a failed request (the delay is doubled for each next retry)
+     * @throws IOException if the monitoring service URL is malformed
+     */
+    public MonitoringAgentForServiceAsync(String monitoringServiceURL, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy,
+            int queueCapacity, int batchSize, long flushIntervalMillis, OverflowPolicy overflowPolicy,
+            boolean gzipEnabled, int maxRetries, long initialBackoffMillis) throws IOException {
+        super(applicationId, monitoredResourcesDefaultStrategy, queueCapacity, batchSize, flushIntervalMillis, overflowPolicy);
+        this.monitoringServiceURL = new URL(monitoringServiceURL + applicationId);
+        this.gzipEnabled = gzipEnabled;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.startFlusher();
+    }
+
+    /**
+     * Create an asynchronous monitoring agent for monitoring of a given
+     * application to a given monitoring service with a given default monitored
+     * resource strategy and default queue and transport settings.
+     *
+     * @param monitoringServiceURL a monitoring service URL (it should end with
+     * '/' character)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @throws IOException if the monitoring service URL is malformed
+     */
+    public MonitoringAgentForServiceAsync(String monitoringServiceURL, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException {
+        this(monitoringServiceURL, applicationId, monitoredResourcesDefaultStrategy,
+                DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_OVERFLOW_POLICY,
+                false, DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Create an asynchronous monitoring agent for monitoring of a given
+     * application to a given monitoring service with
+     * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
+     * strategy decorated by <code>MonitoredResourcesCachingStrategy</code> and
+     * default queue and transport settings.
+     *
+     * @param monitoringServiceURL a monitoring service URL (it should end with
+     * '/' character)
+     * @param applicationId an application ID
+     * @throws IOException if the monitoring service URL is malformed
+     */
+    public MonitoringAgentForServiceAsync(String monitoringServiceURL, String applicationId) throws IOException {
+        this(monitoringServiceURL, applicationId, new MonitoredResourcesCachingStrategy());
+    }
+
+    /**
+     * Get the monitoring service URL (including the application ID).
+     *
+     * @return the monitoring service URL
+     */
+    public URL getMonitoringServiceURL() {
+        return this.monitoringServiceURL;
+    }
+
+    /**
+     * Send a batch of records as a JSON array in one HTTP POST request. Failed
+     * requests are retried with an exponential backoff (the backoff is skipped
+     * if the agent has been closed).
+     *
+     * @param records the records to send
+     * @throws IOException if the request failed even after all retries
+     */
+    @Override
+    protected void sendRecords(List<MetricRecord> records) throws IOException {
+        // prepare the request body
+        this.requestStringBuilder.setLength(0);
+        this.requestStringBuilder.append('[');
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) {
+                this.requestStringBuilder.append(", ");
+            }
+            MonitoringAgentForService.appendJson(this.requestStringBuilder, records.get(i));
+        }
+        this.requestStringBuilder.append(']');
+        this.requestBodyStream.reset();
+        if (this.gzipEnabled) {
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(this.requestBodyStream)) {
+                gzipOutputStream.write(this.requestStringBuilder.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } else {
+            this.requestBodyStream.write(this.requestStringBuilder.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        // send the request and retry on failures
+        long backoffMillis = this.initialBackoffMillis;
+        for (int attempt = 0;; attempt++) {
+            try {
+                this.post();
+                return;
+            }
+            catch (IOException ex) {
+                if ((ex instanceof RejectedRequestException) || (attempt >= this.maxRetries) || this.isClosed()) {
+                    throw ex;
+                }
+            }
+            this.retriesCount.incrementAndGet();
+            try {
+                Thread.sleep(backoffMillis);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to retry the request.", ex);
+            }
+            backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private void post() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) this.monitoringServiceURL.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", "application/json");
+        if (this.gzipEnabled) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+        // the body is not streamed, so it is sent together with the headers with Content-Length
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            this.requestBodyStream.writeTo(outputStream);
+        }
+        final int responseCode = connection.getResponseCode();
+        // read the response completely so the keep-alive connection can be reused by next requests
+        try (InputStream inputStream = (responseCode < HttpURLConnection.HTTP_BAD_REQUEST)
+                ? connection.getInputStream() : connection.getErrorStream()) {
+            if (inputStream != null) {
+                while (inputStream.read(this.responseBuffer) >= 0) {
+                    // NOP
+                }
+            }
+        }
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            final String message = "The monitoring service responded by HTTP status " + responseCode + " " + connection.getResponseMessage();
+            throw ((responseCode < HttpURLConnection.HTTP_INTERNAL_ERROR)
+                    && (responseCode != HttpURLConnection.HTTP_CLIENT_TIMEOUT) && (responseCode != 429))
+                    ? new RejectedRequestException(message)
+                    : new IOException(message);
+        }
+        this.statistics.bytesWritten(this.requestBodyStream.size());
+    }
+
+    /**
+     * The agent has no resources to release (the keep-alive connections are
+     * managed by the HTTP client of the JVM).
+     */
+    @Override
+    protected void closeResources() {
+        // NOP
+    }
+
+    /**
+     * Get the number of retries of failed requests.
+     *
+     * @return the number of retries
+     */
+    public long getRetriesCount() {
+        return this.retriesCount.get();
+    }
+
+    /**
+     * Get the number of bytes of the bodies of successful requests (after the
+     * compression, if enabled).
+     *
+     * @return the number of bytes sent
+     */
+    public long getBytesSentCount() {
+        return this.statistics.getBytesWrittenCount();
+    }
+
+    /**
+     * Check if the request bodies are compressed by gzip.
+     *
+     * @return true if the request bodies are compressed, false otherwise
+     */
+    public boolean isGzipEnabled() {
+        return this.gzipEnabled;
+    }
+
+    /**
+     * A stand-in for a monitoring service which accepts JSON arrays of records
+     * (optionally compressed by gzip) and counts the received records.
+     */
+    private static final class StandInHandler implements HttpHandler {
+
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong records = new AtomicLong();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream inputStream = gzip ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+                final byte[] buffer = new byte[4096];
+                int length;
+                while ((length = inputStream.read(buffer)) >= 0) {
+                    body.write(buffer, 0, length);
+                }
+            }
+            final String json = new String(body.toByteArray(), StandardCharsets.UTF_8);
+            int count = 0;
+            for (int pos = json.indexOf("\"Timestamp\""); pos >= 0; pos = json.indexOf("\"Timestamp\"", pos + 1)) {
+                count++;
+            }
+            this.requests.incrementAndGet();
+            this.records.addAndGet(count);
+            final byte[] response = "{ \"result\": \"ok\" }".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            final String className = MonitoringAgentForServiceAsync.class.getCanonicalName();
+            System.err.println(""
+                    + "Usage: " + className + " <monitoring-service-URL|stand-in> <number-of-records> [batch-size] [gzip]\n"
+                    + "Send a given number of testing records of an application to a monitoring service (or to a local stand-in HTTP server started on a free port if 'stand-in' is given)"
+                    + " and print the throughput and the counters of the agent.\n"
+            );
+            System.exit(-1);
+        }
+        final int numberOfRecords = Integer.parseInt(args[1]);
+        final int batchSize = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE;
+        final boolean gzip = (args.length > 3) && "gzip".equals(args[3]);
+        HttpServer standInServer = null;
+        StandInHandler standInHandler = null;
+        String monitoringServiceURL = args[0];
+        if ("stand-in".equals(monitoringServiceURL)) {
+            // without TCP_NODELAY, the stand-in server responses are delayed by Nagle's algorithm
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            standInServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            standInHandler = new StandInHandler();
+            standInServer.createContext("/", standInHandler);
+            standInServer.start();
+            monitoringServiceURL = "http://localhost:" + standInServer.getAddress().getPort() + "/";
+            System.out.println("Started a stand-in monitoring service at " + monitoringServiceURL);
+        }
+        final MonitoringAgentForServiceAsync monitoringAgent = new MonitoringAgentForServiceAsync(monitoringServiceURL, "test-application",
+                new MonitoredResourcesCachingStrategy(), DEFAULT_QUEUE_CAPACITY, batchSize, DEFAULT_FLUSH_INTERVAL_MILLIS, OverflowPolicy.BLOCK,
+                gzip, DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF_MILLIS);
+        final MetricRecord metricRecord = new MetricRecord("TestRecord", "Index", "Value", "Name");
+        metricRecord.setHostname(monitoringAgent.getMonitoredResourcesDefaultStrategy().getHostname());
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < numberOfRecords; i++) {
+            metricRecord.setTimestampNanos(monitoringAgent.getMonitoredResourcesDefaultStrategy().getTimestampNanos());
+            metricRecord.setNumericValue(0, i);
+            metricRecord.setNumericValue(1, Math.random());
+            metricRecord.setTextValue(2, "test");
+            monitoringAgent.sendMetric(metricRecord);
+        }
+        final long enqueuedTime = System.nanoTime();
+        monitoringAgent.close();
+        final long sentTime = System.nanoTime();
+        System.out.printf("Queued %d records in %f sec, sent them in %f sec (%f records/sec)\n",
+                numberOfRecords, (enqueuedTime - startTime) / 1e9, (sentTime - startTime) / 1e9,
+                numberOfRecords / ((sentTime - startTime) / 1e9));
+        System.out.printf("Agent counters: sent %d records in %d batches (%d bytes), %d dropped, %d failed, %d retries, last error: %s\n",
+                monitoringAgent.getSentRecordsCount(), monitoringAgent.getSentBatchesCount(), monitoringAgent.getBytesSentCount(),
+                monitoringAgent.getDroppedRecordsCount(), monitoringAgent.getFailedRecordsCount(), monitoringAgent.getRetriesCount(),
+                monitoringAgent.getLastErrorMessage());
+        if (standInServer != null) {
+            System.out.printf("Stand-in monitoring service received %d records in %d requests\n",
+                    standInHandler.records.get(), standInHandler.requests.get());
+            standInServer.stop(0);
+        }
+    }
+}
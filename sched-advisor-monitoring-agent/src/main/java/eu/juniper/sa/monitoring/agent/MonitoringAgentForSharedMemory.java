@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesCachingStrategy;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class to send metric values into a node-local shared memory, i.e., into
+ * a memory-mapped ring buffer file in a given directory (e.g., in
+ * <code>/dev/shm</code>) which is drained by
+ * <code>MonitoringSharedMemoryCollector</code> daemon running on the same node.
+ * Each agent (JVM process) creates its own ring buffer file named
+ * <code>&lt;hostname&gt;-&lt;pid&gt;-&lt;start-time&gt;.ring</code>, so the
+ * agent is the only producer and the collector is the only consumer of the
+ * file. The agent does not take any lock when sending a record: a slot of the
+ * ring buffer is claimed by a compare-and-set of the tail, the record is
+ * written into the slot, and the slot is committed by writing its length
+ * (after a memory barrier). If the ring buffer is full, the record is dropped.
+ * <p>
+ * The ring buffer file starts with a header of <code>HEADER_SIZE</code> bytes
+ * (an int <code>RING_MAGIC</code>, a short <code>RING_VERSION</code>, a short
+ * padding, an int slot size, an int slot count, a long head written by the
+ * collector, an int closed flag, and an application ID as a short length and
+ * UTF-8 bytes) followed by fixed-size slots. A slot contains an int length of
+ * the record after the length field (zero for an empty slot), a long
+ * timestamp in nanoseconds, a metric type and a hostname (as short lengths and
+ * UTF-8 bytes), a short number of metrics, and for each metric its name (as a
+ * short length and UTF-8 bytes), a byte value kind <code>VALUE_NUMERIC</code>
+ * or <code>VALUE_TEXT</code>, and a double value or a text value (as a short
+ * length and UTF-8 bytes). The agent holds a lock of the first byte of the file
+ * while running, so the collector can detect terminated agents.
+ *
+ * @author rychly
+ */
+public class MonitoringAgentForSharedMemory extends MonitoringAgentAbstract implements MonitoringAgentInterface, AutoCloseable {
+
+    /**
+     * Suffix of ring buffer files.
+     */
+    public static final String RING_FILE_SUFFIX = ".ring";
+    /**
+     * Magic number at the start of each ring buffer file.
+     */
+    public static final int RING_MAGIC = 0x4A534152; // "JSAR"
+    /**
+     * Version of the format of ring buffer files.
+     */
+    public static final short RING_VERSION = 2;
+    /**
+     * Size of the header of ring buffer files in bytes.
+     */
+    public static final int HEADER_SIZE = 256;
+    /**
+     * Offset of the slot size in the header.
+     */
+    public static final int OFFSET_SLOT_SIZE = 8;
+    /**
+     * Offset of the slot count in the header.
+     */
+    public static final int OFFSET_SLOT_COUNT = 12;
+    /**
+     * Offset of the head (the sequence number of the next slot to read by the
+     * collector) in the header.
+     */
+    public static final int OFFSET_HEAD = 16;
+    /**
+     * Offset of the closed flag (non-zero if the agent has been closed) in the
+     * header.
+     */
+    public static final int OFFSET_CLOSED = 24;
+    /**
+     * Offset of the application ID in the header.
+     */
+    public static final int OFFSET_APPLICATION_ID = 28;
+    /**
+     * Kind of a numeric metric value.
+     */
+    public static final byte VALUE_NUMERIC = 0;
+    /**
+     * Kind of a text metric value.
+     */
+    public static final byte VALUE_TEXT = 1;
+    /**
+     * Default size of slots in bytes (the maximal size of a record).
+     */
+    public static final int DEFAULT_SLOT_SIZE = 1024;
+    /**
+     * Default number of slots.
+     */
+    public static final int DEFAULT_SLOT_COUNT = 16384;
+    /**
+     * Maximal number of metric types, hostnames, and metric names kept
+     * encoded in UTF-8 by the agent (the other strings are encoded on each
+     * send).
+     */
+    public static final int MAX_ENCODED_STRINGS = 4096;
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private final File ringFile;
+    private final RandomAccessFile ringRandomAccessFile;
+    private final FileLock ringLock;
+    private final MappedByteBuffer ringBuffer;
+    private final int slotSize;
+    private final int slotCount;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong sentRecordsCount = new AtomicLong();
+    // the producers between their check of the closed flag and the commit of their slot
+    private final AtomicInteger activeProducersCount = new AtomicInteger();
+    // the types, hostnames, and names of metrics are repeated in all records of the same layout
+    private final ConcurrentMap<String, byte[]> encodedStrings = new ConcurrentHashMap<>();
+    private final ThreadLocal<ByteBuffer[]> threadBuffers = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            // a staging buffer of a record and a view of the ring buffer with an independent position
+            return new ByteBuffer[]{ByteBuffer.allocate(MonitoringAgentForSharedMemory.this.slotSize),
+                MonitoringAgentForSharedMemory.this.ringBuffer.duplicate()};
+        }
+    };
+    private volatile boolean closed = false;
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * given shared memory directory with a given default monitored resource
+     * strategy and given sizes of its ring buffer.
+     *
+     * @param sharedMemoryDirectoryName a shared memory directory name (it will
+     * be created if it does not exist)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @param slotSize a size of slots of the ring buffer in bytes (the maximal
+     * size of a record)
+     * @param slotCount a number of slots of the ring buffer
+     * @throws IOException if the shared memory directory or its ring buffer
+     * file cannot be created
+     */
+    public MonitoringAgentForSharedMemory(String sharedMemoryDirectoryName, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy, int slotSize, int slotCount) throws IOException {
+        super(applicationId, monitoredResourcesDefaultStrategy);
+        final File sharedMemoryDirectory = new File(sharedMemoryDirectoryName);
+        if (!sharedMemoryDirectory.isDirectory() && !sharedMemoryDirectory.mkdirs()) {
+            throw new IOException("Cannot create the shared memory directory " + sharedMemoryDirectoryName);
+        }
+        this.slotSize = slotSize;
+        this.slotCount = slotCount;
+        this.ringFile = new File(sharedMemoryDirectory, String.format(Locale.ROOT, "%s-%d-%d%s",
+                monitoredResourcesDefaultStrategy.getHostname(), monitoredResourcesDefaultStrategy.getProcessID(),
+                System.currentTimeMillis(), RING_FILE_SUFFIX));
+        // the file is initialized under a temporary name, so the collector cannot see it before it is locked
+        final File ringTemporaryFile = new File(sharedMemoryDirectory, this.ringFile.getName() + ".tmp");
+        this.ringRandomAccessFile = new RandomAccessFile(ringTemporaryFile, "rw");
+        try {
+            this.ringLock = this.ringRandomAccessFile.getChannel().lock(0, 1, false);
+            this.ringBuffer = this.ringRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotSize * slotCount);
+        }
+        catch (IOException | RuntimeException ex) {
+            this.ringRandomAccessFile.close();
+            ringTemporaryFile.delete();
+            throw ex;
+        }
+        final byte[] applicationIdBytes = (applicationId == null ? "" : applicationId).getBytes(StandardCharsets.UTF_8);
+        this.ringBuffer.putShort(OFFSET_APPLICATION_ID, (short) Math.min(applicationIdBytes.length, HEADER_SIZE - OFFSET_APPLICATION_ID - 2));
+        for (int i = 0; (i < applicationIdBytes.length) && (OFFSET_APPLICATION_ID + 2 + i < HEADER_SIZE); i++) {
+            this.ringBuffer.put(OFFSET_APPLICATION_ID + 2 + i, applicationIdBytes[i]);
+        }
+        this.ringBuffer.putInt(OFFSET_SLOT_SIZE, slotSize);
+        this.ringBuffer.putInt(OFFSET_SLOT_COUNT, slotCount);
+        this.ringBuffer.putShort(4, RING_VERSION);
+        this.ringBuffer.putInt(0, RING_MAGIC);
+        if (!ringTemporaryFile.renameTo(this.ringFile)) {
+            this.ringLock.release();
+            this.ringRandomAccessFile.close();
+            ringTemporaryFile.delete();
+            throw new IOException("Cannot create the ring buffer file " + this.ringFile);
+        }
+    }
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * given shared memory directory with a given default monitored resource
+     * strategy and the default sizes of its ring buffer.
+     *
+     * @param sharedMemoryDirectoryName a shared memory directory name (it will
+     * be created if it does not exist)
+     * @param applicationId an application ID
+     * @param monitoredResourcesDefaultStrategy a default monitored resource
+     * strategy used by the agent
+     * @throws IOException if the shared memory directory or its ring buffer
+     * file cannot be created
+     */
+    public MonitoringAgentForSharedMemory(String sharedMemoryDirectoryName, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException {
+        this(sharedMemoryDirectoryName, applicationId, monitoredResourcesDefaultStrategy, DEFAULT_SLOT_SIZE, DEFAULT_SLOT_COUNT);
+    }
+
+    /**
+     * Create a monitoring agent for monitoring of a given application to a
+     * given shared memory directory with
+     * <code>MonitoredResourcesDefaultStrategy</code> default monitored resource
+     * strategy decorated by <code>MonitoredResourcesCachingStrategy</code> and
+     * the default sizes of its ring buffer.
+     *
+     * @param sharedMemoryDirectoryName a shared memory directory name (it will
+     * be created if it does not exist)
+     * @param applicationId an application ID
+     * @throws IOException if the shared memory directory or its ring buffer
+     * file cannot be created
+     */
+    public MonitoringAgentForSharedMemory(String sharedMemoryDirectoryName, String applicationId) throws IOException {
+        this(sharedMemoryDirectoryName, applicationId, new MonitoredResourcesCachingStrategy());
+    }
+
+    private byte[] encodeName(String string) {
+        if (string == null) {
+            return EMPTY_BYTES;
+        }
+        final byte[] cachedBytes = this.encodedStrings.get(string);
+        if (cachedBytes != null) {
+            return cachedBytes;
+        }
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        if (this.encodedStrings.size() < MAX_ENCODED_STRINGS) {
+            this.encodedStrings.putIfAbsent(string, bytes);
+        }
+        return bytes;
+    }
+
+    private static boolean putString(ByteBuffer buffer, String string) {
+        return putBytes(buffer, (string == null ? "" : string).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (buffer.remaining() < 2 + bytes.length) {
+            return false;
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        return true;
+    }
+
+    private boolean encodeRecord(ByteBuffer buffer, MetricRecord metricRecord) {
+        buffer.clear();
+        buffer.putInt(0);
+        buffer.putLong(metricRecord.getTimestampNanos());
+        if (!putBytes(buffer, this.encodeName(metricRecord.getMetricType())) || !putBytes(buffer, this.encodeName(metricRecord.getHostname()))
+                || (buffer.remaining() < 2)) {
+            return false;
+        }
+        final int countPosition = buffer.position();
+        buffer.putShort((short) 0);
+        short count = 0;
+        for (int i = 0; i < metricRecord.getMetricsCount(); i++) {
+            if (metricRecord.hasValue(i)) {
+                if (!putBytes(buffer, this.encodeName(metricRecord.getMetricName(i))) || (buffer.remaining() < 1)) {
+                    return false;
+                }
+                if (metricRecord.hasNumericValue(i)) {
+                    if (buffer.remaining() < 1 + 8) {
+                        return false;
+                    }
+                    buffer.put(VALUE_NUMERIC);
+                    buffer.putDouble(metricRecord.getNumericValue(i));
+                } else {
+                    buffer.put(VALUE_TEXT);
+                    if (!putString(buffer, metricRecord.getTextValue(i))) {
+                        return false;
+                    }
+                }
+                count++;
+            }
+        }
+        buffer.putShort(countPosition, count);
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Send a given record of a set of metrics of a particular type from the
+     * application into the ring buffer. The method is lock-free and it can be
+     * called by several threads concurrently.
+     *
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
+     * @return null or an error message if the record has been dropped as it is
+     * too large or the ring buffer is full
+     */
+    @Override
+    public String sendMetric(MetricRecord metricRecord) {
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
+        try {
+            return this.putRecord(metricRecord);
+        }
+        finally {
+            this.statistics.sendMetricEnds(sendMetricStartsNanos);
+        }
+    }
+
+    private String putRecord(MetricRecord metricRecord) {
+        this.activeProducersCount.incrementAndGet();
+        try {
+            return this.putRecordActive(metricRecord);
+        }
+        finally {
+            this.activeProducersCount.decrementAndGet();
+        }
+    }
+
+    private String putRecordActive(MetricRecord metricRecord) {
+        if (this.closed) {
+            this.statistics.recordsDropped(1);
+            return "The monitoring agent has been closed.";
+        }
+        final ByteBuffer[] buffers = this.threadBuffers.get();
+        final ByteBuffer stagingBuffer = buffers[0];
+        if (!this.encodeRecord(stagingBuffer, metricRecord)) {
+            this.statistics.recordsDropped(1);
+            return "The record is larger than the slot size of the ring buffer.";
+        }
+        // claim a slot
+        long claimedSlot;
+        do {
+            claimedSlot = this.tail.get();
+            if (claimedSlot - this.ringBuffer.getLong(OFFSET_HEAD) >= this.slotCount) {
+                this.statistics.recordsDropped(1);
+                return "The ring buffer is full.";
+            }
+        } while (!this.tail.compareAndSet(claimedSlot, claimedSlot + 1));
+        // write the record into the slot by the view of the ring buffer of the current thread
+        final int slotOffset = HEADER_SIZE + (int) (claimedSlot % this.slotCount) * this.slotSize;
+        final ByteBuffer ringView = buffers[1];
+        final int length = stagingBuffer.remaining() - 4;
+        stagingBuffer.position(4);
+        ringView.position(slotOffset + 4);
+        ringView.put(stagingBuffer);
+        // the atomic increment is a full memory barrier, so the record is visible before its length commits the slot
+        this.sentRecordsCount.incrementAndGet();
+        this.ringBuffer.putInt(slotOffset, length);
+        this.statistics.recordsSent(1);
+        this.statistics.bytesWritten(4 + length);
+        return null;
+    }
+
+    /**
+     * Close the agent. The ring buffer file is marked as closed (after the
+     * threads which were sending records while the agent was being closed
+     * committed their slots) and it will be deleted by the collector after
+     * draining of its records.
+     *
+     * @throws IOException if the ring buffer file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.closed) {
+            this.closed = true;
+            // a producer registers itself before checking the flag, so no producer writes into the ring after this wait
+            while (this.activeProducersCount.get() > 0) {
+                Thread.yield();
+            }
+            this.statistics.unregister();
+            this.ringBuffer.putInt(OFFSET_CLOSED, 1);
+            this.ringLock.release();
+            this.ringRandomAccessFile.close();
+        }
+    }
+
+    /**
+     * Get the ring buffer file of the agent.
+     *
+     * @return the ring buffer file
+     */
+    public File getRingFile() {
+        return this.ringFile;
+    }
+
+    /**
+     * Get the number of records written into the ring buffer and not yet
+     * taken by the collector.
+     *
+     * @return the number of records waiting in the ring buffer
+     */
+    @Override
+    public long getQueueDepth() {
+        return Math.max(0, this.tail.get() - this.ringBuffer.getLong(OFFSET_HEAD));
+    }
+
+    /**
+     * Get the number of records written into the ring buffer.
+     *
+     * @return the number of records written into the ring buffer
+     */
+    public long getSentRecordsCount() {
+        return this.sentRecordsCount.get();
+    }
+
+    /**
+     * Get the number of records dropped as they were too large, the ring buffer
+     * was full, or the agent was closed.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedRecordsCount() {
+        return this.statistics.getRecordsDroppedCount();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            final String className = MonitoringAgentForSharedMemory.class.getCanonicalName();
+            System.err.println(""
+                    + "Usage: " + className + " <shared-memory-directory> <number-of-threads> <number-of-records-per-thread>\n"
+                    + "Send a given number of testing records from a given number of threads into a ring buffer in a given shared memory directory"
+                    + " (to be drained by " + MonitoringSharedMemoryCollector.class.getCanonicalName() + ") and print the time and the number of dropped records.\n"
+            );
+            System.exit(-1);
+        }
+        final int numberOfThreads = Integer.parseInt(args[1]);
+        final int numberOfRecords = Integer.parseInt(args[2]);
+        final MonitoredResourcesStrategyInterface strategy = new MonitoredResourcesCachingStrategy();
+        try (final MonitoringAgentForSharedMemory monitoringAgent = new MonitoringAgentForSharedMemory(args[0], "test-application", strategy)) {
+            final Thread[] threads = new Thread[numberOfThreads];
+            for (int t = 0; t < numberOfThreads; t++) {
+                final int threadNumber = t;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        final MetricRecord metricRecord = new MetricRecord("SharedMemoryTest", "Thread", "Sequence");
+                        metricRecord.setHostname(strategy.getHostname());
+                        metricRecord.setNumericValue(0, threadNumber);
+                        for (int i = 0; i < numberOfRecords; i++) {
+                            metricRecord.setTimestampNanos(strategy.getTimestampNanos());
+                            metricRecord.setNumericValue(1, i);
+                            monitoringAgent.sendMetric(metricRecord);
+                        }
+                    }
+                });
+            }
+            final long startTime = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.printf("%d records sent and %d records dropped in %f sec\n", monitoringAgent.getSentRecordsCount(),
+                    monitoringAgent.getDroppedRecordsCount(), (System.nanoTime() - startTime) / 1e9);
+        }
+    }
+}
@@ -29,10 +29,12 @@ package eu.juniper.sa.monitoring.agent;
 
 import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
 import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.sql.Timestamp;
 import java.util.Locale;
 
 /**
@@ -46,6 +48,29 @@ import java.util.Locale;
  */
 public class MonitoringAgentForSqlFile extends MonitoringAgentAbstract implements MonitoringAgentInterface, AutoCloseable {
 
+    /**
+     * An output stream which accounts bytes written into the monitoring SQL
+     * file in the statistics of the agent.
+     */
+    private final class CountingOutputStream extends FilterOutputStream {
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            statistics.bytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            statistics.bytesWritten(len);
+        }
+    }
+
     private final PrintWriter monitoringSqlPrintWriter;
 
     /**
@@ -62,7 +87,7 @@ public class MonitoringAgentForSqlFile extends MonitoringAgentAbstract implement
      */
     public MonitoringAgentForSqlFile(String monitoringSqlFileName, String applicationId, MonitoredResourcesStrategyInterface monitoredResourcesDefaultStrategy) throws IOException {
         super(applicationId, monitoredResourcesDefaultStrategy);
-        this.monitoringSqlPrintWriter = new PrintWriter(new BufferedWriter(new FileWriter(monitoringSqlFileName, true)));
+        this.monitoringSqlPrintWriter = this.openPrintWriter(monitoringSqlFileName);
     }
 
     /**
@@ -78,7 +103,12 @@ public class MonitoringAgentForSqlFile extends MonitoringAgentAbstract implement
      */
     public MonitoringAgentForSqlFile(String monitoringSqlFileName, String applicationId) throws IOException {
         super(applicationId);
-        this.monitoringSqlPrintWriter = new PrintWriter(new BufferedWriter(new FileWriter(monitoringSqlFileName, true)));
+        this.monitoringSqlPrintWriter = this.openPrintWriter(monitoringSqlFileName);
+    }
+
+    private PrintWriter openPrintWriter(String monitoringSqlFileName) throws IOException {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new CountingOutputStream(new FileOutputStream(monitoringSqlFileName, true)))));
     }
 
     /**
@@ -86,81 +116,45 @@ public class MonitoringAgentForSqlFile extends MonitoringAgentAbstract implement
      */
     @Override
     public void close() {
+        this.statistics.unregister();
         this.monitoringSqlPrintWriter.close();
     }
 
     /**
-     * Send a set of given metrics of a particular type from the application to
-     * the monitoring SQL file.
+     * Send a given record of a set of metrics of a particular type from the
+     * application to the monitoring SQL file.
      *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @param timestampSec a timestamp in seconds of the metric set origin
-     * @param hostname a hostname of a client sending the metric
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
      * @return null
      */
     @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) {
-        final String formatRecord = "INSERT INTO records(time, metrictype, hostname) VALUES ('%s', '%s', '%s');\n";
-        final String formatNumericValue = "INSERT INTO metrics(recordid, name, numericvalue) VALUES (IDENTITY(), '%s', %f);\n";
+    public String sendMetric(MetricRecord metricRecord) {
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
+        final String formatRecord = "INSERT INTO records(time, metrictype, hostname) VALUES (%d, '%s', '%s');\n";
+        // the numeric values are printed exactly (not rounded to microseconds by %f)
+        final String formatNumericValue = "INSERT INTO metrics(recordid, name, numericvalue) VALUES (IDENTITY(), '%s', %s);\n";
         final String formatTextValue = "INSERT INTO metrics(recordid, name, textvalue) VALUES (IDENTITY(), '%s', '%s');\n";
         this.monitoringSqlPrintWriter.println("-- ApplicationID: " + this.getApplicationId());
         // generate the metrics data header
         this.monitoringSqlPrintWriter.printf(Locale.ROOT, formatRecord,
-                new Timestamp((long) (timestampSec * 1000)), metricType, hostname);
+                metricRecord.getTimestampNanos(), metricRecord.getMetricType(), metricRecord.getHostname());
         // generate the metrics data key-value pairs
-        for (int i = 0; i < metricNames.length && i < metricValues.length; i++) {
-            if ((metricNames[i] != null) && (metricValues[i] != null)) {
-                try {
-                    // print the value as a double number value if possible
-                    double doubleValue = Double.parseDouble(metricValues[i]);
+        for (int i = 0; i < metricRecord.getMetricsCount(); i++) {
+            if (metricRecord.hasValue(i)) {
+                if (metricRecord.hasNumericValue(i)) {
                     this.monitoringSqlPrintWriter.printf(Locale.ROOT, formatNumericValue,
-                            metricNames[i], doubleValue);
-                }
-                catch (NumberFormatException e) {
-                    // print the value as a string value otherwise
+                            metricRecord.getMetricName(i), metricRecord.getNumericValue(i));
+                } else {
                     this.monitoringSqlPrintWriter.printf(Locale.ROOT, formatTextValue,
-                            metricNames[i], metricValues[i]);
+                            metricRecord.getMetricName(i), metricRecord.getTextValue(i));
                 }
             }
         }
         this.monitoringSqlPrintWriter.flush();
+        this.statistics.recordsSent(1);
+        this.statistics.flushed();
+        this.statistics.sendMetricEnds(sendMetricStartsNanos);
         return null;
     }
-
-    /**
-     * Send a set of given metrics of a particular type from the application to
-     * the monitoring SQL file. The method utilizes <code>getHostname()</code>
-     * method of the default monitored resource strategy to get a hostname of a
-     * client sending the metric.
-     *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @param timestampSec a timestamp in seconds of the metric set origin
-     * @return null
-     */
-    @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec) {
-        return this.sendMetric(metricType, metricNames, metricValues, timestampSec, this.getMonitoredResourcesDefaultStrategy().getHostname());
-    }
-
-    /**
-     * Send the latest set of given metrics of a particular type from the
-     * application to the monitoring SQL file. The method utilizes methods of
-     * the default monitored resource strategy, namely
-     * <code>getTimestamp()</code> method to get a timestamp of metric to send
-     * and <code>getHostname()</code> method to get a hostname of a client
-     * sending the metric.
-     *
-     * @param metricType a type of metrics in the set to send
-     * @param metricNames names of metrics in the set to send
-     * @param metricValues values of metrics in the set to send
-     * @return null
-     */
-    @Override
-    public String sendMetric(String metricType, String[] metricNames, String[] metricValues) {
-        return this.sendMetric(metricType, metricNames, metricValues, this.getMonitoredResourcesDefaultStrategy().getTimestamp(), this.getMonitoredResourcesDefaultStrategy().getHostname());
-    }
 }
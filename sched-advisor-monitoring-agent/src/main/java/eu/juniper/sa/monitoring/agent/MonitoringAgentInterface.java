@@ -58,6 +58,22 @@ public interface MonitoringAgentInterface {
      */
     MonitoredResourcesStrategyInterface getMonitoredResourcesDefaultStrategy();
 
+    /**
+     * Send a given record of a set of metrics of a particular type from the
+     * application to the monitoring service. The record is not modified and
+     * its reference is not kept by the agent, so it can be reused by the
+     * caller afterwards.
+     *
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
+     * @return the monitoring service response
+     * @throws MalformedURLException if <code>monitoringServiceURL</code> is
+     * malformed
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    String sendMetric(MetricRecord metricRecord) throws MalformedURLException, IOException;
+
     /**
      * Send a set of given metrics of a particular type from the application to
      * the monitoring service.
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+/**
+ * The management interface of a monitoring agent registered in the platform
+ * MBean server of the JVM (see <code>MonitoringAgentStatistics</code>). It
+ * exposes the overhead of the monitoring, i.e., counts of records sent and
+ * dropped by the agent, the depth of its queue, a histogram of latencies of
+ * its <code>sendMetric(...)</code> methods, the total duration of reporting
+ * methods of sensors utilizing the agent, and counts of bytes and flushes
+ * written by the agent to its target.
+ *
+ * @author rychly
+ */
+public interface MonitoringAgentMXBean {
+
+    /**
+     * Get the application ID of the agent.
+     *
+     * @return the application ID
+     */
+    String getApplicationId();
+
+    /**
+     * Get the class name of the agent.
+     *
+     * @return the class name of the agent
+     */
+    String getAgentClassName();
+
+    /**
+     * Get a duration in seconds since the creation of the agent.
+     *
+     * @return the duration in seconds since the creation of the agent
+     */
+    double getUptime();
+
+    /**
+     * Get the number of invocations of <code>sendMetric(...)</code> methods
+     * of the agent.
+     *
+     * @return the number of invocations
+     */
+    long getSendMetricCallsCount();
+
+    /**
+     * Get the total duration in seconds of all invocations of
+     * <code>sendMetric(...)</code> methods of the agent (summed over all
+     * threads).
+     *
+     * @return the total duration in seconds
+     */
+    double getSendMetricTotalTime();
+
+    /**
+     * Get the mean latency in seconds of <code>sendMetric(...)</code> methods
+     * of the agent.
+     *
+     * @return the mean latency in seconds or NaN if there were no invocations
+     */
+    double getSendMetricMeanLatency();
+
+    /**
+     * Get the median latency in seconds of <code>sendMetric(...)</code>
+     * methods of the agent (from the latency histogram).
+     *
+     * @return the median latency in seconds or NaN if there were no
+     * invocations
+     */
+    double getSendMetricLatency50thPercentile();
+
+    /**
+     * Get the 90th percentile of latencies in seconds of
+     * <code>sendMetric(...)</code> methods of the agent (from the latency
+     * histogram).
+     *
+     * @return the 90th percentile in seconds or NaN if there were no
+     * invocations
+     */
+    double getSendMetricLatency90thPercentile();
+
+    /**
+     * Get the 99th percentile of latencies in seconds of
+     * <code>sendMetric(...)</code> methods of the agent (from the latency
+     * histogram).
+     *
+     * @return the 99th percentile in seconds or NaN if there were no
+     * invocations
+     */
+    double getSendMetricLatency99thPercentile();
+
+    /**
+     * Get the maximal latency in seconds of <code>sendMetric(...)</code>
+     * methods of the agent (from the latency histogram).
+     *
+     * @return the maximal latency in seconds or NaN if there were no
+     * invocations
+     */
+    double getSendMetricLatencyMax();
+
+    /**
+     * Get the histogram of latencies of <code>sendMetric(...)</code> methods
+     * of the agent in the text representation of
+     * <code>LatencyHistogram.encode()</code>.
+     *
+     * @return the encoded latency histogram
+     */
+    String getSendMetricLatencyHistogram();
+
+    /**
+     * Get the number of invocations of reporting methods of sensors utilizing
+     * the agent (i.e., <code>*Ends(...)</code> and
+     * <code>programDoesNotEnd()</code> methods).
+     *
+     * @return the number of invocations
+     */
+    long getSensorReportsCount();
+
+    /**
+     * Get the total duration in seconds of reporting methods of sensors
+     * utilizing the agent, i.e., the sum of their return values (including
+     * their invocations of <code>sendMetric(...)</code> methods).
+     *
+     * @return the total duration in seconds
+     */
+    double getSensorReportsTotalTime();
+
+    /**
+     * Get the ratio of the monitoring overhead to the uptime of the agent. The
+     * overhead is the larger of the total durations of reporting methods of
+     * sensors and of <code>sendMetric(...)</code> methods (the former includes
+     * the latter if the metrics are sent by the sensors).
+     *
+     * @return the ratio of the overhead to the uptime
+     */
+    double getOverheadRatio();
+
+    /**
+     * Get the number of records sent by the agent to its target.
+     *
+     * @return the number of sent records
+     */
+    long getRecordsSentCount();
+
+    /**
+     * Get the number of records the agent failed to send to its target (and
+     * which were lost).
+     *
+     * @return the number of failed records
+     */
+    long getRecordsFailedCount();
+
+    /**
+     * Get the number of records dropped by the agent before sending, e.g., as
+     * its queue was full or the agent was closed.
+     *
+     * @return the number of dropped records
+     */
+    long getRecordsDroppedCount();
+
+    /**
+     * Get the number of records currently waiting to be sent by the agent (zero
+     * for synchronous agents).
+     *
+     * @return the number of waiting records
+     */
+    long getQueueDepth();
+
+    /**
+     * Get the number of bytes written by the agent to its target (if the agent
+     * can measure them, e.g., into a file or a request body).
+     *
+     * @return the number of written bytes
+     */
+    long getBytesWrittenCount();
+
+    /**
+     * Get the number of flushes of the agent to its target, e.g., commits of
+     * transactions, HTTP requests, or flushes of files.
+     *
+     * @return the number of flushes
+     */
+    long getFlushesCount();
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.sensor.DataConnectionSensorInterface;
+import eu.juniper.sa.monitoring.sensor.ProcessSampleSensor;
+import eu.juniper.sa.monitoring.sensor.ProgramInstanceSensorInterface;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.sql.SQLException;
+
+/**
+ * The class of a monitoring agent which samples resources of the process by
+ * <code>ProcessSampleSensor</code> into a given monitoring agent. The other
+ * metrics are sent directly to the given agent, which has to be usable by
+ * concurrent threads (the sampler thread and the threads of the application).
+ * The agent owns the sensor, so the sampler thread is stopped and its files of
+ * the /proc filesystem are closed before the given agent is closed.
+ *
+ * @author rychly
+ */
+public class MonitoringAgentSampled implements MonitoringAgentInterface, AutoCloseable {
+
+    private final MonitoringAgentInterface targetAgent;
+    private final ProcessSampleSensor processSampleSensor;
+
+    /**
+     * Create a monitoring agent which starts sampling resources of the process
+     * with a given period into a given monitoring agent.
+     *
+     * @param targetAgent the monitoring agent to send the samples and the
+     * other metrics (usable by concurrent threads)
+     * @param samplingPeriod a period of the sampling in seconds
+     */
+    public MonitoringAgentSampled(MonitoringAgentInterface targetAgent, double samplingPeriod) {
+        this.targetAgent = targetAgent;
+        this.processSampleSensor = new ProcessSampleSensor(targetAgent, targetAgent.getMonitoredResourcesDefaultStrategy(), samplingPeriod).start();
+    }
+
+    @Override
+    public String getApplicationId() {
+        return this.targetAgent.getApplicationId();
+    }
+
+    @Override
+    public MonitoredResourcesStrategyInterface getMonitoredResourcesDefaultStrategy() {
+        return this.targetAgent.getMonitoredResourcesDefaultStrategy();
+    }
+
+    @Override
+    public String sendMetric(MetricRecord metricRecord) throws MalformedURLException, IOException {
+        return this.targetAgent.sendMetric(metricRecord);
+    }
+
+    @Override
+    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) throws MalformedURLException, IOException {
+        return this.targetAgent.sendMetric(metricType, metricNames, metricValues, timestampSec, hostname);
+    }
+
+    @Override
+    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec) throws MalformedURLException, IOException {
+        return this.targetAgent.sendMetric(metricType, metricNames, metricValues, timestampSec);
+    }
+
+    @Override
+    public String sendMetric(String metricType, String[] metricNames, String[] metricValues) throws MalformedURLException, IOException {
+        return this.targetAgent.sendMetric(metricType, metricNames, metricValues);
+    }
+
+    @Override
+    public DataConnectionSensorInterface createDataConnectionSensor(int receiverGlobalRank, String connectionName) {
+        return this.targetAgent.createDataConnectionSensor(receiverGlobalRank, connectionName);
+    }
+
+    @Override
+    public ProgramInstanceSensorInterface createProgramInstanceSensor(int programGlobalRank) {
+        return this.targetAgent.createProgramInstanceSensor(programGlobalRank);
+    }
+
+    /**
+     * Get the monitoring agent sending the samples and the other metrics.
+     *
+     * @return the monitoring agent sending the records
+     */
+    public MonitoringAgentInterface getTargetAgent() {
+        return this.targetAgent;
+    }
+
+    /**
+     * Get the sensor sampling resources of the process.
+     *
+     * @return the sensor of the samples
+     */
+    public ProcessSampleSensor getProcessSampleSensor() {
+        return this.processSampleSensor;
+    }
+
+    /**
+     * Close the agent. The sampler thread is stopped first, so it does not
+     * send into the closed monitoring agent, and then the given monitoring
+     * agent is closed (if it is closeable).
+     *
+     * @throws IOException if the sensor or the given monitoring agent cannot
+     * be closed
+     * @throws SQLException if the given monitoring agent cannot be closed due
+     * to a database error
+     */
+    @Override
+    public void close() throws IOException, SQLException {
+        try {
+            this.processSampleSensor.close();
+        }
+        finally {
+            MonitoringAgentFactory.closeMonitoringAgent(this.targetAgent);
+        }
+    }
+}
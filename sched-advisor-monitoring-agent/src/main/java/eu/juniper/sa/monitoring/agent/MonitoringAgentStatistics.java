@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import eu.juniper.sa.monitoring.sensor.LatencyHistogram;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The class of statistics of an overhead of a monitoring agent which are
+ * exposed by <code>MonitoringAgentMXBean</code> interface. The statistics are
+ * updated by the agent and by sensors utilizing the agent, concurrently by
+ * several threads, without any locks. The latencies of
+ * <code>sendMetric(...)</code> methods are counted in buckets of
+ * <code>LatencyHistogram</code> kept in an atomic array and a snapshot of the
+ * histogram is taken on each query.
+ *
+ * @author rychly
+ */
+public class MonitoringAgentStatistics implements MonitoringAgentMXBean {
+
+    /**
+     * Domain of object names of monitoring agents in the platform MBean
+     * server.
+     */
+    public static final String OBJECT_NAME_DOMAIN = "eu.juniper.sa.monitoring";
+    /**
+     * Type of object names of monitoring agents in the platform MBean server.
+     */
+    public static final String OBJECT_NAME_TYPE = "MonitoringAgent";
+
+    private static final AtomicLong REGISTERED_AGENTS_COUNT = new AtomicLong();
+
+    private final MonitoringAgentAbstract monitoringAgent;
+    private final long creationTimestampNanos = System.nanoTime();
+    private final LongAdder sendMetricCallsCount = new LongAdder();
+    private final LongAdder sendMetricTotalNanos = new LongAdder();
+    private final AtomicLongArray sendMetricLatencyCounts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+    private final LongAdder sensorReportsCount = new LongAdder();
+    private final DoubleAdder sensorReportsTotalTime = new DoubleAdder();
+    private final LongAdder recordsSentCount = new LongAdder();
+    private final LongAdder recordsFailedCount = new LongAdder();
+    private final LongAdder recordsDroppedCount = new LongAdder();
+    private final LongAdder bytesWrittenCount = new LongAdder();
+    private final LongAdder flushesCount = new LongAdder();
+    private ObjectName objectName = null;
+
+    /**
+     * Create statistics of a given monitoring agent.
+     *
+     * @param monitoringAgent the monitoring agent
+     */
+    MonitoringAgentStatistics(MonitoringAgentAbstract monitoringAgent) {
+        this.monitoringAgent = monitoringAgent;
+    }
+
+    /**
+     * Register the statistics in the platform MBean server of the JVM under
+     * name <code>eu.juniper.sa.monitoring:type=MonitoringAgent,agent=class,id=number</code>.
+     * The registration is best-effort, i.e., the agent works even if the
+     * statistics cannot be registered.
+     *
+     * @return the object name of the registered statistics or null if they
+     * cannot be registered
+     */
+    public synchronized ObjectName register() {
+        if (this.objectName == null) {
+            final String agentName = this.monitoringAgent.getClass().getSimpleName();
+            try {
+                final ObjectName name = new ObjectName(OBJECT_NAME_DOMAIN + ":type=" + OBJECT_NAME_TYPE
+                        + ",agent=" + (agentName.isEmpty() ? "anonymous" : agentName)
+                        + ",id=" + REGISTERED_AGENTS_COUNT.incrementAndGet());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+                this.objectName = name;
+            }
+            catch (JMException | SecurityException ex) {
+                // NOP, the statistics are still available by MonitoringAgentAbstract.getStatistics()
+            }
+        }
+        return this.objectName;
+    }
+
+    /**
+     * Unregister the statistics from the platform MBean server of the JVM (if
+     * they have been registered).
+     */
+    public synchronized void unregister() {
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            }
+            catch (JMException | SecurityException ex) {
+                // NOP, the statistics have been unregistered already or they cannot be unregistered at all
+            }
+            this.objectName = null;
+        }
+    }
+
+    /**
+     * Get the object name of the statistics in the platform MBean server of
+     * the JVM.
+     *
+     * @return the object name or null if the statistics are not registered
+     */
+    public synchronized ObjectName getObjectName() {
+        return this.objectName;
+    }
+
+    /**
+     * Should be invoked at the beginning of a <code>sendMetric(...)</code>
+     * method of the agent.
+     *
+     * @return a timestamp in nanoseconds to be passed to
+     * <code>sendMetricEnds(long)</code>
+     */
+    public long sendMetricStarts() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Should be invoked at the end of a <code>sendMetric(...)</code> method of
+     * the agent (in a finally block).
+     *
+     * @param sendMetricStartsNanos the timestamp returned by
+     * <code>sendMetricStarts()</code>
+     */
+    public void sendMetricEnds(long sendMetricStartsNanos) {
+        final long durationNanos = System.nanoTime() - sendMetricStartsNanos;
+        this.sendMetricCallsCount.increment();
+        this.sendMetricTotalNanos.add(durationNanos);
+        this.sendMetricLatencyCounts.incrementAndGet(LatencyHistogram.getBucketIndexOfValue(durationNanos / 1e9));
+    }
+
+    /**
+     * Account a duration of a reporting method of a sensor utilizing the
+     * agent.
+     *
+     * @param duration the duration in seconds returned by the reporting
+     * method
+     */
+    public void sensorReportEnds(double duration) {
+        this.sensorReportsCount.increment();
+        this.sensorReportsTotalTime.add(duration);
+    }
+
+    /**
+     * Account records sent by the agent to its target.
+     *
+     * @param count the number of the sent records
+     */
+    public void recordsSent(long count) {
+        this.recordsSentCount.add(count);
+    }
+
+    /**
+     * Account records the agent failed to send to its target.
+     *
+     * @param count the number of the failed records
+     */
+    public void recordsFailed(long count) {
+        this.recordsFailedCount.add(count);
+    }
+
+    /**
+     * Account records dropped by the agent before sending.
+     *
+     * @param count the number of the dropped records
+     */
+    public void recordsDropped(long count) {
+        this.recordsDroppedCount.add(count);
+    }
+
+    /**
+     * Account bytes written by the agent to its target.
+     *
+     * @param count the number of the written bytes
+     */
+    public void bytesWritten(long count) {
+        this.bytesWrittenCount.add(count);
+    }
+
+    /**
+     * Account a flush of the agent to its target.
+     */
+    public void flushed() {
+        this.flushesCount.increment();
+    }
+
+    /**
+     * Get a snapshot of the histogram of latencies of
+     * <code>sendMetric(...)</code> methods of the agent.
+     *
+     * @return the snapshot of the latency histogram
+     */
+    public LatencyHistogram getSendMetricLatencySnapshot() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            final long count = this.sendMetricLatencyCounts.get(i);
+            if (count != 0) {
+                histogram.addBucketCount(i, count);
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    public String getApplicationId() {
+        return this.monitoringAgent.getApplicationId();
+    }
+
+    @Override
+    public String getAgentClassName() {
+        return this.monitoringAgent.getClass().getName();
+    }
+
+    @Override
+    public double getUptime() {
+        return (System.nanoTime() - this.creationTimestampNanos) / 1e9;
+    }
+
+    @Override
+    public long getSendMetricCallsCount() {
+        return this.sendMetricCallsCount.sum();
+    }
+
+    @Override
+    public double getSendMetricTotalTime() {
+        return this.sendMetricTotalNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getSendMetricMeanLatency() {
+        final long calls = this.sendMetricCallsCount.sum();
+        return (calls == 0) ? Double.NaN : this.sendMetricTotalNanos.sum() / 1e9 / calls;
+    }
+
+    @Override
+    public double getSendMetricLatency50thPercentile() {
+        return this.getSendMetricLatencySnapshot().getValueAtPercentile(50);
+    }
+
+    @Override
+    public double getSendMetricLatency90thPercentile() {
+        return this.getSendMetricLatencySnapshot().getValueAtPercentile(90);
+    }
+
+    @Override
+    public double getSendMetricLatency99thPercentile() {
+        return this.getSendMetricLatencySnapshot().getValueAtPercentile(99);
+    }
+
+    @Override
+    public double getSendMetricLatencyMax() {
+        return this.getSendMetricLatencySnapshot().getValueAtPercentile(100);
+    }
+
+    @Override
+    public String getSendMetricLatencyHistogram() {
+        return this.getSendMetricLatencySnapshot().encode();
+    }
+
+    @Override
+    public long getSensorReportsCount() {
+        return this.sensorReportsCount.sum();
+    }
+
+    @Override
+    public double getSensorReportsTotalTime() {
+        return this.sensorReportsTotalTime.sum();
+    }
+
+    @Override
+    public double getOverheadRatio() {
+        return Math.max(this.getSensorReportsTotalTime(), this.getSendMetricTotalTime()) / this.getUptime();
+    }
+
+    @Override
+    public long getRecordsSentCount() {
+        return this.recordsSentCount.sum();
+    }
+
+    @Override
+    public long getRecordsFailedCount() {
+        return this.recordsFailedCount.sum();
+    }
+
+    @Override
+    public long getRecordsDroppedCount() {
+        return this.recordsDroppedCount.sum();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return this.monitoringAgent.getQueueDepth();
+    }
+
+    @Override
+    public long getBytesWrittenCount() {
+        return this.bytesWrittenCount.sum();
+    }
+
+    @Override
+    public long getFlushesCount() {
+        return this.flushesCount.sum();
+    }
+}
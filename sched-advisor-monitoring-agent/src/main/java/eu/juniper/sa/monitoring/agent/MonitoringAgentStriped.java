@@ -0,0 +1,569 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesCachingStrategy;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The class of a monitoring agent which makes a given monitoring agent usable
+ * by concurrent threads of a multi-threaded application without a global lock.
+ * Each thread sending metrics has its own bounded buffer (a stripe) with a
+ * single producer (the thread) and a single consumer (a background writer
+ * thread of the agent), so the threads do not contend with each other. The
+ * writer thread merges the records from all the stripes and it is the only
+ * thread sending them to the given monitoring agent, so the given agent does
+ * not need to be thread-safe (e.g., <code>MonitoringAgentForDatabase</code> or
+ * <code>MonitoringAgentForSqlFile</code>). The order of records of each thread
+ * is preserved. The slots of a stripe keep their records, so a record sent by
+ * the thread is copied into the record of its slot without allocation (a new
+ * record is allocated for a slot only if the type or names of the metrics
+ * differ from the previous record in the slot). If a stripe is full, the
+ * overflow policy decides whether the
+ * thread should wait or its new record should be dropped (a single producer
+ * cannot drop the oldest records, so <code>DROP_OLDEST</code> policy is
+ * handled as <code>DROP_NEWEST</code>).
+ *
+ * @author rychly
+ */
+public class MonitoringAgentStriped extends MonitoringAgentAbstract implements MonitoringAgentInterface, AutoCloseable {
+
+    /**
+     * Default capacity of a buffer of each thread (it is rounded up to a power
+     * of two).
+     */
+    public static final int DEFAULT_STRIPE_CAPACITY = 1024;
+
+    private final static String DROPPED_RECORD_MESSAGE = "The record has been dropped as the buffer of the thread in the monitoring agent is full.";
+    private final static String CLOSED_AGENT_MESSAGE = "The record has been dropped as the monitoring agent has been closed.";
+    // waiting times of the writer thread and blocked threads in nanoseconds
+    private static final long MIN_IDLE_NANOS = 10000L;
+    private static final long MAX_IDLE_NANOS = 10000000L;
+    private static final long BLOCKED_NANOS = 10000L;
+
+    /**
+     * A buffer of records of a single producer thread read by the writer
+     * thread.
+     */
+    private static final class Stripe {
+
+        private final Thread owner;
+        // the records of the slots are reused, they are written by the owner and read by the writer
+        private final MetricRecord[] slots;
+        private final int mask;
+        // the positions are modified by a single thread each, i.e., the owner and the writer, respectively
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+        // a cached value of the head seen by the owner to avoid reading the writer's cache line on each record
+        private long headCache;
+        // statistics modified by the owner only
+        private volatile long queuedRecordsCount;
+
+        Stripe(Thread owner, int capacity) {
+            this.owner = owner;
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            this.slots = new MetricRecord[size];
+            this.mask = size - 1;
+        }
+
+        boolean isEmpty() {
+            return this.head.get() == this.tail.get();
+        }
+    }
+
+    private final MonitoringAgentInterface targetAgent;
+    private final int stripeCapacity;
+    private final MonitoringAgentAsyncAbstract.OverflowPolicy overflowPolicy;
+    private final CopyOnWriteArrayList<Stripe> stripes = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Stripe> localStripe = new ThreadLocal<Stripe>() {
+        @Override
+        protected Stripe initialValue() {
+            final Stripe stripe = new Stripe(Thread.currentThread(), stripeCapacity);
+            stripes.add(stripe);
+            return stripe;
+        }
+    };
+    private final Thread writerThread;
+    private final Thread shutdownHookThread;
+    // statistics of stripes of terminated threads which have been removed
+    private final AtomicLong removedQueuedRecordsCount = new AtomicLong();
+    // the producers between their check of the closed flag and the publishing of their record
+    private final AtomicInteger activeProducersCount = new AtomicInteger();
+    private volatile String lastErrorMessage = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a monitoring agent sending records of concurrent threads by a
+     * given monitoring agent. The application ID and the default monitored
+     * resource strategy of the given agent are utilized.
+     *
+     * @param targetAgent the monitoring agent to send the records by
+     * @param stripeCapacity a capacity of a buffer of each thread
+     * @param overflowPolicy a policy of dealing with new records if the buffer
+     * of a thread is full
+     */
+    public MonitoringAgentStriped(MonitoringAgentInterface targetAgent, int stripeCapacity, MonitoringAgentAsyncAbstract.OverflowPolicy overflowPolicy) {
+        super(targetAgent.getApplicationId(), targetAgent.getMonitoredResourcesDefaultStrategy());
+        if (stripeCapacity < 1) {
+            throw new IllegalArgumentException("The stripe capacity has to be a positive number.");
+        }
+        this.targetAgent = targetAgent;
+        this.stripeCapacity = stripeCapacity;
+        this.overflowPolicy = (overflowPolicy == null) ? MonitoringAgentAsyncAbstract.DEFAULT_OVERFLOW_POLICY : overflowPolicy;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, this.getClass().getSimpleName() + "-writer");
+        this.writerThread.setDaemon(true);
+        this.shutdownHookThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeAndFlush();
+                }
+                catch (Exception ex) {
+                    // nothing can be done during the JVM shutdown
+                }
+            }
+        }, this.getClass().getSimpleName() + "-shutdown");
+        this.writerThread.start();
+        Runtime.getRuntime().addShutdownHook(this.shutdownHookThread);
+    }
+
+    /**
+     * Create a monitoring agent sending records of concurrent threads by a
+     * given monitoring agent with <code>DEFAULT_STRIPE_CAPACITY</code> and
+     * <code>BLOCK</code> overflow policy.
+     *
+     * @param targetAgent the monitoring agent to send the records by
+     */
+    public MonitoringAgentStriped(MonitoringAgentInterface targetAgent) {
+        this(targetAgent, DEFAULT_STRIPE_CAPACITY, MonitoringAgentAsyncAbstract.OverflowPolicy.BLOCK);
+    }
+
+    private void writeLoop() {
+        long idleNanos = MIN_IDLE_NANOS;
+        while (true) {
+            // the flags must be read before the pass, so the records put before closing are written by the pass
+            // (a producer registers itself before checking the closed flag, so no producer publishes a record after the last pass)
+            final boolean closing = this.closed && (this.activeProducersCount.get() == 0);
+            long writtenRecords = 0;
+            for (Stripe stripe : this.stripes) {
+                writtenRecords += this.drain(stripe);
+                if (!stripe.owner.isAlive()) {
+                    // the terminated thread cannot put any more records, so write the rest and remove its stripe
+                    writtenRecords += this.drain(stripe);
+                    this.removedQueuedRecordsCount.addAndGet(stripe.queuedRecordsCount);
+                    this.stripes.remove(stripe);
+                }
+            }
+            if (writtenRecords > 0) {
+                this.statistics.flushed();
+                idleNanos = MIN_IDLE_NANOS;
+            } else if (closing) {
+                return;
+            } else {
+                LockSupport.parkNanos(idleNanos);
+                idleNanos = Math.min(idleNanos * 2, MAX_IDLE_NANOS);
+            }
+        }
+    }
+
+    private long drain(Stripe stripe) {
+        long head = stripe.head.get();
+        final long tail = stripe.tail.get();
+        final long writtenRecords = tail - head;
+        for (; head < tail; head++) {
+            this.write(stripe.slots[(int) head & stripe.mask]);
+            // free the slot for the owner after its record has been written, as the owner reuses the record
+            stripe.head.lazySet(head + 1);
+        }
+        return writtenRecords;
+    }
+
+    private void write(MetricRecord record) {
+        try {
+            this.targetAgent.sendMetric(record);
+            this.statistics.recordsSent(1);
+        }
+        catch (IOException | RuntimeException ex) {
+            this.statistics.recordsFailed(1);
+            this.lastErrorMessage = ex.getMessage();
+        }
+    }
+
+    /**
+     * Copy a given record of a set of metrics of a particular type from the
+     * application into the buffer of the current thread to be sent later by
+     * the background writer thread.
+     *
+     * @param metricRecord a record of metrics to send (including its timestamp
+     * and hostname)
+     * @return null if the metrics have been buffered, or an error message if
+     * they have been dropped
+     */
+    @Override
+    public String sendMetric(MetricRecord metricRecord) {
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
+        try {
+            return this.offer(metricRecord, false);
+        }
+        finally {
+            this.statistics.sendMetricEnds(sendMetricStartsNanos);
+        }
+    }
+
+    /**
+     * Put a set of given metrics of a particular type from the application
+     * into the buffer of the current thread to be sent later by the background
+     * writer thread.
+     *
+     * @param metricType a type of metrics in the set to send
+     * @param metricNames names of metrics in the set to send
+     * @param metricValues values of metrics in the set to send
+     * @param timestampSec a timestamp in seconds of the metric set origin
+     * @param hostname a hostname of a client sending the metric
+     * @return null if the metrics have been buffered, or an error message if
+     * they have been dropped
+     */
+    @Override
+    public String sendMetric(String metricType, String[] metricNames, String[] metricValues, double timestampSec, String hostname) {
+        final long sendMetricStartsNanos = this.statistics.sendMetricStarts();
+        try {
+            return this.offer(MetricRecord.fromStrings(metricType, metricNames, metricValues, timestampSec, hostname), true);
+        }
+        finally {
+            this.statistics.sendMetricEnds(sendMetricStartsNanos);
+        }
+    }
+
+    private String offer(MetricRecord record, boolean ownedRecord) {
+        this.activeProducersCount.incrementAndGet();
+        try {
+            return this.offerActive(record, ownedRecord);
+        }
+        finally {
+            this.activeProducersCount.decrementAndGet();
+        }
+    }
+
+    private String offerActive(MetricRecord record, boolean ownedRecord) {
+        if (this.closed) {
+            this.statistics.recordsDropped(1);
+            return CLOSED_AGENT_MESSAGE;
+        }
+        final Stripe stripe = this.localStripe.get();
+        final long tail = stripe.tail.get();
+        final int capacity = stripe.slots.length;
+        if (tail - stripe.headCache >= capacity) {
+            stripe.headCache = stripe.head.get();
+            while (tail - stripe.headCache >= capacity) {
+                if ((this.overflowPolicy != MonitoringAgentAsyncAbstract.OverflowPolicy.BLOCK) || this.closed) {
+                    this.statistics.recordsDropped(1);
+                    return DROPPED_RECORD_MESSAGE;
+                }
+                LockSupport.parkNanos(BLOCKED_NANOS);
+                stripe.headCache = stripe.head.get();
+            }
+        }
+        final int index = (int) tail & stripe.mask;
+        final MetricRecord slotRecord = stripe.slots[index];
+        if (!ownedRecord && (slotRecord != null) && slotRecord.hasSameMetricsAs(record)) {
+            slotRecord.copyFrom(record);
+        } else {
+            stripe.slots[index] = ownedRecord ? record : record.copy();
+        }
+        // publish the record to the writer thread
+        stripe.tail.lazySet(tail + 1);
+        stripe.queuedRecordsCount++;
+        return null;
+    }
+
+    private void closeAndFlush() throws IOException, SQLException {
+        synchronized (this.writerThread) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            // wait until the writer thread sends the remaining records (an interrupt is restored afterwards)
+            boolean interrupted = false;
+            while (this.writerThread.isAlive()) {
+                try {
+                    this.writerThread.join();
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            try {
+                this.statistics.unregister();
+                MonitoringAgentFactory.closeMonitoringAgent(this.targetAgent);
+            }
+            finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the agent. New records are refused, the records remaining in the
+     * buffers (including the records of threads which were buffering them
+     * while the agent was being closed) are sent, and the given monitoring
+     * agent is closed (if it is closeable).
+     *
+     * @throws IOException if the given monitoring agent cannot be closed
+     * @throws SQLException if the given monitoring agent cannot be closed due
+     * to a database error
+     */
+    @Override
+    public void close() throws IOException, SQLException {
+        try {
+            Runtime.getRuntime().removeShutdownHook(this.shutdownHookThread);
+        }
+        catch (IllegalStateException ex) {
+            // the JVM is shutting down, the hook is running or will run
+        }
+        this.closeAndFlush();
+    }
+
+    /**
+     * Get the monitoring agent sending the records.
+     *
+     * @return the monitoring agent sending the records
+     */
+    public MonitoringAgentInterface getTargetAgent() {
+        return this.targetAgent;
+    }
+
+    /**
+     * Get the number of threads which currently have their buffers in the
+     * agent.
+     *
+     * @return the number of the buffers
+     */
+    public int getStripesCount() {
+        return this.stripes.size();
+    }
+
+    /**
+     * Get the number of records currently waiting in the buffers of all
+     * threads.
+     *
+     * @return the number of records in the buffers
+     */
+    @Override
+    public long getQueueDepth() {
+        long depth = 0;
+        for (Stripe stripe : this.stripes) {
+            depth += stripe.tail.get() - stripe.head.get();
+        }
+        return depth;
+    }
+
+    /**
+     * Get the number of records successfully put into the buffers.
+     *
+     * @return the number of buffered records
+     */
+    public long getMetricRecordsCount() {
+        long count = this.removedQueuedRecordsCount.get();
+        for (Stripe stripe : this.stripes) {
+            count += stripe.queuedRecordsCount;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of records dropped due to the overflow policy or the
+     * closed agent.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedRecordsCount() {
+        return this.statistics.getRecordsDroppedCount();
+    }
+
+    /**
+     * Get the number of records successfully sent by the background writer
+     * thread.
+     *
+     * @return the number of sent records
+     */
+    public long getSentRecordsCount() {
+        return this.statistics.getRecordsSentCount();
+    }
+
+    /**
+     * Get the number of records which the background writer thread failed to
+     * send (and which were lost).
+     *
+     * @return the number of failed records
+     */
+    public long getFailedRecordsCount() {
+        return this.statistics.getRecordsFailedCount();
+    }
+
+    /**
+     * Get the error message of the last failed record.
+     *
+     * @return the error message of the last failed record or null if no
+     * record failed
+     */
+    public String getLastErrorMessage() {
+        return this.lastErrorMessage;
+    }
+
+    /**
+     * A testing monitoring agent which checks that all records of each thread
+     * are received in order. It is not thread-safe.
+     */
+    private static final class VerifyingAgent extends MonitoringAgentAbstract {
+
+        private final long[] lastSequences;
+        private long receivedRecordsCount = 0;
+        private long misorderedRecordsCount = 0;
+
+        VerifyingAgent(int numberOfThreads, MonitoredResourcesStrategyInterface strategy) {
+            super("test-application", strategy);
+            this.lastSequences = new long[numberOfThreads];
+            Arrays.fill(this.lastSequences, -1);
+        }
+
+        @Override
+        public String sendMetric(MetricRecord metricRecord) {
+            final int threadNumber = (int) metricRecord.getNumericValue(0);
+            final long sequence = (long) metricRecord.getNumericValue(1);
+            if (sequence != this.lastSequences[threadNumber] + 1) {
+                this.misorderedRecordsCount++;
+            }
+            this.lastSequences[threadNumber] = sequence;
+            this.receivedRecordsCount++;
+            return null;
+        }
+    }
+
+    private static double runThreads(final MonitoringAgentInterface monitoringAgent, final boolean globalLock, int numberOfThreads,
+            final int numberOfRecords, final MonitoredResourcesStrategyInterface strategy) throws InterruptedException {
+        final Thread[] threads = new Thread[numberOfThreads];
+        for (int t = 0; t < numberOfThreads; t++) {
+            final int threadNumber = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final MetricRecord metricRecord = new MetricRecord("StripedTest", "Thread", "Sequence");
+                    metricRecord.setHostname(strategy.getHostname());
+                    metricRecord.setNumericValue(0, threadNumber);
+                    for (int i = 0; i < numberOfRecords; i++) {
+                        metricRecord.setTimestampNanos(strategy.getTimestampNanos());
+                        metricRecord.setNumericValue(1, i);
+                        try {
+                            if (globalLock) {
+                                synchronized (monitoringAgent) {
+                                    monitoringAgent.sendMetric(metricRecord);
+                                }
+                            } else {
+                                monitoringAgent.sendMetric(metricRecord);
+                            }
+                        }
+                        catch (IOException ex) {
+                            ex.printStackTrace();
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+        final long startTime = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            final String className = MonitoringAgentStriped.class.getCanonicalName();
+            System.err.println(""
+                    + "Usage: " + className + " <max-number-of-threads> <number-of-records-per-thread> [<monitoring-url>]\n"
+                    + "Stress test of the agent: send a given number of testing records from 1, 2, 4, ... up to a given number of threads (powers of two)"
+                    + " by the agent and by a shared agent guarded by a global lock, check that all records of each thread are received in order,"
+                    + " and print throughputs of the sending threads. If a monitoring URL is given (see "
+                    + MonitoringAgentFactory.class.getCanonicalName() + "), the records from the given number of threads are also sent by the agent"
+                    + " into a monitoring agent created for the URL.\n"
+            );
+            System.exit(-1);
+        }
+        final int maxNumberOfThreads = Integer.parseInt(args[0]);
+        final int numberOfRecords = Integer.parseInt(args[1]);
+        final MonitoredResourcesStrategyInterface strategy = new MonitoredResourcesCachingStrategy();
+        System.out.println("threads\tlocked-records/sec\tstriped-records/sec\tstriped-received\tstriped-misordered");
+        for (int numberOfThreads = 1; numberOfThreads <= maxNumberOfThreads; numberOfThreads *= 2) {
+            final VerifyingAgent lockedAgent = new VerifyingAgent(numberOfThreads, strategy);
+            final double lockedDuration = runThreads(lockedAgent, true, numberOfThreads, numberOfRecords, strategy);
+            final VerifyingAgent verifyingAgent = new VerifyingAgent(numberOfThreads, strategy);
+            final double stripedDuration;
+            try (MonitoringAgentStriped monitoringAgent = new MonitoringAgentStriped(verifyingAgent)) {
+                stripedDuration = runThreads(monitoringAgent, false, numberOfThreads, numberOfRecords, strategy);
+            }
+            final long totalRecords = (long) numberOfThreads * numberOfRecords;
+            System.out.printf("%d\t%d\t%d\t%d/%d\t%d\n", numberOfThreads, (long) (totalRecords / lockedDuration), (long) (totalRecords / stripedDuration),
+                    verifyingAgent.receivedRecordsCount, totalRecords, verifyingAgent.misorderedRecordsCount);
+        }
+        if (args.length > 2) {
+            MonitoringAgentFactory.setEnabled(true);
+            final MonitoringAgentStriped monitoringAgent = new MonitoringAgentStriped(MonitoringAgentFactory.createMonitoringAgent(args[2], "test-application", strategy));
+            final double duration;
+            try {
+                duration = runThreads(monitoringAgent, false, maxNumberOfThreads, numberOfRecords, strategy);
+            }
+            finally {
+                // the counters are printed after the remaining records have been sent
+                monitoringAgent.close();
+            }
+            System.out.printf("%d records sent, %d failed, and %d dropped into %s in %f sec\n", monitoringAgent.getSentRecordsCount(),
+                    monitoringAgent.getFailedRecordsCount(), monitoringAgent.getDroppedRecordsCount(), args[2], duration);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The class to read records from a segment file of a binary log written by
+ * <code>MonitoringAgentForBinaryLog</code>. The records are read one by one by
+ * <code>next()</code> method and their content is available by the getters
+ * until the next call of the method (the reader does not create objects per
+ * record).
+ *
+ * @author rychly
+ */
+public class MonitoringBinaryLogReader implements AutoCloseable {
+
+    private final RandomAccessFile segmentFile;
+    private final MappedByteBuffer segmentBuffer;
+    private final String applicationId;
+    private final List<String> dictionary = new ArrayList<>();
+    private long timestampNanos;
+    private String metricType;
+    private String hostname;
+    private int metricsCount;
+    private String[] metricNames = new String[16];
+    private boolean[] numericValues = new boolean[16];
+    private double[] numericValue = new double[16];
+    private String[] textValue = new String[16];
+
+    /**
+     * Get segment files of a given binary log directory sorted by their names
+     * (i.e., by their writers and sequence numbers).
+     *
+     * @param binaryLogDirectoryName a binary log directory name
+     * @return the segment files of the binary log
+     * @throws IOException if the binary log directory cannot be listed
+     */
+    public static File[] listSegmentFiles(String binaryLogDirectoryName) throws IOException {
+        final File[] files = new File(binaryLogDirectoryName).listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.isFile() && pathname.getName().endsWith(MonitoringAgentForBinaryLog.SEGMENT_FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Cannot list the binary log directory " + binaryLogDirectoryName);
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Open a given segment file of a binary log for reading.
+     *
+     * @param segmentFile a segment file to read
+     * @throws IOException if the segment file cannot be read or it is not a
+     * segment file of a supported version
+     */
+    public MonitoringBinaryLogReader(File segmentFile) throws IOException {
+        this.segmentFile = new RandomAccessFile(segmentFile, "r");
+        try {
+            this.segmentBuffer = this.segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.segmentFile.length());
+            if ((this.segmentBuffer.remaining() < 8)
+                    || (this.segmentBuffer.getInt() != MonitoringAgentForBinaryLog.SEGMENT_MAGIC)
+                    || (this.segmentBuffer.getShort() != MonitoringAgentForBinaryLog.SEGMENT_VERSION)) {
+                throw new IOException("Not a segment file of a supported binary log version: " + segmentFile);
+            }
+            this.applicationId = this.readString(this.segmentBuffer.getShort() & 0xFFFF);
+        }
+        catch (IOException | RuntimeException ex) {
+            this.segmentFile.close();
+            throw ex;
+        }
+    }
+
+    private String readString(int length) {
+        final byte[] bytes = new byte[length];
+        this.segmentBuffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void ensureMetricsCapacity(int count) {
+        if (this.metricNames.length < count) {
+            this.metricNames = Arrays.copyOf(this.metricNames, count);
+            this.numericValues = Arrays.copyOf(this.numericValues, count);
+            this.numericValue = Arrays.copyOf(this.numericValue, count);
+            this.textValue = Arrays.copyOf(this.textValue, count);
+        }
+    }
+
+    /**
+     * Read the next record from the segment file. Dictionary entries preceding
+     * the record are processed by the method.
+     *
+     * @return true if the next record has been read, false if there are no
+     * more complete records in the segment file
+     * @throws IOException if the segment file is corrupted
+     */
+    public boolean next() throws IOException {
+        while (this.segmentBuffer.remaining() >= 4) {
+            final int length = this.segmentBuffer.getInt();
+            if ((length <= 0) || (length > this.segmentBuffer.remaining())) {
+                // the end of entries or an incomplete append
+                return false;
+            }
+            final int end = this.segmentBuffer.position() + length;
+            try {
+                final byte kind = this.segmentBuffer.get();
+                switch (kind) {
+                    case MonitoringAgentForBinaryLog.ENTRY_DICTIONARY: {
+                        final int id = this.segmentBuffer.getInt();
+                        if (id != this.dictionary.size()) {
+                            throw new IOException("Unexpected ID " + id + " of a dictionary entry in the binary log.");
+                        }
+                        this.dictionary.add(this.readString(this.segmentBuffer.getShort() & 0xFFFF));
+                    }
+                    break;
+                    case MonitoringAgentForBinaryLog.ENTRY_RECORD: {
+                        this.timestampNanos = this.segmentBuffer.getLong();
+                        this.metricType = this.dictionary.get(this.segmentBuffer.getInt());
+                        this.hostname = this.dictionary.get(this.segmentBuffer.getInt());
+                        this.metricsCount = this.segmentBuffer.getShort() & 0xFFFF;
+                        this.ensureMetricsCapacity(this.metricsCount);
+                        for (int i = 0; i < this.metricsCount; i++) {
+                            this.metricNames[i] = this.dictionary.get(this.segmentBuffer.getInt());
+                            this.numericValues[i] = (this.segmentBuffer.get() == MonitoringAgentForBinaryLog.VALUE_NUMERIC);
+                            if (this.numericValues[i]) {
+                                this.numericValue[i] = this.segmentBuffer.getDouble();
+                                this.textValue[i] = null;
+                            } else {
+                                this.textValue[i] = this.readString(this.segmentBuffer.getInt());
+                            }
+                        }
+                        this.segmentBuffer.position(end);
+                        return true;
+                    }
+                    default: {
+                        // skip unknown entries
+                    }
+                }
+            }
+            catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+                throw new IOException("Corrupted entry in the binary log: " + ex.getMessage(), ex);
+            }
+            this.segmentBuffer.position(end);
+        }
+        return false;
+    }
+
+    /**
+     * Get the application ID of the segment file.
+     *
+     * @return the application ID
+     */
+    public String getApplicationId() {
+        return this.applicationId;
+    }
+
+    /**
+     * Get a timestamp in seconds of the current record.
+     *
+     * @return the timestamp
+     */
+    public double getTimestamp() {
+        return this.timestampNanos / 1e9;
+    }
+
+    /**
+     * Get a timestamp in nanoseconds of the current record.
+     *
+     * @return the timestamp
+     */
+    public long getTimestampNanos() {
+        return this.timestampNanos;
+    }
+
+    /**
+     * Get a type of metrics of the current record.
+     *
+     * @return the type of metrics
+     */
+    public String getMetricType() {
+        return this.metricType;
+    }
+
+    /**
+     * Get a hostname of a client sending the current record.
+     *
+     * @return the hostname
+     */
+    public String getHostname() {
+        return this.hostname;
+    }
+
+    /**
+     * Get the number of metrics in the current record.
+     *
+     * @return the number of metrics
+     */
+    public int getMetricsCount() {
+        return this.metricsCount;
+    }
+
+    /**
+     * Get a name of a given metric in the current record.
+     *
+     * @param index an index of the metric
+     * @return the name of the metric
+     */
+    public String getMetricName(int index) {
+        return this.metricNames[index];
+    }
+
+    /**
+     * Check if a given metric in the current record has a numeric value.
+     *
+     * @param index an index of the metric
+     * @return true if the metric has a numeric value, false if it has a text
+     * value
+     */
+    public boolean hasNumericValue(int index) {
+        return this.numericValues[index];
+    }
+
+    /**
+     * Get a numeric value of a given metric in the current record.
+     *
+     * @param index an index of the metric
+     * @return the numeric value of the metric
+     */
+    public double getNumericValue(int index) {
+        return this.numericValue[index];
+    }
+
+    /**
+     * Get a text value of a given metric in the current record.
+     *
+     * @param index an index of the metric
+     * @return the text value of the metric or null if it has a numeric value
+     */
+    public String getTextValue(int index) {
+        return this.textValue[index];
+    }
+
+    /**
+     * Close the segment file.
+     *
+     * @throws IOException if the segment file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.segmentFile.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            final String className = MonitoringBinaryLogReader.class.getCanonicalName();
+            System.err.println(""
+                    + "Usage: " + className + " <binary-log-directory" + MonitoringAgentForBinaryLog.BINARY_LOG_SUFFIX + ">\n"
+                    + "Print records of all segment files of a given binary log.\n"
+            );
+            System.exit(-1);
+        }
+        for (File file : listSegmentFiles(args[0])) {
+            try (MonitoringBinaryLogReader reader = new MonitoringBinaryLogReader(file)) {
+                System.out.println("# " + file.getName() + " of application " + reader.getApplicationId());
+                while (reader.next()) {
+                    final StringBuilder stringBuilder = new StringBuilder();
+                    stringBuilder.append(reader.getTimestamp()).append('\t').append(reader.getMetricType())
+                            .append('\t').append(reader.getHostname());
+                    for (int i = 0; i < reader.getMetricsCount(); i++) {
+                        stringBuilder.append('\t').append(reader.getMetricName(i)).append('=');
+                        if (reader.hasNumericValue(i)) {
+                            stringBuilder.append(reader.getNumericValue(i));
+                        } else {
+                            stringBuilder.append(reader.getTextValue(i));
+                        }
+                    }
+                    System.out.println(stringBuilder);
+                }
+            }
+        }
+    }
+}
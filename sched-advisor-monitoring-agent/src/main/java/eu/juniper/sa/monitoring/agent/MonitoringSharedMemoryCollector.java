@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.agent;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The class of a node-local collector daemon that drains ring buffer files
+ * written by <code>MonitoringAgentForSharedMemory</code> agents running on the
+ * same node and forwards their records into a target monitoring agent created
+ * by <code>MonitoringAgentFactory.createMonitoringAgent(...)</code> for each
+ * application, e.g., into a single (asynchronous and batching) JDBC connection
+ * or monitoring service client per node instead of one per agent. Ring buffer
+ * files of closed or terminated agents are deleted after draining.
+ *
+ * @author rychly
+ */
+public class MonitoringSharedMemoryCollector implements Runnable, AutoCloseable {
+
+    /**
+     * Default interval in milliseconds between polls of the ring buffers if
+     * there were no records to forward.
+     */
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 10;
+
+    private static class Ring {
+
+        private final File file;
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer buffer;
+        private final String applicationId;
+        private final int slotSize;
+        private final int slotCount;
+        private long head;
+
+        private Ring(File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer) {
+            this.file = file;
+            this.randomAccessFile = randomAccessFile;
+            this.buffer = buffer;
+            final byte[] applicationIdBytes = new byte[buffer.getShort(MonitoringAgentForSharedMemory.OFFSET_APPLICATION_ID)];
+            for (int i = 0; i < applicationIdBytes.length; i++) {
+                applicationIdBytes[i] = buffer.get(MonitoringAgentForSharedMemory.OFFSET_APPLICATION_ID + 2 + i);
+            }
+            this.applicationId = new String(applicationIdBytes, StandardCharsets.UTF_8);
+            this.slotSize = buffer.getInt(MonitoringAgentForSharedMemory.OFFSET_SLOT_SIZE);
+            this.slotCount = buffer.getInt(MonitoringAgentForSharedMemory.OFFSET_SLOT_COUNT);
+            this.head = buffer.getLong(MonitoringAgentForSharedMemory.OFFSET_HEAD);
+        }
+    }
+
+    private final File sharedMemoryDirectory;
+    private final String targetMonitoringUrl;
+    private final long pollIntervalMillis;
+    private final Map<File, Ring> rings = new HashMap<>();
+    private final Map<String, MonitoringAgentInterface> targetMonitoringAgents = new HashMap<>();
+    private final Map<String, MetricRecord> metricRecords = new HashMap<>();
+    private final FileFilter ringFileFilter = new FileFilter() {
+        @Override
+        public boolean accept(File pathname) {
+            return pathname.isFile() && pathname.getName().endsWith(MonitoringAgentForSharedMemory.RING_FILE_SUFFIX);
+        }
+    };
+    private volatile boolean closed = false;
+    private long forwardedRecordsCount = 0;
+    private long failedRecordsCount = 0;
+
+    /**
+     * Create a collector of ring buffer files in a given shared memory
+     * directory forwarding their records to a given target.
+     *
+     * @param sharedMemoryDirectoryName a shared memory directory name
+     * @param targetMonitoringUrl a local file path to the monitoring SQL file,
+     * a local directory path to the binary log, a JDBC connection string, or
+     * an URL to the monitoring service to forward the records to
+     * @param pollIntervalMillis an interval in milliseconds between polls of
+     * the ring buffers if there were no records to forward
+     */
+    public MonitoringSharedMemoryCollector(String sharedMemoryDirectoryName, String targetMonitoringUrl, long pollIntervalMillis) {
+        this.sharedMemoryDirectory = new File(sharedMemoryDirectoryName);
+        this.targetMonitoringUrl = targetMonitoringUrl;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * Create a collector of ring buffer files in a given shared memory
+     * directory forwarding their records to a given target with the default
+     * poll interval.
+     *
+     * @param sharedMemoryDirectoryName a shared memory directory name
+     * @param targetMonitoringUrl a local file path to the monitoring SQL file,
+     * a local directory path to the binary log, a JDBC connection string, or
+     * an URL to the monitoring service to forward the records to
+     */
+    public MonitoringSharedMemoryCollector(String sharedMemoryDirectoryName, String targetMonitoringUrl) {
+        this(sharedMemoryDirectoryName, targetMonitoringUrl, DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    private static boolean isAgentTerminated(RandomAccessFile randomAccessFile, MappedByteBuffer buffer) throws IOException {
+        if ((buffer != null) && (buffer.getInt(MonitoringAgentForSharedMemory.OFFSET_CLOSED) != 0)) {
+            return true;
+        }
+        // the lock held by a running agent is released by the operating system when the agent terminates
+        try {
+            final FileLock fileLock = randomAccessFile.getChannel().tryLock(0, 1, false);
+            if (fileLock == null) {
+                return false;
+            }
+            fileLock.release();
+            return true;
+        }
+        catch (OverlappingFileLockException ex) {
+            // the agent is running in the same JVM
+            return false;
+        }
+    }
+
+    private Ring openRing(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() >= MonitoringAgentForSharedMemory.HEADER_SIZE) {
+                final MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+                if (buffer.getInt(0) == MonitoringAgentForSharedMemory.RING_MAGIC) {
+                    if (buffer.getShort(4) != MonitoringAgentForSharedMemory.RING_VERSION) {
+                        throw new IOException("Not a ring buffer file of a supported version: " + file);
+                    }
+                    return new Ring(file, randomAccessFile, buffer);
+                }
+            }
+            // the agent has not initialized the file yet or it has terminated before that
+            if (isAgentTerminated(randomAccessFile, null)) {
+                randomAccessFile.close();
+                file.delete();
+            } else {
+                randomAccessFile.close();
+            }
+            return null;
+        }
+        catch (IOException | RuntimeException ex) {
+            randomAccessFile.close();
+            throw ex;
+        }
+    }
+
+    private MetricRecord decodeRecord(MappedByteBuffer buffer, int offset) {
+        final long timestampNanos = buffer.getLong(offset);
+        offset += 8;
+        final String metricType = readString(buffer, offset);
+        offset += 2 + buffer.getShort(offset);
+        final String hostname = readString(buffer, offset);
+        offset += 2 + buffer.getShort(offset);
+        final int count = buffer.getShort(offset);
+        offset += 2;
+        // reuse a record of the same type if it has the same metric names
+        MetricRecord metricRecord = this.metricRecords.get(metricType);
+        boolean reusable = (metricRecord != null) && (metricRecord.getMetricsCount() == count);
+        final String[] metricNames = new String[count];
+        final int valuesOffset = offset;
+        for (int i = 0; i < count; i++) {
+            metricNames[i] = readString(buffer, offset);
+            offset += 2 + buffer.getShort(offset);
+            reusable = reusable && metricNames[i].equals(metricRecord.getMetricName(i));
+            offset += (buffer.get(offset) == MonitoringAgentForSharedMemory.VALUE_NUMERIC) ? 1 + 8 : 1 + 2 + buffer.getShort(offset + 1);
+        }
+        if (!reusable) {
+            metricRecord = new MetricRecord(metricType, metricNames);
+            this.metricRecords.put(metricType, metricRecord);
+        }
+        offset = valuesOffset;
+        for (int i = 0; i < count; i++) {
+            offset += 2 + buffer.getShort(offset);
+            if (buffer.get(offset) == MonitoringAgentForSharedMemory.VALUE_NUMERIC) {
+                metricRecord.setNumericValue(i, buffer.getDouble(offset + 1));
+                offset += 1 + 8;
+            } else {
+                metricRecord.setTextValue(i, readString(buffer, offset + 1));
+                offset += 1 + 2 + buffer.getShort(offset + 1);
+            }
+        }
+        return metricRecord.setTimestampNanos(timestampNanos).setHostname(hostname);
+    }
+
+    private static String readString(MappedByteBuffer buffer, int offset) {
+        final byte[] bytes = new byte[buffer.getShort(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private MonitoringAgentInterface getTargetMonitoringAgent(String applicationId) throws IOException, SQLException {
+        MonitoringAgentInterface monitoringAgent = this.targetMonitoringAgents.get(applicationId);
+        if (monitoringAgent == null) {
+            monitoringAgent = MonitoringAgentFactory.createMonitoringAgent(this.targetMonitoringUrl, applicationId);
+            this.targetMonitoringAgents.put(applicationId, monitoringAgent);
+        }
+        return monitoringAgent;
+    }
+
+    private int drainRing(Ring ring, boolean skipEmptySlots) throws IOException, SQLException {
+        final MonitoringAgentInterface monitoringAgent = this.getTargetMonitoringAgent(ring.applicationId);
+        int drainedRecords = 0;
+        for (int i = 0; i < ring.slotCount; i++) {
+            final int slotOffset = MonitoringAgentForSharedMemory.HEADER_SIZE + (int) (ring.head % ring.slotCount) * ring.slotSize;
+            final int length = ring.buffer.getInt(slotOffset);
+            if (length > 0) {
+                final MetricRecord metricRecord = this.decodeRecord(ring.buffer, slotOffset + 4);
+                try {
+                    monitoringAgent.sendMetric(metricRecord);
+                    this.forwardedRecordsCount++;
+                }
+                catch (IOException ex) {
+                    this.failedRecordsCount++;
+                    System.err.println("Cannot forward a record of " + ring.file.getName() + ": " + ex.getMessage());
+                }
+                drainedRecords++;
+            } else if (!skipEmptySlots) {
+                break;
+            }
+            // free the slot and publish the new head for the agent
+            ring.buffer.putInt(slotOffset, 0);
+            ring.buffer.putLong(MonitoringAgentForSharedMemory.OFFSET_HEAD, ++ring.head);
+        }
+        return drainedRecords;
+    }
+
+    /**
+     * Drain all ring buffer files in the shared memory directory once and
+     * forward their records. Ring buffer files of closed or terminated agents
+     * are deleted after draining (including their records committed after an
+     * incomplete record of a crashed agent).
+     *
+     * @return the number of drained records
+     * @throws IOException if a ring buffer file cannot be read or a target
+     * monitoring agent cannot be created
+     * @throws SQLException if a target monitoring agent cannot be created
+     */
+    public synchronized int collect() throws IOException, SQLException {
+        int drainedRecords = 0;
+        final File[] files = this.sharedMemoryDirectory.listFiles(this.ringFileFilter);
+        if (files != null) {
+            for (File file : files) {
+                if (!this.rings.containsKey(file)) {
+                    final Ring ring = this.openRing(file);
+                    if (ring != null) {
+                        this.rings.put(file, ring);
+                    }
+                }
+            }
+        }
+        for (Iterator<Ring> iterator = this.rings.values().iterator(); iterator.hasNext();) {
+            final Ring ring = iterator.next();
+            // check the termination before draining, so no records are committed after the final draining
+            final boolean terminated = isAgentTerminated(ring.randomAccessFile, ring.buffer);
+            drainedRecords += this.drainRing(ring, terminated);
+            if (terminated) {
+                iterator.remove();
+                ring.randomAccessFile.close();
+                ring.file.delete();
+            }
+        }
+        return drainedRecords;
+    }
+
+    /**
+     * Drain the ring buffer files repeatedly until the collector is closed.
+     */
+    @Override
+    public void run() {
+        while (!this.closed) {
+            try {
+                if (this.collect() == 0) {
+                    Thread.sleep(this.pollIntervalMillis);
+                }
+            }
+            catch (IOException | SQLException ex) {
+                System.err.println("Cannot collect records: " + ex.getMessage());
+                try {
+                    Thread.sleep(this.pollIntervalMillis);
+                }
+                catch (InterruptedException iex) {
+                    return;
+                }
+            }
+            catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop the collector, drain the ring buffer files for the last time, and
+     * close the target monitoring agents (which flushes their pending
+     * records).
+     *
+     * @throws IOException if the ring buffer files cannot be drained or a
+     * target monitoring agent cannot be closed
+     * @throws SQLException if a target monitoring agent cannot forward the
+     * records or be closed due to a database error
+     */
+    @Override
+    public synchronized void close() throws IOException, SQLException {
+        this.closed = true;
+        try {
+            this.collect();
+        }
+        finally {
+            for (Ring ring : this.rings.values()) {
+                ring.randomAccessFile.close();
+            }
+            this.rings.clear();
+            for (MonitoringAgentInterface monitoringAgent : this.targetMonitoringAgents.values()) {
+                MonitoringAgentFactory.closeMonitoringAgent(monitoringAgent);
+            }
+            this.targetMonitoringAgents.clear();
+        }
+    }
+
+    /**
+     * Get the number of records forwarded to the target monitoring agents.
+     *
+     * @return the number of forwarded records
+     */
+    public synchronized long getForwardedRecordsCount() {
+        return this.forwardedRecordsCount;
+    }
+
+    /**
+     * Get the number of records which the target monitoring agents failed to
+     * send (by an exception, as the responses of the agents are not checked).
+     *
+     * @return the number of failed records
+     */
+    public synchronized long getFailedRecordsCount() {
+        return this.failedRecordsCount;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            final String className = MonitoringSharedMemoryCollector.class.getCanonicalName();
+            System.err.println(""
+                    + "Usage: " + className + " <shared-memory-directory> <target-monitoring-url> [poll-interval-millis]\n"
+                    + "Run a node-local collector daemon draining ring buffer files of monitoring agents in a given shared memory directory"
+                    + " and forwarding their records into a given monitoring SQL file, binary log, JDBC database, or monitoring service."
+                    + " The records are forwarded into a JDBC database or a monitoring service asynchronously in batches"
+                    + " (see " + MonitoringAgentFactory.class.getCanonicalName() + " for properties of the asynchronous mode).\n"
+            );
+            System.exit(-1);
+        }
+        // the collector is a dedicated process, so it enables the factory and its asynchronous (batching) mode by default
+        // and it blocks on a full queue of the asynchronous mode (the records are buffered in the ring buffers meanwhile)
+        MonitoringAgentFactory.enable();
+        if (System.getProperty(MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_ASYNC) == null) {
+            System.setProperty(MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_ASYNC, "true");
+        }
+        if (System.getProperty(MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_OVERFLOW_POLICY) == null) {
+            System.setProperty(MonitoringAgentFactory.SYSTEM_PROPERTY_NAME_FOR_OVERFLOW_POLICY, MonitoringAgentAsyncAbstract.OverflowPolicy.BLOCK.name());
+        }
+        final MonitoringSharedMemoryCollector collector = new MonitoringSharedMemoryCollector(args[0], args[1],
+                (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_POLL_INTERVAL_MILLIS);
+        final Thread collectorThread = new Thread(collector, MonitoringSharedMemoryCollector.class.getSimpleName());
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    collector.closed = true;
+                    collectorThread.join();
+                    collector.close();
+                }
+                catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+                System.err.println("*** " + collector.getForwardedRecordsCount() + " records forwarded, "
+                        + collector.getFailedRecordsCount() + " records failed");
+            }
+        });
+        collectorThread.start();
+        collectorThread.join();
+    }
+}
@@ -0,0 +1,603 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.instrument;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The class to parse a Java class file and to weave timing probes around its
+ * methods. The bytecode of a woven method is not modified, the method is just
+ * renamed (and made private) and a new method with the original name, access,
+ * and descriptor is added. The new method invokes
+ * <code>ProgramProbes.programStarts(Object)</code>, the renamed method, and
+ * <code>ProgramProbes.programEnds(Object)</code> (also if the renamed method
+ * throws an exception), so it has a fixed shape with a single stack map frame
+ * and no bytecode library is needed.
+ *
+ * @author rychly
+ */
+class ClassFileWeaver {
+
+    /**
+     * Internal name of the class with the probes invoked by the woven methods.
+     */
+    static final String PROBES_CLASS_NAME = "eu/juniper/sa/monitoring/instrument/ProgramProbes";
+    /**
+     * Suffix of the renamed methods.
+     */
+    static final String ORIGINAL_METHOD_SUFFIX = "$juniperOriginal";
+    private static final String PROBE_METHOD_DESCRIPTOR = "(Ljava/lang/Object;)V";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_NATIVE = 0x0100;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    /**
+     * Information about a method of the class.
+     */
+    static final class MethodInfo {
+
+        final int start;
+        final int end;
+        final int access;
+        final String name;
+        final String descriptor;
+        // an offset of the Exceptions attribute or -1
+        final int exceptionsStart;
+        final int exceptionsEnd;
+
+        MethodInfo(int start, int end, int access, String name, String descriptor, int exceptionsStart, int exceptionsEnd) {
+            this.start = start;
+            this.end = end;
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.exceptionsStart = exceptionsStart;
+            this.exceptionsEnd = exceptionsEnd;
+        }
+
+        /**
+         * Check if the method can be woven, i.e., it is a non-abstract,
+         * non-native, non-bridge, non-synthetic instance method other than a
+         * constructor or a static initializer.
+         *
+         * @return true if the method can be woven, false otherwise
+         */
+        boolean isWeavable() {
+            return ((this.access & (ACC_STATIC | ACC_ABSTRACT | ACC_NATIVE | ACC_BRIDGE | ACC_SYNTHETIC)) == 0)
+                    && !this.name.startsWith("<") && !this.name.endsWith(ORIGINAL_METHOD_SUFFIX);
+        }
+
+        String getKey() {
+            return this.name + this.descriptor;
+        }
+    }
+
+    private final byte[] bytes;
+    private final int constantPoolCount;
+    private final int constantPoolEnd;
+    private final String[] utf8Constants;
+    private final int[] classNameIndices;
+    private final int access;
+    private final int thisClassIndex;
+    private final String className;
+    private final String superClassName;
+    private final String[] interfaceNames;
+    private final Set<String> annotatedFieldTypes = new HashSet<>();
+    private final int methodsCountOffset;
+    private final List<MethodInfo> methods = new ArrayList<>();
+    private final int methodsEnd;
+
+    /**
+     * Parse a given class file.
+     *
+     * @param bytes the bytes of the class file
+     * @param fieldAnnotationDescriptor a descriptor of an annotation of
+     * fields whose types should be collected (see
+     * <code>getAnnotatedFieldTypes()</code>) or null
+     * @throws IllegalArgumentException if the class file cannot be parsed
+     */
+    ClassFileWeaver(byte[] bytes, String fieldAnnotationDescriptor) throws IllegalArgumentException {
+        this.bytes = bytes;
+        try {
+            if (u4(0) != 0xCAFEBABE) {
+                throw new IllegalArgumentException("Not a class file.");
+            }
+            this.constantPoolCount = u2(8);
+            this.utf8Constants = new String[this.constantPoolCount];
+            this.classNameIndices = new int[this.constantPoolCount];
+            int position = 10;
+            for (int i = 1; i < this.constantPoolCount; i++) {
+                final int tag = u1(position);
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        final int length = u2(position + 1);
+                        this.utf8Constants[i] = new DataInputStream(new ByteArrayInputStream(bytes, position + 1, length + 2)).readUTF();
+                        position += 3 + length;
+                        break;
+                    case CONSTANT_CLASS:
+                        this.classNameIndices[i] = u2(position + 1);
+                        position += 3;
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        // the constants take two entries
+                        position += 9;
+                        i++;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case CONSTANT_METHODREF:
+                    case 11: // InterfaceMethodref
+                    case CONSTANT_NAME_AND_TYPE:
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        position += 5;
+                        break;
+                    case 15: // MethodHandle
+                        position += 4;
+                        break;
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        position += 3;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+                }
+            }
+            this.constantPoolEnd = position;
+            this.access = u2(position);
+            this.thisClassIndex = u2(position + 2);
+            this.className = this.getClassName(this.thisClassIndex);
+            final int superClassIndex = u2(position + 4);
+            this.superClassName = (superClassIndex == 0) ? null : this.getClassName(superClassIndex);
+            this.interfaceNames = new String[u2(position + 6)];
+            position += 8;
+            for (int i = 0; i < this.interfaceNames.length; i++) {
+                this.interfaceNames[i] = this.getClassName(u2(position));
+                position += 2;
+            }
+            // fields
+            final int fieldsCount = u2(position);
+            position += 2;
+            for (int i = 0; i < fieldsCount; i++) {
+                final String fieldDescriptor = this.utf8Constants[u2(position + 4)];
+                final int attributesCount = u2(position + 6);
+                position += 8;
+                for (int j = 0; j < attributesCount; j++) {
+                    final String attributeName = this.utf8Constants[u2(position)];
+                    final int attributeLength = u4(position + 2);
+                    if ((fieldAnnotationDescriptor != null)
+                            && ("RuntimeVisibleAnnotations".equals(attributeName) || "RuntimeInvisibleAnnotations".equals(attributeName))
+                            && this.hasAnnotation(position + 6, fieldAnnotationDescriptor)
+                            && fieldDescriptor.startsWith("L")) {
+                        this.annotatedFieldTypes.add(fieldDescriptor.substring(1, fieldDescriptor.length() - 1));
+                    }
+                    position += 6 + attributeLength;
+                }
+            }
+            // methods
+            this.methodsCountOffset = position;
+            final int methodsCount = u2(position);
+            position += 2;
+            for (int i = 0; i < methodsCount; i++) {
+                final int start = position;
+                final int methodAccess = u2(position);
+                final String name = this.utf8Constants[u2(position + 2)];
+                final String descriptor = this.utf8Constants[u2(position + 4)];
+                final int attributesCount = u2(position + 6);
+                position += 8;
+                int exceptionsStart = -1;
+                int exceptionsEnd = -1;
+                for (int j = 0; j < attributesCount; j++) {
+                    final int attributeLength = u4(position + 2);
+                    if ("Exceptions".equals(this.utf8Constants[u2(position)])) {
+                        exceptionsStart = position;
+                        exceptionsEnd = position + 6 + attributeLength;
+                    }
+                    position += 6 + attributeLength;
+                }
+                this.methods.add(new MethodInfo(start, position, methodAccess, name, descriptor, exceptionsStart, exceptionsEnd));
+            }
+            this.methodsEnd = position;
+        }
+        catch (IOException | IndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Malformed class file.", ex);
+        }
+    }
+
+    private int u1(int position) {
+        return this.bytes[position] & 0xFF;
+    }
+
+    private int u2(int position) {
+        return ((this.bytes[position] & 0xFF) << 8) | (this.bytes[position + 1] & 0xFF);
+    }
+
+    private int u4(int position) {
+        return (u2(position) << 16) | u2(position + 2);
+    }
+
+    private String getClassName(int classIndex) {
+        return this.utf8Constants[this.classNameIndices[classIndex]];
+    }
+
+    private boolean hasAnnotation(int position, String annotationDescriptor) {
+        final int annotationsCount = u2(position);
+        position += 2;
+        for (int i = 0; i < annotationsCount; i++) {
+            if (annotationDescriptor.equals(this.utf8Constants[u2(position)])) {
+                return true;
+            }
+            position = this.skipAnnotation(position);
+        }
+        return false;
+    }
+
+    private int skipAnnotation(int position) {
+        final int pairsCount = u2(position + 2);
+        position += 4;
+        for (int i = 0; i < pairsCount; i++) {
+            position = this.skipElementValue(position + 2);
+        }
+        return position;
+    }
+
+    private int skipElementValue(int position) {
+        final char tag = (char) u1(position);
+        switch (tag) {
+            case 'e':
+                return position + 5;
+            case '@':
+                return this.skipAnnotation(position + 1);
+            case '[':
+                final int valuesCount = u2(position + 1);
+                position += 3;
+                for (int i = 0; i < valuesCount; i++) {
+                    position = this.skipElementValue(position);
+                }
+                return position;
+            default:
+                // constants and classes
+                return position + 3;
+        }
+    }
+
+    String getClassName() {
+        return this.className;
+    }
+
+    String getSuperClassName() {
+        return this.superClassName;
+    }
+
+    String[] getInterfaceNames() {
+        return this.interfaceNames.clone();
+    }
+
+    boolean isInterface() {
+        return (this.access & ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * Get internal names of types of fields annotated by the annotation given
+     * to the constructor.
+     *
+     * @return the internal names of the types
+     */
+    Set<String> getAnnotatedFieldTypes() {
+        return this.annotatedFieldTypes;
+    }
+
+    List<MethodInfo> getMethods() {
+        return this.methods;
+    }
+
+    /**
+     * The builder of constants appended to the constant pool of the class.
+     */
+    private final class ConstantPoolBuilder {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(this.buffer);
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int nextIndex = ClassFileWeaver.this.constantPoolCount;
+
+        int utf8(String value) throws IOException {
+            final String key = "U" + value;
+            Integer index = this.indices.get(key);
+            if (index == null) {
+                this.output.writeByte(CONSTANT_UTF8);
+                this.output.writeUTF(value);
+                index = this.nextIndex++;
+                this.indices.put(key, index);
+            }
+            return index;
+        }
+
+        int classRef(String internalName) throws IOException {
+            final String key = "C" + internalName;
+            Integer index = this.indices.get(key);
+            if (index == null) {
+                final int nameIndex = this.utf8(internalName);
+                this.output.writeByte(CONSTANT_CLASS);
+                this.output.writeShort(nameIndex);
+                index = this.nextIndex++;
+                this.indices.put(key, index);
+            }
+            return index;
+        }
+
+        int methodRef(int classIndex, String name, String descriptor) throws IOException {
+            final String key = "M" + classIndex + "." + name + descriptor;
+            Integer index = this.indices.get(key);
+            if (index == null) {
+                final int nameIndex = this.utf8(name);
+                final int descriptorIndex = this.utf8(descriptor);
+                this.output.writeByte(CONSTANT_NAME_AND_TYPE);
+                this.output.writeShort(nameIndex);
+                this.output.writeShort(descriptorIndex);
+                final int nameAndTypeIndex = this.nextIndex++;
+                this.output.writeByte(CONSTANT_METHODREF);
+                this.output.writeShort(classIndex);
+                this.output.writeShort(nameAndTypeIndex);
+                index = this.nextIndex++;
+                this.indices.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Weave the timing probes around given methods of the class.
+     *
+     * @param methodsToWeave the methods (see <code>getMethods()</code>) which
+     * are weavable
+     * @return the bytes of the woven class file
+     * @throws IOException if the class file cannot be written
+     */
+    byte[] weave(Collection<MethodInfo> methodsToWeave) throws IOException {
+        final ConstantPoolBuilder constants = new ConstantPoolBuilder();
+        final ByteArrayOutputStream methodsBuffer = new ByteArrayOutputStream();
+        final DataOutputStream methodsOutput = new DataOutputStream(methodsBuffer);
+        final int probesClassIndex = constants.classRef(PROBES_CLASS_NAME);
+        final int programStartsIndex = constants.methodRef(probesClassIndex, "programStarts", PROBE_METHOD_DESCRIPTOR);
+        final int programEndsIndex = constants.methodRef(probesClassIndex, "programEnds", PROBE_METHOD_DESCRIPTOR);
+        final int throwableClassIndex = constants.classRef("java/lang/Throwable");
+        final int codeIndex = constants.utf8("Code");
+        final int stackMapTableIndex = constants.utf8("StackMapTable");
+        for (MethodInfo method : this.methods) {
+            if (!methodsToWeave.contains(method)) {
+                methodsOutput.write(this.bytes, method.start, method.end - method.start);
+                continue;
+            }
+            // the original method is renamed and hidden
+            methodsOutput.writeShort((method.access & ~(ACC_PUBLIC | ACC_PROTECTED)) | ACC_PRIVATE | ACC_SYNTHETIC);
+            methodsOutput.writeShort(constants.utf8(method.name + ORIGINAL_METHOD_SUFFIX));
+            methodsOutput.write(this.bytes, method.start + 4, method.end - method.start - 4);
+        }
+        for (MethodInfo method : methodsToWeave) {
+            this.writeWrapperMethod(methodsOutput, constants, method, programStartsIndex, programEndsIndex,
+                    throwableClassIndex, codeIndex, stackMapTableIndex);
+        }
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(this.bytes.length + methodsBuffer.size() + constants.buffer.size());
+        final DataOutputStream output = new DataOutputStream(result);
+        output.write(this.bytes, 0, 8);
+        output.writeShort(constants.nextIndex);
+        output.write(this.bytes, 10, this.constantPoolEnd - 10);
+        output.write(constants.buffer.toByteArray());
+        output.write(this.bytes, this.constantPoolEnd, this.methodsCountOffset - this.constantPoolEnd);
+        output.writeShort(this.methods.size() + methodsToWeave.size());
+        output.write(methodsBuffer.toByteArray());
+        output.write(this.bytes, this.methodsEnd, this.bytes.length - this.methodsEnd);
+        output.flush();
+        return result.toByteArray();
+    }
+
+    private void writeWrapperMethod(DataOutputStream output, ConstantPoolBuilder constants, MethodInfo method,
+            int programStartsIndex, int programEndsIndex, int throwableClassIndex, int codeIndex, int stackMapTableIndex) throws IOException {
+        final int originalIndex = constants.methodRef(this.thisClassIndex, method.name + ORIGINAL_METHOD_SUFFIX, method.descriptor);
+        // parse the descriptor into the argument types and the return type
+        final List<String> argumentTypes = new ArrayList<>();
+        int position = 1;
+        while (method.descriptor.charAt(position) != ')') {
+            int end = position;
+            while (method.descriptor.charAt(end) == '[') {
+                end++;
+            }
+            end = (method.descriptor.charAt(end) == 'L') ? method.descriptor.indexOf(';', end) + 1 : end + 1;
+            argumentTypes.add(method.descriptor.substring(position, end));
+            position = end;
+        }
+        final char returnType = method.descriptor.charAt(position + 1);
+        // the code: programStarts(this); try { return this.original(arguments); } finally { programEnds(this); }
+        final ByteArrayOutputStream codeBuffer = new ByteArrayOutputStream();
+        final DataOutputStream code = new DataOutputStream(codeBuffer);
+        code.writeByte(0x2a); // aload_0
+        code.writeByte(0xb8); // invokestatic
+        code.writeShort(programStartsIndex);
+        final int tryStart = code.size();
+        code.writeByte(0x2a); // aload_0
+        int slot = 1;
+        for (String argumentType : argumentTypes) {
+            final int opcode;
+            switch (argumentType.charAt(0)) {
+                case 'J':
+                    opcode = 0x16; // lload
+                    break;
+                case 'F':
+                    opcode = 0x17; // fload
+                    break;
+                case 'D':
+                    opcode = 0x18; // dload
+                    break;
+                case 'L':
+                case '[':
+                    opcode = 0x19; // aload
+                    break;
+                default:
+                    opcode = 0x15; // iload
+            }
+            if (slot <= 0xFF) {
+                code.writeByte(opcode);
+                code.writeByte(slot);
+            } else {
+                code.writeByte(0xc4); // wide
+                code.writeByte(opcode);
+                code.writeShort(slot);
+            }
+            slot += isWide(argumentType) ? 2 : 1;
+        }
+        final int argumentSlots = slot - 1;
+        code.writeByte(0xb7); // invokespecial
+        code.writeShort(originalIndex);
+        final int tryEnd = code.size();
+        code.writeByte(0x2a); // aload_0
+        code.writeByte(0xb8); // invokestatic
+        code.writeShort(programEndsIndex);
+        switch (returnType) {
+            case 'V':
+                code.writeByte(0xb1); // return
+                break;
+            case 'J':
+                code.writeByte(0xad); // lreturn
+                break;
+            case 'F':
+                code.writeByte(0xae); // freturn
+                break;
+            case 'D':
+                code.writeByte(0xaf); // dreturn
+                break;
+            case 'L':
+            case '[':
+                code.writeByte(0xb0); // areturn
+                break;
+            default:
+                code.writeByte(0xac); // ireturn
+        }
+        final int handler = code.size();
+        code.writeByte(0x2a); // aload_0
+        code.writeByte(0xb8); // invokestatic
+        code.writeShort(programEndsIndex);
+        code.writeByte(0xbf); // athrow
+        code.flush();
+        // a full frame of the handler with the arguments in locals and the exception on the stack
+        final ByteArrayOutputStream frameBuffer = new ByteArrayOutputStream();
+        final DataOutputStream frame = new DataOutputStream(frameBuffer);
+        frame.writeShort(1); // number_of_entries
+        frame.writeByte(255); // full_frame
+        frame.writeShort(handler);
+        frame.writeShort(1 + argumentTypes.size());
+        frame.writeByte(7); // Object_variable_info
+        frame.writeShort(this.thisClassIndex);
+        for (String argumentType : argumentTypes) {
+            switch (argumentType.charAt(0)) {
+                case 'J':
+                    frame.writeByte(4); // Long_variable_info
+                    break;
+                case 'F':
+                    frame.writeByte(2); // Float_variable_info
+                    break;
+                case 'D':
+                    frame.writeByte(3); // Double_variable_info
+                    break;
+                case 'L':
+                    frame.writeByte(7);
+                    frame.writeShort(constants.classRef(argumentType.substring(1, argumentType.length() - 1)));
+                    break;
+                case '[':
+                    frame.writeByte(7);
+                    frame.writeShort(constants.classRef(argumentType));
+                    break;
+                default:
+                    frame.writeByte(1); // Integer_variable_info
+            }
+        }
+        frame.writeShort(1);
+        frame.writeByte(7);
+        frame.writeShort(throwableClassIndex);
+        frame.flush();
+        final int returnSlots = (returnType == 'V') ? 0 : ((returnType == 'J') || (returnType == 'D')) ? 2 : 1;
+        final int maxStack = Math.max(Math.max(1 + argumentSlots, returnSlots + 1), 2);
+        // method_info
+        output.writeShort(method.access);
+        output.writeShort(constants.utf8(method.name));
+        output.writeShort(constants.utf8(method.descriptor));
+        output.writeShort((method.exceptionsStart < 0) ? 1 : 2);
+        output.writeShort(codeIndex);
+        output.writeInt(2 + 2 + 4 + code.size() + 2 + 8 + 2 + 6 + frame.size());
+        output.writeShort(maxStack);
+        output.writeShort(1 + argumentSlots);
+        output.writeInt(code.size());
+        output.write(codeBuffer.toByteArray());
+        output.writeShort(1); // exception_table_length
+        output.writeShort(tryStart);
+        output.writeShort(tryEnd);
+        output.writeShort(handler);
+        output.writeShort(throwableClassIndex);
+        output.writeShort(1); // attributes_count
+        output.writeShort(stackMapTableIndex);
+        output.writeInt(frame.size());
+        output.write(frameBuffer.toByteArray());
+        if (method.exceptionsStart >= 0) {
+            // the declared exceptions are kept for reflection
+            output.write(this.bytes, method.exceptionsStart, method.exceptionsEnd - method.exceptionsStart);
+        }
+    }
+
+    private static boolean isWide(String type) {
+        return "J".equals(type) || "D".equals(type);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.instrument;
+
+import java.lang.instrument.Instrumentation;
+
+/**
+ * The Java agent (see <code>java.lang.instrument</code> package) to
+ * automatically instrument entry points of Juniper programs by
+ * <code>ProgramClassTransformer</code>, so the programs do not need to invoke
+ * program instance sensors explicitly. The agent is enabled by
+ * <code>-javaagent:sched-advisor-monitoring-agent-jar-with-dependencies.jar[=options]</code>
+ * option of <code>java</code> where the options are comma-separated pairs
+ * <code>name=value</code> of <code>applicationId</code> (an application ID of
+ * the monitoring agent), <code>programClass</code> (a class of Juniper
+ * programs), <code>providedAnnotation</code> (an annotation of fields with
+ * provided interfaces), and <code>rankField</code> (an integer field with a
+ * program global rank, an MPI rank of the process is used by default). The
+ * monitoring agent is created according to system properties of
+ * <code>MonitoringAgentFactory</code>.
+ *
+ * @author rychly
+ */
+public class InstrumentationAgent {
+
+    /**
+     * A default application ID of the monitoring agent.
+     */
+    public static final String DEFAULT_APPLICATION_ID = "juniper";
+
+    /**
+     * Entry point of the agent loaded on startup of the virtual machine.
+     *
+     * @param agentArgs the options of the agent
+     * @param instrumentation the instrumentation of the virtual machine
+     */
+    public static void premain(String agentArgs, Instrumentation instrumentation) {
+        String applicationId = DEFAULT_APPLICATION_ID;
+        String programClassName = ProgramClassTransformer.DEFAULT_PROGRAM_CLASS_NAME;
+        String providedAnnotationName = ProgramClassTransformer.DEFAULT_PROVIDED_ANNOTATION_NAME;
+        String rankFieldName = null;
+        if ((agentArgs != null) && !agentArgs.isEmpty()) {
+            for (String option : agentArgs.split(",")) {
+                final int separator = option.indexOf('=');
+                final String name = (separator < 0) ? option : option.substring(0, separator);
+                final String value = (separator < 0) ? "" : option.substring(separator + 1);
+                switch (name) {
+                    case "applicationId":
+                        applicationId = value;
+                        break;
+                    case "programClass":
+                        programClassName = value;
+                        break;
+                    case "providedAnnotation":
+                        providedAnnotationName = value;
+                        break;
+                    case "rankField":
+                        rankFieldName = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + name + " of the instrumentation agent.");
+                }
+            }
+        }
+        ProgramProbes.configure(applicationId, rankFieldName);
+        instrumentation.addTransformer(new ProgramClassTransformer(programClassName, providedAnnotationName));
+        Runtime.getRuntime().addShutdownHook(new Thread("InstrumentationAgent-flush") {
+            @Override
+            public void run() {
+                ProgramProbes.flush();
+            }
+        });
+    }
+
+    /**
+     * Entry point of the agent loaded into a running virtual machine. Only
+     * classes loaded after the agent are instrumented.
+     *
+     * @param agentArgs the options of the agent
+     * @param instrumentation the instrumentation of the virtual machine
+     */
+    public static void agentmain(String agentArgs, Instrumentation instrumentation) {
+        premain(agentArgs, instrumentation);
+    }
+}
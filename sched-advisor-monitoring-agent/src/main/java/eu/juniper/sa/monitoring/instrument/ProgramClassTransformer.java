@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.instrument;
+
+import eu.juniper.sa.monitoring.agent.MonitoringAgentFactory;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class file transformer to weave timing probes of
+ * <code>ProgramProbes</code> around entry points of Juniper programs, i.e.,
+ * around <code>execute()</code> methods of direct subclasses of a program class and
+ * around methods of interfaces implemented by instances in fields of the
+ * subclasses annotated as provided (typically anonymous inner classes). The
+ * implementations of the provided interfaces are recognized only if they are
+ * loaded after their programs.
+ *
+ * @author rychly
+ */
+public class ProgramClassTransformer implements ClassFileTransformer {
+
+    /**
+     * A default name of the class of Juniper programs.
+     */
+    public static final String DEFAULT_PROGRAM_CLASS_NAME = "org.modelio.juniper.platform.JuniperProgram";
+    /**
+     * A default name of the annotation of fields with provided interfaces.
+     */
+    public static final String DEFAULT_PROVIDED_ANNOTATION_NAME = "org.modelio.juniper.platform.Provided";
+    /**
+     * A name of the method of Juniper programs to be woven.
+     */
+    public static final String EXECUTE_METHOD_NAME = "execute";
+    private static final String EXECUTE_METHOD_DESCRIPTOR = "()V";
+    private static final String[] IGNORED_PACKAGES = {"java/", "javax/", "sun/", "com/sun/", "jdk/", "eu/juniper/sa/monitoring/"};
+
+    private final String programClassName;
+    private final String providedAnnotationDescriptor;
+    private final Set<String> providedInterfaces = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<String>> interfaceMethods = new ConcurrentHashMap<>();
+    private final AtomicLong wovenMethods = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Create the transformer for given class of Juniper programs and
+     * annotation of fields with provided interfaces.
+     *
+     * @param programClassName a fully qualified name of the class of Juniper
+     * programs
+     * @param providedAnnotationName a fully qualified name of the annotation
+     * of fields with provided interfaces
+     */
+    public ProgramClassTransformer(String programClassName, String providedAnnotationName) {
+        this.programClassName = programClassName.replace('.', '/');
+        this.providedAnnotationDescriptor = "L" + providedAnnotationName.replace('.', '/') + ";";
+    }
+
+    /**
+     * Create the transformer for the default class of Juniper programs and
+     * annotation of fields with provided interfaces.
+     */
+    public ProgramClassTransformer() {
+        this(DEFAULT_PROGRAM_CLASS_NAME, DEFAULT_PROVIDED_ANNOTATION_NAME);
+    }
+
+    /**
+     * Get a number of methods woven by the transformer.
+     *
+     * @return the number of woven methods
+     */
+    public long getWovenMethods() {
+        return this.wovenMethods.get();
+    }
+
+    /**
+     * Get a number of classes which the transformer failed to weave (the
+     * classes are loaded without any modification).
+     *
+     * @return the number of failures
+     */
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if ((className == null) || (classBeingRedefined != null)) {
+            return null;
+        }
+        for (String ignoredPackage : IGNORED_PACKAGES) {
+            if (className.startsWith(ignoredPackage)) {
+                return null;
+            }
+        }
+        try {
+            return this.transform(loader, classfileBuffer);
+        }
+        catch (IOException | RuntimeException ex) {
+            // never break loading of the class
+            this.failures.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Weave the probes into a given class, if it is a Juniper program or an
+     * implementation of a provided interface.
+     *
+     * @param loader a class loader of the class
+     * @param classfileBuffer the bytes of the class file
+     * @return the bytes of the woven class file or null if the class is not
+     * modified
+     * @throws IOException if the woven class file cannot be written
+     */
+    byte[] transform(ClassLoader loader, byte[] classfileBuffer) throws IOException {
+        final ClassFileWeaver weaver = new ClassFileWeaver(classfileBuffer, this.providedAnnotationDescriptor);
+        if (weaver.isInterface()) {
+            return null;
+        }
+        final List<ClassFileWeaver.MethodInfo> methodsToWeave = new ArrayList<>();
+        if (this.programClassName.equals(weaver.getSuperClassName())) {
+            this.providedInterfaces.addAll(weaver.getAnnotatedFieldTypes());
+            for (ClassFileWeaver.MethodInfo method : weaver.getMethods()) {
+                if (EXECUTE_METHOD_NAME.equals(method.name) && EXECUTE_METHOD_DESCRIPTOR.equals(method.descriptor) && method.isWeavable()) {
+                    methodsToWeave.add(method);
+                }
+            }
+        } else {
+            final Set<String> providedMethods = new HashSet<>();
+            for (String interfaceName : weaver.getInterfaceNames()) {
+                if (this.providedInterfaces.contains(interfaceName)) {
+                    providedMethods.addAll(this.getInterfaceMethods(loader, interfaceName));
+                }
+            }
+            if (!providedMethods.isEmpty()) {
+                for (ClassFileWeaver.MethodInfo method : weaver.getMethods()) {
+                    if (method.isWeavable() && providedMethods.contains(method.getKey())) {
+                        methodsToWeave.add(method);
+                    }
+                }
+            }
+        }
+        if (methodsToWeave.isEmpty()) {
+            return null;
+        }
+        final byte[] result = weaver.weave(methodsToWeave);
+        this.wovenMethods.addAndGet(methodsToWeave.size());
+        return result;
+    }
+
+    /**
+     * Get names and descriptors of methods declared by a given interface and
+     * its superinterfaces. The interface is not loaded, its class file is
+     * parsed.
+     *
+     * @param loader a class loader to find the interface
+     * @param interfaceName an internal name of the interface
+     * @return the names immediately followed by the descriptors
+     * @throws IOException if the class file of the interface cannot be read
+     */
+    private Set<String> getInterfaceMethods(ClassLoader loader, String interfaceName) throws IOException {
+        Set<String> result = this.interfaceMethods.get(interfaceName);
+        if (result == null) {
+            result = new HashSet<>();
+            final byte[] classFile = readClassFile(loader, interfaceName);
+            if (classFile != null) {
+                final ClassFileWeaver interfaceClass = new ClassFileWeaver(classFile, null);
+                for (ClassFileWeaver.MethodInfo method : interfaceClass.getMethods()) {
+                    if (!method.name.startsWith("<")) {
+                        result.add(method.getKey());
+                    }
+                }
+                for (String superInterfaceName : interfaceClass.getInterfaceNames()) {
+                    result.addAll(this.getInterfaceMethods(loader, superInterfaceName));
+                }
+            }
+            this.interfaceMethods.put(interfaceName, result);
+        }
+        return result;
+    }
+
+    private static byte[] readClassFile(ClassLoader loader, String internalName) throws IOException {
+        final InputStream inputStream = (loader == null)
+                ? ClassLoader.getSystemResourceAsStream(internalName + ".class")
+                : loader.getResourceAsStream(internalName + ".class");
+        if (inputStream == null) {
+            return null;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[4096];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                bytes.write(buffer, 0, length);
+            }
+        }
+        finally {
+            inputStream.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A program class for the benchmark in <code>main(...)</code> method.
+     */
+    public static class BenchmarkProgramBase {
+
+        /**
+         * The entry point of the program.
+         */
+        public void execute() {
+        }
+    }
+
+    /**
+     * A program for the benchmark in <code>main(...)</code> method with a
+     * minimal <code>execute()</code> method.
+     */
+    public static class BenchmarkProgram extends BenchmarkProgramBase {
+
+        private long counter = 0;
+
+        @Override
+        public void execute() {
+            this.counter++;
+        }
+    }
+
+    private static double runInvocations(final BenchmarkProgramBase program, final long numberOfInvocations) throws InterruptedException {
+        final double[] duration = new double[1];
+        // a new thread for new sensors of the probes
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                for (long i = 0; i < numberOfInvocations; i++) {
+                    program.execute();
+                }
+                duration[0] = (System.nanoTime() - start) / 1e9;
+            }
+        };
+        thread.start();
+        thread.join();
+        ProgramProbes.flush();
+        return duration[0];
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            final String className = ProgramClassTransformer.class.getCanonicalName();
+            System.err.println(""
+                    + "Usage: " + className + " <number-of-invocations> [<monitoring-url>]\n"
+                    + "Benchmark of the instrumentation: invoke a given number of times a minimal execute() method of a program"
+                    + " without the probes, with the probes reporting into a null-device monitoring agent, and with the probes reporting"
+                    + " into a monitoring agent created for a given monitoring URL (see " + MonitoringAgentFactory.class.getCanonicalName()
+                    + ", including a sampling policy of program instance sensors), and print overheads of the probes per invocation.\n"
+            );
+            System.exit(-1);
+        }
+        final long numberOfInvocations = Long.parseLong(args[0]);
+        // weave the benchmark program in a child class loader
+        final ClassLoader parentLoader = ProgramClassTransformer.class.getClassLoader();
+        final String programClassName = BenchmarkProgram.class.getName();
+        final ProgramClassTransformer transformer = new ProgramClassTransformer(BenchmarkProgramBase.class.getName(), DEFAULT_PROVIDED_ANNOTATION_NAME);
+        final byte[] wovenClassFile = transformer.transform(parentLoader, readClassFile(parentLoader, programClassName.replace('.', '/')));
+        final ClassLoader wovenLoader = new ClassLoader(parentLoader) {
+            @Override
+            protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (!name.equals(programClassName)) {
+                    return super.loadClass(name, resolve);
+                }
+                Class<?> result = this.findLoadedClass(name);
+                if (result == null) {
+                    result = this.defineClass(name, wovenClassFile, 0, wovenClassFile.length);
+                }
+                return result;
+            }
+        };
+        final BenchmarkProgramBase plainProgram = new BenchmarkProgram();
+        final BenchmarkProgramBase wovenProgram = (BenchmarkProgramBase) wovenLoader.loadClass(programClassName).newInstance();
+        System.out.printf("%d method(s) woven\n", transformer.getWovenMethods());
+        // warm-up
+        runInvocations(plainProgram, numberOfInvocations);
+        ProgramProbes.setMonitoringAgent(MonitoringAgentFactory.createMonitoringAgentForNullDevice());
+        runInvocations(wovenProgram, numberOfInvocations);
+        // measurements
+        System.out.println("probes\tns/invocation\toverhead-ns/invocation");
+        final double plainDuration = runInvocations(plainProgram, numberOfInvocations);
+        System.out.printf("none\t%.1f\t-\n", plainDuration * 1e9 / numberOfInvocations);
+        final double nullDuration = runInvocations(wovenProgram, numberOfInvocations);
+        System.out.printf("null-device\t%.1f\t%.1f\n", nullDuration * 1e9 / numberOfInvocations,
+                (nullDuration - plainDuration) * 1e9 / numberOfInvocations);
+        if (args.length > 1) {
+            MonitoringAgentFactory.setEnabled(true);
+            final MonitoringAgentInterface monitoringAgent = MonitoringAgentFactory.createMonitoringAgent(args[1], "test-application");
+            ProgramProbes.setMonitoringAgent(monitoringAgent);
+            final double agentDuration = runInvocations(wovenProgram, numberOfInvocations);
+            System.out.printf("%s\t%.1f\t%.1f\n", args[1], agentDuration * 1e9 / numberOfInvocations,
+                    (agentDuration - plainDuration) * 1e9 / numberOfInvocations);
+            if (monitoringAgent instanceof AutoCloseable) {
+                ((AutoCloseable) monitoringAgent).close();
+            }
+        }
+        System.out.printf("%d failure(s) of the probes\n", ProgramProbes.getFailures());
+    }
+}
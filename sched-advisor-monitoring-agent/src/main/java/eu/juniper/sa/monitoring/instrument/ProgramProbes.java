@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.instrument;
+
+import eu.juniper.sa.monitoring.agent.MonitoringAgentFactory;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
+import eu.juniper.sa.monitoring.sensor.ProgramInstanceSensorInterface;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class of timing probes invoked by methods woven by
+ * <code>ProgramClassTransformer</code>. The probes report durations of the
+ * woven methods by program instance sensors of a monitoring agent, one sensor
+ * per a thread and a program global rank, so the probes do not need any
+ * synchronization. Nested invocations of woven methods in a single thread are
+ * measured as a single invocation of the outermost method.
+ *
+ * @author rychly
+ */
+public final class ProgramProbes {
+
+    /**
+     * Names of environment variables of MPI launchers with a global rank of
+     * the current process.
+     */
+    public static final String[] RANK_ENVIRONMENT_VARIABLES = {"OMPI_COMM_WORLD_RANK", "PMI_RANK", "PMIX_RANK", "MV2_COMM_WORLD_RANK"};
+    /**
+     * A program global rank used if the rank cannot be determined.
+     */
+    public static final int UNKNOWN_RANK = -1;
+    /**
+     * A maximal number of outer instances followed when looking for a rank
+     * field of an instance of an inner class.
+     */
+    private static final int MAX_OUTER_INSTANCES = 8;
+
+    private static volatile MonitoringAgentInterface monitoringAgent = null;
+    private static String applicationId = InstrumentationAgent.DEFAULT_APPLICATION_ID;
+    private static String rankFieldName = null;
+    private static final int PROCESS_RANK = getProcessRank();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final Queue<ProgramInstanceSensorInterface> allSensors = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Probes of a single thread.
+     */
+    private static final class ThreadProbes {
+
+        // sensors indexed by a program global rank incremented by one
+        ProgramInstanceSensorInterface[] sensors = new ProgramInstanceSensorInterface[1];
+        ProgramInstanceSensorInterface currentSensor = null;
+        int depth = 0;
+
+        ProgramInstanceSensorInterface getSensor(int programGlobalRank) {
+            final int index = programGlobalRank + 1;
+            if (index < 0) {
+                return this.createSensor(programGlobalRank);
+            }
+            if (index >= this.sensors.length) {
+                this.sensors = Arrays.copyOf(this.sensors, Math.max(index + 1, this.sensors.length * 2));
+            }
+            ProgramInstanceSensorInterface sensor = this.sensors[index];
+            if (sensor == null) {
+                sensor = this.createSensor(programGlobalRank);
+                this.sensors[index] = sensor;
+            }
+            return sensor;
+        }
+
+        private ProgramInstanceSensorInterface createSensor(int programGlobalRank) {
+            final ProgramInstanceSensorInterface sensor = ProgramProbes.getMonitoringAgent().createProgramInstanceSensor(programGlobalRank);
+            allSensors.add(sensor);
+            return sensor;
+        }
+    }
+
+    private static final ThreadLocal<ThreadProbes> threadProbes = new ThreadLocal<ThreadProbes>() {
+        @Override
+        protected ThreadProbes initialValue() {
+            return new ThreadProbes();
+        }
+    };
+
+    /**
+     * Accessors of program global ranks in instances of particular classes.
+     */
+    private static final class RankAccessor {
+
+        final Field rankField;
+        final Field outerInstanceField;
+
+        RankAccessor(Class<?> type) {
+            Field foundRankField = null;
+            Field foundOuterInstanceField = null;
+            for (Class<?> current = type; (current != null) && (foundRankField == null); current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    if (field.getName().equals(rankFieldName) && (field.getType() == int.class)) {
+                        foundRankField = field;
+                        break;
+                    }
+                    if ((current == type) && field.isSynthetic() && field.getName().startsWith("this$")) {
+                        foundOuterInstanceField = field;
+                    }
+                }
+            }
+            this.rankField = setAccessible(foundRankField);
+            this.outerInstanceField = (foundRankField == null) ? setAccessible(foundOuterInstanceField) : null;
+        }
+
+        private static Field setAccessible(Field field) {
+            try {
+                if (field != null) {
+                    field.setAccessible(true);
+                }
+                return field;
+            }
+            catch (SecurityException ex) {
+                return null;
+            }
+        }
+    }
+
+    private static final ClassValue<RankAccessor> rankAccessors = new ClassValue<RankAccessor>() {
+        @Override
+        protected RankAccessor computeValue(Class<?> type) {
+            return new RankAccessor(type);
+        }
+    };
+
+    private ProgramProbes() {
+    }
+
+    /**
+     * Configure the probes. Should be invoked before the first invocation of
+     * a woven method.
+     *
+     * @param applicationId an application ID for a monitoring agent created by
+     * the probes
+     * @param rankFieldName a name of an integer field with a program global
+     * rank in instances of woven classes (or in their outer instances), or
+     * null to use a global rank of the current process (from MPI environment
+     * variables)
+     */
+    public static void configure(String applicationId, String rankFieldName) {
+        ProgramProbes.applicationId = applicationId;
+        ProgramProbes.rankFieldName = rankFieldName;
+    }
+
+    /**
+     * Set a monitoring agent used by the probes instead of the agent created
+     * by <code>MonitoringAgentFactory</code> according to system properties.
+     * Sensors already created by the probes keep the previous agent.
+     *
+     * @param monitoringAgent the monitoring agent
+     */
+    public static void setMonitoringAgent(MonitoringAgentInterface monitoringAgent) {
+        ProgramProbes.monitoringAgent = monitoringAgent;
+    }
+
+    /**
+     * Get a monitoring agent used by the probes. The agent is created by
+     * <code>MonitoringAgentFactory</code> according to system properties
+     * on the first invocation, or a null-device agent is used if the agent
+     * cannot be created.
+     *
+     * @return the monitoring agent
+     */
+    public static MonitoringAgentInterface getMonitoringAgent() {
+        MonitoringAgentInterface result = ProgramProbes.monitoringAgent;
+        if (result == null) {
+            synchronized (ProgramProbes.class) {
+                result = ProgramProbes.monitoringAgent;
+                if (result == null) {
+                    try {
+                        result = MonitoringAgentFactory.createMonitoringAgentSingletonBySystemProperty(applicationId);
+                    }
+                    catch (IllegalStateException | IOException | SQLException ex) {
+                        System.err.println("Cannot create a monitoring agent for instrumented programs: " + ex.getMessage());
+                        result = MonitoringAgentFactory.createMonitoringAgentForNullDevice();
+                    }
+                    ProgramProbes.monitoringAgent = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get a number of failures of sensors reported by the probes (the
+     * failures are not propagated into woven methods).
+     *
+     * @return the number of failures
+     */
+    public static long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Invoked at the beginning of a woven method.
+     *
+     * @param program an instance of a class of the woven method
+     */
+    public static void programStarts(Object program) {
+        final ThreadProbes probes = threadProbes.get();
+        if (probes.depth++ > 0) {
+            return;
+        }
+        try {
+            final ProgramInstanceSensorInterface sensor = probes.getSensor(getRank(program));
+            probes.currentSensor = sensor;
+            sensor.programStarts();
+        }
+        catch (RuntimeException ex) {
+            probes.currentSensor = null;
+            failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Invoked at the end of a woven method, also if the method throws an
+     * exception.
+     *
+     * @param program an instance of a class of the woven method
+     */
+    public static void programEnds(Object program) {
+        final ThreadProbes probes = threadProbes.get();
+        if (--probes.depth > 0) {
+            return;
+        }
+        final ProgramInstanceSensorInterface sensor = probes.currentSensor;
+        probes.currentSensor = null;
+        if (sensor == null) {
+            return;
+        }
+        try {
+            sensor.programEnds();
+        }
+        catch (IOException | RuntimeException ex) {
+            failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Send data pending in all sensors created by the probes. Invoked on
+     * shutdown of the virtual machine by <code>InstrumentationAgent</code>.
+     */
+    public static void flush() {
+        for (ProgramInstanceSensorInterface sensor : allSensors) {
+            try {
+                sensor.flush();
+            }
+            catch (IOException | RuntimeException ex) {
+                failures.incrementAndGet();
+            }
+        }
+    }
+
+    private static int getRank(Object program) {
+        if (rankFieldName == null) {
+            return PROCESS_RANK;
+        }
+        Object instance = program;
+        for (int i = 0; (i < MAX_OUTER_INSTANCES) && (instance != null); i++) {
+            final RankAccessor rankAccessor = rankAccessors.get(instance.getClass());
+            try {
+                if (rankAccessor.rankField != null) {
+                    return rankAccessor.rankField.getInt(instance);
+                }
+                if (rankAccessor.outerInstanceField == null) {
+                    break;
+                }
+                instance = rankAccessor.outerInstanceField.get(instance);
+            }
+            catch (IllegalAccessException ex) {
+                break;
+            }
+        }
+        return PROCESS_RANK;
+    }
+
+    private static int getProcessRank() {
+        for (String variable : RANK_ENVIRONMENT_VARIABLES) {
+            final String value = System.getenv(variable);
+            if (value != null) {
+                try {
+                    return Integer.parseInt(value.trim());
+                }
+                catch (NumberFormatException ex) {
+                    // try the next variable
+                }
+            }
+        }
+        return UNKNOWN_RANK;
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.resources;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The class to implement a caching decorator of a strategy to monitor JVM
+ * process resource utilization. Each of the probes in <code>Probe</code> has
+ * its own time-to-live (TTL). Static probes (<code>TTL_FOREVER</code>) are
+ * resolved once by the decorated strategy, slow-changing probes (a positive
+ * TTL in milliseconds) are resolved once and then refreshed in a background
+ * thread when their cached values expire (a reading thread gets the previous
+ * value and does not wait for the refresh), and hot probes
+ * (<code>TTL_LIVE</code>) and all other methods are read live from the
+ * decorated strategy.
+ *
+ * @author rychly
+ */
+public class MonitoredResourcesCachingStrategy implements MonitoredResourcesStrategyInterface {
+
+    /**
+     * The probes which values can be cached.
+     */
+    public enum Probe {
+
+        HOSTNAME,
+        PROCESS_ID,
+        START_TIME,
+        MAX_HEAP_MEMORY,
+        MAX_NON_HEAP_MEMORY,
+        MAX_SWAP_SPACE_SIZE,
+        FREE_SWAP_SPACE_SIZE,
+        AVAILABLE_PROCESSORS
+    }
+
+    /**
+     * The TTL value of a static probe which is resolved once.
+     */
+    public static final long TTL_FOREVER = -1;
+    /**
+     * The TTL value of a hot probe which is read live.
+     */
+    public static final long TTL_LIVE = 0;
+
+    private static final Map<Probe, Long> DEFAULT_TIMES_TO_LIVE = new EnumMap<>(Probe.class);
+
+    static {
+        DEFAULT_TIMES_TO_LIVE.put(Probe.HOSTNAME, TTL_FOREVER);
+        DEFAULT_TIMES_TO_LIVE.put(Probe.PROCESS_ID, TTL_FOREVER);
+        DEFAULT_TIMES_TO_LIVE.put(Probe.START_TIME, TTL_FOREVER);
+        DEFAULT_TIMES_TO_LIVE.put(Probe.MAX_HEAP_MEMORY, TTL_FOREVER);
+        DEFAULT_TIMES_TO_LIVE.put(Probe.MAX_NON_HEAP_MEMORY, TTL_FOREVER);
+        DEFAULT_TIMES_TO_LIVE.put(Probe.MAX_SWAP_SPACE_SIZE, 60000L);
+        DEFAULT_TIMES_TO_LIVE.put(Probe.FREE_SWAP_SPACE_SIZE, 1000L);
+        DEFAULT_TIMES_TO_LIVE.put(Probe.AVAILABLE_PROCESSORS, 10000L);
+    }
+
+    private static final Probe[] PROBES = Probe.values();
+
+    /**
+     * The holder of the background thread shared by all instances (created on
+     * the first refresh).
+     */
+    private static final class RefreshExecutorHolder {
+
+        static final ExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, MonitoredResourcesCachingStrategy.class.getSimpleName() + "-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private final MonitoredResourcesStrategyInterface monitoredResourcesStrategy;
+    private final long[] timesToLiveNanos = new long[PROBES.length];
+    private final AtomicReferenceArray<Object> cachedValues = new AtomicReferenceArray<>(PROBES.length);
+    private final AtomicLongArray expirationTimesNanos = new AtomicLongArray(PROBES.length);
+    private final AtomicIntegerArray refreshesPending = new AtomicIntegerArray(PROBES.length);
+
+    /**
+     * Create a caching decorator of a given strategy with given TTLs of the
+     * probes (the probes missing in the given map have their default TTLs).
+     *
+     * @param monitoredResourcesStrategy the strategy to decorate
+     * @param timesToLive TTLs of the probes in milliseconds,
+     * <code>TTL_FOREVER</code>, or <code>TTL_LIVE</code>
+     */
+    public MonitoredResourcesCachingStrategy(MonitoredResourcesStrategyInterface monitoredResourcesStrategy, Map<Probe, Long> timesToLive) {
+        this.monitoredResourcesStrategy = monitoredResourcesStrategy;
+        for (Probe probe : PROBES) {
+            final Long timeToLive = timesToLive.containsKey(probe) ? timesToLive.get(probe) : DEFAULT_TIMES_TO_LIVE.get(probe);
+            this.timesToLiveNanos[probe.ordinal()] = (timeToLive > 0)
+                    ? TimeUnit.MILLISECONDS.toNanos(timeToLive)
+                    : timeToLive;
+        }
+    }
+
+    /**
+     * Create a caching decorator of a given strategy with default TTLs of the
+     * probes.
+     *
+     * @param monitoredResourcesStrategy the strategy to decorate
+     */
+    public MonitoredResourcesCachingStrategy(MonitoredResourcesStrategyInterface monitoredResourcesStrategy) {
+        this(monitoredResourcesStrategy, DEFAULT_TIMES_TO_LIVE);
+    }
+
+    /**
+     * Create a caching decorator of <code>MonitoredResourcesCgroupStrategy</code>
+     * strategy, if the JVM process runs in a control group with resource
+     * limits, or <code>MonitoredResourcesDefaultStrategy</code> strategy
+     * otherwise, with default TTLs of the probes.
+     */
+    public MonitoredResourcesCachingStrategy() {
+        this(MonitoredResourcesCgroupStrategy.createIfLimited());
+    }
+
+    /**
+     * Get the decorated strategy.
+     *
+     * @return the decorated strategy
+     */
+    public MonitoredResourcesStrategyInterface getMonitoredResourcesStrategy() {
+        return this.monitoredResourcesStrategy;
+    }
+
+    /**
+     * Get the TTL of a given probe.
+     *
+     * @param probe the probe
+     * @return the TTL of the probe in milliseconds, <code>TTL_FOREVER</code>,
+     * or <code>TTL_LIVE</code>
+     */
+    public long getTimeToLive(Probe probe) {
+        final long timeToLiveNanos = this.timesToLiveNanos[probe.ordinal()];
+        return (timeToLiveNanos > 0) ? TimeUnit.NANOSECONDS.toMillis(timeToLiveNanos) : timeToLiveNanos;
+    }
+
+    /**
+     * Get the default TTL of a given probe.
+     *
+     * @param probe the probe
+     * @return the default TTL of the probe in milliseconds,
+     * <code>TTL_FOREVER</code>, or <code>TTL_LIVE</code>
+     */
+    public static long getDefaultTimeToLive(Probe probe) {
+        return DEFAULT_TIMES_TO_LIVE.get(probe);
+    }
+
+    /**
+     * Invalidate cached values of all probes, so they will be resolved again
+     * on their next reading.
+     */
+    public void invalidate() {
+        for (Probe probe : PROBES) {
+            this.cachedValues.set(probe.ordinal(), null);
+        }
+    }
+
+    private Object resolve(Probe probe) {
+        switch (probe) {
+            case HOSTNAME:
+                return this.monitoredResourcesStrategy.getHostname();
+            case PROCESS_ID:
+                return this.monitoredResourcesStrategy.getProcessID();
+            case START_TIME:
+                return this.monitoredResourcesStrategy.getStartTime();
+            case MAX_HEAP_MEMORY:
+                return this.monitoredResourcesStrategy.getMaxHeapMemory();
+            case MAX_NON_HEAP_MEMORY:
+                return this.monitoredResourcesStrategy.getMaxNonHeapMemory();
+            case MAX_SWAP_SPACE_SIZE:
+                return this.monitoredResourcesStrategy.getMaxSwapSpaceSize();
+            case FREE_SWAP_SPACE_SIZE:
+                return this.monitoredResourcesStrategy.getFreeSwapSpaceSize();
+            case AVAILABLE_PROCESSORS:
+                return this.monitoredResourcesStrategy.getAvailableProcessors();
+            default:
+                throw new IllegalArgumentException("Unknown probe " + probe);
+        }
+    }
+
+    private Object resolveAndCache(Probe probe) {
+        final int index = probe.ordinal();
+        final Object value = this.resolve(probe);
+        this.cachedValues.set(index, value);
+        if (this.timesToLiveNanos[index] > 0) {
+            this.expirationTimesNanos.set(index, System.nanoTime() + this.timesToLiveNanos[index]);
+        }
+        return value;
+    }
+
+    private Object get(final Probe probe) {
+        final int index = probe.ordinal();
+        final long timeToLiveNanos = this.timesToLiveNanos[index];
+        if (timeToLiveNanos == TTL_LIVE) {
+            return this.resolve(probe);
+        }
+        final Object value = this.cachedValues.get(index);
+        if (value == null) {
+            // the first reading (or an invalidated value) is resolved synchronously
+            return this.resolveAndCache(probe);
+        }
+        if ((timeToLiveNanos > 0) && (System.nanoTime() - this.expirationTimesNanos.get(index) > 0)
+                && this.refreshesPending.compareAndSet(index, 0, 1)) {
+            // the expired value is returned and refreshed in the background
+            final Executor executor = RefreshExecutorHolder.REFRESH_EXECUTOR;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resolveAndCache(probe);
+                    }
+                    catch (RuntimeException ex) {
+                        // keep the previous value
+                    }
+                    finally {
+                        refreshesPending.set(index, 0);
+                    }
+                }
+            });
+        }
+        return value;
+    }
+
+    @Override
+    public String getHostname() throws UnsupportedOperationException {
+        return (String) this.get(Probe.HOSTNAME);
+    }
+
+    @Override
+    public int getProcessID() throws UnsupportedOperationException {
+        return (Integer) this.get(Probe.PROCESS_ID);
+    }
+
+    @Override
+    public double getStartTime() {
+        return (Double) this.get(Probe.START_TIME);
+    }
+
+    @Override
+    public long getMaxHeapMemory() {
+        return (Long) this.get(Probe.MAX_HEAP_MEMORY);
+    }
+
+    @Override
+    public long getMaxNonHeapMemory() {
+        return (Long) this.get(Probe.MAX_NON_HEAP_MEMORY);
+    }
+
+    @Override
+    public long getMaxSwapSpaceSize() {
+        return (Long) this.get(Probe.MAX_SWAP_SPACE_SIZE);
+    }
+
+    @Override
+    public long getFreeSwapSpaceSize() {
+        return (Long) this.get(Probe.FREE_SWAP_SPACE_SIZE);
+    }
+
+    @Override
+    public long getUsedSwapSpaceSize() {
+        final long totalSwapSpaceSize = this.getMaxSwapSpaceSize();
+        final long freeSwapSpaceSize = this.getFreeSwapSpaceSize();
+        return ((totalSwapSpaceSize < 0) || (freeSwapSpaceSize < 0))
+                ? -1
+                : (totalSwapSpaceSize - freeSwapSpaceSize);
+    }
+
+    @Override
+    public int getAvailableProcessors() {
+        return (Integer) this.get(Probe.AVAILABLE_PROCESSORS);
+    }
+
+    @Override
+    public double getCurrentThreadCpuTime() {
+        return this.monitoredResourcesStrategy.getCurrentThreadCpuTime();
+    }
+
+    @Override
+    public double getCurrentThreadUserTime() {
+        return this.monitoredResourcesStrategy.getCurrentThreadUserTime();
+    }
+
+    @Override
+    public long getCurrentThreadAllocatedBytes() {
+        return this.monitoredResourcesStrategy.getCurrentThreadAllocatedBytes();
+    }
+
+    @Override
+    public double getElaspedTime(double initialLocalTimestamp) {
+        return this.monitoredResourcesStrategy.getElaspedTime(initialLocalTimestamp);
+    }
+
+    @Override
+    public long getGarbageCollectionCount() {
+        return this.monitoredResourcesStrategy.getGarbageCollectionCount();
+    }
+
+    @Override
+    public double getGarbageCollectionTime() {
+        return this.monitoredResourcesStrategy.getGarbageCollectionTime();
+    }
+
+    @Override
+    public double getProcessCpuLoad() {
+        return this.monitoredResourcesStrategy.getProcessCpuLoad();
+    }
+
+    @Override
+    public double getProcessCpuTime() {
+        return this.monitoredResourcesStrategy.getProcessCpuTime();
+    }
+
+    @Override
+    public double getTimestamp() {
+        return this.monitoredResourcesStrategy.getTimestamp();
+    }
+
+    @Override
+    public long getTimestampNanos() {
+        return this.monitoredResourcesStrategy.getTimestampNanos();
+    }
+
+    @Override
+    public double getUptime() {
+        return this.monitoredResourcesStrategy.getUptime();
+    }
+
+    @Override
+    public long getUsedHeapMemory() {
+        return this.monitoredResourcesStrategy.getUsedHeapMemory();
+    }
+
+    @Override
+    public long getCommittedHeapMemory() {
+        return this.monitoredResourcesStrategy.getCommittedHeapMemory();
+    }
+
+    @Override
+    public long getUsedNonHeapMemory() {
+        return this.monitoredResourcesStrategy.getUsedNonHeapMemory();
+    }
+
+    @Override
+    public long getCommittedNonHeapMemory() {
+        return this.monitoredResourcesStrategy.getCommittedNonHeapMemory();
+    }
+
+    @Override
+    public long getCpuThrottledCount() {
+        return this.monitoredResourcesStrategy.getCpuThrottledCount();
+    }
+
+    @Override
+    public double getCpuThrottledTime() {
+        return this.monitoredResourcesStrategy.getCpuThrottledTime();
+    }
+
+    @Override
+    public boolean setThreadCpuTimeEnabled(boolean enable) {
+        return this.monitoredResourcesStrategy.setThreadCpuTimeEnabled(enable);
+    }
+
+    public static void main(String[] args) {
+        final MonitoredResourcesCachingStrategy monitoredResourcesStrategy = new MonitoredResourcesCachingStrategy();
+        final int iterations = 1000;
+        final double[] timestamps = new double[2];
+        for (int round = 0; round < timestamps.length; round++) {
+            final double startTimestamp = monitoredResourcesStrategy.getTimestamp();
+            for (int i = 0; i < iterations; i++) {
+                monitoredResourcesStrategy.getHostname();
+                monitoredResourcesStrategy.getProcessID();
+                monitoredResourcesStrategy.getMaxHeapMemory();
+                monitoredResourcesStrategy.getUsedSwapSpaceSize();
+                monitoredResourcesStrategy.getAvailableProcessors();
+            }
+            timestamps[round] = monitoredResourcesStrategy.getTimestamp() - startTimestamp;
+        }
+        System.out.printf("===== Cached probes of %s (hostname %s, PID %d) =====\n",
+                MonitoredResourcesDefaultStrategy.class.getSimpleName(),
+                monitoredResourcesStrategy.getHostname(), monitoredResourcesStrategy.getProcessID());
+        for (Probe probe : PROBES) {
+            final long timeToLive = monitoredResourcesStrategy.getTimeToLive(probe);
+            System.out.printf("%s: %s\n", probe,
+                    (timeToLive == TTL_FOREVER) ? "static" : (timeToLive == TTL_LIVE) ? "live" : (timeToLive + " ms"));
+        }
+        System.out.printf("Reading static and slow-changing probes %d times: %f sec (first round, including resolving), %f sec (second round)\n",
+                iterations, timestamps[0], timestamps[1]);
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.resources;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * The class to implement a strategy to monitor JVM process resource
+ * utilization in a Linux control group (e.g., in a container). The maximum
+ * heap memory, the number of available processors, and the swap space are
+ * limited by the memory and CPU limits of the control group and the CPU
+ * throttling by the CFS bandwidth control is read from its statistics.
+ * Both cgroup v1 (<code>memory.limit_in_bytes</code>,
+ * <code>cpu.cfs_quota_us</code>, <code>cpu.cfs_period_us</code>, and
+ * <code>cpu.stat</code> with <code>nr_throttled</code> and
+ * <code>throttled_time</code> in separate controller hierarchies) and cgroup
+ * v2 (<code>memory.max</code>, <code>cpu.max</code>, and <code>cpu.stat</code>
+ * with <code>nr_throttled</code> and <code>throttled_usec</code> in a unified
+ * hierarchy) are supported. The values which are not limited or available in
+ * the control group are provided by <code>MonitoredResourcesDefaultStrategy</code>.
+ *
+ * @author rychly
+ */
+public class MonitoredResourcesCgroupStrategy extends MonitoredResourcesDefaultStrategy {
+
+    /**
+     * Default mount point of the cgroup filesystem.
+     */
+    public static final String DEFAULT_CGROUP_ROOT = "/sys/fs/cgroup";
+    // cgroup v1 reports an unlimited memory as the maximal page-aligned value
+    private static final long UNLIMITED_MEMORY_THRESHOLD = Long.MAX_VALUE >> 1;
+    private static final String UNLIMITED_VALUE_V2 = "max";
+    private static final String[] CPU_CONTROLLER_DIRECTORIES_V1 = {"cpu", "cpu,cpuacct", "cpuacct,cpu"};
+
+    private static final byte[] KEY_NR_THROTTLED = ProcFileReader.toKey("nr_throttled ");
+    private static final byte[] KEY_THROTTLED_USEC = ProcFileReader.toKey("throttled_usec ");
+    private static final byte[] KEY_THROTTLED_TIME = ProcFileReader.toKey("throttled_time ");
+
+    private final int cgroupVersion;
+    private final File memoryDirectory;
+    private final File cpuDirectory;
+    // the statistics are read on each report of a program, so the file is kept open
+    private final ProcFileReader cpuStatReader;
+
+    private MonitoredResourcesCgroupStrategy(int cgroupVersion, File memoryDirectory, File cpuDirectory) {
+        this.cgroupVersion = cgroupVersion;
+        this.memoryDirectory = memoryDirectory;
+        this.cpuDirectory = cpuDirectory;
+        this.cpuStatReader = (cpuDirectory == null)
+                ? null
+                : ProcFileReader.openIfReadable(new File(cpuDirectory, "cpu.stat").getPath());
+    }
+
+    /**
+     * Create a strategy for a control group in a given directory. The
+     * directory is a cgroup v2 directory (if it contains
+     * <code>cgroup.controllers</code>, <code>memory.max</code>, or
+     * <code>cpu.max</code> file) or a cgroup v1 mount point with
+     * <code>memory</code> and <code>cpu</code> controller directories of the
+     * control group (e.g., <code>/sys/fs/cgroup</code> in a container or a
+     * directory with fixture files of the control group).
+     *
+     * @param cgroupDirectory the directory of the control group
+     */
+    public MonitoredResourcesCgroupStrategy(File cgroupDirectory) {
+        this(detectCgroupVersion(cgroupDirectory),
+                isCgroupV2Directory(cgroupDirectory) ? cgroupDirectory : existingDirectory(new File(cgroupDirectory, "memory")),
+                isCgroupV2Directory(cgroupDirectory) ? cgroupDirectory : findCpuControllerDirectoryV1(cgroupDirectory, ""));
+    }
+
+    /**
+     * Create a strategy for the control group of the JVM process (as listed
+     * in <code>/proc/self/cgroup</code>) mounted in the default mount point
+     * <code>DEFAULT_CGROUP_ROOT</code>. If the directory of the control group
+     * is not visible (e.g., in a cgroup namespace of a container), the
+     * directories in the root of the hierarchies are used.
+     */
+    public MonitoredResourcesCgroupStrategy() {
+        this(new File(DEFAULT_CGROUP_ROOT), readProcSelfCgroup());
+    }
+
+    private MonitoredResourcesCgroupStrategy(File cgroupRoot, String[] cgroupPaths) {
+        this(detectCgroupVersion(cgroupRoot),
+                isCgroupV2Directory(cgroupRoot)
+                        ? childOrRoot(cgroupRoot, cgroupPaths[0])
+                        : existingDirectory(childOrRoot(new File(cgroupRoot, "memory"), cgroupPaths[1])),
+                isCgroupV2Directory(cgroupRoot)
+                        ? childOrRoot(cgroupRoot, cgroupPaths[0])
+                        : findCpuControllerDirectoryV1(cgroupRoot, cgroupPaths[2]));
+    }
+
+    /**
+     * Create a strategy for the control group of the JVM process if the
+     * process runs in a control group with a memory limit or a CPU quota.
+     *
+     * @return the strategy for the control group or
+     * <code>MonitoredResourcesDefaultStrategy</code> if there are no limits
+     */
+    public static MonitoredResourcesStrategyInterface createIfLimited() {
+        final MonitoredResourcesCgroupStrategy monitoredResourcesStrategy = new MonitoredResourcesCgroupStrategy();
+        if ((monitoredResourcesStrategy.getMemoryLimit() >= 0) || (monitoredResourcesStrategy.getCpuLimit() >= 0)) {
+            return monitoredResourcesStrategy;
+        }
+        monitoredResourcesStrategy.close();
+        return new MonitoredResourcesDefaultStrategy();
+    }
+
+    private static boolean isCgroupV2Directory(File directory) {
+        return new File(directory, "cgroup.controllers").exists()
+                || new File(directory, "memory.max").exists()
+                || new File(directory, "cpu.max").exists();
+    }
+
+    private static int detectCgroupVersion(File directory) {
+        if (isCgroupV2Directory(directory)) {
+            return 2;
+        }
+        return (new File(directory, "memory").isDirectory() || (findCpuControllerDirectoryV1(directory, "") != null)) ? 1 : 0;
+    }
+
+    private static File existingDirectory(File directory) {
+        return directory.isDirectory() ? directory : null;
+    }
+
+    private static File childOrRoot(File root, String path) {
+        if ((path != null) && !path.isEmpty() && !"/".equals(path)) {
+            final File child = new File(root, path);
+            if (child.isDirectory()) {
+                return child;
+            }
+        }
+        return root;
+    }
+
+    private static File findCpuControllerDirectoryV1(File cgroupRoot, String path) {
+        for (String controllerDirectory : CPU_CONTROLLER_DIRECTORIES_V1) {
+            final File directory = new File(cgroupRoot, controllerDirectory);
+            if (directory.isDirectory()) {
+                return childOrRoot(directory, path);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read paths of the control groups of the JVM process.
+     *
+     * @return the paths in cgroup v2, v1 memory, and v1 cpu hierarchies (empty
+     * strings if unknown)
+     */
+    private static String[] readProcSelfCgroup() {
+        final String[] paths = {"", "", ""};
+        try (final FileReader fileReader = new FileReader("/proc/self/cgroup");
+                final BufferedReader bufferedReader = new BufferedReader(fileReader)) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                // hierarchy-ID:controller-list:cgroup-path
+                final String[] splittedLine = line.split(":", 3);
+                if (splittedLine.length < 3) {
+                    continue;
+                }
+                if (splittedLine[1].isEmpty()) {
+                    paths[0] = splittedLine[2];
+                }
+                for (String controller : splittedLine[1].split(",")) {
+                    if ("memory".equals(controller)) {
+                        paths[1] = splittedLine[2];
+                    } else if ("cpu".equals(controller)) {
+                        paths[2] = splittedLine[2];
+                    }
+                }
+            }
+        }
+        catch (IOException ex) {
+            // NOP, the root of the hierarchies will be used
+        }
+        return paths;
+    }
+
+    private static String readFirstLine(File directory, String fileName) {
+        if (directory == null) {
+            return null;
+        }
+        try (final FileReader fileReader = new FileReader(new File(directory, fileName));
+                final BufferedReader bufferedReader = new BufferedReader(fileReader)) {
+            final String line = bufferedReader.readLine();
+            return (line == null) ? null : line.trim();
+        }
+        catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Read a memory value in bytes from a given file of the control group.
+     *
+     * @return the value, <code>Long.MAX_VALUE</code> if unlimited, or -1 if
+     * not available
+     */
+    private static long readMemoryValue(File directory, String fileName) {
+        final String line = readFirstLine(directory, fileName);
+        if (line == null) {
+            return -1;
+        }
+        if (UNLIMITED_VALUE_V2.equals(line)) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            final long value = Long.parseLong(line);
+            return (value >= UNLIMITED_MEMORY_THRESHOLD) ? Long.MAX_VALUE : value;
+        }
+        catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the version of the control group hierarchy.
+     *
+     * @return 1 or 2 for cgroup v1 or v2, respectively, 0 if no control group
+     * has been found
+     */
+    public int getCgroupVersion() {
+        return this.cgroupVersion;
+    }
+
+    /**
+     * Get the memory limit of the control group in bytes.
+     *
+     * @return the memory limit in bytes; -1 if unlimited or undefined
+     */
+    public long getMemoryLimit() {
+        final long limit = readMemoryValue(this.memoryDirectory, (this.cgroupVersion == 2) ? "memory.max" : "memory.limit_in_bytes");
+        return (limit == Long.MAX_VALUE) ? -1 : limit;
+    }
+
+    /**
+     * Get the CPU limit of the control group as a number of processors, i.e.,
+     * the CPU quota divided by the period of the CFS bandwidth control.
+     *
+     * @return the number of processors (may be fractional); -1 if unlimited or
+     * undefined
+     */
+    public double getCpuLimit() {
+        final String quota;
+        final String period;
+        if (this.cgroupVersion == 2) {
+            // "$MAX $PERIOD" where $MAX may be "max"
+            final String line = readFirstLine(this.cpuDirectory, "cpu.max");
+            if (line == null) {
+                return -1;
+            }
+            final String[] splittedLine = line.split("\\s+");
+            quota = splittedLine[0];
+            period = (splittedLine.length > 1) ? splittedLine[1] : null;
+        } else {
+            quota = readFirstLine(this.cpuDirectory, "cpu.cfs_quota_us");
+            period = readFirstLine(this.cpuDirectory, "cpu.cfs_period_us");
+        }
+        if ((quota == null) || (period == null) || UNLIMITED_VALUE_V2.equals(quota)) {
+            return -1;
+        }
+        try {
+            final long quotaValue = Long.parseLong(quota);
+            final long periodValue = Long.parseLong(period);
+            return ((quotaValue <= 0) || (periodValue <= 0)) ? -1 : (double) quotaValue / periodValue;
+        }
+        catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the maximum amount of heap memory in bytes that can be used for
+     * memory management limited by the memory limit of the control group.
+     *
+     * @return the maximum amount of memory in bytes; -1 if undefined
+     */
+    @Override
+    public long getMaxHeapMemory() {
+        final long maxHeapMemory = super.getMaxHeapMemory();
+        final long memoryLimit = this.getMemoryLimit();
+        return ((memoryLimit >= 0) && ((maxHeapMemory < 0) || (maxHeapMemory > memoryLimit)))
+                ? memoryLimit
+                : maxHeapMemory;
+    }
+
+    /**
+     * Returns the number of processors available to the Java virtual machine
+     * limited by the CPU quota of the control group (rounded up).
+     *
+     * @return the number of processors available to the virtual machine; never
+     * smaller than one.
+     */
+    @Override
+    public int getAvailableProcessors() {
+        final int availableProcessors = super.getAvailableProcessors();
+        final double cpuLimit = this.getCpuLimit();
+        return (cpuLimit > 0)
+                ? Math.max(1, Math.min(availableProcessors, (int) Math.ceil(cpuLimit)))
+                : availableProcessors;
+    }
+
+    /**
+     * Get the swap limit and the used swap of the control group in bytes.
+     *
+     * @return the limit and the usage, the limit is
+     * <code>Long.MAX_VALUE</code> if unlimited, or null if not available
+     */
+    private long[] getSwapLimitAndUsage() {
+        final long limit;
+        final long usage;
+        if (this.cgroupVersion == 2) {
+            limit = readMemoryValue(this.memoryDirectory, "memory.swap.max");
+            usage = readMemoryValue(this.memoryDirectory, "memory.swap.current");
+        } else {
+            // cgroup v1 accounts the memory and the swap together
+            final long memoryAndSwapLimit = readMemoryValue(this.memoryDirectory, "memory.memsw.limit_in_bytes");
+            final long memoryLimit = readMemoryValue(this.memoryDirectory, "memory.limit_in_bytes");
+            final long memoryAndSwapUsage = readMemoryValue(this.memoryDirectory, "memory.memsw.usage_in_bytes");
+            final long memoryUsage = readMemoryValue(this.memoryDirectory, "memory.usage_in_bytes");
+            limit = ((memoryAndSwapLimit < 0) || (memoryLimit < 0)) ? -1
+                    : ((memoryAndSwapLimit == Long.MAX_VALUE) || (memoryLimit == Long.MAX_VALUE)) ? Long.MAX_VALUE
+                    : Math.max(0, memoryAndSwapLimit - memoryLimit);
+            usage = ((memoryAndSwapUsage < 0) || (memoryUsage < 0)) ? -1 : Math.max(0, memoryAndSwapUsage - memoryUsage);
+        }
+        return ((limit < 0) || (usage < 0)) ? null : new long[]{limit, usage};
+    }
+
+    /**
+     * Returns the total amount of swap space in bytes limited by the swap
+     * limit of the control group.
+     *
+     * @return the total amount of swap space in bytes; -1 if undefined
+     */
+    @Override
+    public long getMaxSwapSpaceSize() {
+        final long maxSwapSpaceSize = super.getMaxSwapSpaceSize();
+        final long[] swapLimitAndUsage = this.getSwapLimitAndUsage();
+        return ((swapLimitAndUsage != null) && (swapLimitAndUsage[0] != Long.MAX_VALUE)
+                && ((maxSwapSpaceSize < 0) || (maxSwapSpaceSize > swapLimitAndUsage[0])))
+                ? swapLimitAndUsage[0]
+                : maxSwapSpaceSize;
+    }
+
+    /**
+     * Returns free swap space in bytes which is available to the control group
+     * (the swap limit minus the swap used by the control group, if limited).
+     *
+     * @return free swap space in bytes; -1 if undefined
+     */
+    @Override
+    public long getFreeSwapSpaceSize() {
+        final long freeSwapSpaceSize = super.getFreeSwapSpaceSize();
+        final long[] swapLimitAndUsage = this.getSwapLimitAndUsage();
+        if ((swapLimitAndUsage == null) || (swapLimitAndUsage[0] == Long.MAX_VALUE)) {
+            return freeSwapSpaceSize;
+        }
+        final long freeInCgroup = Math.max(0, swapLimitAndUsage[0] - swapLimitAndUsage[1]);
+        return ((freeSwapSpaceSize < 0) || (freeSwapSpaceSize > freeInCgroup)) ? freeInCgroup : freeSwapSpaceSize;
+    }
+
+    /**
+     * Returns the number of periods of the CFS bandwidth control in which the
+     * processes of the control group have been throttled.
+     *
+     * @return the number of throttled periods; -1 if undefined
+     */
+    @Override
+    public long getCpuThrottledCount() {
+        if (this.cpuStatReader == null) {
+            return -1;
+        }
+        synchronized (this.cpuStatReader) {
+            try {
+                return this.cpuStatReader.read() ? this.cpuStatReader.getLongValue(KEY_NR_THROTTLED) : -1;
+            }
+            catch (IOException ex) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the total time in seconds for which the processes of the control
+     * group have been throttled by the CFS bandwidth control.
+     *
+     * @return the total throttled time in seconds; -1 if undefined
+     */
+    @Override
+    public double getCpuThrottledTime() {
+        if (this.cpuStatReader == null) {
+            return -1;
+        }
+        synchronized (this.cpuStatReader) {
+            try {
+                if (!this.cpuStatReader.read()) {
+                    return -1;
+                }
+                final long throttledUsec = this.cpuStatReader.getLongValue(KEY_THROTTLED_USEC);
+                if (throttledUsec >= 0) {
+                    return throttledUsec / 1e6;
+                }
+                final long throttledNanos = this.cpuStatReader.getLongValue(KEY_THROTTLED_TIME);
+                return (throttledNanos >= 0) ? throttledNanos / 1e9 : -1;
+            }
+            catch (IOException ex) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Close the statistics file of the control group. The throttling is
+     * undefined after the strategy has been closed.
+     */
+    public void close() {
+        if (this.cpuStatReader != null) {
+            synchronized (this.cpuStatReader) {
+                try {
+                    this.cpuStatReader.close();
+                }
+                catch (IOException ex) {
+                    // NOP
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        final MonitoredResourcesCgroupStrategy monitoredResourcesStrategy = (args.length > 0)
+                ? new MonitoredResourcesCgroupStrategy(new File(args[0]))
+                : new MonitoredResourcesCgroupStrategy();
+        System.out.printf("===== Control Group Resource Limits (cgroup v%d; memory %s, cpu %s) =====\n"
+                + "Memory limit: %d B\n"
+                + "CPU limit: %f CPUs\n"
+                + "JVM process maximum available heap memory: %d B\n"
+                + "Number of CPUs available: %d\n"
+                + "Swap-space size (total/used/free): %d / %d / %d B\n"
+                + "CPU throttling (periods/time): %d / %f sec\n",
+                monitoredResourcesStrategy.getCgroupVersion(), monitoredResourcesStrategy.memoryDirectory, monitoredResourcesStrategy.cpuDirectory,
+                monitoredResourcesStrategy.getMemoryLimit(),
+                monitoredResourcesStrategy.getCpuLimit(),
+                monitoredResourcesStrategy.getMaxHeapMemory(),
+                monitoredResourcesStrategy.getAvailableProcessors(),
+                monitoredResourcesStrategy.getMaxSwapSpaceSize(), monitoredResourcesStrategy.getUsedSwapSpaceSize(), monitoredResourcesStrategy.getFreeSwapSpaceSize(),
+                monitoredResourcesStrategy.getCpuThrottledCount(), monitoredResourcesStrategy.getCpuThrottledTime());
+        monitoredResourcesStrategy.close();
+    }
+}
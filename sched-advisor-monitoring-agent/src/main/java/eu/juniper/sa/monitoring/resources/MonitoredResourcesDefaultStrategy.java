@@ -43,7 +43,9 @@ import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The class to implement a default strategy to monitor JVM process resource
@@ -57,6 +59,12 @@ public class MonitoredResourcesDefaultStrategy implements MonitoredResourcesStra
 
     private static final boolean GET_PROCESS_CPU_LOAD_DECLARED_BY_OPERATINGSYSTEMMXBEAN;
     private static final int PID_MAX_LIMIT;
+    // the collectors are created at the JVM start, so they need not be enumerated on each query
+    private static final List<GarbageCollectorMXBean> GARBAGE_COLLECTOR_MXBEANS = ManagementFactory.getGarbageCollectorMXBeans();
+    // the monotonic clock is anchored to the wall clock once per JVM
+    private static final long CLOCK_ANCHOR_EPOCH_NANOS = System.currentTimeMillis() * 1000000L;
+    private static final long CLOCK_ANCHOR_NANO_TIME = System.nanoTime();
+    private static final AtomicLong LAST_TIMESTAMP_NANOS = new AtomicLong();
 
     private Double initialUptime = null;
     private Double initialProcessCpuTime = null;
@@ -387,15 +395,38 @@ public class MonitoredResourcesDefaultStrategy implements MonitoredResourcesStra
     }
 
     /**
-     * Returns time in seconds since an arbitrary time in the past. The value is
-     * local, not synchronized across all processes in a cluster (to get a
+     * Returns time in nanoseconds since the epoch by a local monotonic clock.
+     * The clock is anchored to the wall clock once per JVM (when the class is
+     * loaded) and advanced by <code>System.nanoTime()</code>, so it is not
+     * affected by adjustments of the wall clock and its resolution is not
+     * limited to milliseconds. The returned values are strictly increasing in
+     * the JVM, so no two records of the JVM have the same timestamp. The value
+     * is local, not synchronized across all processes in a cluster (to get a
      * synchronized timestamp on an MPI cluster use MPI_Wtime with
      * MPI_WTIME_IS_GLOBAL check).
      *
-     * @return time in seconds since an arbitrary time in the past
+     * @return time in nanoseconds since the epoch
+     */
+    public long getLocalTimestampNanos() {
+        final long now = CLOCK_ANCHOR_EPOCH_NANOS + (System.nanoTime() - CLOCK_ANCHOR_NANO_TIME);
+        while (true) {
+            final long last = LAST_TIMESTAMP_NANOS.get();
+            final long next = (now > last) ? now : last + 1;
+            if (LAST_TIMESTAMP_NANOS.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Returns time in seconds since the epoch by a local monotonic clock (see
+     * <code>getLocalTimestampNanos()</code>). The value is local, not
+     * synchronized across all processes in a cluster.
+     *
+     * @return time in seconds since the epoch
      */
     public double getLocalTimestamp() {
-        return System.currentTimeMillis() / 1000D;
+        return this.getLocalTimestampNanos() / 1e9;
     }
 
     /**
@@ -406,7 +437,7 @@ public class MonitoredResourcesDefaultStrategy implements MonitoredResourcesStra
      * @return time elapsed since the initial timestamp in seconds
      */
     public double getLocalElaspedTime(double initialLocalTimestamp) {
-        return (System.currentTimeMillis() / 1000D) - initialLocalTimestamp;
+        return this.getLocalTimestamp() - initialLocalTimestamp;
     }
 
     /**
@@ -423,6 +454,19 @@ public class MonitoredResourcesDefaultStrategy implements MonitoredResourcesStra
         return this.getLocalTimestamp();
     }
 
+    /**
+     * Returns time in nanoseconds since an arbitrary time in the past. This
+     * implementation is just an alias for
+     * <code>getLocalTimestampNanos()</code> to provide a defined way how to
+     * get a timestamp (see <code>getTimestamp()</code>).
+     *
+     * @return time in nanoseconds since an arbitrary time in the past
+     */
+    @Override
+    public long getTimestampNanos() {
+        return this.getLocalTimestampNanos();
+    }
+
     /**
      * Returns time in seconds since a given initial timestamp. This
      * implementation is just an alias for
@@ -472,7 +516,7 @@ public class MonitoredResourcesDefaultStrategy implements MonitoredResourcesStra
     @Override
     public double getGarbageCollectionTime() {
         double totalGCTime = 0;
-        for (GarbageCollectorMXBean garbageCollectorMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+        for (GarbageCollectorMXBean garbageCollectorMXBean : GARBAGE_COLLECTOR_MXBEANS) {
             totalGCTime += garbageCollectorMXBean.getCollectionTime();
         }
         if (totalGCTime < 0) {
@@ -519,7 +563,7 @@ public class MonitoredResourcesDefaultStrategy implements MonitoredResourcesStra
     @Override
     public long getGarbageCollectionCount() {
         long totalGCCount = 0;
-        for (GarbageCollectorMXBean garbageCollectorMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+        for (GarbageCollectorMXBean garbageCollectorMXBean : GARBAGE_COLLECTOR_MXBEANS) {
             totalGCCount += garbageCollectorMXBean.getCollectionCount();
         }
         return totalGCCount;
@@ -587,6 +631,31 @@ public class MonitoredResourcesDefaultStrategy implements MonitoredResourcesStra
                 : -1;
     }
 
+    /**
+     * Returns an approximation of the total amount of memory in bytes
+     * allocated in heap memory by the current thread since its start. This
+     * resource check is implemented by Oracle/OpenJDK JVMs only via
+     * <code>com.sun.management.ThreadMXBean</code> (other JVMs return a
+     * negative number).
+     *
+     * @return the amount of memory in bytes allocated by the current thread if
+     * thread memory allocation measurement is supported and enabled; a negative
+     * number otherwise
+     */
+    @Override
+    public long getCurrentThreadAllocatedBytes() {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            try {
+                return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            catch (UnsupportedOperationException ex) {
+                // NOP, no way
+            }
+        }
+        return -1;
+    }
+
     /**
      * Enables or disables thread CPU time measurement which has to be enabled
      * for <code>getCurrentThreadCpuTime()</code> and
@@ -639,6 +708,30 @@ public class MonitoredResourcesDefaultStrategy implements MonitoredResourcesStra
         return result;
     }
 
+    /**
+     * Returns the number of throttled periods of the CFS bandwidth control.
+     * The default strategy is not aware of control groups (see
+     * <code>MonitoredResourcesCgroupStrategy</code>).
+     *
+     * @return -1 as undefined
+     */
+    @Override
+    public long getCpuThrottledCount() {
+        return -1;
+    }
+
+    /**
+     * Returns the total throttled time by the CFS bandwidth control. The
+     * default strategy is not aware of control groups (see
+     * <code>MonitoredResourcesCgroupStrategy</code>).
+     *
+     * @return -1 as undefined
+     */
+    @Override
+    public double getCpuThrottledTime() {
+        return -1;
+    }
+
     /**
      * Read a value (in Bytes) of a given key from /proc/meminfo file.
      *
@@ -56,6 +56,19 @@ public interface MonitoredResourcesStrategyInterface {
      */
     double getCurrentThreadUserTime();
 
+    /**
+     * Returns an approximation of the total amount of memory in bytes
+     * allocated in heap memory by the current thread since its start. The
+     * returned value is an approximation because some JVM implementations may
+     * use object allocation mechanisms that result in a delay between the time
+     * an object is allocated and the time its size is recorded.
+     *
+     * @return the amount of memory in bytes allocated by the current thread if
+     * thread memory allocation measurement is supported and enabled; a negative
+     * number otherwise
+     */
+    long getCurrentThreadAllocatedBytes();
+
     /**
      * Returns time in seconds since a given initial timestamp.
      *
@@ -144,6 +157,16 @@ public interface MonitoredResourcesStrategyInterface {
      */
     double getTimestamp();
 
+    /**
+     * Returns time in nanoseconds since an arbitrary time in the past. The
+     * value is the same as by <code>getTimestamp()</code> but without the loss
+     * of precision of double numbers, so it should be used to compute short
+     * durations and to identify records by their timestamps.
+     *
+     * @return time in nanoseconds since an arbitrary time in the past
+     */
+    long getTimestampNanos();
+
     /**
      * Returns the uptime of the Java virtual machine in seconds.
      *
@@ -258,4 +281,24 @@ public interface MonitoredResourcesStrategyInterface {
      */
     int getAvailableProcessors();
 
+    /**
+     * Returns the number of periods of the CFS bandwidth control in which the
+     * processes of the control group of the JVM process have been throttled,
+     * i.e., they have exhausted their CPU quota and could not run until the
+     * end of the period.
+     *
+     * @return the number of throttled periods; -1 if undefined (e.g., no CPU
+     * quota is available)
+     */
+    long getCpuThrottledCount();
+
+    /**
+     * Returns the total time in seconds for which the processes of the control
+     * group of the JVM process have been throttled by the CFS bandwidth
+     * control.
+     *
+     * @return the total throttled time in seconds; -1 if undefined
+     */
+    double getCpuThrottledTime();
+
 }
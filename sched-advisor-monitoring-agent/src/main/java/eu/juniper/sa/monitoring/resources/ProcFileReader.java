@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.resources;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The class to read a file of the /proc filesystem repeatedly without
+ * allocation of any objects. The file is kept open and each
+ * <code>read()</code> re-reads it from the beginning (the kernel generates a
+ * new content of the file on each read from its beginning) into a reused byte
+ * buffer, and the values are parsed directly from the buffer. The class is not
+ * thread-safe.
+ *
+ * @author rychly
+ */
+public class ProcFileReader implements AutoCloseable {
+
+    /**
+     * Default capacity of the buffer in bytes.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final RandomAccessFile file;
+    private final byte[] buffer;
+    private int length = 0;
+
+    /**
+     * Open a given file of the /proc filesystem to read it by a buffer of a
+     * given capacity (a longer content of the file is truncated).
+     *
+     * @param path a path of the file
+     * @param capacity a capacity of the buffer in bytes
+     * @throws IOException if the file cannot be opened
+     */
+    public ProcFileReader(String path, int capacity) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Open a given file of the /proc filesystem to read it by a buffer of the
+     * default capacity.
+     *
+     * @param path a path of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public ProcFileReader(String path) throws IOException {
+        this(path, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Open a given file of the /proc filesystem if it is readable.
+     *
+     * @param path a path of the file
+     * @return the reader of the file or null if the file cannot be read (e.g.,
+     * it does not exist or it is not permitted)
+     */
+    public static ProcFileReader openIfReadable(String path) {
+        try {
+            final ProcFileReader reader = new ProcFileReader(path);
+            if (reader.read()) {
+                return reader;
+            }
+            reader.close();
+        }
+        catch (IOException ex) {
+            // NOP, the file cannot be read
+        }
+        return null;
+    }
+
+    /**
+     * Get ASCII bytes of a given key to be searched by
+     * <code>getLongValue(byte[])</code> method (the bytes should be prepared
+     * once and reused).
+     *
+     * @param key the key
+     * @return the bytes of the key
+     */
+    public static byte[] toKey(String key) {
+        return key.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Read the current content of the file into the buffer.
+     *
+     * @return true if some content has been read, false if the file is empty
+     * @throws IOException if the file cannot be read
+     */
+    public boolean read() throws IOException {
+        this.file.seek(0);
+        this.length = 0;
+        int count;
+        while ((this.length < this.buffer.length)
+                && ((count = this.file.read(this.buffer, this.length, this.buffer.length - this.length)) > 0)) {
+            this.length += count;
+        }
+        return this.length > 0;
+    }
+
+    /**
+     * Get a position in the buffer just after a given key which is at the
+     * beginning of a line.
+     *
+     * @param key the key
+     * @return the position after the key or -1 if there is no such key
+     */
+    public int indexAfterKey(byte[] key) {
+        int lineStart = 0;
+        while (lineStart + key.length <= this.length) {
+            int i = 0;
+            while ((i < key.length) && (this.buffer[lineStart + i] == key[i])) {
+                i++;
+            }
+            if (i == key.length) {
+                return lineStart + key.length;
+            }
+            // skip to the next line
+            while ((lineStart < this.length) && (this.buffer[lineStart] != '\n')) {
+                lineStart++;
+            }
+            lineStart++;
+        }
+        return -1;
+    }
+
+    /**
+     * Get a position in the buffer just after the last occurrence of a given
+     * byte.
+     *
+     * @param b the byte
+     * @return the position after the byte or -1 if there is no such byte
+     */
+    public int indexAfterLast(byte b) {
+        for (int i = this.length - 1; i >= 0; i--) {
+            if (this.buffer[i] == b) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int skipBlanks(int position) {
+        while ((position < this.length) && ((this.buffer[position] == ' ') || (this.buffer[position] == '\t'))) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Get a position in the buffer of a field of a given index of a line where
+     * the fields are separated by blanks.
+     *
+     * @param position a position of the first field (of index zero)
+     * @param index the index of the field
+     * @return the position of the field or -1 if there is no such field
+     */
+    public int indexOfField(int position, int index) {
+        if (position < 0) {
+            return -1;
+        }
+        position = this.skipBlanks(position);
+        for (int i = 0; i < index; i++) {
+            while ((position < this.length) && (this.buffer[position] != ' ') && (this.buffer[position] != '\t')
+                    && (this.buffer[position] != '\n')) {
+                position++;
+            }
+            position = this.skipBlanks(position);
+        }
+        return ((position < this.length) && (this.buffer[position] != '\n')) ? position : -1;
+    }
+
+    /**
+     * Parse a non-negative integer number at a given position in the buffer
+     * (leading blanks are skipped). If the number is followed by a unit
+     * <code>kB</code>, it is converted into bytes.
+     *
+     * @param position the position
+     * @return the number or -1 if there is no number at the position
+     */
+    public long parseLong(int position) {
+        if (position < 0) {
+            return -1;
+        }
+        position = this.skipBlanks(position);
+        final int start = position;
+        long value = 0;
+        while ((position < this.length) && (this.buffer[position] >= '0') && (this.buffer[position] <= '9')) {
+            value = value * 10 + (this.buffer[position++] - '0');
+        }
+        if (position == start) {
+            return -1;
+        }
+        position = this.skipBlanks(position);
+        if ((position + 1 < this.length) && (this.buffer[position] == 'k') && (this.buffer[position + 1] == 'B')) {
+            value <<= 10;
+        }
+        return value;
+    }
+
+    /**
+     * Parse a non-negative decimal number at a given position in the buffer
+     * (leading blanks are skipped).
+     *
+     * @param position the position
+     * @return the number or NaN if there is no number at the position
+     */
+    public double parseDecimal(int position) {
+        if (position < 0) {
+            return Double.NaN;
+        }
+        position = this.skipBlanks(position);
+        final int start = position;
+        long mantissa = 0;
+        long divisor = 1;
+        boolean fraction = false;
+        for (; position < this.length; position++) {
+            final byte b = this.buffer[position];
+            if ((b >= '0') && (b <= '9')) {
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction) {
+                    divisor *= 10;
+                }
+            } else if ((b == '.') && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        return (position == start) ? Double.NaN : (double) mantissa / divisor;
+    }
+
+    /**
+     * Get a non-negative integer value of a given key at the beginning of a
+     * line (e.g., <code>VmRSS:</code> in /proc/self/status).
+     *
+     * @param key the key (see <code>toKey(String)</code>)
+     * @return the value (converted into bytes if it is in kB) or -1 if there
+     * is no such key
+     */
+    public long getLongValue(byte[] key) {
+        return this.parseLong(this.indexAfterKey(key));
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+    }
+}
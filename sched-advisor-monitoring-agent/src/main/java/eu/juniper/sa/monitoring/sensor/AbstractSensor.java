@@ -28,6 +28,7 @@
 package eu.juniper.sa.monitoring.sensor;
 
 import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentAbstract;
 import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
 
 /**
@@ -46,6 +47,12 @@ public abstract class AbstractSensor {
      */
     protected double durationToSubtract = 0;
 
+    /**
+     * A value of timestamps in nanoseconds of <code>*Starts()</code>
+     * invocations when the sensor has not been started.
+     */
+    protected static final long NOT_STARTED = Long.MIN_VALUE;
+
     /**
      * Create a sensor that will utilize a given monitoring agent.
      *
@@ -81,6 +88,21 @@ public abstract class AbstractSensor {
         return monitoredResourcesStrategy;
     }
 
+    /**
+     * Account a given duration of a reporting method of the sensor in
+     * statistics of the utilized monitoring agent (if it keeps the statistics,
+     * see <code>MonitoringAgentMXBean</code>).
+     *
+     * @param methodDuration the duration of the reporting method in seconds
+     * @return the duration of the reporting method in seconds
+     */
+    protected double reportEnds(double methodDuration) {
+        if (this.monitoringAgent instanceof MonitoringAgentAbstract) {
+            ((MonitoringAgentAbstract) this.monitoringAgent).getStatistics().sensorReportEnds(methodDuration);
+        }
+        return methodDuration;
+    }
+
     /**
      * Subtracts a given duration from the overall duration between
      * <code>*Starts()</code> and <code>*Ends(...)</code>. Can be invoked
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+/**
+ * The class of a sampling policy which samples every N-th invocation of a
+ * program and adapts the N to keep the overhead of the measuring and reporting
+ * close to a given ratio of the execution time of the program. The N is
+ * doubled when the overhead ratio of an adjustment period exceeds the target
+ * and it is halved when the overhead ratio would stay below the target even
+ * after the halving. The sampled records are sent immediately.
+ *
+ * @author rychly
+ */
+public class AdaptiveSamplingPolicy implements SamplingPolicyInterface {
+
+    /**
+     * Maximal number of invocations per a sampled invocation.
+     */
+    public static final long MAX_SAMPLING_INTERVAL = 1 << 20;
+    // the N is adjusted after the given execution time of the program or the given number of sampled invocations
+    private static final double ADJUSTMENT_PERIOD = 0.1;
+    private static final long ADJUSTMENT_SAMPLES = 16;
+
+    private final double targetOverheadRatio;
+    private long samplingInterval = 1;
+    private long invocationsCount = 0;
+    private double programDurationSum = 0;
+    private double overheadSum = 0;
+    private long samplesCount = 0;
+
+    /**
+     * Create a policy keeping the overhead close to a given ratio of the
+     * execution time of the program.
+     *
+     * @param targetOverheadRatio the target ratio of the overhead to the
+     * execution time (e.g., 0.01 for 1%)
+     */
+    public AdaptiveSamplingPolicy(double targetOverheadRatio) {
+        if (!(targetOverheadRatio > 0)) {
+            throw new IllegalArgumentException("The target overhead ratio has to be a positive number.");
+        }
+        this.targetOverheadRatio = targetOverheadRatio;
+    }
+
+    /**
+     * Get the target ratio of the overhead to the execution time.
+     *
+     * @return the target ratio of the overhead to the execution time
+     */
+    public double getTargetOverheadRatio() {
+        return this.targetOverheadRatio;
+    }
+
+    /**
+     * Get the current number of invocations per a sampled invocation.
+     *
+     * @return the current number of invocations per a sampled invocation
+     */
+    public long getSamplingInterval() {
+        return this.samplingInterval;
+    }
+
+    @Override
+    public int getSlotsCount() {
+        return 1;
+    }
+
+    @Override
+    public int sample(long timestampNanos) {
+        return (this.invocationsCount++ % this.samplingInterval == 0) ? 0 : NOT_SAMPLED;
+    }
+
+    @Override
+    public void programEnds(double programDuration, double overhead) {
+        this.programDurationSum += programDuration;
+        this.overheadSum += overhead;
+        if (overhead > 0) {
+            this.samplesCount++;
+        }
+        if ((this.programDurationSum < ADJUSTMENT_PERIOD) && (this.samplesCount < ADJUSTMENT_SAMPLES)) {
+            return;
+        }
+        final double overheadRatio = (this.programDurationSum > 0) ? this.overheadSum / this.programDurationSum : Double.POSITIVE_INFINITY;
+        if ((overheadRatio > this.targetOverheadRatio) && (this.samplingInterval < MAX_SAMPLING_INTERVAL)) {
+            this.samplingInterval <<= 1;
+        } else if ((overheadRatio * 2 < this.targetOverheadRatio) && (this.samplingInterval > 1)) {
+            this.samplingInterval >>= 1;
+        }
+        this.programDurationSum = 0;
+        this.overheadSum = 0;
+        this.samplesCount = 0;
+        // the next invocation is sampled to measure the overhead with the new interval
+        this.invocationsCount = 0;
+    }
+
+    @Override
+    public boolean isWindowEnded(long timestampNanos) {
+        return true;
+    }
+
+    @Override
+    public void startWindow(long timestampNanos) {
+        // NOP
+    }
+}
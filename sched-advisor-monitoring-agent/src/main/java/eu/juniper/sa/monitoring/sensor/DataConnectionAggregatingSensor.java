@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.agent.MetricRecord;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
+import java.io.IOException;
+
+/**
+ * The class of a sensor for a data connection between Juniper programs which
+ * aggregates the transfers in time windows. Instead of a "SendReceive" record
+ * per transfer (see <code>DataConnectionSensor</code>), methods of the class
+ * produce a summary record per window (the window ends by the first transfer
+ * ending after the window duration or by <code>flush()</code> method) in the
+ * following format (all timestamps, times, and durations are in seconds)
+ * <code>{ "Timestamp": timestamp_of_the_last_transfer_end,
+ * "hostname": hostname_of_juniper_program_node, "type": "SendReceiveSummary",
+ * "ReceiverGlobalRank": global_rank_of_receiving_program,
+ * "ConnectionName": name_of_connection,
+ * "WindowStartTimestamp": timestamp_of_the_first_receive_start,
+ * "SendReceiveDurationCount": number_of_transfers,
+ * "SendReceiveDurationSum": sum_of_durations_of_the_transfers,
+ * "SendReceiveDurationMin": minimal_duration_of_the_transfers,
+ * "SendReceiveDurationMax": maximal_duration_of_the_transfers,
+ * "SendReceiveDurationSumOfSquares": sum_of_squares_of_durations_of_the_transfers,
+ * "SendReceiveDurationHistogram": encoded_latency_histogram_of_durations_of_the_transfers,
+ * "ReceivedDataCount": number_of_transfers_with_known_size,
+ * "ReceivedDataSum": sum_of_sizes_of_transferred_data_in_bytes,
+ * "ReceivedDataMin": minimal_size_of_transferred_data_in_bytes,
+ * "ReceivedDataMax": maximal_size_of_transferred_data_in_bytes,
+ * "ReceivedDataSumOfSquares": sum_of_squares_of_sizes_of_transferred_data_in_bytes }</code>.
+ * The summary metrics are named by a metric of "SendReceive" records and a
+ * suffix, so <code>AggregatedMetric</code> of the metric can be computed from
+ * both the records and the summary records, and the histogram metric is named
+ * by the metric and <code>LatencyHistogram.METRIC_NAME_SUFFIX</code>.
+ *
+ * @author rychly
+ */
+public class DataConnectionAggregatingSensor extends AbstractSensor implements DataConnectionSensorInterface {
+
+    /**
+     * Type of summary records.
+     */
+    public static final String METRIC_TYPE = "SendReceiveSummary";
+    /**
+     * Suffix of a summary metric with a count of aggregated values.
+     */
+    public static final String SUFFIX_COUNT = "Count";
+    /**
+     * Suffix of a summary metric with a sum of aggregated values.
+     */
+    public static final String SUFFIX_SUM = "Sum";
+    /**
+     * Suffix of a summary metric with a minimum of aggregated values.
+     */
+    public static final String SUFFIX_MIN = "Min";
+    /**
+     * Suffix of a summary metric with a maximum of aggregated values.
+     */
+    public static final String SUFFIX_MAX = "Max";
+    /**
+     * Suffix of a summary metric with a sum of squares of aggregated values.
+     */
+    public static final String SUFFIX_SUM_OF_SQUARES = "SumOfSquares";
+    private static final String[] METRIC_NAMES = {
+        "ReceiverGlobalRank",
+        "ConnectionName",
+        "WindowStartTimestamp",
+        "SendReceiveDuration" + SUFFIX_COUNT,
+        "SendReceiveDuration" + SUFFIX_SUM,
+        "SendReceiveDuration" + SUFFIX_MIN,
+        "SendReceiveDuration" + SUFFIX_MAX,
+        "SendReceiveDuration" + SUFFIX_SUM_OF_SQUARES,
+        "SendReceiveDuration" + LatencyHistogram.METRIC_NAME_SUFFIX,
+        "ReceivedData" + SUFFIX_COUNT,
+        "ReceivedData" + SUFFIX_SUM,
+        "ReceivedData" + SUFFIX_MIN,
+        "ReceivedData" + SUFFIX_MAX,
+        "ReceivedData" + SUFFIX_SUM_OF_SQUARES
+    };
+    // metric IDs, i.e., positions in METRIC_NAMES
+    private static final int RECEIVER_GLOBAL_RANK = 0;
+    private static final int CONNECTION_NAME = 1;
+    private static final int WINDOW_START_TIMESTAMP = 2;
+    private static final int SEND_RECEIVE_DURATION = 3;
+    private static final int SEND_RECEIVE_DURATION_HISTOGRAM = 8;
+    private static final int RECEIVED_DATA = 9;
+    // offsets of the summary metrics from the metric IDs above
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+    private static final int SUM_OF_SQUARES = 4;
+
+    // the record is reused by all reports of the sensor
+    private final MetricRecord metricRecord = new MetricRecord(METRIC_TYPE, METRIC_NAMES);
+    private final int receiverGlobalRank;
+    private final String connectionName;
+    private final double windowDuration;
+    private long receiveStartsTimestampNanos = NOT_STARTED;
+    // accumulators of the current window
+    private long windowStartTimestampNanos;
+    private long windowEndTimestampNanos;
+    private long durationCount;
+    private double durationSum;
+    private double durationMin;
+    private double durationMax;
+    private double durationSumOfSquares;
+    private final LatencyHistogram durationHistogram = new LatencyHistogram();
+    private long dataCount;
+    private double dataSum;
+    private double dataMin;
+    private double dataMax;
+    private double dataSumOfSquares;
+
+    /**
+     * Create a sensor that will utilize a given monitoring agent.
+     *
+     * @param monitoringAgent a monitoring agent to be utilized by the sensor
+     * @param monitoredResourcesStrategy a monitored resources strategy to be
+     * utilized by the sensor
+     * @param receiverGlobalRank an MPI global rank of a receiving Juniper
+     * program of a monitored connection (value of
+     * <code>JuniperProgram.myGlobalRank</code>)
+     * @param connectionName a name of an incomming monitored connection of a
+     * Juniper program (value used in
+     * <code>JuniperProgram.transferData(...)</code>)
+     * @param windowDuration a duration of aggregation windows in seconds
+     */
+    public DataConnectionAggregatingSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, int receiverGlobalRank, String connectionName, double windowDuration) {
+        super(monitoringAgent, monitoredResourcesStrategy);
+        this.receiverGlobalRank = receiverGlobalRank;
+        this.connectionName = connectionName;
+        this.windowDuration = windowDuration;
+    }
+
+    /**
+     * Get a duration of aggregation windows in seconds.
+     *
+     * @return the duration of aggregation windows in seconds
+     */
+    public double getWindowDuration() {
+        return this.windowDuration;
+    }
+
+    /**
+     * Should be invoked just before
+     * <code>JuniperProgram.transferData(...)</code> method.
+     */
+    @Override
+    public void receiveStarts() {
+        this.durationToSubtract = 0;
+        this.receiveStartsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+    }
+
+    /**
+     * Should be invoked just after
+     * <code>JuniperProgram.transferData(...)</code> method with a size of
+     * transferred data in bytes.
+     *
+     * @param sizeOfReceivedData a size of transferred data in bytes
+     * @return a duration of this method in seconds (an overhead of the method
+     * to be subtracted from surrounding measurements)
+     * @throws IllegalStateException if the method is invoked before
+     * <code>*Starts()</code> method
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    @Override
+    public double receiveEnds(Double sizeOfReceivedData) throws IllegalStateException, IOException {
+        // the end timestamp should be taken just after a program so it cannnot be affected by the measuring and reporting below
+        final long receiveEndsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+        //
+        if (this.receiveStartsTimestampNanos == NOT_STARTED) {
+            throw new IllegalStateException("The method must follow a previous invocation of receiveStarts() method.");
+        }
+        final double receiveDuration = (receiveEndsTimestampNanos - this.receiveStartsTimestampNanos) / 1e9 - this.durationToSubtract;
+        if (this.durationCount == 0) {
+            this.windowStartTimestampNanos = this.receiveStartsTimestampNanos;
+            this.durationMin = receiveDuration;
+            this.durationMax = receiveDuration;
+        } else {
+            this.durationMin = Math.min(this.durationMin, receiveDuration);
+            this.durationMax = Math.max(this.durationMax, receiveDuration);
+        }
+        this.durationCount++;
+        this.durationSum += receiveDuration;
+        this.durationSumOfSquares += receiveDuration * receiveDuration;
+        this.durationHistogram.recordValue(receiveDuration);
+        if (sizeOfReceivedData != null) {
+            final double size = sizeOfReceivedData;
+            if (this.dataCount == 0) {
+                this.dataMin = size;
+                this.dataMax = size;
+            } else {
+                this.dataMin = Math.min(this.dataMin, size);
+                this.dataMax = Math.max(this.dataMax, size);
+            }
+            this.dataCount++;
+            this.dataSum += size;
+            this.dataSumOfSquares += size * size;
+        }
+        this.windowEndTimestampNanos = receiveEndsTimestampNanos;
+        // null the sensor
+        this.receiveStartsTimestampNanos = NOT_STARTED;
+        if ((receiveEndsTimestampNanos - this.windowStartTimestampNanos) / 1e9 >= this.windowDuration) {
+            this.flush();
+        }
+        return this.reportEnds((this.getMonitoredResourcesStrategy().getTimestampNanos() - receiveEndsTimestampNanos) / 1e9);
+    }
+
+    /**
+     * Should be invoked just after
+     * <code>JuniperProgram.transferData(...)</code> method.
+     *
+     * @return a duration of this method in seconds (an overhead of the method
+     * to be subtracted from surrounding measurements)
+     * @throws IllegalStateException if the method is invoked before
+     * <code>*Starts()</code> method
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    @Override
+    public double receiveEnds() throws IllegalStateException, IOException {
+        return this.receiveEnds(null);
+    }
+
+    private static void setSummaryValues(MetricRecord record, int metricId, long count, double sum, double min, double max, double sumOfSquares) {
+        record.setNumericValue(metricId + COUNT, count);
+        if (count == 0) {
+            record.clearValue(metricId + SUM);
+            record.clearValue(metricId + MIN);
+            record.clearValue(metricId + MAX);
+            record.clearValue(metricId + SUM_OF_SQUARES);
+        } else {
+            record.setNumericValue(metricId + SUM, sum);
+            record.setNumericValue(metricId + MIN, min);
+            record.setNumericValue(metricId + MAX, max);
+            record.setNumericValue(metricId + SUM_OF_SQUARES, sumOfSquares);
+        }
+    }
+
+    /**
+     * Send a summary record of the current window (if there were any
+     * transfers in the window) and start a new window. Should be invoked when
+     * the data connection is not utilized anymore (e.g., at the end of the
+     * program), otherwise the last window is not sent.
+     *
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.durationCount == 0) {
+            return;
+        }
+        final MetricRecord record = this.metricRecord;
+        record.setNumericValue(RECEIVER_GLOBAL_RANK, this.receiverGlobalRank);
+        record.setTextValue(CONNECTION_NAME, this.connectionName);
+        record.setNumericValue(WINDOW_START_TIMESTAMP, this.windowStartTimestampNanos / 1e9);
+        setSummaryValues(record, SEND_RECEIVE_DURATION, this.durationCount, this.durationSum, this.durationMin, this.durationMax, this.durationSumOfSquares);
+        record.setTextValue(SEND_RECEIVE_DURATION_HISTOGRAM, this.durationHistogram.encode());
+        setSummaryValues(record, RECEIVED_DATA, this.dataCount, this.dataSum, this.dataMin, this.dataMax, this.dataSumOfSquares);
+        record.setTimestampNanos(this.windowEndTimestampNanos);
+        record.setHostname(this.getMonitoredResourcesStrategy().getHostname());
+        // reset the accumulators before sending, so a failed sending does not repeat the window
+        this.durationCount = 0;
+        this.durationSum = 0;
+        this.durationSumOfSquares = 0;
+        this.durationHistogram.reset();
+        this.dataCount = 0;
+        this.dataSum = 0;
+        this.dataSumOfSquares = 0;
+        this.getMonitoringAgent().sendMetric(record);
+    }
+}
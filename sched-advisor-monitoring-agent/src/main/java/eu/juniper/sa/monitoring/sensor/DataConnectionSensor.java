@@ -28,9 +28,9 @@
 package eu.juniper.sa.monitoring.sensor;
 
 import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.agent.MetricRecord;
 import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
 import java.io.IOException;
-import java.util.Locale;
 
 /**
  * The class of a sensor for a data connection between Juniper programs. Methods
@@ -43,14 +43,38 @@ import java.util.Locale;
  * "SendReceiveDuration": duration_of_the_transfer,
  * "ReceivedData": size_of_transferred_data_in_bytes,
  * "AverageSpeedBytesPerSecond": average_speed_of_the_transfer_in_bytes_per_second }</code>.
+ * If a histogram window is set, the sensor also records the transfer durations
+ * into a <code>LatencyHistogram</code> and sends a "LatencyHistogram" record
+ * with "ReceiverGlobalRank", "WindowStartTimestamp",
+ * "SendReceiveDurationHistogram", and "ConnectionName" metrics per window.
  *
  * @author rychly
  */
 public class DataConnectionSensor extends AbstractSensor implements DataConnectionSensorInterface {
 
+    private static final String METRIC_TYPE = "SendReceive";
+    private static final String[] METRIC_NAMES = {
+        "ReceiverGlobalRank",
+        "ConnectionName",
+        "ReceiveStartTimestamp",
+        "SendReceiveDuration",
+        "ReceivedData",
+        "AverageSpeedBytesPerSecond"
+    };
+    // metric IDs, i.e., positions in METRIC_NAMES
+    private static final int RECEIVER_GLOBAL_RANK = 0;
+    private static final int CONNECTION_NAME = 1;
+    private static final int RECEIVE_START_TIMESTAMP = 2;
+    private static final int SEND_RECEIVE_DURATION = 3;
+    private static final int RECEIVED_DATA = 4;
+    private static final int AVERAGE_SPEED_BYTES_PER_SECOND = 5;
+
+    // the record is reused by all reports of the sensor
+    private final MetricRecord metricRecord = new MetricRecord(METRIC_TYPE, METRIC_NAMES);
     private final int receiverGlobalRank;
     private final String connectionName;
-    private Double receiveStartsTimestamp;
+    private final LatencyHistogramRecorder sendReceiveDurationHistogram;
+    private long receiveStartsTimestampNanos = NOT_STARTED;
 
     /**
      * Create a sensor that will utilize a given monitoring agent.
@@ -66,9 +90,32 @@ public class DataConnectionSensor extends AbstractSensor implements DataConnecti
      * <code>JuniperProgram.transferData(...)</code>)
      */
     public DataConnectionSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, int receiverGlobalRank, String connectionName) {
+        this(monitoringAgent, monitoredResourcesStrategy, receiverGlobalRank, connectionName, 0);
+    }
+
+    /**
+     * Create a sensor that will utilize a given monitoring agent and record
+     * histograms of the transfer durations in windows of a given duration.
+     *
+     * @param monitoringAgent a monitoring agent to be utilized by the sensor
+     * @param monitoredResourcesStrategy a monitored resources strategy to be
+     * utilized by the sensor
+     * @param receiverGlobalRank an MPI global rank of a receiving Juniper
+     * program of a monitored connection (value of
+     * <code>JuniperProgram.myGlobalRank</code>)
+     * @param connectionName a name of an incomming monitored connection of a
+     * Juniper program (value used in
+     * <code>JuniperProgram.transferData(...)</code>)
+     * @param histogramWindowDuration a duration of histogram windows in
+     * seconds (no histograms are recorded if it is not positive)
+     */
+    public DataConnectionSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, int receiverGlobalRank, String connectionName, double histogramWindowDuration) {
         super(monitoringAgent, monitoredResourcesStrategy);
         this.receiverGlobalRank = receiverGlobalRank;
         this.connectionName = connectionName;
+        this.sendReceiveDurationHistogram = (histogramWindowDuration > 0)
+                ? new LatencyHistogramRecorder(this, METRIC_NAMES[SEND_RECEIVE_DURATION], METRIC_NAMES[RECEIVER_GLOBAL_RANK], receiverGlobalRank, connectionName, histogramWindowDuration)
+                : null;
     }
 
     /**
@@ -78,7 +125,7 @@ public class DataConnectionSensor extends AbstractSensor implements DataConnecti
     @Override
     public void receiveStarts() {
         this.durationToSubtract = 0;
-        this.receiveStartsTimestamp = this.getMonitoredResourcesStrategy().getTimestamp();
+        this.receiveStartsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
     }
 
     /**
@@ -97,10 +144,15 @@ public class DataConnectionSensor extends AbstractSensor implements DataConnecti
     @Override
     public double receiveEnds(Double sizeOfReceivedData) throws IllegalStateException, IOException {
         // generate and send monitoring data
-        final double methodDuration = this.reportMonitoringData(sizeOfReceivedData);
+        double methodDuration = this.reportMonitoringData(sizeOfReceivedData);
+        if (this.sendReceiveDurationHistogram != null) {
+            final MetricRecord record = this.metricRecord;
+            this.sendReceiveDurationHistogram.recordValue(this.receiveStartsTimestampNanos, record.getTimestampNanos(), record.getNumericValue(SEND_RECEIVE_DURATION));
+            methodDuration = (this.getMonitoredResourcesStrategy().getTimestampNanos() - record.getTimestampNanos()) / 1e9;
+        }
         // null the sensor
-        this.receiveStartsTimestamp = null;
-        return methodDuration;
+        this.receiveStartsTimestampNanos = NOT_STARTED;
+        return this.reportEnds(methodDuration);
     }
 
     /**
@@ -120,29 +172,42 @@ public class DataConnectionSensor extends AbstractSensor implements DataConnecti
 
     private double reportMonitoringData(Double sizeOfReceivedData) throws IllegalStateException, IOException {
         // the end timestamp should be taken just after a program so it cannnot be affected by the measuring and reporting below
-        final double receiveEndsTimestamp = this.getMonitoredResourcesStrategy().getTimestamp();
+        final long receiveEndsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
         //
-        if (this.receiveStartsTimestamp == null) {
+        if (this.receiveStartsTimestampNanos == NOT_STARTED) {
             throw new IllegalStateException("The method must follow a previous invocation of receiveStarts() method.");
         }
-        final double receiveDuration = receiveEndsTimestamp - this.receiveStartsTimestamp - this.durationToSubtract;
-        final String[] metricNames = {
-            "ReceiverGlobalRank",
-            "ConnectionName",
-            "ReceiveStartTimestamp",
-            "SendReceiveDuration",
-            "ReceivedData",
-            "AverageSpeedBytesPerSecond"
-        };
-        final String[] metricValues = {
-            String.format(Locale.ROOT, "%d", this.receiverGlobalRank),
-            this.connectionName,
-            String.format(Locale.ROOT, "%f", this.receiveStartsTimestamp),
-            String.format(Locale.ROOT, "%f", receiveDuration),
-            (sizeOfReceivedData == null) ? null : String.format(Locale.ROOT, "%f", sizeOfReceivedData),
-            (sizeOfReceivedData == null) ? null : String.format(Locale.ROOT, "%f", sizeOfReceivedData / receiveDuration)
-        };
-        this.getMonitoringAgent().sendMetric("SendReceive", metricNames, metricValues, receiveEndsTimestamp, this.getMonitoredResourcesStrategy().getHostname());
-        return this.getMonitoredResourcesStrategy().getTimestamp() - receiveEndsTimestamp;
+        final double receiveDuration = (receiveEndsTimestampNanos - this.receiveStartsTimestampNanos) / 1e9 - this.durationToSubtract;
+        final MetricRecord record = this.metricRecord;
+        record.setNumericValue(RECEIVER_GLOBAL_RANK, this.receiverGlobalRank);
+        record.setTextValue(CONNECTION_NAME, this.connectionName);
+        record.setNumericValue(RECEIVE_START_TIMESTAMP, this.receiveStartsTimestampNanos / 1e9);
+        record.setNumericValue(SEND_RECEIVE_DURATION, receiveDuration);
+        if (sizeOfReceivedData == null) {
+            record.clearValue(RECEIVED_DATA);
+            record.clearValue(AVERAGE_SPEED_BYTES_PER_SECOND);
+        } else {
+            record.setNumericValue(RECEIVED_DATA, sizeOfReceivedData);
+            record.setNumericValue(AVERAGE_SPEED_BYTES_PER_SECOND, sizeOfReceivedData / receiveDuration);
+        }
+        record.setTimestampNanos(receiveEndsTimestampNanos);
+        record.setHostname(this.getMonitoredResourcesStrategy().getHostname());
+        this.getMonitoringAgent().sendMetric(record);
+        return (this.getMonitoredResourcesStrategy().getTimestampNanos() - receiveEndsTimestampNanos) / 1e9;
+    }
+
+    /**
+     * Send data pending in the sensor, if any (i.e., a histogram of transfer
+     * durations of an unfinished window). Should be invoked when the data
+     * connection is not utilized anymore (e.g., at the end of the program).
+     *
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.sendReceiveDurationHistogram != null) {
+            this.sendReceiveDurationHistogram.flush();
+        }
     }
 }
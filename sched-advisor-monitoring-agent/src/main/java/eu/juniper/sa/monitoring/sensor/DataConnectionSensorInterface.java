@@ -78,4 +78,14 @@ public interface DataConnectionSensorInterface {
      * duration
      */
     void subtract(double duration);
+
+    /**
+     * Send data pending in the sensor, if any (e.g., aggregated data of an
+     * unfinished window). Should be invoked when the data connection is not
+     * utilized anymore (e.g., at the end of the program).
+     *
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    void flush() throws IOException;
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+/**
+ * The class of a sampling policy which samples every N-th invocation of a
+ * program (starting with the first one). The sampled records are sent
+ * immediately.
+ *
+ * @author rychly
+ */
+public class EveryNthSamplingPolicy implements SamplingPolicyInterface {
+
+    private final long samplingInterval;
+    private long invocationsCount = 0;
+
+    /**
+     * Create a policy sampling every N-th invocation.
+     *
+     * @param samplingInterval the N, i.e., a number of invocations per a
+     * sampled invocation
+     */
+    public EveryNthSamplingPolicy(long samplingInterval) {
+        if (samplingInterval < 1) {
+            throw new IllegalArgumentException("The sampling interval has to be a positive number.");
+        }
+        this.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * Get a number of invocations per a sampled invocation.
+     *
+     * @return the number of invocations per a sampled invocation
+     */
+    public long getSamplingInterval() {
+        return this.samplingInterval;
+    }
+
+    @Override
+    public int getSlotsCount() {
+        return 1;
+    }
+
+    @Override
+    public int sample(long timestampNanos) {
+        return (this.invocationsCount++ % this.samplingInterval == 0) ? 0 : NOT_SAMPLED;
+    }
+
+    @Override
+    public void programEnds(double programDuration, double overhead) {
+        // NOP
+    }
+
+    @Override
+    public boolean isWindowEnded(long timestampNanos) {
+        return true;
+    }
+
+    @Override
+    public void startWindow(long timestampNanos) {
+        // NOP
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import eu.juniper.sa.monitoring.agent.MetricRecord;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * The class of a sensor for garbage collection pauses of a JVM. The pauses are
+ * recorded by a listener of garbage collection notifications which is
+ * subscribed once per JVM (by the first sensor) and which puts each pause into
+ * a lock-free buffer shared by all the sensors. Method <code>report()</code>
+ * takes the buffered pauses and produces metric records in the following
+ * format (all timestamps and durations are in seconds, sizes in bytes)
+ * <code>{ "Timestamp": timestamp_of_the_pause_report,
+ * "hostname": hostname_of_juniper_program_node, "type": "GcPause",
+ * "ProgramGlobalRank": global_rank_of_the_reporting_program,
+ * "GcId": sequence_number_of_the_collection_by_the_collector,
+ * "GcCollector": name_of_the_garbage_collector,
+ * "GcAction": action_of_the_garbage_collection,
+ * "GcCause": cause_of_the_garbage_collection,
+ * "GcStartTimestamp": timestamp_of_the_pause_start,
+ * "GcPauseDuration": duration_of_the_pause,
+ * "HeapBeforeGc": used_heap_memory_before_the_collection,
+ * "HeapAfterGc": used_heap_memory_after_the_collection }</code>.
+ * The notifications are available only in HotSpot-based JVMs; in other JVMs
+ * the sensor reports nothing (see <code>isSupported()</code>). If the buffer
+ * is full, the newest pauses are dropped and counted (see
+ * <code>getDroppedPausesCount()</code>).
+ *
+ * @author rychly
+ */
+public class GarbageCollectionPauseSensor extends AbstractSensor {
+
+    public static final String METRIC_TYPE = "GcPause";
+    private static final String[] METRIC_NAMES = {
+        "ProgramGlobalRank",
+        "GcId",
+        "GcCollector",
+        "GcAction",
+        "GcCause",
+        "GcStartTimestamp",
+        "GcPauseDuration",
+        "HeapBeforeGc",
+        "HeapAfterGc"
+    };
+    // metric IDs, i.e., positions in METRIC_NAMES
+    private static final int PROGRAM_GLOBAL_RANK = 0;
+    private static final int GC_ID = 1;
+    private static final int GC_COLLECTOR = 2;
+    private static final int GC_ACTION = 3;
+    private static final int GC_CAUSE = 4;
+    private static final int GC_START_TIMESTAMP = 5;
+    private static final int GC_PAUSE_DURATION = 6;
+    private static final int HEAP_BEFORE_GC = 7;
+    private static final int HEAP_AFTER_GC = 8;
+
+    /**
+     * A capacity of the buffer of the pauses (a power of two).
+     */
+    public static final int BUFFER_CAPACITY = 1024;
+
+    private static PauseListener pauseListener;
+    private static boolean pauseListenerInstalled = false;
+
+    // the record is reused by all reports of the sensor
+    private final MetricRecord metricRecord = new MetricRecord(METRIC_TYPE, METRIC_NAMES);
+    private final int programGlobalRank;
+    private final PauseListener listener;
+
+    /**
+     * The listener of garbage collection notifications and a bounded
+     * multi-producer multi-consumer buffer of the pauses. Each slot of the
+     * buffer has a sequence number which tells producers and consumers whether
+     * the slot is free or occupied, so the slots are claimed by a
+     * compare-and-set of the head or the tail and published by a store of the
+     * sequence number without any locking. The pauses are kept in arrays of
+     * primitive values and string references (names of collectors, actions,
+     * and causes are constants of the JVM).
+     */
+    private static final class PauseListener implements NotificationListener {
+
+        private final int mask = BUFFER_CAPACITY - 1;
+        private final AtomicLongArray sequences = new AtomicLongArray(BUFFER_CAPACITY);
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong droppedPauses = new AtomicLong();
+        private final long[] ids = new long[BUFFER_CAPACITY];
+        private final String[] collectors = new String[BUFFER_CAPACITY];
+        private final String[] actions = new String[BUFFER_CAPACITY];
+        private final String[] causes = new String[BUFFER_CAPACITY];
+        private final long[] startTimes = new long[BUFFER_CAPACITY];
+        private final long[] endTimes = new long[BUFFER_CAPACITY];
+        private final long[] heapsBefore = new long[BUFFER_CAPACITY];
+        private final long[] heapsAfter = new long[BUFFER_CAPACITY];
+        private final Set<String> heapPoolNames = new HashSet<>();
+        private final double jvmStartTimestamp = ManagementFactory.getRuntimeMXBean().getStartTime() / 1000D;
+
+        PauseListener() {
+            for (int i = 0; i < BUFFER_CAPACITY; i++) {
+                this.sequences.set(i, i);
+            }
+            for (MemoryPoolMXBean memoryPoolMXBean : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (memoryPoolMXBean.getType() == MemoryType.HEAP) {
+                    this.heapPoolNames.add(memoryPoolMXBean.getName());
+                }
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            final GarbageCollectionNotificationInfo info
+                    = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            final GcInfo gcInfo = info.getGcInfo();
+            // claim a slot
+            long position = this.tail.get();
+            int index;
+            while (true) {
+                index = (int) position & this.mask;
+                final long difference = this.sequences.get(index) - position;
+                if (difference == 0) {
+                    if (this.tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                    position = this.tail.get();
+                } else if (difference < 0) {
+                    // the buffer is full
+                    this.droppedPauses.incrementAndGet();
+                    return;
+                } else {
+                    position = this.tail.get();
+                }
+            }
+            this.ids[index] = gcInfo.getId();
+            this.collectors[index] = info.getGcName();
+            this.actions[index] = info.getGcAction();
+            this.causes[index] = info.getGcCause();
+            this.startTimes[index] = gcInfo.getStartTime();
+            this.endTimes[index] = gcInfo.getEndTime();
+            this.heapsBefore[index] = this.sumHeapPools(gcInfo.getMemoryUsageBeforeGc());
+            this.heapsAfter[index] = this.sumHeapPools(gcInfo.getMemoryUsageAfterGc());
+            // publish the slot
+            this.sequences.lazySet(index, position + 1);
+        }
+
+        private long sumHeapPools(Map<String, MemoryUsage> memoryUsages) {
+            long result = 0;
+            for (Map.Entry<String, MemoryUsage> memoryUsage : memoryUsages.entrySet()) {
+                if (this.heapPoolNames.contains(memoryUsage.getKey())) {
+                    result += memoryUsage.getValue().getUsed();
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Take the oldest pause from the buffer into a given record.
+         *
+         * @param record a record to set values of the pause
+         * @return <code>true</code> if a pause was taken, <code>false</code> if
+         * the buffer is empty
+         */
+        boolean poll(MetricRecord record) {
+            long position = this.head.get();
+            int index;
+            while (true) {
+                index = (int) position & this.mask;
+                final long difference = this.sequences.get(index) - (position + 1);
+                if (difference == 0) {
+                    if (this.head.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                    position = this.head.get();
+                } else if (difference < 0) {
+                    // the buffer is empty
+                    return false;
+                } else {
+                    position = this.head.get();
+                }
+            }
+            final double startTimestamp = this.jvmStartTimestamp + this.startTimes[index] / 1000D;
+            final double pauseDuration = (this.endTimes[index] - this.startTimes[index]) / 1000D;
+            record.setNumericValue(GC_ID, this.ids[index]);
+            record.setTextValue(GC_COLLECTOR, this.collectors[index]);
+            record.setTextValue(GC_ACTION, this.actions[index]);
+            record.setTextValue(GC_CAUSE, this.causes[index]);
+            record.setNumericValue(GC_START_TIMESTAMP, startTimestamp);
+            record.setNumericValue(GC_PAUSE_DURATION, pauseDuration);
+            record.setNumericValue(HEAP_BEFORE_GC, this.heapsBefore[index]);
+            record.setNumericValue(HEAP_AFTER_GC, this.heapsAfter[index]);
+            // release the slot for the producers
+            this.sequences.lazySet(index, position + BUFFER_CAPACITY);
+            return true;
+        }
+    }
+
+    /**
+     * Create a sensor that will utilize a given monitoring agent. The listener
+     * of garbage collection notifications is subscribed if it has not been
+     * subscribed yet.
+     *
+     * @param monitoringAgent a monitoring agent to be utilized by the sensor
+     * @param monitoredResourcesStrategy a monitored resources strategy to be
+     * utilized by the sensor
+     * @param programGlobalRank an MPI global rank of a Juniper program
+     * reporting the pauses (value of <code>JuniperProgram.myGlobalRank</code>)
+     */
+    public GarbageCollectionPauseSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, int programGlobalRank) {
+        super(monitoringAgent, monitoredResourcesStrategy);
+        this.programGlobalRank = programGlobalRank;
+        this.listener = installPauseListener();
+    }
+
+    private static synchronized PauseListener installPauseListener() {
+        if (!pauseListenerInstalled) {
+            pauseListenerInstalled = true;
+            try {
+                final PauseListener listener = new PauseListener();
+                boolean subscribed = false;
+                for (GarbageCollectorMXBean garbageCollectorMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    if (garbageCollectorMXBean instanceof NotificationEmitter) {
+                        ((NotificationEmitter) garbageCollectorMXBean).addNotificationListener(listener, null, null);
+                        subscribed = true;
+                    }
+                }
+                pauseListener = subscribed ? listener : null;
+            }
+            catch (NoClassDefFoundError ex) {
+                // com.sun.management is not available in the JVM
+                pauseListener = null;
+            }
+        }
+        return pauseListener;
+    }
+
+    /**
+     * Check if the garbage collection notifications are supported by the JVM
+     * and the listener of the notifications is subscribed.
+     *
+     * @return <code>true</code> if the pauses are recorded, <code>false</code>
+     * otherwise
+     */
+    public static boolean isSupported() {
+        return installPauseListener() != null;
+    }
+
+    /**
+     * Get the number of pauses that have been dropped as the buffer was full.
+     *
+     * @return the number of dropped pauses
+     */
+    public static long getDroppedPausesCount() {
+        final PauseListener listener = installPauseListener();
+        return (listener == null) ? 0 : listener.droppedPauses.get();
+    }
+
+    /**
+     * Send records of all pauses in the buffer. The pauses are taken from the
+     * buffer, so each pause is reported just once even if there are more
+     * sensors in the JVM.
+     *
+     * @return a duration of this method in seconds (an overhead of the method
+     * to be subtracted from surrounding measurements)
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    public double report() throws IOException {
+        final PauseListener listener = this.listener;
+        if (listener == null) {
+            return 0;
+        }
+        final long reportStartsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+        final MetricRecord record = this.metricRecord;
+        while (listener.poll(record)) {
+            // the pause times have a resolution of milliseconds, so the record is stamped by the clock to be unique
+            record.setTimestampNanos(this.getMonitoredResourcesStrategy().getTimestampNanos());
+            record.setNumericValue(PROGRAM_GLOBAL_RANK, this.programGlobalRank);
+            record.setHostname(this.getMonitoredResourcesStrategy().getHostname());
+            this.getMonitoringAgent().sendMetric(record);
+        }
+        return (this.getMonitoredResourcesStrategy().getTimestampNanos() - reportStartsTimestampNanos) / 1e9;
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+import java.util.Arrays;
+
+/**
+ * The class of a histogram of latencies (durations in seconds) with
+ * logarithmic buckets in the style of HdrHistogram. Durations are counted in
+ * microseconds, the first <code>SUB_BUCKET_COUNT</code> buckets are linear
+ * (one microsecond each) and each next power of two is split into
+ * <code>SUB_BUCKET_COUNT / 2</code> buckets, so a value of a percentile is
+ * reported with a relative error of at most 1/64 (from 1 microsecond up to
+ * about a year). The counts are kept in a primitive array, so recording a value
+ * does not allocate any objects. The histogram can be merged with other
+ * histograms (e.g., of other ranks or time windows) and encoded into a compact
+ * text representation to be sent as a metric value.
+ *
+ * @author rychly
+ */
+public class LatencyHistogram {
+
+    /**
+     * Suffix of a metric with an encoded histogram of values of a metric
+     * named by the prefix (e.g., "ProgramDurationHistogram" for
+     * "ProgramDuration").
+     */
+    public static final String METRIC_NAME_SUFFIX = "Histogram";
+    /**
+     * Unit of recorded values in seconds (one microsecond).
+     */
+    public static final double UNIT = 1e-6;
+    /**
+     * Number of linear buckets for the smallest values, i.e., precision of the
+     * histogram in binary digits.
+     */
+    public static final int SUB_BUCKET_BITS = 6;
+    /**
+     * Number of buckets in a power of two of values (the first power of two
+     * has twice more buckets).
+     */
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    // the maximal value is 2^MAX_MAGNITUDE - 1 units
+    private static final int MAX_MAGNITUDE = 45;
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+    /**
+     * Number of buckets of the histogram.
+     */
+    public static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_MAGNITUDE - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+
+    /**
+     * Get an index of a bucket for a given value in units.
+     *
+     * @param value the value in units
+     * @return the index of the bucket
+     */
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // shift the value so it fits into the upper half of sub-buckets
+        final int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (int) (value >> shift) - SUB_BUCKET_HALF_COUNT;
+    }
+
+    /**
+     * Get the lowest value in units of a bucket of a given index.
+     *
+     * @param index the index of the bucket
+     * @return the lowest value in units of the bucket
+     */
+    static long getBucketLowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return subBucket << shift;
+    }
+
+    /**
+     * Get the width in units of a bucket of a given index.
+     *
+     * @param index the index of the bucket
+     * @return the width in units of the bucket
+     */
+    static long getBucketWidth(int index) {
+        return (index < SUB_BUCKET_COUNT) ? 1 : 1L << ((index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1);
+    }
+
+    /**
+     * Get an index of a bucket for a given value in seconds (negative values
+     * are in the bucket of zero and too large values in the bucket of the
+     * maximal value). It allows to count the values in other structures than
+     * the histogram, e.g., in atomic counters shared by concurrent threads.
+     *
+     * @param seconds the value in seconds (not NaN)
+     * @return the index of the bucket
+     */
+    public static int getBucketIndexOfValue(double seconds) {
+        return getBucketIndex((seconds <= 0) ? 0 : Math.min((long) (seconds / UNIT), MAX_VALUE));
+    }
+
+    /**
+     * Record a given value (negative values are recorded as zero, too large
+     * values as the maximal value, and NaN is ignored).
+     *
+     * @param seconds the value in seconds
+     */
+    public void recordValue(double seconds) {
+        if (Double.isNaN(seconds)) {
+            return;
+        }
+        this.counts[getBucketIndexOfValue(seconds)]++;
+        this.totalCount++;
+    }
+
+    /**
+     * Add a given count of values to a bucket of a given index (see
+     * <code>getBucketIndexOfValue(double)</code>).
+     *
+     * @param index the index of the bucket
+     * @param count the count of values to add
+     * @return this histogram
+     */
+    public LatencyHistogram addBucketCount(int index, long count) {
+        this.counts[index] += count;
+        this.totalCount += count;
+        return this;
+    }
+
+    /**
+     * Add counts of another histogram to this histogram.
+     *
+     * @param other the other histogram
+     * @return this histogram
+     */
+    public LatencyHistogram add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.totalCount += other.totalCount;
+        return this;
+    }
+
+    /**
+     * Remove all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.totalCount = 0;
+    }
+
+    /**
+     * Get a number of recorded values.
+     *
+     * @return the number of recorded values
+     */
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * Check if there are no recorded values.
+     *
+     * @return true if there are no recorded values, false otherwise
+     */
+    public boolean isEmpty() {
+        return this.totalCount == 0;
+    }
+
+    /**
+     * Get a value at a given percentile of the recorded values, i.e., a middle
+     * of a bucket containing the value of the given rank.
+     *
+     * @param percentile the percentile in range 0 to 100
+     * @return the value in seconds at the percentile or NaN if there are no
+     * recorded values
+     */
+    public double getValueAtPercentile(double percentile) {
+        if (this.totalCount == 0) {
+            return Double.NaN;
+        }
+        final double fraction = Math.min(Math.max(percentile, 0), 100) / 100;
+        final long rank = Math.max(1, (long) Math.ceil(fraction * this.totalCount));
+        long cumulativeCount = 0;
+        int index = 0;
+        for (; index < BUCKET_COUNT - 1; index++) {
+            cumulativeCount += this.counts[index];
+            if (cumulativeCount >= rank) {
+                break;
+            }
+        }
+        return (getBucketLowestValue(index) + (getBucketWidth(index) - 1) / 2D) * UNIT;
+    }
+
+    /**
+     * Encode the histogram into a compact text representation. The
+     * representation is a comma-separated list of non-empty buckets, each of
+     * them as <code>gap:count</code> where the gap is a difference of the
+     * bucket index and the index of the previous non-empty bucket (the first
+     * gap is the index itself).
+     *
+     * @return the text representation of the histogram
+     */
+    public String encode() {
+        final StringBuilder stringBuilder = new StringBuilder();
+        int previousIndex = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (this.counts[i] != 0) {
+                if (stringBuilder.length() > 0) {
+                    stringBuilder.append(',');
+                }
+                stringBuilder.append(i - previousIndex).append(':').append(this.counts[i]);
+                previousIndex = i;
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Decode a given text representation produced by <code>encode()</code>
+     * method and add its counts to this histogram.
+     *
+     * @param encodedHistogram the text representation of a histogram
+     * @return this histogram
+     * @throws IllegalArgumentException if the text representation is malformed
+     */
+    public LatencyHistogram addEncoded(String encodedHistogram) throws IllegalArgumentException {
+        if (encodedHistogram.isEmpty()) {
+            return this;
+        }
+        int index = 0;
+        try {
+            for (String bucket : encodedHistogram.split(",")) {
+                final int separator = bucket.indexOf(':');
+                index += Integer.parseInt(bucket.substring(0, separator));
+                final long count = Long.parseLong(bucket.substring(separator + 1));
+                this.counts[index] += count;
+                this.totalCount += count;
+            }
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Malformed histogram '" + encodedHistogram + "'.", ex);
+        }
+        return this;
+    }
+
+    /**
+     * Create a histogram from a given text representation produced by
+     * <code>encode()</code> method.
+     *
+     * @param encodedHistogram the text representation of a histogram
+     * @return the histogram
+     * @throws IllegalArgumentException if the text representation is malformed
+     */
+    public static LatencyHistogram decode(String encodedHistogram) throws IllegalArgumentException {
+        return new LatencyHistogram().addEncoded(encodedHistogram);
+    }
+}
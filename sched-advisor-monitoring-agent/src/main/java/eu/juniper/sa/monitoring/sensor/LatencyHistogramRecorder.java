@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+import eu.juniper.sa.monitoring.agent.MetricRecord;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import java.io.IOException;
+
+/**
+ * The class of a recorder of values of a metric of a sensor into a
+ * <code>LatencyHistogram</code> per time window. The recorder produces a
+ * metric record per window (the window ends by the first value ending after
+ * the window duration or by <code>flush()</code> method) in the following
+ * format (all timestamps are in seconds) <code>{ "Timestamp":
+ * timestamp_of_the_last_value_end, "hostname": hostname_of_juniper_program_node,
+ * "type": "LatencyHistogram", "&lt;rank-metric&gt;": global_rank_of_the_program,
+ * "ConnectionName": name_of_connection (for data connections only),
+ * "WindowStartTimestamp": timestamp_of_the_first_value_start,
+ * "&lt;metric&gt;Histogram": encoded_histogram_of_the_values }</code>.
+ *
+ * @author rychly
+ */
+class LatencyHistogramRecorder {
+
+    /**
+     * Type of histogram records.
+     */
+    static final String METRIC_TYPE = "LatencyHistogram";
+    // metric IDs, i.e., positions in metric names
+    private static final int GLOBAL_RANK = 0;
+    private static final int WINDOW_START_TIMESTAMP = 1;
+    private static final int HISTOGRAM = 2;
+    private static final int CONNECTION_NAME = 3;
+
+    private final MonitoringAgentInterface monitoringAgent;
+    private final MonitoredResourcesStrategyInterface monitoredResourcesStrategy;
+    private final MetricRecord metricRecord;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final double windowDuration;
+    private long windowStartTimestampNanos;
+    private long windowEndTimestampNanos;
+
+    /**
+     * Create a recorder for a given sensor.
+     *
+     * @param sensor a sensor whose monitoring agent and monitored resources
+     * strategy will be utilized by the recorder
+     * @param metricName a name of the metric whose values will be recorded
+     * @param rankMetricName a name of the metric with a global rank of the
+     * program
+     * @param globalRank the global rank of the program
+     * @param connectionName a name of a data connection or null if the values
+     * are not of a data connection
+     * @param windowDuration a duration of windows in seconds
+     */
+    LatencyHistogramRecorder(AbstractSensor sensor, String metricName, String rankMetricName, int globalRank, String connectionName, double windowDuration) {
+        this.monitoringAgent = sensor.getMonitoringAgent();
+        this.monitoredResourcesStrategy = sensor.getMonitoredResourcesStrategy();
+        this.metricRecord = (connectionName == null)
+                ? new MetricRecord(METRIC_TYPE, rankMetricName, "WindowStartTimestamp", metricName + LatencyHistogram.METRIC_NAME_SUFFIX)
+                : new MetricRecord(METRIC_TYPE, rankMetricName, "WindowStartTimestamp", metricName + LatencyHistogram.METRIC_NAME_SUFFIX, "ConnectionName");
+        this.metricRecord.setNumericValue(GLOBAL_RANK, globalRank);
+        if (connectionName != null) {
+            this.metricRecord.setTextValue(CONNECTION_NAME, connectionName);
+        }
+        this.windowDuration = windowDuration;
+    }
+
+    /**
+     * Record a value of the metric and send the histogram record if the
+     * current window has elapsed.
+     *
+     * @param startTimestampNanos a timestamp in nanoseconds when the
+     * measurement of the value started
+     * @param endTimestampNanos a timestamp in nanoseconds when the measurement
+     * of the value ended
+     * @param value the value of the metric in seconds
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    void recordValue(long startTimestampNanos, long endTimestampNanos, double value) throws IOException {
+        if (this.histogram.isEmpty()) {
+            this.windowStartTimestampNanos = startTimestampNanos;
+        }
+        this.histogram.recordValue(value);
+        this.windowEndTimestampNanos = endTimestampNanos;
+        if ((endTimestampNanos - this.windowStartTimestampNanos) / 1e9 >= this.windowDuration) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Send the histogram record of the current window (if there were any
+     * values in the window) and start a new window.
+     *
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    void flush() throws IOException {
+        if (this.histogram.isEmpty()) {
+            return;
+        }
+        final MetricRecord record = this.metricRecord;
+        record.setNumericValue(WINDOW_START_TIMESTAMP, this.windowStartTimestampNanos / 1e9);
+        record.setTextValue(HISTOGRAM, this.histogram.encode());
+        record.setTimestampNanos(this.windowEndTimestampNanos);
+        record.setHostname(this.monitoredResourcesStrategy.getHostname());
+        // reset the histogram before sending, so a failed sending does not repeat the window
+        this.histogram.reset();
+        this.monitoringAgent.sendMetric(record);
+    }
+}
@@ -132,4 +132,13 @@ public class NullSensor extends AbstractSensor implements DataConnectionSensorIn
     public double getCurrentDuration() {
         return 0D;
     }
+
+    /**
+     * Send data pending in the sensor, if any. The null sensor does not send
+     * any data.
+     */
+    @Override
+    public void flush() {
+        // NOP
+    }
 }
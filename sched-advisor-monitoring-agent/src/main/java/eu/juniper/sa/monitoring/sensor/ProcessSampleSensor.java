@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+import eu.juniper.sa.monitoring.agent.MetricRecord;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.resources.ProcFileReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The class of a sensor sampling resources of the JVM process from the /proc
+ * filesystem at a fixed rate by a background sampler thread. It reads
+ * /proc/self/stat, /proc/self/status, /proc/self/io, and /proc/loadavg by
+ * <code>ProcFileReader</code> (without allocation of any objects) and produces
+ * metric records in the following format (CPU times are in seconds, sizes in
+ * bytes, other values are counts since the process start)
+ * <code>{ "Timestamp": timestamp_of_the_sample,
+ * "hostname": hostname_of_juniper_program_node, "type": "ProcessSample",
+ * "ProcessID": pid_of_the_jvm_process,
+ * "ProcessUserCpuTime": cpu_time_in_user_mode,
+ * "ProcessSystemCpuTime": cpu_time_in_kernel_mode,
+ * "ProcessThreads": number_of_threads,
+ * "ProcessMinorFaults": number_of_minor_page_faults,
+ * "ProcessMajorFaults": number_of_major_page_faults,
+ * "ProcessVirtualMemory": size_of_virtual_memory,
+ * "ProcessResidentMemory": size_of_resident_memory,
+ * "VoluntaryContextSwitches": number_of_voluntary_context_switches,
+ * "NonvoluntaryContextSwitches": number_of_involuntary_context_switches,
+ * "IoReadChars": bytes_read_by_read_syscalls,
+ * "IoWriteChars": bytes_written_by_write_syscalls,
+ * "IoReadBytes": bytes_read_from_storage,
+ * "IoWriteBytes": bytes_written_to_storage,
+ * "LoadAverage1": system_load_average_over_1_minute,
+ * "LoadAverage5": system_load_average_over_5_minutes,
+ * "LoadAverage15": system_load_average_over_15_minutes }</code>.
+ * Values of files which cannot be read (e.g., /proc/self/io without a
+ * permission) are omitted. The records are sent by the sampler thread, so the
+ * monitoring agent has to be usable by concurrent threads (e.g., an
+ * asynchronous or striped agent). The sensor works on Linux only (see
+ * <code>isSupported()</code>).
+ *
+ * @author rychly
+ */
+public class ProcessSampleSensor extends AbstractSensor implements AutoCloseable {
+
+    public static final String METRIC_TYPE = "ProcessSample";
+    private static final String[] METRIC_NAMES = {
+        "ProcessID",
+        "ProcessUserCpuTime",
+        "ProcessSystemCpuTime",
+        "ProcessThreads",
+        "ProcessMinorFaults",
+        "ProcessMajorFaults",
+        "ProcessVirtualMemory",
+        "ProcessResidentMemory",
+        "VoluntaryContextSwitches",
+        "NonvoluntaryContextSwitches",
+        "IoReadChars",
+        "IoWriteChars",
+        "IoReadBytes",
+        "IoWriteBytes",
+        "LoadAverage1",
+        "LoadAverage5",
+        "LoadAverage15"
+    };
+    // metric IDs, i.e., positions in METRIC_NAMES
+    private static final int PROCESS_ID = 0;
+    private static final int PROCESS_USER_CPU_TIME = 1;
+    private static final int PROCESS_SYSTEM_CPU_TIME = 2;
+    private static final int PROCESS_THREADS = 3;
+    private static final int PROCESS_MINOR_FAULTS = 4;
+    private static final int PROCESS_MAJOR_FAULTS = 5;
+    private static final int PROCESS_VIRTUAL_MEMORY = 6;
+    private static final int PROCESS_RESIDENT_MEMORY = 7;
+    private static final int VOLUNTARY_CONTEXT_SWITCHES = 8;
+    private static final int NONVOLUNTARY_CONTEXT_SWITCHES = 9;
+    private static final int IO_READ_CHARS = 10;
+    private static final int IO_WRITE_CHARS = 11;
+    private static final int IO_READ_BYTES = 12;
+    private static final int IO_WRITE_BYTES = 13;
+    private static final int LOAD_AVERAGE_1 = 14;
+    private static final int LOAD_AVERAGE_5 = 15;
+    private static final int LOAD_AVERAGE_15 = 16;
+
+    // fields of /proc/self/stat counted from the state field (field 3 in proc(5)) after the command name
+    private static final int STAT_FIELD_MINFLT = 10 - 3;
+    private static final int STAT_FIELD_MAJFLT = 12 - 3;
+    private static final int STAT_FIELD_UTIME = 14 - 3;
+    private static final int STAT_FIELD_STIME = 15 - 3;
+    private static final int STAT_FIELD_NUM_THREADS = 20 - 3;
+    private static final int STAT_FIELD_VSIZE = 23 - 3;
+    // we expect _SC_CLK_TCK to be 100 on linux systems
+    private static final double SECONDS_PER_CLOCK_TICK = 1 / 100D;
+
+    private static final byte[] KEY_VM_RSS = ProcFileReader.toKey("VmRSS:");
+    private static final byte[] KEY_VOLUNTARY_CTXT_SWITCHES = ProcFileReader.toKey("voluntary_ctxt_switches:");
+    private static final byte[] KEY_NONVOLUNTARY_CTXT_SWITCHES = ProcFileReader.toKey("nonvoluntary_ctxt_switches:");
+    private static final byte[] KEY_RCHAR = ProcFileReader.toKey("rchar:");
+    private static final byte[] KEY_WCHAR = ProcFileReader.toKey("wchar:");
+    private static final byte[] KEY_READ_BYTES = ProcFileReader.toKey("read_bytes:");
+    private static final byte[] KEY_WRITE_BYTES = ProcFileReader.toKey("write_bytes:");
+
+    /**
+     * Default period of the sampling in seconds.
+     */
+    public static final double DEFAULT_SAMPLING_PERIOD = 1;
+
+    // the record is reused by all samples of the sensor
+    private final MetricRecord metricRecord = new MetricRecord(METRIC_TYPE, METRIC_NAMES);
+    private final long samplingPeriodNanos;
+    private final ProcFileReader statReader;
+    private final ProcFileReader statusReader;
+    private final ProcFileReader ioReader;
+    private final ProcFileReader loadavgReader;
+    private final Thread samplerThread;
+    private volatile boolean stopped = false;
+
+    /**
+     * Create a sensor that will utilize a given monitoring agent and sample
+     * the resources with a given period. The sampler thread is not started
+     * until <code>start()</code> is called.
+     *
+     * @param monitoringAgent a monitoring agent to be utilized by the sensor
+     * (usable by concurrent threads)
+     * @param monitoredResourcesStrategy a monitored resources strategy to be
+     * utilized by the sensor
+     * @param samplingPeriod a period of the sampling in seconds
+     */
+    public ProcessSampleSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, double samplingPeriod) {
+        super(monitoringAgent, monitoredResourcesStrategy);
+        if (!(samplingPeriod > 0)) {
+            throw new IllegalArgumentException("The sampling period has to be a positive number.");
+        }
+        this.samplingPeriodNanos = (long) (samplingPeriod * 1e9);
+        this.statReader = ProcFileReader.openIfReadable("/proc/self/stat");
+        this.statusReader = ProcFileReader.openIfReadable("/proc/self/status");
+        this.ioReader = ProcFileReader.openIfReadable("/proc/self/io");
+        this.loadavgReader = ProcFileReader.openIfReadable("/proc/loadavg");
+        try {
+            this.metricRecord.setNumericValue(PROCESS_ID, monitoredResourcesStrategy.getProcessID());
+        }
+        catch (UnsupportedOperationException ex) {
+            // NOP, the process ID is omitted
+        }
+        this.samplerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sampleLoop();
+            }
+        }, this.getClass().getSimpleName() + "-sampler");
+        this.samplerThread.setDaemon(true);
+    }
+
+    /**
+     * Check if the /proc filesystem of the process is available.
+     *
+     * @return <code>true</code> if the resources can be sampled,
+     * <code>false</code> otherwise
+     */
+    public static boolean isSupported() {
+        return new File("/proc/self/stat").canRead();
+    }
+
+    /**
+     * Start the sampler thread which takes a sample at the beginning of each
+     * sampling period (the periods missed by a late sample are skipped).
+     *
+     * @return this sensor
+     */
+    public ProcessSampleSensor start() {
+        this.samplerThread.start();
+        return this;
+    }
+
+    private void sampleLoop() {
+        long deadline = System.nanoTime();
+        while (!this.stopped) {
+            try {
+                this.sample();
+            }
+            catch (IOException | RuntimeException ex) {
+                // NOP, the next sample will be sent
+            }
+            deadline += this.samplingPeriodNanos;
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                // the missed periods are skipped, the next sample is at the beginning of the next period
+                final long missedPeriods = -remaining / this.samplingPeriodNanos + 1;
+                deadline += missedPeriods * this.samplingPeriodNanos;
+                remaining = deadline - System.nanoTime();
+            }
+            while ((remaining > 0) && !this.stopped) {
+                LockSupport.parkNanos(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Read the resources and send a sample record. The method is invoked by
+     * the sampler thread and it should not be invoked by other threads while
+     * the sampler thread is running.
+     *
+     * @return a duration of this method in seconds (an overhead of the method)
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    public double sample() throws IOException {
+        final long sampleStartsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+        final MetricRecord record = this.metricRecord;
+        if ((this.statReader != null) && this.statReader.read()) {
+            // the command name may contain blanks, so the fields are counted after its closing parenthesis
+            final int state = this.statReader.indexAfterLast((byte) ')');
+            setTicks(record, PROCESS_USER_CPU_TIME, this.statReader.parseLong(this.statReader.indexOfField(state, STAT_FIELD_UTIME)));
+            setTicks(record, PROCESS_SYSTEM_CPU_TIME, this.statReader.parseLong(this.statReader.indexOfField(state, STAT_FIELD_STIME)));
+            setCount(record, PROCESS_THREADS, this.statReader.parseLong(this.statReader.indexOfField(state, STAT_FIELD_NUM_THREADS)));
+            setCount(record, PROCESS_MINOR_FAULTS, this.statReader.parseLong(this.statReader.indexOfField(state, STAT_FIELD_MINFLT)));
+            setCount(record, PROCESS_MAJOR_FAULTS, this.statReader.parseLong(this.statReader.indexOfField(state, STAT_FIELD_MAJFLT)));
+            setCount(record, PROCESS_VIRTUAL_MEMORY, this.statReader.parseLong(this.statReader.indexOfField(state, STAT_FIELD_VSIZE)));
+        } else {
+            clearValues(record, PROCESS_USER_CPU_TIME, PROCESS_VIRTUAL_MEMORY);
+        }
+        if ((this.statusReader != null) && this.statusReader.read()) {
+            setCount(record, PROCESS_RESIDENT_MEMORY, this.statusReader.getLongValue(KEY_VM_RSS));
+            setCount(record, VOLUNTARY_CONTEXT_SWITCHES, this.statusReader.getLongValue(KEY_VOLUNTARY_CTXT_SWITCHES));
+            setCount(record, NONVOLUNTARY_CONTEXT_SWITCHES, this.statusReader.getLongValue(KEY_NONVOLUNTARY_CTXT_SWITCHES));
+        } else {
+            clearValues(record, PROCESS_RESIDENT_MEMORY, NONVOLUNTARY_CONTEXT_SWITCHES);
+        }
+        if ((this.ioReader != null) && this.ioReader.read()) {
+            setCount(record, IO_READ_CHARS, this.ioReader.getLongValue(KEY_RCHAR));
+            setCount(record, IO_WRITE_CHARS, this.ioReader.getLongValue(KEY_WCHAR));
+            setCount(record, IO_READ_BYTES, this.ioReader.getLongValue(KEY_READ_BYTES));
+            setCount(record, IO_WRITE_BYTES, this.ioReader.getLongValue(KEY_WRITE_BYTES));
+        } else {
+            clearValues(record, IO_READ_CHARS, IO_WRITE_BYTES);
+        }
+        if ((this.loadavgReader != null) && this.loadavgReader.read()) {
+            setDecimal(record, LOAD_AVERAGE_1, this.loadavgReader.parseDecimal(this.loadavgReader.indexOfField(0, 0)));
+            setDecimal(record, LOAD_AVERAGE_5, this.loadavgReader.parseDecimal(this.loadavgReader.indexOfField(0, 1)));
+            setDecimal(record, LOAD_AVERAGE_15, this.loadavgReader.parseDecimal(this.loadavgReader.indexOfField(0, 2)));
+        } else {
+            clearValues(record, LOAD_AVERAGE_1, LOAD_AVERAGE_15);
+        }
+        record.setTimestampNanos(sampleStartsTimestampNanos);
+        record.setHostname(this.getMonitoredResourcesStrategy().getHostname());
+        this.getMonitoringAgent().sendMetric(record);
+        return this.reportEnds((this.getMonitoredResourcesStrategy().getTimestampNanos() - sampleStartsTimestampNanos) / 1e9);
+    }
+
+    private static void setCount(MetricRecord record, int metricId, long value) {
+        if (value < 0) {
+            record.clearValue(metricId);
+        } else {
+            record.setNumericValue(metricId, value);
+        }
+    }
+
+    private static void setTicks(MetricRecord record, int metricId, long ticks) {
+        if (ticks < 0) {
+            record.clearValue(metricId);
+        } else {
+            record.setNumericValue(metricId, ticks * SECONDS_PER_CLOCK_TICK);
+        }
+    }
+
+    private static void setDecimal(MetricRecord record, int metricId, double value) {
+        if (Double.isNaN(value)) {
+            record.clearValue(metricId);
+        } else {
+            record.setNumericValue(metricId, value);
+        }
+    }
+
+    private static void clearValues(MetricRecord record, int firstMetricId, int lastMetricId) {
+        for (int i = firstMetricId; i <= lastMetricId; i++) {
+            record.clearValue(i);
+        }
+    }
+
+    /**
+     * Get a period of the sampling in seconds.
+     *
+     * @return the period of the sampling in seconds
+     */
+    public double getSamplingPeriod() {
+        return this.samplingPeriodNanos / 1e9;
+    }
+
+    /**
+     * Stop the sampler thread (if it has been started) and close the files of
+     * the /proc filesystem. If the closing thread is interrupted while waiting
+     * for the sampler thread to stop, the waiting continues and the interrupt
+     * is restored afterwards.
+     *
+     * @throws IOException if the files cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.stopped = true;
+        boolean interrupted = false;
+        while (this.samplerThread.isAlive()) {
+            LockSupport.unpark(this.samplerThread);
+            try {
+                this.samplerThread.join();
+            }
+            catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        try {
+            for (ProcFileReader reader : new ProcFileReader[]{this.statReader, this.statusReader, this.ioReader, this.loadavgReader}) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -28,9 +28,9 @@
 package eu.juniper.sa.monitoring.sensor;
 
 import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.agent.MetricRecord;
 import eu.juniper.sa.monitoring.agent.MonitoringAgentInterface;
 import java.io.IOException;
-import java.util.Locale;
 
 /**
  * The class of a sensor for a Juniper program instance. Methods of the class
@@ -51,20 +51,132 @@ import java.util.Locale;
  * "MaxNonHeapMemory": limit_for_non_heap_memory_in_the_program,
  * "StartSwapSpaceSize": used_size_of_used_swap_when_the_program_started,
  * "UsedSwapSpaceSize": used_size_of_used_swap_when_the_program_finished,
- * "MaxSwapSpaceSize": limit_for_size_of_swap_space }</code>.
+ * "MaxSwapSpaceSize": limit_for_size_of_swap_space,
+ * "ProgramThreadCpuTime": cpu_time_used_by_the_program_thread,
+ * "ProgramThreadUserTime": user_mode_cpu_time_used_by_the_program_thread,
+ * "ProgramAllocatedBytes": heap_memory_allocated_by_the_program_thread,
+ * "CpuThrottledCount": number_of_periods_throttled_by_cfs_bandwidth_control,
+ * "CpuThrottledTime": time_throttled_by_cfs_bandwidth_control,
+ * "SampleWeight": number_of_invocations_represented_by_the_record }</code>.
+ * The thread metrics are measured for the thread which invoked
+ * <code>programStarts()</code> and they are not affected by other threads or
+ * by garbage collections (unlike the process CPU time and the heap memory),
+ * so they can be used to rank programs by their allocation rates.
+ * The throttling metrics are measured for the control group of the JVM process
+ * and they are sent only if the monitored resources strategy provides them
+ * (see <code>MonitoredResourcesCgroupStrategy</code>).
+ * If a histogram window is set, the sensor also records the program durations
+ * into a <code>LatencyHistogram</code> and sends a "LatencyHistogram" record
+ * with "ProgramGlobalRank", "WindowStartTimestamp", and
+ * "ProgramDurationHistogram" metrics per window.
+ * If a sampling policy is set, only the invocations of the program sampled by
+ * the policy are measured in full (see <code>SamplingPolicyInterface</code>)
+ * and the other invocations are just timed. Each record then represents
+ * "SampleWeight" invocations, i.e., the sampled invocation and its share of
+ * the invocations which have not been sampled since the previous records, so
+ * sums of "ProgramDuration" and "SampleWeight" are the exact total duration
+ * and count of the invocations. The other additive metrics (the garbage
+ * collections, CPU times, allocated bytes, and throttling) of the sampled
+ * invocation are multiplied by "SampleWeight" to estimate the totals and the
+ * memory metrics are not reweighted. Invocations which have not been sampled
+ * before <code>flush()</code> are sent in a record with "ProgramGlobalRank",
+ * "ProgramStartTimestamp", "ProgramDuration", and "SampleWeight" metrics
+ * only. The histograms of the program durations include all invocations.
+ * If garbage collection pauses are reported, the sensor also sends "GcPause"
+ * records of all pauses in the JVM that have ended before each report of the
+ * program (see <code>GarbageCollectionPauseSensor</code>).
  *
  * @author rychly
  */
 public class ProgramInstanceSensor extends AbstractSensor implements ProgramInstanceSensorInterface {
 
+    private static final String METRIC_TYPE = "ProgramRuntime";
+    private static final String[] METRIC_NAMES = {
+        "ProgramGlobalRank",
+        "ProgramStartTimestamp",
+        "ProgramDuration",
+        "GarbageCollectionCount",
+        "GarbageCollectionTime",
+        "ProgramCpuTime",
+        "StartHeapMemory",
+        "UsedHeapMemory",
+        "MaxHeapMemory",
+        "StartNonHeapMemory",
+        "UsedNonHeapMemory",
+        "MaxNonHeapMemory",
+        "StartSwapSpaceSize",
+        "UsedSwapSpaceSize",
+        "MaxSwapSpaceSize",
+        "ProgramThreadCpuTime",
+        "ProgramThreadUserTime",
+        "ProgramAllocatedBytes",
+        "CpuThrottledCount",
+        "CpuThrottledTime",
+        "SampleWeight"
+    };
+    // metric IDs, i.e., positions in METRIC_NAMES
+    private static final int PROGRAM_GLOBAL_RANK = 0;
+    private static final int PROGRAM_START_TIMESTAMP = 1;
+    private static final int PROGRAM_DURATION = 2;
+    private static final int GARBAGE_COLLECTION_COUNT = 3;
+    private static final int GARBAGE_COLLECTION_TIME = 4;
+    private static final int PROGRAM_CPU_TIME = 5;
+    private static final int START_HEAP_MEMORY = 6;
+    private static final int USED_HEAP_MEMORY = 7;
+    private static final int MAX_HEAP_MEMORY = 8;
+    private static final int START_NON_HEAP_MEMORY = 9;
+    private static final int USED_NON_HEAP_MEMORY = 10;
+    private static final int MAX_NON_HEAP_MEMORY = 11;
+    private static final int START_SWAP_SPACE_SIZE = 12;
+    private static final int USED_SWAP_SPACE_SIZE = 13;
+    private static final int MAX_SWAP_SPACE_SIZE = 14;
+    private static final int PROGRAM_THREAD_CPU_TIME = 15;
+    private static final int PROGRAM_THREAD_USER_TIME = 16;
+    private static final int PROGRAM_ALLOCATED_BYTES = 17;
+    private static final int CPU_THROTTLED_COUNT = 18;
+    private static final int CPU_THROTTLED_TIME = 19;
+    private static final int SAMPLE_WEIGHT = 20;
+    // metrics of sampled invocations which are multiplied by the sample weight
+    private static final int[] ADDITIVE_METRICS = {
+        GARBAGE_COLLECTION_COUNT,
+        GARBAGE_COLLECTION_TIME,
+        PROGRAM_CPU_TIME,
+        PROGRAM_THREAD_CPU_TIME,
+        PROGRAM_THREAD_USER_TIME,
+        PROGRAM_ALLOCATED_BYTES,
+        CPU_THROTTLED_COUNT,
+        CPU_THROTTLED_TIME
+    };
+
+    // the record is reused by all reports of the sensor
+    private final MetricRecord metricRecord = new MetricRecord(METRIC_TYPE, METRIC_NAMES);
+
     private final int programGlobalRank;
-    private Double programStartsTimestamp;
+    private final LatencyHistogramRecorder programDurationHistogram;
+    private final GarbageCollectionPauseSensor garbageCollectionPauseSensor;
+    private final SamplingPolicyInterface samplingPolicy;
+    // records of the sampled invocations kept until the end of a window of the sampling policy
+    private final MetricRecord[] sampledRecords;
+    private final boolean[] sampledRecordsFilled;
+    private int sampledRecordsCount = 0;
+    // invocations since the last sent records (sampled or not)
+    private long pendingInvocationsCount = 0;
+    private double pendingProgramDuration = 0;
+    private long pendingStartTimestampNanos;
+    private int programStartsSlot = SamplingPolicyInterface.NOT_SAMPLED;
+    private double programStartsOverhead;
+    private long programStartsTimestampNanos = NOT_STARTED;
     private long programStartsGCCount;
     private double programStartsGCTime;
     private double programStartsCPUTime;
     private long programStartsHeapMemory;
     private long programStartsNonHeapMemory;
     private long programStartsSwapSpaceSize;
+    private double programStartsThreadCPUTime;
+    private double programStartsThreadUserTime;
+    private long programStartsThreadAllocatedBytes;
+    private long programStartsCpuThrottledCount;
+    private double programStartsCpuThrottledTime;
 
     /**
      * Create a sensor that will utilize a given monitoring agent.
@@ -76,8 +188,78 @@ public class ProgramInstanceSensor extends AbstractSensor implements ProgramInst
      * program (value of <code>JuniperProgram.myGlobalRank</code>)
      */
     public ProgramInstanceSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, int programGlobalRank) {
+        this(monitoringAgent, monitoredResourcesStrategy, programGlobalRank, 0);
+    }
+
+    /**
+     * Create a sensor that will utilize a given monitoring agent and record
+     * histograms of the program durations in windows of a given duration.
+     *
+     * @param monitoringAgent a monitoring agent to be utilized by the sensor
+     * @param monitoredResourcesStrategy a monitored resources strategy to be
+     * utilized by the sensor
+     * @param programGlobalRank an MPI global rank of a monitored Juniper
+     * program (value of <code>JuniperProgram.myGlobalRank</code>)
+     * @param histogramWindowDuration a duration of histogram windows in
+     * seconds (no histograms are recorded if it is not positive)
+     */
+    public ProgramInstanceSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, int programGlobalRank, double histogramWindowDuration) {
+        this(monitoringAgent, monitoredResourcesStrategy, programGlobalRank, histogramWindowDuration, false);
+    }
+
+    /**
+     * Create a sensor that will utilize a given monitoring agent, record
+     * histograms of the program durations in windows of a given duration, and
+     * optionally report garbage collection pauses of the JVM.
+     *
+     * @param monitoringAgent a monitoring agent to be utilized by the sensor
+     * @param monitoredResourcesStrategy a monitored resources strategy to be
+     * utilized by the sensor
+     * @param programGlobalRank an MPI global rank of a monitored Juniper
+     * program (value of <code>JuniperProgram.myGlobalRank</code>)
+     * @param histogramWindowDuration a duration of histogram windows in
+     * seconds (no histograms are recorded if it is not positive)
+     * @param reportGarbageCollectionPauses <code>true</code> to report the
+     * garbage collection pauses with each report of the program
+     */
+    public ProgramInstanceSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, int programGlobalRank, double histogramWindowDuration, boolean reportGarbageCollectionPauses) {
+        this(monitoringAgent, monitoredResourcesStrategy, programGlobalRank, histogramWindowDuration, reportGarbageCollectionPauses, null);
+    }
+
+    /**
+     * Create a sensor that will utilize a given monitoring agent, record
+     * histograms of the program durations in windows of a given duration,
+     * optionally report garbage collection pauses of the JVM, and measure
+     * invocations of the program sampled by a given sampling policy.
+     *
+     * @param monitoringAgent a monitoring agent to be utilized by the sensor
+     * @param monitoredResourcesStrategy a monitored resources strategy to be
+     * utilized by the sensor
+     * @param programGlobalRank an MPI global rank of a monitored Juniper
+     * program (value of <code>JuniperProgram.myGlobalRank</code>)
+     * @param histogramWindowDuration a duration of histogram windows in
+     * seconds (no histograms are recorded if it is not positive)
+     * @param reportGarbageCollectionPauses <code>true</code> to report the
+     * garbage collection pauses with each report of the program
+     * @param samplingPolicy a sampling policy used only by this sensor or
+     * null to measure all invocations
+     */
+    public ProgramInstanceSensor(MonitoringAgentInterface monitoringAgent, MonitoredResourcesStrategyInterface monitoredResourcesStrategy, int programGlobalRank, double histogramWindowDuration, boolean reportGarbageCollectionPauses, SamplingPolicyInterface samplingPolicy) {
         super(monitoringAgent, monitoredResourcesStrategy);
         this.programGlobalRank = programGlobalRank;
+        this.programDurationHistogram = (histogramWindowDuration > 0)
+                ? new LatencyHistogramRecorder(this, METRIC_NAMES[PROGRAM_DURATION], METRIC_NAMES[PROGRAM_GLOBAL_RANK], programGlobalRank, null, histogramWindowDuration)
+                : null;
+        this.garbageCollectionPauseSensor = reportGarbageCollectionPauses
+                ? new GarbageCollectionPauseSensor(monitoringAgent, monitoredResourcesStrategy, programGlobalRank)
+                : null;
+        this.samplingPolicy = samplingPolicy;
+        final int slotsCount = (samplingPolicy == null) ? 0 : samplingPolicy.getSlotsCount();
+        this.sampledRecords = new MetricRecord[slotsCount];
+        for (int i = 0; i < slotsCount; i++) {
+            this.sampledRecords[i] = new MetricRecord(METRIC_TYPE, METRIC_NAMES);
+        }
+        this.sampledRecordsFilled = new boolean[slotsCount];
     }
 
     /**
@@ -87,14 +269,30 @@ public class ProgramInstanceSensor extends AbstractSensor implements ProgramInst
     @Override
     public void programStarts() {
         this.durationToSubtract = 0;
+        long samplingStartsTimestampNanos = 0;
+        if (this.samplingPolicy != null) {
+            samplingStartsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+            this.programStartsSlot = this.samplingPolicy.sample(samplingStartsTimestampNanos);
+            if (this.programStartsSlot == SamplingPolicyInterface.NOT_SAMPLED) {
+                // the invocation is just timed
+                this.programStartsTimestampNanos = samplingStartsTimestampNanos;
+                return;
+            }
+        }
         this.programStartsGCCount = this.getMonitoredResourcesStrategy().getGarbageCollectionCount();
         this.programStartsGCTime = this.getMonitoredResourcesStrategy().getGarbageCollectionTime();
         this.programStartsCPUTime = this.getMonitoredResourcesStrategy().getProcessCpuTime();
         this.programStartsHeapMemory = this.getMonitoredResourcesStrategy().getUsedHeapMemory();
         this.programStartsNonHeapMemory = this.getMonitoredResourcesStrategy().getUsedNonHeapMemory();
         this.programStartsSwapSpaceSize = this.getMonitoredResourcesStrategy().getUsedSwapSpaceSize();
+        this.programStartsThreadCPUTime = this.getMonitoredResourcesStrategy().getCurrentThreadCpuTime();
+        this.programStartsThreadUserTime = this.getMonitoredResourcesStrategy().getCurrentThreadUserTime();
+        this.programStartsThreadAllocatedBytes = this.getMonitoredResourcesStrategy().getCurrentThreadAllocatedBytes();
+        this.programStartsCpuThrottledCount = this.getMonitoredResourcesStrategy().getCpuThrottledCount();
+        this.programStartsCpuThrottledTime = this.getMonitoredResourcesStrategy().getCpuThrottledTime();
         // the start timestamp should be taken just before a program so it cannnot be affected by the measuring above
-        this.programStartsTimestamp = this.getMonitoredResourcesStrategy().getTimestamp();
+        this.programStartsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+        this.programStartsOverhead = (this.samplingPolicy == null) ? 0 : (this.programStartsTimestampNanos - samplingStartsTimestampNanos) / 1e9;
     }
 
     /**
@@ -111,8 +309,15 @@ public class ProgramInstanceSensor extends AbstractSensor implements ProgramInst
      */
     @Override
     public double programDoesNotEnd() throws IllegalStateException, IOException {
+        if ((this.samplingPolicy != null) && (this.programStartsSlot == SamplingPolicyInterface.NOT_SAMPLED)) {
+            // the invocation which has not been sampled is not measured
+            if (this.programStartsTimestampNanos == NOT_STARTED) {
+                throw new IllegalStateException("The method must follow a previous invocation of programStarts() method.");
+            }
+            return this.reportEnds(0);
+        }
         // just generate and send monitoring data
-        return this.reportMonitoringData();
+        return this.reportEnds(this.reportMonitoringData());
     }
 
     /**
@@ -128,62 +333,202 @@ public class ProgramInstanceSensor extends AbstractSensor implements ProgramInst
      */
     @Override
     public double programEnds() throws IllegalStateException, IOException {
+        if (this.samplingPolicy != null) {
+            return this.reportEnds(this.programEndsSampled());
+        }
         // generate and send monitoring data
-        final double methodDuration = this.reportMonitoringData();
+        double methodDuration = this.reportMonitoringData();
+        if (this.programDurationHistogram != null) {
+            final MetricRecord record = this.metricRecord;
+            this.programDurationHistogram.recordValue(this.programStartsTimestampNanos, record.getTimestampNanos(), record.getNumericValue(PROGRAM_DURATION));
+            methodDuration = (this.getMonitoredResourcesStrategy().getTimestampNanos() - record.getTimestampNanos()) / 1e9;
+        }
         // null the sensor
-        this.programStartsTimestamp = null;
-        return methodDuration;
+        this.programStartsTimestampNanos = NOT_STARTED;
+        return this.reportEnds(methodDuration);
+    }
+
+    private double programEndsSampled() throws IllegalStateException, IOException {
+        final long programEndsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+        final int slot = this.programStartsSlot;
+        if (slot != SamplingPolicyInterface.NOT_SAMPLED) {
+            final MetricRecord record = this.sampledRecords[slot];
+            this.measure(record, programEndsTimestampNanos);
+            if (!this.sampledRecordsFilled[slot]) {
+                this.sampledRecordsFilled[slot] = true;
+                this.sampledRecordsCount++;
+            }
+        } else if (this.programStartsTimestampNanos == NOT_STARTED) {
+            throw new IllegalStateException("The method must follow a previous invocation of programStarts() method.");
+        }
+        final double programDuration = (programEndsTimestampNanos - this.programStartsTimestampNanos) / 1e9 - this.durationToSubtract;
+        if (this.pendingInvocationsCount == 0) {
+            this.pendingStartTimestampNanos = this.programStartsTimestampNanos;
+        }
+        this.pendingInvocationsCount++;
+        this.pendingProgramDuration += programDuration;
+        if (this.programDurationHistogram != null) {
+            this.programDurationHistogram.recordValue(this.programStartsTimestampNanos, programEndsTimestampNanos, programDuration);
+        }
+        // null the sensor
+        this.programStartsTimestampNanos = NOT_STARTED;
+        try {
+            if ((this.sampledRecordsCount > 0) && this.samplingPolicy.isWindowEnded(programEndsTimestampNanos)) {
+                this.sendSampledRecords();
+                this.samplingPolicy.startWindow(programEndsTimestampNanos);
+            }
+        }
+        finally {
+            final double methodDuration = (this.getMonitoredResourcesStrategy().getTimestampNanos() - programEndsTimestampNanos) / 1e9;
+            this.samplingPolicy.programEnds(programDuration,
+                    (slot != SamplingPolicyInterface.NOT_SAMPLED) ? this.programStartsOverhead + methodDuration : 0);
+        }
+        return (this.getMonitoredResourcesStrategy().getTimestampNanos() - programEndsTimestampNanos) / 1e9;
+    }
+
+    private void sendSampledRecords() throws IOException {
+        double sampledProgramDuration = 0;
+        for (int i = 0; i < this.sampledRecords.length; i++) {
+            if (this.sampledRecordsFilled[i]) {
+                sampledProgramDuration += this.sampledRecords[i].getNumericValue(PROGRAM_DURATION);
+            }
+        }
+        // the invocations which have not been sampled are shared by the sampled records equally
+        final double sampleWeight = (double) this.pendingInvocationsCount / this.sampledRecordsCount;
+        final double unsampledProgramDuration = (this.pendingProgramDuration - sampledProgramDuration) / this.sampledRecordsCount;
+        try {
+            for (int i = 0; i < this.sampledRecords.length; i++) {
+                if (!this.sampledRecordsFilled[i]) {
+                    continue;
+                }
+                final MetricRecord record = this.sampledRecords[i];
+                this.sampledRecordsFilled[i] = false;
+                record.setNumericValue(PROGRAM_DURATION, record.getNumericValue(PROGRAM_DURATION) + unsampledProgramDuration);
+                for (int metricId : ADDITIVE_METRICS) {
+                    if (record.hasNumericValue(metricId)) {
+                        record.setNumericValue(metricId, record.getNumericValue(metricId) * sampleWeight);
+                    }
+                }
+                record.setNumericValue(SAMPLE_WEIGHT, sampleWeight);
+                this.getMonitoringAgent().sendMetric(record);
+            }
+        }
+        finally {
+            // the totals cannot be sent twice
+            for (int i = 0; i < this.sampledRecordsFilled.length; i++) {
+                this.sampledRecordsFilled[i] = false;
+            }
+            this.sampledRecordsCount = 0;
+            this.pendingInvocationsCount = 0;
+            this.pendingProgramDuration = 0;
+        }
+        if (this.garbageCollectionPauseSensor != null) {
+            this.garbageCollectionPauseSensor.report();
+        }
+    }
+
+    private void sendPendingInvocations() throws IOException {
+        final long flushTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+        if (this.sampledRecordsCount > 0) {
+            this.sendSampledRecords();
+            this.samplingPolicy.startWindow(flushTimestampNanos);
+        } else if (this.pendingInvocationsCount > 0) {
+            // a summary of the invocations which have not been sampled
+            final MetricRecord record = this.sampledRecords[0];
+            record.clearValues();
+            record.setNumericValue(PROGRAM_GLOBAL_RANK, this.programGlobalRank);
+            record.setNumericValue(PROGRAM_START_TIMESTAMP, this.pendingStartTimestampNanos / 1e9);
+            record.setNumericValue(PROGRAM_DURATION, this.pendingProgramDuration);
+            record.setNumericValue(SAMPLE_WEIGHT, this.pendingInvocationsCount);
+            record.setTimestampNanos(flushTimestampNanos);
+            record.setHostname(this.getMonitoredResourcesStrategy().getHostname());
+            this.pendingInvocationsCount = 0;
+            this.pendingProgramDuration = 0;
+            this.getMonitoringAgent().sendMetric(record);
+        }
     }
 
     private double reportMonitoringData() throws IllegalStateException, IOException {
         // the end timestamp should be taken just after a program so it cannnot be affected by the measuring and reporting below
-        final double programEndsTimestamp = this.getMonitoredResourcesStrategy().getTimestamp();
+        final long programEndsTimestampNanos = this.getMonitoredResourcesStrategy().getTimestampNanos();
+        this.measure(this.metricRecord, programEndsTimestampNanos);
+        this.getMonitoringAgent().sendMetric(this.metricRecord);
+        if (this.garbageCollectionPauseSensor != null) {
+            this.garbageCollectionPauseSensor.report();
+        }
+        return (this.getMonitoredResourcesStrategy().getTimestampNanos() - programEndsTimestampNanos) / 1e9;
+    }
+
+    private void measure(MetricRecord record, long programEndsTimestampNanos) throws IllegalStateException {
         // and also we should take all memory measurements before creating additional objects
+        final long threadAllocatedBytes = this.getMonitoredResourcesStrategy().getCurrentThreadAllocatedBytes();
+        final double threadCPUTime = this.getMonitoredResourcesStrategy().getCurrentThreadCpuTime();
+        final double threadUserTime = this.getMonitoredResourcesStrategy().getCurrentThreadUserTime();
         final long usedHeapMemory = this.getMonitoredResourcesStrategy().getUsedHeapMemory();
         final long usedNonHeapMemory = this.getMonitoredResourcesStrategy().getUsedNonHeapMemory();
         final long usedSwapSpaceSize = this.getMonitoredResourcesStrategy().getUsedSwapSpaceSize();
+        final long cpuThrottledCount = this.getMonitoredResourcesStrategy().getCpuThrottledCount();
+        final double cpuThrottledTime = this.getMonitoredResourcesStrategy().getCpuThrottledTime();
         //
-        if (this.programStartsTimestamp == null) {
+        if (this.programStartsTimestampNanos == NOT_STARTED) {
             throw new IllegalStateException("The method must follow a previous invocation of programStarts() method.");
         }
-        final String[] metricNames = {
-            "ProgramGlobalRank",
-            "ProgramStartTimestamp",
-            "ProgramDuration",
-            "GarbageCollectionCount",
-            "GarbageCollectionTime",
-            "ProgramCpuTime",
-            "StartHeapMemory",
-            "UsedHeapMemory",
-            "MaxHeapMemory",
-            "StartNonHeapMemory",
-            "UsedNonHeapMemory",
-            "MaxNonHeapMemory",
-            "StartSwapSpaceSize",
-            "UsedSwapSpaceSize",
-            "MaxSwapSpaceSize"
-        };
         final long maxHeapMemory = this.getMonitoredResourcesStrategy().getMaxHeapMemory();
         final long maxNonHeapMemory = this.getMonitoredResourcesStrategy().getMaxNonHeapMemory();
-        final String[] metricValues = {
-            String.format(Locale.ROOT, "%d", this.programGlobalRank),
-            String.format(Locale.ROOT, "%f", this.programStartsTimestamp),
-            String.format(Locale.ROOT, "%f", programEndsTimestamp - this.programStartsTimestamp - this.durationToSubtract),
-            String.format(Locale.ROOT, "%d", this.getMonitoredResourcesStrategy().getGarbageCollectionCount() - this.programStartsGCCount),
-            String.format(Locale.ROOT, "%f", this.getMonitoredResourcesStrategy().getGarbageCollectionTime() - this.programStartsGCTime),
-            this.programStartsCPUTime >= 0 ? String.format(Locale.ROOT, "%f", this.getMonitoredResourcesStrategy().getProcessCpuTime() - this.programStartsCPUTime) : null,
-            String.format(Locale.ROOT, "%d", this.programStartsHeapMemory),
-            String.format(Locale.ROOT, "%d", usedHeapMemory),
-            maxHeapMemory >= 0 ? String.format(Locale.ROOT, "%d", maxHeapMemory) : null,
-            String.format(Locale.ROOT, "%d", this.programStartsNonHeapMemory),
-            String.format(Locale.ROOT, "%d", usedNonHeapMemory),
-            maxNonHeapMemory >= 0 ? String.format(Locale.ROOT, "%d", maxNonHeapMemory) : null,
-            String.format(Locale.ROOT, "%d", this.programStartsSwapSpaceSize),
-            String.format(Locale.ROOT, "%d", usedSwapSpaceSize),
-            String.format(Locale.ROOT, "%d", this.getMonitoredResourcesStrategy().getMaxSwapSpaceSize())
-        };
-        this.getMonitoringAgent().sendMetric("ProgramRuntime", metricNames, metricValues, programEndsTimestamp, this.getMonitoredResourcesStrategy().getHostname());
-        return this.getMonitoredResourcesStrategy().getTimestamp() - programEndsTimestamp;
+        record.setNumericValue(PROGRAM_GLOBAL_RANK, this.programGlobalRank);
+        record.setNumericValue(PROGRAM_START_TIMESTAMP, this.programStartsTimestampNanos / 1e9);
+        record.setNumericValue(PROGRAM_DURATION, (programEndsTimestampNanos - this.programStartsTimestampNanos) / 1e9 - this.durationToSubtract);
+        record.setNumericValue(GARBAGE_COLLECTION_COUNT, this.getMonitoredResourcesStrategy().getGarbageCollectionCount() - this.programStartsGCCount);
+        record.setNumericValue(GARBAGE_COLLECTION_TIME, this.getMonitoredResourcesStrategy().getGarbageCollectionTime() - this.programStartsGCTime);
+        if (this.programStartsCPUTime >= 0) {
+            record.setNumericValue(PROGRAM_CPU_TIME, this.getMonitoredResourcesStrategy().getProcessCpuTime() - this.programStartsCPUTime);
+        } else {
+            record.clearValue(PROGRAM_CPU_TIME);
+        }
+        record.setNumericValue(START_HEAP_MEMORY, this.programStartsHeapMemory);
+        record.setNumericValue(USED_HEAP_MEMORY, usedHeapMemory);
+        if (maxHeapMemory >= 0) {
+            record.setNumericValue(MAX_HEAP_MEMORY, maxHeapMemory);
+        } else {
+            record.clearValue(MAX_HEAP_MEMORY);
+        }
+        record.setNumericValue(START_NON_HEAP_MEMORY, this.programStartsNonHeapMemory);
+        record.setNumericValue(USED_NON_HEAP_MEMORY, usedNonHeapMemory);
+        if (maxNonHeapMemory >= 0) {
+            record.setNumericValue(MAX_NON_HEAP_MEMORY, maxNonHeapMemory);
+        } else {
+            record.clearValue(MAX_NON_HEAP_MEMORY);
+        }
+        record.setNumericValue(START_SWAP_SPACE_SIZE, this.programStartsSwapSpaceSize);
+        record.setNumericValue(USED_SWAP_SPACE_SIZE, usedSwapSpaceSize);
+        record.setNumericValue(MAX_SWAP_SPACE_SIZE, this.getMonitoredResourcesStrategy().getMaxSwapSpaceSize());
+        if ((this.programStartsThreadCPUTime >= 0) && (threadCPUTime >= 0)) {
+            record.setNumericValue(PROGRAM_THREAD_CPU_TIME, threadCPUTime - this.programStartsThreadCPUTime);
+        } else {
+            record.clearValue(PROGRAM_THREAD_CPU_TIME);
+        }
+        if ((this.programStartsThreadUserTime >= 0) && (threadUserTime >= 0)) {
+            record.setNumericValue(PROGRAM_THREAD_USER_TIME, threadUserTime - this.programStartsThreadUserTime);
+        } else {
+            record.clearValue(PROGRAM_THREAD_USER_TIME);
+        }
+        if ((this.programStartsThreadAllocatedBytes >= 0) && (threadAllocatedBytes >= 0)) {
+            record.setNumericValue(PROGRAM_ALLOCATED_BYTES, threadAllocatedBytes - this.programStartsThreadAllocatedBytes);
+        } else {
+            record.clearValue(PROGRAM_ALLOCATED_BYTES);
+        }
+        if ((this.programStartsCpuThrottledCount >= 0) && (cpuThrottledCount >= 0)) {
+            record.setNumericValue(CPU_THROTTLED_COUNT, cpuThrottledCount - this.programStartsCpuThrottledCount);
+        } else {
+            record.clearValue(CPU_THROTTLED_COUNT);
+        }
+        if ((this.programStartsCpuThrottledTime >= 0) && (cpuThrottledTime >= 0)) {
+            record.setNumericValue(CPU_THROTTLED_TIME, cpuThrottledTime - this.programStartsCpuThrottledTime);
+        } else {
+            record.clearValue(CPU_THROTTLED_TIME);
+        }
+        record.setTimestampNanos(programEndsTimestampNanos);
+        record.setHostname(this.getMonitoredResourcesStrategy().getHostname());
     }
 
     /**
@@ -194,6 +539,29 @@ public class ProgramInstanceSensor extends AbstractSensor implements ProgramInst
      */
     @Override
     public double getCurrentDuration() {
-        return this.getMonitoredResourcesStrategy().getTimestamp() - this.programStartsTimestamp - this.durationToSubtract;
+        return (this.getMonitoredResourcesStrategy().getTimestampNanos() - this.programStartsTimestampNanos) / 1e9 - this.durationToSubtract;
+    }
+
+    /**
+     * Send data pending in the sensor, if any (i.e., records of sampled and
+     * not sampled invocations of the program, a histogram of program
+     * durations of an unfinished window, and garbage collection pauses that
+     * have not been reported yet). Should be invoked when the program
+     * is not executed anymore (e.g., at the end of the application).
+     *
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.samplingPolicy != null) {
+            this.sendPendingInvocations();
+        }
+        if (this.programDurationHistogram != null) {
+            this.programDurationHistogram.flush();
+        }
+        if (this.garbageCollectionPauseSensor != null) {
+            this.garbageCollectionPauseSensor.report();
+        }
     }
 }
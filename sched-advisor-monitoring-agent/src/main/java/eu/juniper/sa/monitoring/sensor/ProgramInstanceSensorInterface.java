@@ -87,4 +87,13 @@ public interface ProgramInstanceSensorInterface {
      */
     double getCurrentDuration();
 
+    /**
+     * Send data pending in the sensor, if any (e.g., a histogram of program
+     * durations of an unfinished window). Should be invoked when the program
+     * is not executed anymore (e.g., at the end of the application).
+     *
+     * @throws IOException if there is an HTTP error when connecting or sending
+     * to the monitoring service
+     */
+    void flush() throws IOException;
 }
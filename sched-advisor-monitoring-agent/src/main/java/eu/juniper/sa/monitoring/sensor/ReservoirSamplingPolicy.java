@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+import java.util.Random;
+
+/**
+ * The class of a sampling policy which keeps a uniform random sample of a
+ * given size of the invocations of a program in each window (by a reservoir
+ * sampling, i.e., the n-th invocation of the window replaces a random record
+ * of the sample with a probability size/n). The sampled records are sent at
+ * the end of each window.
+ *
+ * @author rychly
+ */
+public class ReservoirSamplingPolicy implements SamplingPolicyInterface {
+
+    private final int reservoirSize;
+    private final long windowDurationNanos;
+    private final Random random = new Random();
+    private long windowStartTimestampNanos;
+    private boolean windowStarted = false;
+    private long invocationsCount = 0;
+
+    /**
+     * Create a policy keeping a sample of a given size in windows of a given
+     * duration.
+     *
+     * @param reservoirSize a size of the sample per window
+     * @param windowDuration a duration of the windows in seconds
+     */
+    public ReservoirSamplingPolicy(int reservoirSize, double windowDuration) {
+        if ((reservoirSize < 1) || !(windowDuration > 0)) {
+            throw new IllegalArgumentException("The reservoir size and the window duration have to be positive numbers.");
+        }
+        this.reservoirSize = reservoirSize;
+        this.windowDurationNanos = (long) (windowDuration * 1e9);
+    }
+
+    /**
+     * Get a size of the sample per window.
+     *
+     * @return the size of the sample per window
+     */
+    public int getReservoirSize() {
+        return this.reservoirSize;
+    }
+
+    @Override
+    public int getSlotsCount() {
+        return this.reservoirSize;
+    }
+
+    @Override
+    public int sample(long timestampNanos) {
+        if (!this.windowStarted) {
+            this.startWindow(timestampNanos);
+        }
+        this.invocationsCount++;
+        if (this.invocationsCount <= this.reservoirSize) {
+            return (int) (this.invocationsCount - 1);
+        }
+        final long index = (long) (this.random.nextDouble() * this.invocationsCount);
+        return (index < this.reservoirSize) ? (int) index : NOT_SAMPLED;
+    }
+
+    @Override
+    public void programEnds(double programDuration, double overhead) {
+        // NOP
+    }
+
+    @Override
+    public boolean isWindowEnded(long timestampNanos) {
+        return this.windowStarted && (timestampNanos - this.windowStartTimestampNanos >= this.windowDurationNanos);
+    }
+
+    @Override
+    public void startWindow(long timestampNanos) {
+        this.windowStartTimestampNanos = timestampNanos;
+        this.windowStarted = true;
+        this.invocationsCount = 0;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+/**
+ * The interface of sampling policies which decide what invocations of a
+ * monitored program are measured and reported by a sensor in full. The sensor
+ * measures only durations of the other invocations and adds them to the
+ * reported records, so the counts and the sums of the durations are exact
+ * (see <code>ProgramInstanceSensor</code>). The sampled records are kept in
+ * slots of the sensor until the end of a window of the policy (immediately
+ * for most of the policies) when they are sent. A policy is used by a single
+ * sensor and it does not need to be thread-safe.
+ *
+ * @author rychly
+ */
+public interface SamplingPolicyInterface {
+
+    /**
+     * The result of <code>sample(long)</code> for an invocation which is not
+     * sampled.
+     */
+    int NOT_SAMPLED = -1;
+
+    /**
+     * Get a number of slots for sampled records that are kept by the sensor
+     * until the end of a window.
+     *
+     * @return the number of slots (at least one)
+     */
+    int getSlotsCount();
+
+    /**
+     * Decide if an invocation of the program starting at a given time is
+     * sampled.
+     *
+     * @param timestampNanos a timestamp of the start of the invocation in
+     * nanoseconds
+     * @return an index of the slot for the sampled record (it may replace a
+     * previous record in the slot) or <code>NOT_SAMPLED</code>
+     */
+    int sample(long timestampNanos);
+
+    /**
+     * Inform the policy about an ended invocation of the program.
+     *
+     * @param programDuration a duration of the invocation in seconds
+     * @param overhead a duration of the measuring and reporting of the
+     * invocation in seconds (zero for invocations that have not been sampled)
+     */
+    void programEnds(double programDuration, double overhead);
+
+    /**
+     * Check if a window of the policy has ended at a given time, so the
+     * sampled records should be sent.
+     *
+     * @param timestampNanos the time in nanoseconds
+     * @return <code>true</code> if the window has ended, <code>false</code>
+     * otherwise
+     */
+    boolean isWindowEnded(long timestampNanos);
+
+    /**
+     * Start a new window at a given time (after the sampled records have been
+     * sent).
+     *
+     * @param timestampNanos the time in nanoseconds
+     */
+    void startWindow(long timestampNanos);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.monitoring.sensor;
+
+/**
+ * The class of a sampling policy which limits the overhead of the measuring
+ * and reporting of a program by a time budget per window. Invocations are
+ * sampled until the overhead of the sampled invocations in the current window
+ * exceeds a given ratio of the window duration (the first invocation in each
+ * window is always sampled). The sampled records are sent immediately.
+ *
+ * @author rychly
+ */
+public class TimeBudgetSamplingPolicy implements SamplingPolicyInterface {
+
+    /**
+     * Default duration of windows of the budget in seconds.
+     */
+    public static final double DEFAULT_WINDOW_DURATION = 1;
+
+    private final double budgetRatio;
+    private final long windowDurationNanos;
+    private final double budgetPerWindow;
+    private long windowStartTimestampNanos;
+    private boolean windowStarted = false;
+    private double spentOverhead = 0;
+
+    /**
+     * Create a policy with a given budget in windows of a given duration.
+     *
+     * @param budgetRatio a ratio of the window duration which may be spent by
+     * the measuring and reporting (e.g., 0.01 for 1%)
+     * @param windowDuration a duration of the windows in seconds
+     */
+    public TimeBudgetSamplingPolicy(double budgetRatio, double windowDuration) {
+        if (!(budgetRatio > 0) || !(windowDuration > 0)) {
+            throw new IllegalArgumentException("The budget ratio and the window duration have to be positive numbers.");
+        }
+        this.budgetRatio = budgetRatio;
+        this.windowDurationNanos = (long) (windowDuration * 1e9);
+        this.budgetPerWindow = budgetRatio * windowDuration;
+    }
+
+    /**
+     * Create a policy with a given budget in windows of the default duration.
+     *
+     * @param budgetRatio a ratio of the window duration which may be spent by
+     * the measuring and reporting (e.g., 0.01 for 1%)
+     */
+    public TimeBudgetSamplingPolicy(double budgetRatio) {
+        this(budgetRatio, DEFAULT_WINDOW_DURATION);
+    }
+
+    /**
+     * Get a ratio of the window duration which may be spent by the measuring
+     * and reporting.
+     *
+     * @return the ratio of the window duration
+     */
+    public double getBudgetRatio() {
+        return this.budgetRatio;
+    }
+
+    @Override
+    public int getSlotsCount() {
+        return 1;
+    }
+
+    @Override
+    public int sample(long timestampNanos) {
+        if (!this.windowStarted || (timestampNanos - this.windowStartTimestampNanos >= this.windowDurationNanos)) {
+            this.windowStartTimestampNanos = timestampNanos;
+            this.windowStarted = true;
+            this.spentOverhead = 0;
+            return 0;
+        }
+        return (this.spentOverhead < this.budgetPerWindow) ? 0 : NOT_SAMPLED;
+    }
+
+    @Override
+    public void programEnds(double programDuration, double overhead) {
+        this.spentOverhead += overhead;
+    }
+
+    @Override
+    public boolean isWindowEnded(long timestampNanos) {
+        return true;
+    }
+
+    @Override
+    public void startWindow(long timestampNanos) {
+        // NOP, the budget windows are independent of sending of the records
+    }
+}
@@ -31,8 +31,10 @@ import eu.juniper.sa.deployment.model.JuniperApplication;
 import eu.juniper.sa.deployment.plan.XMLDeploymentPlan;
 import eu.juniper.sa.deployment.plan.XMLDeploymentPlanException;
 import eu.juniper.sa.deployment.monitor.MonitoringDbService;
+import eu.juniper.sa.deployment.monitor.db.MonitoringConnectionPool;
 import eu.juniper.sa.deployment.monitor.db.MonitoringDbActionsAbstract;
 import eu.juniper.sa.deployment.monitor.db.MonitoringDbActionsFactory;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentForBinaryLog;
 import eu.juniper.sa.tool.utils.ClassFinder;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -42,6 +44,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.sql.DataSource;
 import javax.xml.stream.XMLStreamException;
 
 /**
@@ -56,6 +65,7 @@ public class Advisor {
 
         MONITORING_SERVICE_URL,
         SQL_DUMP_FILEPATH,
+        BINARY_LOG_DIRPATH,
         JDBC_TO_MONITORING_DB
     }
 
@@ -72,6 +82,9 @@ public class Advisor {
                     + "Usage: " + className + " <deployment-plan-xml> <monitoring-data-sql-dump> <output-advice-xml> [start-time] [end-time]\n"
                     + "Produce a list of advices exports it into an output XML file for the given deployment plan of a Juniper application and its monitoring data provided in an SQL dump file.\n"
                     + "\n"
+                    + "Usage: " + className + " <deployment-plan-xml> <monitoring-data-binary-log" + MonitoringAgentForBinaryLog.BINARY_LOG_SUFFIX + "> <output-advice-xml> [start-time] [end-time]\n"
+                    + "Produce a list of advices exports it into an output XML file for the given deployment plan of a Juniper application and its monitoring data provided in a binary log directory.\n"
+                    + "\n"
                     + "Usage: " + className + " <deployment-plan-xml> <monitoring-JDBC-connection-string> <output-advice-xml> [start-time] [end-time]\n"
                     + "Produce a list of advices exports it into an output XML file for the given deployment plan of a Juniper application and its monitoring data provided by a database accessed via the given JDBC connection string.\n"
                     + "\n"
@@ -81,6 +94,9 @@ public class Advisor {
                     + "* JDBC username and password can be set as"
                     + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_JDBC_USER + "=username and"
                     + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_JDBC_PASSWORD + "=password\n"
+                    + "* the advisor plugins are executed concurrently on pooled JDBC connections, the maximal number of the connections can be set as"
+                    + " -D" + MonitoringDbActionsAbstract.SYSTEM_PROPERTY_NAME_FOR_POOL_SIZE + "=number"
+                    + " (default " + MonitoringConnectionPool.DEFAULT_MAX_SIZE + ")\n"
                     + "\n"
             );
             System.exit(-1);
@@ -95,6 +111,8 @@ public class Advisor {
             secondArgType = SecondArgType.MONITORING_SERVICE_URL;
         } else if (secondArg.startsWith("jdbc:")) {
             secondArgType = SecondArgType.JDBC_TO_MONITORING_DB;
+        } else if (secondArg.endsWith(MonitoringAgentForBinaryLog.BINARY_LOG_SUFFIX)) {
+            secondArgType = SecondArgType.BINARY_LOG_DIRPATH;
         } else {
             secondArgType = SecondArgType.SQL_DUMP_FILEPATH;
         }
@@ -117,13 +135,16 @@ public class Advisor {
             switch (secondArgType) {
                 case JDBC_TO_MONITORING_DB: {
                     System.out.println("*** utilizing metrics already stored in the database");
+                    // create missing tables and migrate the existing tables to the latest schema version
+                    monitoringDbService.getMonitoringDbActions().createDatabaseTables();
                 }
                 break;
                 case MONITORING_SERVICE_URL: {
                     monitoringDbService.getMonitoringDbActions().createDatabaseTables();
                     System.out.println("*** importing metrics from " + secondArg);
                     System.out.println("*** number of imported metrics = "
-                            + monitoringDbService.importMetrics());
+                            + monitoringDbService.importMetrics()
+                            + " (" + (long) monitoringDbService.getLastImportRecordsPerSecond() + " records/sec)");
                 }
                 break;
                 case SQL_DUMP_FILEPATH: {
@@ -132,28 +153,83 @@ public class Advisor {
                     monitoringDbService.getMonitoringDbActions().importDatabase(secondArg);
                 }
                 break;
+                case BINARY_LOG_DIRPATH: {
+                    monitoringDbService.getMonitoringDbActions().createDatabaseTables();
+                    System.out.println("*** importing metrics from " + secondArg);
+                    System.out.println("*** number of imported metrics = "
+                            + monitoringDbService.getMonitoringDbActions().importBinaryLog(secondArg));
+                }
+                break;
             }
 
+            // the records inserted by monitoring agents directly or imported from SQL dumps
+            System.out.println("*** number of records materialized in typed tables = "
+                    + monitoringDbService.getMonitoringDbActions().materializeTypedMetricTables());
+
             System.out.println("*** loading and executing plugins from package " + PLUGINS_PACKAGE);
-            List<Advice> allAdvice = new ArrayList<>();
+            final DataSource dataSource = monitoringDbService.getMonitoringDbActions().getDataSource();
+            final List<AdvisorInterface> advisorInstances = new ArrayList<>();
             for (Class<?> advisorClass : ClassFinder.getClassesForPackage(PLUGINS_PACKAGE)) {
                 if (AdvisorUsingDatabaseAbstract.class.isAssignableFrom(advisorClass)) {
                     System.out.println("*** loading and setting advisor plugin " + advisorClass.getCanonicalName());
-                    // create new instance of advisorClass
-                    final AdvisorInterface advisorInstance = AdvisorUsingDatabaseAbstract.newInstance(advisorClass, juniperApplication, monitoringDbService.getMonitoringDbActions().getDatabaseConnection());
+                    // create new instance of advisorClass borrowing connections from the pool
+                    final AdvisorInterface advisorInstance = AdvisorUsingDatabaseAbstract.newInstance(advisorClass, juniperApplication, dataSource);
                     ((AdvisorUsingDatabaseAbstract) advisorInstance).setObjectProperties(System.getProperties());
                     if (advisorInstance.isEnabled()) {
-                        // print information on the advisor
-                        System.out.println("\n*** executing advisor plugin " + advisorInstance.getName() + " with the following description:\n" + advisorInstance.getDescription() + "\n");
-                        // execute the advisor
-                        final Advice[] adviceArray = advisorInstance.execute();
-                        for (Advice advice : adviceArray) {
-                            System.out.println(advice.toString());
+                        advisorInstances.add(advisorInstance);
+                    }
+                }
+            }
+            // execute the advisors concurrently, at most one advisor per pooled connection
+            final List<Advice> allAdvice = new ArrayList<>();
+            final List<Future<Advice[]>> adviceFutures = new ArrayList<>();
+            final ExecutorService executorService = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(advisorInstances.size(), dataSource.unwrap(MonitoringConnectionPool.class).getMaxSize())),
+                    new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, Advisor.class.getSimpleName() + "-plugin");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                for (final AdvisorInterface advisorInstance : advisorInstances) {
+                    adviceFutures.add(executorService.submit(new Callable<Advice[]>() {
+                        @Override
+                        public Advice[] call() throws AdvisorException {
+                            return advisorInstance.execute();
                         }
-                        allAdvice.addAll(Arrays.asList(adviceArray));
+                    }));
+                }
+                // print the advice in the order of the advisors
+                for (int i = 0; i < advisorInstances.size(); i++) {
+                    final AdvisorInterface advisorInstance = advisorInstances.get(i);
+                    // print information on the advisor
+                    System.out.println("\n*** executing advisor plugin " + advisorInstance.getName() + " with the following description:\n" + advisorInstance.getDescription() + "\n");
+                    final Advice[] adviceArray;
+                    try {
+                        adviceArray = adviceFutures.get(i).get();
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new AdvisorException("Interrupted while executing advisor plugin " + advisorInstance.getName(), ex);
                     }
+                    catch (ExecutionException ex) {
+                        if (ex.getCause() instanceof AdvisorException) {
+                            throw (AdvisorException) ex.getCause();
+                        }
+                        throw new AdvisorException("Advisor plugin " + advisorInstance.getName() + " failed", ex.getCause());
+                    }
+                    for (Advice advice : adviceArray) {
+                        System.out.println(advice.toString());
+                    }
+                    allAdvice.addAll(Arrays.asList(adviceArray));
                 }
             }
+            finally {
+                executorService.shutdownNow();
+            }
             System.out.println("\n*** writing the list of advice into XML file " + outputFile);
             Advice.writeAdviceArray(allAdvice.toArray(new Advice[0]), outputFile, juniperApplication);
 
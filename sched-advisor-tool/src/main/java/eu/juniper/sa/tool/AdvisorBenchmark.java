@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.tool;
+
+import eu.juniper.sa.deployment.model.DataConnection;
+import eu.juniper.sa.deployment.model.JuniperApplication;
+import eu.juniper.sa.deployment.model.JuniperProgram;
+import eu.juniper.sa.deployment.model.MpiGroupMember;
+import eu.juniper.sa.deployment.model.ProgramInstance;
+import eu.juniper.sa.deployment.monitor.db.MonitoringDbActionsForH2;
+import eu.juniper.sa.deployment.monitor.db.MonitoringDbActionsInterface;
+import eu.juniper.sa.deployment.plan.XMLDeploymentPlan;
+import eu.juniper.sa.monitoring.agent.MonitoringAgentForDatabase;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesDefaultStrategy;
+import eu.juniper.sa.monitoring.resources.MonitoredResourcesStrategyInterface;
+import eu.juniper.sa.monitoring.sensor.DataConnectionSensor;
+import eu.juniper.sa.monitoring.sensor.ProgramInstanceSensor;
+import eu.juniper.sa.tool.utils.ClassFinder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A benchmark of queries of advisor plugins on monitoring data of a given size
+ * and time span in tables of the database for the monitoring data of a given
+ * initial schema version without the rollup tables and of the latest schema
+ * version with the rollup tables (i.e., with and without migrations and rollups
+ * optimizing the tables for the queries). The initial schema version can be
+ * also the baseline schema with timestamps of records in milliseconds, i.e.,
+ * the tables of monitoring data before the schema versions, which are migrated
+ * to nanoseconds.
+ *
+ * @author rychly
+ */
+public class AdvisorBenchmark {
+
+    private final static String PLUGINS_PACKAGE = "eu.juniper.sa.tool.plugins";
+    private final static int DEFAULT_NUMBER_OF_INVOCATIONS = 10000;
+    private final static int DEFAULT_NUMBER_OF_REPETITIONS = 5;
+    private final static String SQL_DISABLE_REUSE_RESULTS = "SET OPTIMIZE_REUSE_RESULTS 0;";
+    private final static String SQL_SELECT_RECORDS_RANGE = "SELECT MIN(id), MAX(id), MIN(time), MAX(time) FROM records;";
+    private final static String SQL_SPREAD_RECORDS = "UPDATE records SET time = ? + CAST(id - ? AS bigint) * ?;";
+    private final static String SQL_COPY_RECORDS = "INSERT INTO records (id, time, metrictype, hostname)"
+            + " SELECT id + ?, time + ?, metrictype, hostname FROM records WHERE id BETWEEN ? AND ?;";
+    private final static String SQL_ADD_COLUMN_RECORDS_TIMESTAMP = "ALTER TABLE records ADD COLUMN timestamp timestamp;";
+    private final static String SQL_SELECT_RECORDS_TIMES = "SELECT id, time FROM records;";
+    private final static String SQL_UPDATE_RECORDS_TIMESTAMP = "UPDATE records SET timestamp = ? WHERE id = ?;";
+    private final static String[] SQL_ALTER_RECORDS_TO_BASELINE = {
+        "ALTER TABLE records DROP CONSTRAINT unique_records;",
+        "ALTER TABLE records DROP COLUMN time;",
+        "ALTER TABLE records ALTER COLUMN timestamp RENAME TO time;",
+        "ALTER TABLE records ALTER COLUMN time SET NOT NULL;"
+    };
+    /**
+     * The initial schema version given for the baseline schema, i.e., the
+     * tables before the schema versions with timestamps of records in
+     * milliseconds and without the unique records.
+     */
+    private final static int BASELINE_SCHEMA_VERSION = -1;
+    private final static String SQL_COPY_METRICS = "INSERT INTO metrics (recordid, name, numericvalue, textvalue)"
+            + " SELECT recordid + ?, name, numericvalue, textvalue FROM metrics WHERE recordid BETWEEN ? AND ?;";
+
+    /**
+     * Generate monitoring data of a given number of invocations of program
+     * instances of a given Juniper application, each invocation with receiving
+     * of data from all data connections of the program instance.
+     *
+     * @param juniperApplication a Juniper application model
+     * @param monitoringDbActions actions of the database for the monitoring
+     * data to store the data
+     * @param numberOfInvocations the number of the invocations
+     * @throws Exception if the monitoring data cannot be generated
+     */
+    private static void generateMonitoringData(JuniperApplication juniperApplication, MonitoringDbActionsInterface monitoringDbActions, int numberOfInvocations) throws Exception {
+        final MonitoredResourcesStrategyInterface monitoredResourcesStrategy = new MonitoredResourcesDefaultStrategy();
+        try (final MonitoringAgentForDatabase monitoringAgent = new MonitoringAgentForDatabase(
+                monitoringDbActions.getDatabaseConnection(), juniperApplication.getApplicationName(), monitoredResourcesStrategy)) {
+            // sensors of all program instances and of their receiving data connections
+            final Map<ProgramInstanceSensor, List<DataConnectionSensor>> sensors = new LinkedHashMap<>();
+            for (JuniperProgram juniperProgram : juniperApplication.getProgramModel().getPrograms()) {
+                for (ProgramInstance programInstance : juniperProgram.getInstances()) {
+                    final int programGlobalRank = programInstance.getMpiGlobalRank();
+                    final List<DataConnectionSensor> dataConnectionSensors = new ArrayList<>();
+                    for (DataConnection dataConnection : juniperApplication.getCommunicationModel().getConnections()) {
+                        for (MpiGroupMember receiver : dataConnection.getReceivingGroup().getMembers()) {
+                            if (receiver.getProgramInstance() == programInstance) {
+                                dataConnectionSensors.add(new DataConnectionSensor(monitoringAgent, monitoredResourcesStrategy,
+                                        programGlobalRank, dataConnection.getConnectionName()));
+                            }
+                        }
+                    }
+                    sensors.put(new ProgramInstanceSensor(monitoringAgent, monitoredResourcesStrategy, programGlobalRank), dataConnectionSensors);
+                }
+            }
+            if (sensors.isEmpty()) {
+                throw new IllegalArgumentException("The Juniper application has no program instances.");
+            }
+            int invocations = 0;
+            while (invocations < numberOfInvocations) {
+                for (Map.Entry<ProgramInstanceSensor, List<DataConnectionSensor>> entry : sensors.entrySet()) {
+                    if (invocations++ >= numberOfInvocations) {
+                        break;
+                    }
+                    entry.getKey().programStarts();
+                    for (DataConnectionSensor dataConnectionSensor : entry.getValue()) {
+                        dataConnectionSensor.receiveStarts();
+                        dataConnectionSensor.receiveEnds(1024.0 * invocations);
+                    }
+                    entry.getKey().programEnds();
+                }
+            }
+            for (Map.Entry<ProgramInstanceSensor, List<DataConnectionSensor>> entry : sensors.entrySet()) {
+                entry.getKey().flush();
+                for (DataConnectionSensor dataConnectionSensor : entry.getValue()) {
+                    dataConnectionSensor.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Spread times of the generated records evenly over a given time span in
+     * the order of their IDs and append a given number of copies of the
+     * records, each shifted in time after the previous one (e.g., to simulate
+     * weeks of monitoring data).
+     *
+     * @param monitoringDbActions actions of the database for the monitoring
+     * data with the records
+     * @param timeSpanHours the time span in hours or zero to keep the times
+     * @param numberOfCopies the number of copies including the generated
+     * records
+     * @throws SQLException if a database access error occurs
+     */
+    private static void spreadMonitoringData(MonitoringDbActionsInterface monitoringDbActions, double timeSpanHours, int numberOfCopies) throws SQLException {
+        final Connection databaseConnection = monitoringDbActions.getDatabaseConnection();
+        int minimalId = 0;
+        int maximalId = -1;
+        long minimalTime = 0;
+        try (final Statement statement = databaseConnection.createStatement();
+                final ResultSet resultSet = statement.executeQuery(SQL_SELECT_RECORDS_RANGE)) {
+            if (resultSet.next()) {
+                minimalId = resultSet.getInt(1);
+                maximalId = resultSet.getInt(2);
+                minimalTime = resultSet.getLong(3);
+            }
+        }
+        if (timeSpanHours > 0) {
+            try (final PreparedStatement preparedStatement = databaseConnection.prepareStatement(SQL_SPREAD_RECORDS)) {
+                preparedStatement.setLong(1, minimalTime);
+                preparedStatement.setInt(2, minimalId);
+                preparedStatement.setLong(3, (long) (timeSpanHours * 3600e9 / Math.max(1, maximalId - minimalId)));
+                preparedStatement.executeUpdate();
+            }
+        }
+        long maximalTime = minimalTime;
+        try (final Statement statement = databaseConnection.createStatement();
+                final ResultSet resultSet = statement.executeQuery(SQL_SELECT_RECORDS_RANGE)) {
+            if (resultSet.next()) {
+                maximalTime = resultSet.getLong(4);
+            }
+        }
+        try (final PreparedStatement preparedStatementRecords = databaseConnection.prepareStatement(SQL_COPY_RECORDS);
+                final PreparedStatement preparedStatementMetrics = databaseConnection.prepareStatement(SQL_COPY_METRICS)) {
+            for (int copy = 1; copy < numberOfCopies; copy++) {
+                // the IDs of the copies are above the generated records, the monitoring agents do not insert records anymore
+                final int idShift = copy * (maximalId - minimalId + 1);
+                preparedStatementRecords.setInt(1, idShift);
+                preparedStatementRecords.setLong(2, copy * (maximalTime - minimalTime + 1));
+                preparedStatementRecords.setInt(3, minimalId);
+                preparedStatementRecords.setInt(4, maximalId);
+                preparedStatementRecords.executeUpdate();
+                preparedStatementMetrics.setInt(1, idShift);
+                preparedStatementMetrics.setInt(2, minimalId);
+                preparedStatementMetrics.setInt(3, maximalId);
+                preparedStatementMetrics.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Convert times of records in nanoseconds into timestamps in milliseconds
+     * and drop the unique records to get the tables of the baseline schema,
+     * i.e., as the records were stored before the schema versions.
+     *
+     * @param monitoringDbActions actions of the database for the monitoring
+     * data with the records
+     * @throws SQLException if a database access error occurs
+     */
+    private static void convertToBaselineSchema(MonitoringDbActionsInterface monitoringDbActions) throws SQLException {
+        final Connection databaseConnection = monitoringDbActions.getDatabaseConnection();
+        try (final Statement statement = databaseConnection.createStatement()) {
+            statement.execute(SQL_ADD_COLUMN_RECORDS_TIMESTAMP);
+            try (final Statement selectStatement = databaseConnection.createStatement();
+                    final ResultSet resultSet = selectStatement.executeQuery(SQL_SELECT_RECORDS_TIMES);
+                    final PreparedStatement preparedStatement = databaseConnection.prepareStatement(SQL_UPDATE_RECORDS_TIMESTAMP)) {
+                while (resultSet.next()) {
+                    // the baseline monitoring agents stored the timestamps in milliseconds
+                    preparedStatement.setTimestamp(1, new Timestamp(resultSet.getLong(2) / 1000000L));
+                    preparedStatement.setInt(2, resultSet.getInt(1));
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+            for (String sqlStatement : SQL_ALTER_RECORDS_TO_BASELINE) {
+                statement.execute(sqlStatement);
+            }
+        }
+    }
+
+    /**
+     * Execute all enabled advisor plugins a given number of times (after the
+     * same number of warm-up executions) and get average durations of their
+     * executions and numbers of their advice.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDbActions actions of the database for the monitoring
+     * data
+     * @param numberOfRepetitions the number of executions of each advisor
+     * @param useRollupTables <code>true</code> to answer aggregates of the
+     * advisors from the rollup tables, <code>false</code> to compute them from
+     * the typed tables only
+     * @return pairs of the average duration of the executions in seconds and
+     * the number of advice by names of the advisors
+     * @throws AdvisorException if an advisor cannot be instantiated or
+     * executed
+     */
+    private static Map<String, double[]> executeAdvisors(JuniperApplication juniperApplication, MonitoringDbActionsInterface monitoringDbActions, int numberOfRepetitions,
+            boolean useRollupTables) throws AdvisorException {
+        final Map<String, double[]> result = new LinkedHashMap<>();
+        for (Class<?> advisorClass : ClassFinder.getClassesForPackage(PLUGINS_PACKAGE)) {
+            if (AdvisorUsingDatabaseAbstract.class.isAssignableFrom(advisorClass)) {
+                final AdvisorInterface advisorInstance = AdvisorUsingDatabaseAbstract.newInstance(advisorClass, juniperApplication, monitoringDbActions.getDataSource());
+                ((AdvisorUsingDatabaseAbstract) advisorInstance).setObjectProperties(System.getProperties());
+                ((AdvisorUsingDatabaseAbstract) advisorInstance).setUseRollupTables(useRollupTables);
+                if (advisorInstance.isEnabled()) {
+                    // warm-up
+                    int numberOfAdvice = 0;
+                    for (int i = 0; i < numberOfRepetitions; i++) {
+                        numberOfAdvice = advisorInstance.execute().length;
+                    }
+                    final long startNanos = System.nanoTime();
+                    for (int i = 0; i < numberOfRepetitions; i++) {
+                        advisorInstance.execute();
+                    }
+                    result.put(advisorInstance.getName(), new double[]{(System.nanoTime() - startNanos) / 1e9 / numberOfRepetitions, numberOfAdvice});
+                }
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if ((args.length < 1) || (args.length > 6)) {
+            final String className = AdvisorBenchmark.class.getCanonicalName();
+            System.err.println(""
+                    + "Usage: " + className + " <deployment-plan-xml> [number-of-invocations] [number-of-repetitions] [initial-schema-version] [time-span-hours] [number-of-copies]\n"
+                    + "Benchmark of advisor queries: generate monitoring data of a given number of invocations of program instances"
+                    + " (default " + DEFAULT_NUMBER_OF_INVOCATIONS + ") of the given deployment plan of a Juniper application"
+                    + " spread over a given time span (default 0 hours, i.e., the time of the generation)"
+                    + " and copied a given number of times one after another (default 1, i.e., no copies)"
+                    + " into an in-memory database of a given initial schema version (default "
+                    + AdvisorUsingDatabaseAbstract.MINIMAL_SCHEMA_VERSION + ", the minimal schema version of the advisor queries,"
+                    + " or " + BASELINE_SCHEMA_VERSION + " for the baseline schema with timestamps of records in milliseconds),"
+                    + " execute all advisor plugins without the rollup tables a given number of times (default " + DEFAULT_NUMBER_OF_REPETITIONS + ")"
+                    + " if the initial schema version is supported by the advisors, migrate the database to the latest schema version,"
+                    + " execute the advisor plugins again with the rollup tables, and print average durations of their executions.\n"
+            );
+            System.exit(-1);
+        }
+        final JuniperApplication juniperApplication = XMLDeploymentPlan.readJuniperApplication(args[0]);
+        final int numberOfInvocations = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_NUMBER_OF_INVOCATIONS;
+        final int numberOfRepetitions = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_NUMBER_OF_REPETITIONS;
+        final int initialSchemaVersion = (args.length > 3) ? Integer.parseInt(args[3]) : AdvisorUsingDatabaseAbstract.MINIMAL_SCHEMA_VERSION;
+        final double timeSpanHours = (args.length > 4) ? Double.parseDouble(args[4]) : 0;
+        final int numberOfCopies = (args.length > 5) ? Integer.parseInt(args[5]) : 1;
+        final MonitoringDbActionsInterface monitoringDbActions = new MonitoringDbActionsForH2();
+        try {
+            try (final Statement statement = monitoringDbActions.getDatabaseConnection().createStatement()) {
+                // measure the queries, not results of their previous executions
+                statement.execute(SQL_DISABLE_REUSE_RESULTS);
+            }
+            monitoringDbActions.createDatabaseTables(Math.max(0, initialSchemaVersion));
+            long startNanos = System.nanoTime();
+            generateMonitoringData(juniperApplication, monitoringDbActions, numberOfInvocations);
+            System.out.printf("%d invocations generated in %.3f seconds\n", numberOfInvocations, (System.nanoTime() - startNanos) / 1e9);
+            if ((timeSpanHours > 0) || (numberOfCopies > 1)) {
+                // before the materialization, which copies the times
+                spreadMonitoringData(monitoringDbActions, timeSpanHours, numberOfCopies);
+            }
+            if (initialSchemaVersion == BASELINE_SCHEMA_VERSION) {
+                // the generated records are stored as by the baseline monitoring agents, to be migrated to nanoseconds
+                convertToBaselineSchema(monitoringDbActions);
+            }
+            Map<String, double[]> durationsBefore = null;
+            if (initialSchemaVersion >= AdvisorUsingDatabaseAbstract.MINIMAL_SCHEMA_VERSION) {
+                // the monitoring agent inserts the records just into the entity-attribute-value tables
+                startNanos = System.nanoTime();
+                final long records = monitoringDbActions.materializeTypedMetricTables();
+                System.out.printf("%d records materialized and rolled up in %.3f seconds\n", records, (System.nanoTime() - startNanos) / 1e9);
+                durationsBefore = executeAdvisors(juniperApplication, monitoringDbActions, numberOfRepetitions, false);
+            }
+            startNanos = System.nanoTime();
+            final int migrations = monitoringDbActions.migrateDatabaseTables();
+            monitoringDbActions.materializeTypedMetricTables();
+            System.out.printf("%d migration(s) from schema version %d to schema version %d applied in %.3f seconds\n", migrations,
+                    initialSchemaVersion, monitoringDbActions.getSchemaVersion(), (System.nanoTime() - startNanos) / 1e9);
+            final Map<String, double[]> durationsAfter = executeAdvisors(juniperApplication, monitoringDbActions, numberOfRepetitions, true);
+            System.out.println("advisor\tadvice(initial schema version)\tms/execution(initial schema version)"
+                    + "\tadvice(latest schema version, rollups)\tms/execution(latest schema version, rollups)\tspeed-up");
+            for (Map.Entry<String, double[]> entry : durationsAfter.entrySet()) {
+                final double[] after = entry.getValue();
+                if (durationsBefore != null) {
+                    final double[] before = durationsBefore.get(entry.getKey());
+                    System.out.printf("%s\t%.0f\t%.3f\t%.0f\t%.3f\t%.1f\n", entry.getKey(), before[1], before[0] * 1e3,
+                            after[1], after[0] * 1e3, before[0] / after[0]);
+                } else {
+                    System.out.printf("%s\t-\t-\t%.0f\t%.3f\t-\n", entry.getKey(), after[1], after[0] * 1e3);
+                }
+            }
+        }
+        finally {
+            monitoringDbActions.closeDatabaseConenction();
+        }
+    }
+}
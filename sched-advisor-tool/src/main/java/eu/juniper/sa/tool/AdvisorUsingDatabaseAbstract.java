@@ -28,32 +28,51 @@
 package eu.juniper.sa.tool;
 
 import eu.juniper.sa.deployment.model.JuniperApplication;
+import eu.juniper.sa.deployment.monitor.db.MonitoringConnectionPool;
+import eu.juniper.sa.deployment.monitor.db.RollupTables;
+import eu.juniper.sa.deployment.monitor.db.TimePartitions;
 import eu.juniper.sa.tool.utils.ClassFinder;
 import java.beans.IntrospectionException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Properties;
+import javax.sql.DataSource;
 
 /**
  * An abstract class for advisors utilizing database connections to get
- * monitoring data.
+ * monitoring data. The advisor borrows a connection from a data source for each
+ * its query, so more advisors can be executed concurrently on pooled
+ * connections (see <code>MonitoringDbActionsInterface.getDataSource()</code>).
  *
  * @author rychly
  */
 public abstract class AdvisorUsingDatabaseAbstract implements AdvisorInterface {
 
+    /**
+     * The minimal schema version of tables of the database for the monitoring
+     * data required by the advisor queries (see
+     * <code>MonitoringDbActionsInterface.migrateDatabaseTables()</code>),
+     * i.e., the version with typed tables, their rollup tables, and views of
+     * their time partitions.
+     */
+    public static final int MINIMAL_SCHEMA_VERSION = 4;
     private final JuniperApplication juniperApplication;
-    private final Connection monitoringDatabaseConnection;
+    private final DataSource monitoringDataSource;
     private boolean enabled = true;
+    private boolean useRollupTables = true;
+    // the head table of the records and the time ranges of its partitions (see TimePartitions)
     private final static String QUERY_FIRST_TIMESTAMP
-            = "SELECT MIN(time) FROM records;";
+            = "SELECT MIN(time) FROM (SELECT MIN(time) AS time FROM records"
+            + " UNION ALL SELECT MIN(mintime) AS time FROM record_partitions) AS times;";
     private final static String QUERY_LAST_TIMESTAMP
-            = "SELECT MAX(time) FROM records;";
+            = "SELECT MAX(time) FROM (SELECT MAX(time) AS time FROM records"
+            + " UNION ALL SELECT MAX(maxtime) AS time FROM record_partitions) AS times;";
 
     /**
      * Create the advisor that will utilize a database connection to get
@@ -65,8 +84,21 @@ public abstract class AdvisorUsingDatabaseAbstract implements AdvisorInterface {
      * monitoring data
      */
     public AdvisorUsingDatabaseAbstract(JuniperApplication juniperApplication, Connection monitoringDatabaseConnection) {
+        this(juniperApplication, MonitoringConnectionPool.forConnection(monitoringDatabaseConnection));
+    }
+
+    /**
+     * Create the advisor that will borrow database connections from a data
+     * source to get monitoring data.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDataSource a data source of database connections to get
+     * monitoring data
+     */
+    public AdvisorUsingDatabaseAbstract(JuniperApplication juniperApplication, DataSource monitoringDataSource) {
         this.juniperApplication = juniperApplication;
-        this.monitoringDatabaseConnection = monitoringDatabaseConnection;
+        this.monitoringDataSource = monitoringDataSource;
     }
 
     /**
@@ -113,6 +145,29 @@ public abstract class AdvisorUsingDatabaseAbstract implements AdvisorInterface {
         this.enabled = !disabled;
     }
 
+    /**
+     * Check if the advisor answers aggregates of windows of time from the
+     * rollup tables (see <code>generateRollupAggregatesSubquery</code>).
+     *
+     * @return <code>true</code> if the rollup tables are used,
+     * <code>false</code> if the aggregates are computed from the typed tables
+     * only
+     */
+    public boolean isUseRollupTables() {
+        return this.useRollupTables;
+    }
+
+    /**
+     * Set if the advisor answers aggregates of windows of time from the
+     * rollup tables (see <code>generateRollupAggregatesSubquery</code>).
+     *
+     * @param useRollupTables <code>true</code> to use the rollup tables,
+     * <code>false</code> to compute the aggregates from the typed tables only
+     */
+    public void setUseRollupTables(boolean useRollupTables) {
+        this.useRollupTables = useRollupTables;
+    }
+
     /**
      * Create an instance of a given class implementing AdvisorInterface with
      * given arguments.
@@ -138,6 +193,74 @@ public abstract class AdvisorUsingDatabaseAbstract implements AdvisorInterface {
         }
     }
 
+    /**
+     * Create an instance of a given class implementing AdvisorInterface with
+     * given arguments. A class without a constructor with a data source (e.g.,
+     * an advisor written before the pooling of connections) is instantiated
+     * by its constructor with a database connection kept for the whole life of
+     * the advisor. For a pool of connections, it is the connection shared by
+     * all such advisors outside the bound of the pool (see
+     * <code>MonitoringConnectionPool.getSharedConnection()</code>), so the
+     * advisors do not hold the pooled connections, otherwise the connection
+     * is borrowed from the data source.
+     *
+     * @param advisorClass a given class implementing AdvisorInterface
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDataSource a data source of database connections to get
+     * monitoring data
+     * @throws AdvisorException if the advisor class cannot be instantiated
+     * @return an instance of a given class
+     */
+    public static AdvisorInterface newInstance(Class<?> advisorClass, JuniperApplication juniperApplication, DataSource monitoringDataSource) throws AdvisorException {
+        if (!AdvisorUsingDatabaseAbstract.class.isAssignableFrom(advisorClass)) {
+            throw new AdvisorException("Class in the first argument does not extend AdvisorUsingDatabaseAbstract class.", new IllegalArgumentException());
+        }
+        final Constructor<?> advisorConstructor;
+        try {
+            advisorConstructor = advisorClass.getDeclaredConstructor(JuniperApplication.class, DataSource.class);
+        }
+        catch (NoSuchMethodException ex) {
+            return newInstanceWithSharedConnection(advisorClass, juniperApplication, monitoringDataSource);
+        }
+        catch (SecurityException ex) {
+            throw new AdvisorException("Class in the first argument cannot be instantiated by the second and third arguments.", ex);
+        }
+        try {
+            return (AdvisorInterface) advisorConstructor.newInstance(juniperApplication, monitoringDataSource);
+        }
+        catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+            throw new AdvisorException("Class in the first argument cannot be instantiated by the second and third arguments.", ex);
+        }
+    }
+
+    private static AdvisorInterface newInstanceWithSharedConnection(Class<?> advisorClass, JuniperApplication juniperApplication, DataSource monitoringDataSource) throws AdvisorException {
+        final Connection monitoringDatabaseConnection;
+        try {
+            if (monitoringDataSource.isWrapperFor(MonitoringConnectionPool.class)) {
+                // the shared connection of the pool takes no connection of the pool from the other advisors
+                monitoringDatabaseConnection = monitoringDataSource.unwrap(MonitoringConnectionPool.class).getSharedConnection();
+            } else {
+                monitoringDatabaseConnection = monitoringDataSource.getConnection();
+            }
+        }
+        catch (SQLException ex) {
+            throw new AdvisorException("Cannot borrow a database connection for the class in the first argument.", ex);
+        }
+        try {
+            return newInstance(advisorClass, juniperApplication, monitoringDatabaseConnection);
+        }
+        catch (AdvisorException ex) {
+            try {
+                monitoringDatabaseConnection.close();
+            }
+            catch (SQLException closeException) {
+                ex.addSuppressed(closeException);
+            }
+            throw ex;
+        }
+    }
+
     public void setObjectProperties(Properties properties) throws AdvisorException {
         final String thisSimpleName = this.getClass().getSimpleName();
         for (String propertyName : properties.stringPropertyNames()) {
@@ -164,20 +287,46 @@ public abstract class AdvisorUsingDatabaseAbstract implements AdvisorInterface {
     }
 
     /**
-     * Get a database connection to get monitoring data.
+     * Get a data source of database connections to get monitoring data. A
+     * connection borrowed from the data source should be closed (i.e.,
+     * returned) when a query of the advisor is done.
+     *
+     * @return a data source of database connections to get monitoring data
+     */
+    public DataSource getMonitoringDataSource() {
+        return monitoringDataSource;
+    }
+
+    /**
+     * Get a database connection to get monitoring data. The connection is
+     * borrowed from the data source of the advisor, so it should be closed
+     * (i.e., returned) when it is not needed anymore. A connection given to
+     * the constructor of the advisor is lent by a pool of the shared
+     * connection, which is not closed by the borrowers.
      *
      * @return a database connection to get monitoring data
+     * @throws IllegalStateException if no connection can be borrowed from the
+     * data source
+     * @deprecated use <code>getMonitoringDataSource().getConnection()</code>
+     * and close the connection when a query of the advisor is done
      */
+    @Deprecated
     public Connection getMonitoringDatabaseConnection() {
-        return monitoringDatabaseConnection;
+        try {
+            return this.monitoringDataSource.getConnection();
+        }
+        catch (SQLException ex) {
+            throw new IllegalStateException("Cannot borrow a database connection to get monitoring data.", ex);
+        }
     }
 
     private Timestamp getTimestampOfFirstRecord() throws SQLException {
         Timestamp result = null;
-        try (Statement statement = this.monitoringDatabaseConnection.createStatement()) {
+        try (Connection connection = this.monitoringDataSource.getConnection();
+                Statement statement = connection.createStatement()) {
             try (ResultSet resultSet = statement.executeQuery(QUERY_FIRST_TIMESTAMP)) {
                 if (resultSet.next()) {
-                    result = resultSet.getTimestamp(1);
+                    result = toTimestamp(resultSet.getLong(1), resultSet.wasNull());
                 }
             }
         }
@@ -186,16 +335,38 @@ public abstract class AdvisorUsingDatabaseAbstract implements AdvisorInterface {
 
     private Timestamp getTimestampOfLastRecord() throws SQLException {
         Timestamp result = null;
-        try (Statement statement = this.monitoringDatabaseConnection.createStatement()) {
+        try (Connection connection = this.monitoringDataSource.getConnection();
+                Statement statement = connection.createStatement()) {
             try (ResultSet resultSet = statement.executeQuery(QUERY_LAST_TIMESTAMP)) {
                 if (resultSet.next()) {
-                    result = resultSet.getTimestamp(1);
+                    result = toTimestamp(resultSet.getLong(1), resultSet.wasNull());
                 }
             }
         }
         return result;
     }
 
+    private static Timestamp toTimestamp(long timestampNanos, boolean wasNull) {
+        if (wasNull) {
+            return null;
+        }
+        final Timestamp result = new Timestamp(Math.floorDiv(timestampNanos, 1000000L));
+        result.setNanos((int) Math.floorMod(timestampNanos, 1000000000L));
+        return result;
+    }
+
+    /**
+     * Convert a given timestamp into nanoseconds since the epoch, i.e., into
+     * the format of the time of records in the database of the monitoring
+     * data (including the nanoseconds of the timestamp).
+     *
+     * @param timestamp the timestamp to convert
+     * @return the timestamp in nanoseconds since the epoch
+     */
+    protected static long toTimestampNanos(Timestamp timestamp) {
+        return Math.floorDiv(timestamp.getTime(), 1000L) * 1000000000L + timestamp.getNanos();
+    }
+
     /**
      * Execute advisor on all monitoring results and produce a list of advice.
      *
@@ -232,12 +403,151 @@ public abstract class AdvisorUsingDatabaseAbstract implements AdvisorInterface {
         }
     }
 
+    /**
+     * Generate FROM and WHERE parts of an SQL SELECT statement to get values of
+     * given monitoring metrics from a given typed table (see
+     * <code>TypedMetricTables</code>), where the metrics are columns. Only
+     * the records with all the given metrics are selected, as by the inner
+     * joins of <code>generateFromWhereFragment</code>, and the time of the
+     * records is available as the <code>time</code> column. The records of
+     * all time partitions of the typed table are selected by its view (see
+     * <code>TimePartitions</code>) named as the typed table.
+     *
+     * @param typedTableName a name of the typed table of monitoring metrics
+     * @param metricNames a names of values of monitoring metrics to get
+     * @return a fragment of an SQL SELECT statement
+     */
+    protected static String generateFromWhereFragmentForTypedTable(String typedTableName, String[] metricNames) {
+        String resultWhere = "WHERE (" + metricNames[0] + " IS NOT NULL) ";
+        for (int i = 1; i < metricNames.length; i++) {
+            resultWhere += "AND (" + metricNames[i] + " IS NOT NULL) ";
+        }
+        return " FROM " + TimePartitions.getViewName(typedTableName) + " AS " + typedTableName + " " + resultWhere;
+    }
+
+    /**
+     * Generate an SQL subquery of aggregates of given measures (see
+     * <code>RollupTables</code>) of records of a given typed table per a global
+     * rank in a window of time. The subquery is planned as a union of the
+     * whole hours of the window from the hour rollup table, of the remaining
+     * whole minutes from the minute rollup table, and of the remaining edges of
+     * the window from the typed table (at most two minutes of records). Its
+     * cost is linear in the number of the hour and minute slices covering the
+     * window, which is much smaller than the number of records in the window
+     * for long windows. The window is set by
+     * <code>setRollupAggregatesParameters</code>. The subquery has a column of
+     * the global rank (named by
+     * <code>RollupTables.getRankMetricName(...)</code>) and columns
+     * <i>measure</i><code>Count</code>, <i>measure</i><code>Sum</code>,
+     * <i>measure</i><code>SumSq</code>, <i>measure</i><code>Min</code>, and
+     * <i>measure</i><code>Max</code> of each measure (the count is zero or
+     * NULL if the measure has no values of the rank in the window).
+     *
+     * @param typedTableName a name of the typed table
+     * @param measureNames a names of the measures
+     * @return an SQL subquery (in parentheses)
+     */
+    protected static String generateRollupAggregatesSubquery(String typedTableName, String[] measureNames) {
+        final String rankMetricName = RollupTables.getRankMetricName(typedTableName);
+        final StringBuilder typedTablePart = new StringBuilder("SELECT ").append(rankMetricName);
+        final StringBuilder rollupTablePart = new StringBuilder("SELECT globalrank AS ").append(rankMetricName);
+        final StringBuilder result = new StringBuilder("(SELECT ").append(rankMetricName);
+        for (String measureName : measureNames) {
+            final String expression = "(" + RollupTables.getMeasureExpression(typedTableName, measureName) + ")";
+            final String rollupCase = "CASE WHEN name = '" + measureName + "' THEN ";
+            typedTablePart.append(", COUNT(").append(expression).append(") AS ").append(measureName).append("Count")
+                    .append(", SUM(").append(expression).append(") AS ").append(measureName).append("Sum")
+                    .append(", SUM(").append(expression).append(" * ").append(expression).append(") AS ").append(measureName).append("SumSq")
+                    .append(", MIN(").append(expression).append(") AS ").append(measureName).append("Min")
+                    .append(", MAX(").append(expression).append(") AS ").append(measureName).append("Max");
+            rollupTablePart.append(", SUM(").append(rollupCase).append("valuecount END) AS ").append(measureName).append("Count")
+                    .append(", SUM(").append(rollupCase).append("valuesum END) AS ").append(measureName).append("Sum")
+                    .append(", SUM(").append(rollupCase).append("valuesumsq END) AS ").append(measureName).append("SumSq")
+                    .append(", MIN(").append(rollupCase).append("valuemin END) AS ").append(measureName).append("Min")
+                    .append(", MAX(").append(rollupCase).append("valuemax END) AS ").append(measureName).append("Max");
+            result.append(", SUM(").append(measureName).append("Count) AS ").append(measureName).append("Count")
+                    .append(", SUM(").append(measureName).append("Sum) AS ").append(measureName).append("Sum")
+                    .append(", SUM(").append(measureName).append("SumSq) AS ").append(measureName).append("SumSq")
+                    .append(", MIN(").append(measureName).append("Min) AS ").append(measureName).append("Min")
+                    .append(", MAX(").append(measureName).append("Max) AS ").append(measureName).append("Max");
+        }
+        typedTablePart.append(" FROM ").append(TimePartitions.getViewName(typedTableName))
+                .append(" WHERE (time BETWEEN ? AND ?) AND (").append(rankMetricName).append(" IS NOT NULL)")
+                .append(" GROUP BY ").append(rankMetricName);
+        // the names of the measures are not in the condition, so the primary key is used for the range of the buckets
+        rollupTablePart.append(" FROM %s WHERE bucket BETWEEN ? AND ?")
+                .append(" GROUP BY globalrank");
+        final String minuteTablePart = String.format(rollupTablePart.toString(), RollupTables.getRollupTableName(typedTableName, RollupTables.MINUTE_BUCKET_NANOS));
+        final String hourTablePart = String.format(rollupTablePart.toString(), RollupTables.getRollupTableName(typedTableName, RollupTables.HOUR_BUCKET_NANOS));
+        // the parts in the order of the parameters set by setRollupAggregatesParameters
+        return result.append(" FROM (")
+                .append(typedTablePart).append(" UNION ALL ")
+                .append(minuteTablePart).append(" UNION ALL ")
+                .append(hourTablePart).append(" UNION ALL ")
+                .append(minuteTablePart).append(" UNION ALL ")
+                .append(typedTablePart)
+                .append(") ").append(typedTableName).append("_parts GROUP BY ").append(rankMetricName).append(")").toString();
+    }
+
+    /**
+     * Set parameters of a subquery generated by
+     * <code>generateRollupAggregatesSubquery</code> to a given window of time,
+     * i.e., split the window into its whole hours, the remaining whole minutes,
+     * and the remaining edges. If the advisor does not use the rollup tables
+     * (see <code>setUseRollupTables</code>), the whole window is set to the
+     * part of the typed table.
+     *
+     * @param preparedStatement a prepared statement with the subquery
+     * @param parameterIndex an index of the first parameter of the subquery
+     * @param monitoringStartTime a start time of the window
+     * @param monitoringEndTime an end time of the window (inclusive)
+     * @return an index of the first parameter after the parameters of the
+     * subquery
+     * @throws SQLException if the parameters cannot be set
+     */
+    protected int setRollupAggregatesParameters(PreparedStatement preparedStatement, int parameterIndex,
+            Timestamp monitoringStartTime, Timestamp monitoringEndTime) throws SQLException {
+        final long startNanos = toTimestampNanos(monitoringStartTime);
+        final long endNanos = toTimestampNanos(monitoringEndTime);
+        // the first and the last bucket boundaries inside the window, i.e., [firstMinute, lastMinute) are whole minutes
+        final long firstMinute = ceilToBucket(startNanos, RollupTables.MINUTE_BUCKET_NANOS);
+        final long lastMinute = floorToBucket(endNanos + 1, RollupTables.MINUTE_BUCKET_NANOS);
+        final long firstHour = ceilToBucket(firstMinute, RollupTables.HOUR_BUCKET_NANOS);
+        final long lastHour = floorToBucket(lastMinute, RollupTables.HOUR_BUCKET_NANOS);
+        // pairs of the first and the last time of the typed table or of the first and the last bucket of the rollup tables
+        final long[] ranges;
+        if (!this.useRollupTables || (firstMinute >= lastMinute)) {
+            ranges = new long[]{startNanos, endNanos, 0, -1, 0, -1, 0, -1, 0, -1};
+        } else if (firstHour >= lastHour) {
+            ranges = new long[]{startNanos, firstMinute - 1, firstMinute, lastMinute - RollupTables.MINUTE_BUCKET_NANOS,
+                0, -1, 0, -1, lastMinute, endNanos};
+        } else {
+            ranges = new long[]{startNanos, firstMinute - 1, firstMinute, firstHour - RollupTables.MINUTE_BUCKET_NANOS,
+                firstHour, lastHour - RollupTables.HOUR_BUCKET_NANOS, lastHour, lastMinute - RollupTables.MINUTE_BUCKET_NANOS,
+                lastMinute, endNanos};
+        }
+        for (long range : ranges) {
+            preparedStatement.setLong(parameterIndex++, range);
+        }
+        return parameterIndex;
+    }
+
+    private static long floorToBucket(long timestampNanos, long bucketNanos) {
+        return timestampNanos - Math.floorMod(timestampNanos, bucketNanos);
+    }
+
+    private static long ceilToBucket(long timestampNanos, long bucketNanos) {
+        return -floorToBucket(-timestampNanos, bucketNanos);
+    }
+
     /**
      * Generate FROM and WHERE parts of an SQL SELECT statement to get values of
      * given monitoring metrics of a given type. Please note that the generated
      * from clause uses an inner join, so all joined tables must contain
      * definned metrics (if some of the metrics are missing in the databases the
-     * whole result is empty).
+     * whole result is empty). The records and the metrics of all time
+     * partitions are selected by their views (see <code>TimePartitions</code>)
+     * named as the records and the metrics tables.
      *
      * @param metricType a type of monitoring metrics
      * @param metricNames a names of values of monitoring metrics to get
@@ -260,13 +570,13 @@ public abstract class AdvisorUsingDatabaseAbstract implements AdvisorInterface {
      * @return a fragment of an SQL SELECT statement
      */
     protected static String generateFromWhereFragment(String metricType, String[] metricNames, boolean useLeftOuterJoins) {
-        String resultFrom = " FROM records ";
+        String resultFrom = " FROM " + TimePartitions.RECORDS_VIEW + " AS records ";
         String resultWhere = "WHERE (metrictype = '" + metricType + "') ";
         for (int i = 0; i < metricNames.length; i++) {
             if (useLeftOuterJoins) {
                 resultFrom += "LEFT OUTER ";
             }
-            resultFrom += "JOIN metrics m" + i + " ON (records.id = m" + i + ".recordid) ";
+            resultFrom += "JOIN " + TimePartitions.METRICS_VIEW + " AS m" + i + " ON (records.id = m" + i + ".recordid) ";
             resultWhere += "AND (m" + i + ".name = '" + metricNames[i] + "') ";
         }
         return resultFrom + resultWhere;
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.tool.plugins;
+
+import eu.juniper.sa.deployment.model.JuniperApplication;
+import eu.juniper.sa.deployment.model.ProgramInstance;
+import eu.juniper.sa.deployment.monitor.db.TypedMetricTables;
+import eu.juniper.sa.tool.Advice;
+import eu.juniper.sa.tool.AdvisorException;
+import eu.juniper.sa.tool.AdvisorInterface;
+import eu.juniper.sa.tool.AdvisorUsingDatabaseAbstract;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Locale;
+import javax.sql.DataSource;
+
+/**
+ * The class of an advisor that ranks Juniper programs by their allocation
+ * rates, i.e., by amounts of heap memory allocated by the program threads per
+ * second of their execution.
+ *
+ * @author rychly
+ */
+public class AdvisorAllocationRate extends AdvisorUsingDatabaseAbstract implements AdvisorInterface {
+
+    // Advisor's metadata
+    private final static String ADVISOR_NAME = AdvisorAllocationRate.class.getSimpleName();
+    private final static String ADVISOR_DESCRIPTION
+            = "This advisor ranks Juniper programs by their allocation rates."
+            + " High allocation rates cause frequent garbage collections"
+            + " which may affect negatively responsiveness of a Juniper application"
+            + " (the allocation rates are not distorted by garbage collections"
+            + " unlike differences of used heap memory).";
+    // Advice's metadata
+    private final static String ADVICE_NAME = "HighAllocationRate";
+    private final static String ADVICE_TEXT
+            = "The thread of the $ running at $"
+            + " allocated %f bytes of heap memory in %f seconds of total execution time of the program"
+            + " and %f seconds of its CPU time."
+            + " That makes the allocation rate %f bytes per second of execution time and %f bytes per second of CPU time"
+            + " (the cases with %f bytes per second of execution time and above are reported).";
+    private final static Locale ADVISOR_LOCALE = Locale.ENGLISH;
+    // Monitoring information processing SQL query
+    // the durations of the records with the thread CPU time and the allocated bytes
+    private final static String[] QUERY_measuresOfProgramRuntime = {
+        "AllocatingProgramDuration",
+        "ProgramThreadCpuTime",
+        "ProgramAllocatedBytes"
+    };
+    private final static String QUERY
+            = "SELECT ProgramGlobalRank,\n"
+            + "  AllocatingProgramDurationSum AS ProgramDurationSum,\n"
+            + "  ProgramThreadCpuTimeSum,\n"
+            + "  ProgramAllocatedBytesSum,\n"
+            + "  CASE WHEN AllocatingProgramDurationSum=0 THEN 0 ELSE ProgramAllocatedBytesSum/AllocatingProgramDurationSum END AS AllocationRate,\n"
+            + "  CASE WHEN ProgramThreadCpuTimeSum=0 THEN 0 ELSE ProgramAllocatedBytesSum/ProgramThreadCpuTimeSum END AS CpuAllocationRate\n"
+            + "FROM " + AdvisorUsingDatabaseAbstract.generateRollupAggregatesSubquery(TypedMetricTables.PROGRAM_RUNTIME_TABLE, QUERY_measuresOfProgramRuntime) + " ProgramRuntime\n"
+            + "WHERE (ProgramRuntime.AllocatingProgramDurationCount > 0)\n"
+            + "AND (CASE WHEN AllocatingProgramDurationSum=0 THEN 0 ELSE ProgramAllocatedBytesSum/AllocatingProgramDurationSum END >= ?)\n"
+            + "ORDER BY AllocationRate DESC;";
+
+    /**
+     * Maximal allocation rate of a Juniper program in bytes per second of its
+     * execution time (reaching of this rate causes the advice generation).
+     */
+    protected double allocationRate = 0; // 500000000
+
+    /**
+     * Get a name of the advisor.
+     *
+     * @return a name of the advisor
+     */
+    @Override
+    public String getName() {
+        return AdvisorAllocationRate.ADVISOR_NAME;
+    }
+
+    /**
+     * Get a description of the advisor.
+     *
+     * @return a description of the advisor
+     */
+    @Override
+    public String getDescription() {
+        return AdvisorAllocationRate.ADVISOR_DESCRIPTION;
+    }
+
+    /**
+     * Execute advisor on selected monitoring results and produce a list of
+     * advice.
+     *
+     * @param monitoringStartTime a start time of the monitoring results
+     * @param monitoringEndTime an end time of the monitoring results
+     * @return a list of advice
+     * @throws AdvisorException if there is error while reading the monitoring
+     * results
+     */
+    @Override
+    public Advice[] execute(Timestamp monitoringStartTime, Timestamp monitoringEndTime) throws AdvisorException {
+        ArrayList<Advice> result = new ArrayList<>();
+        try (Connection connection = this.getMonitoringDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(QUERY)) {
+            final int parameterIndex = this.setRollupAggregatesParameters(preparedStatement, 1, monitoringStartTime, monitoringEndTime);
+            preparedStatement.setDouble(parameterIndex, this.allocationRate);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    final int programInstanceId = resultSet.getInt("ProgramGlobalRank");
+                    final ProgramInstance programInstance
+                            = this.getJuniperApplication().getProgramModel().getProgramInstanceById(programInstanceId);
+                    if (programInstance == null) {
+                        throw new AdvisorException("Cannot find Juniper program instance with ID " + programInstanceId);
+                    }
+                    result.add(new Advice(AdvisorAllocationRate.ADVICE_NAME, String.format(
+                            AdvisorAllocationRate.ADVISOR_LOCALE, AdvisorAllocationRate.ADVICE_TEXT,
+                            resultSet.getDouble("ProgramAllocatedBytesSum"),
+                            resultSet.getDouble("ProgramDurationSum"),
+                            resultSet.getDouble("ProgramThreadCpuTimeSum"),
+                            resultSet.getDouble("AllocationRate"),
+                            resultSet.getDouble("CpuAllocationRate"),
+                            this.allocationRate
+                    ), programInstance, programInstance.getCloudNode()));
+                }
+            }
+        }
+        catch (SQLException ex) {
+            throw new AdvisorException("SQL exception when retrieving monitoring data", ex);
+        }
+        return result.toArray(new Advice[0]);
+    }
+
+    /**
+     * Create the advisor that will utilize a database connection to get
+     * monitoring data and to rank Juniper programs of a given Juniper
+     * application by their allocation rates.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDatabaseConnection a database connection to get
+     * monitoring data
+     */
+    public AdvisorAllocationRate(JuniperApplication juniperApplication, Connection monitoringDatabaseConnection) {
+        super(juniperApplication, monitoringDatabaseConnection);
+    }
+
+    /**
+     * Create the advisor that will borrow database connections from a data
+     * source to get monitoring data and to rank Juniper programs of a given
+     * Juniper application by their allocation rates.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDataSource a data source of database connections to get
+     * monitoring data
+     */
+    public AdvisorAllocationRate(JuniperApplication juniperApplication, DataSource monitoringDataSource) {
+        super(juniperApplication, monitoringDataSource);
+    }
+
+    /**
+     * Get a maximal allocation rate of a Juniper program in bytes per second
+     * of its execution time (reaching of this rate causes the advice
+     * generation).
+     *
+     * @return a maximal allocation rate of a Juniper program in bytes per
+     * second
+     */
+    public double getAllocationRate() {
+        return allocationRate;
+    }
+
+    /**
+     * Set a maximal allocation rate of a Juniper program in bytes per second
+     * of its execution time (reaching of this rate causes the advice
+     * generation).
+     *
+     * @param allocationRate a maximal allocation rate of a Juniper program in
+     * bytes per second
+     */
+    public void setAllocationRate(double allocationRate) {
+        this.allocationRate = allocationRate;
+    }
+
+    public static void main(String[] args) {
+        System.err.println(
+                "\nAdvisor Name: " + AdvisorAllocationRate.ADVISOR_NAME
+                + "\nAdvisor Description: " + AdvisorAllocationRate.ADVISOR_DESCRIPTION
+                + "\nAdvice Name: " + AdvisorAllocationRate.ADVICE_NAME
+                + "\nAdvice Text: " + AdvisorAllocationRate.ADVICE_TEXT
+                + "\nSQL:\n" + AdvisorAllocationRate.QUERY
+        );
+    }
+
+}
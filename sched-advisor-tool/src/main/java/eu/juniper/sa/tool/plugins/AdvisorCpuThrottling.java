@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2015, Brno University of Technology, Faculty of Information Technology
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of sched-advisor nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package eu.juniper.sa.tool.plugins;
+
+import eu.juniper.sa.deployment.model.JuniperApplication;
+import eu.juniper.sa.deployment.model.ProgramInstance;
+import eu.juniper.sa.deployment.monitor.db.TypedMetricTables;
+import eu.juniper.sa.tool.Advice;
+import eu.juniper.sa.tool.AdvisorException;
+import eu.juniper.sa.tool.AdvisorInterface;
+import eu.juniper.sa.tool.AdvisorUsingDatabaseAbstract;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Locale;
+import javax.sql.DataSource;
+
+/**
+ * The class of an advisor that detects Juniper programs losing a significant
+ * part of their execution time to throttling of their CPU usage by the CFS
+ * bandwidth control of a control group (e.g., of a container with a CPU
+ * limit). The throttling is reported by program instances monitored with a
+ * cgroup-aware monitored resources strategy.
+ *
+ * @author rychly
+ */
+public class AdvisorCpuThrottling extends AdvisorUsingDatabaseAbstract implements AdvisorInterface {
+
+    // Advisor's metadata
+    private final static String ADVISOR_NAME = AdvisorCpuThrottling.class.getSimpleName();
+    private final static String ADVISOR_DESCRIPTION
+            = "This advisor detects Juniper programs losing a significant part of their execution time"
+            + " to CPU throttling by a CPU quota of their control group (e.g., a container)."
+            + " Throttled programs cannot run until the end of a period of the quota,"
+            + " so their execution times are prolonged regardless of their own efficiency.";
+    // Advice's metadata
+    private final static String ADVICE_NAME = "CpuThrottling";
+    private final static String ADVICE_TEXT
+            = "The $ running at $"
+            + " was throttled in %d periods of the CPU quota for %f seconds"
+            + " in %f seconds of total execution time of the program."
+            + " That makes %f of the execution time"
+            + " (the cases with %f of the execution time and above are reported),"
+            + " so the CPU limit of the control group of the program should be increased.";
+    private final static Locale ADVISOR_LOCALE = Locale.ENGLISH;
+    // Monitoring information processing SQL query
+    // the durations of the records with the CPU throttling
+    private final static String[] QUERY_measuresOfProgramRuntime = {
+        "ThrottledProgramDuration",
+        "CpuThrottledCount",
+        "CpuThrottledTime"
+    };
+    private final static String QUERY
+            = "SELECT ProgramGlobalRank,\n"
+            + "  ThrottledProgramDurationSum AS ProgramDurationSum,\n"
+            + "  CpuThrottledCountSum,\n"
+            + "  CpuThrottledTimeSum,\n"
+            + "  CASE WHEN ThrottledProgramDurationSum=0 THEN 0 ELSE CpuThrottledTimeSum/ThrottledProgramDurationSum END AS ThrottledTimeRatio\n"
+            + "FROM " + AdvisorUsingDatabaseAbstract.generateRollupAggregatesSubquery(TypedMetricTables.PROGRAM_RUNTIME_TABLE, QUERY_measuresOfProgramRuntime) + " ProgramRuntime\n"
+            + "WHERE (ProgramRuntime.ThrottledProgramDurationCount > 0)\n"
+            + "AND (CASE WHEN ThrottledProgramDurationSum=0 THEN 0 ELSE CpuThrottledTimeSum/ThrottledProgramDurationSum END >= ?)\n"
+            + "ORDER BY ThrottledTimeRatio DESC;";
+
+    /**
+     * Maximal ratio of throttled time to execution time of a Juniper program
+     * (reaching of this ratio causes the advice generation).
+     */
+    protected double throttledTimeRatio = 0.1;
+
+    /**
+     * Get a name of the advisor.
+     *
+     * @return a name of the advisor
+     */
+    @Override
+    public String getName() {
+        return AdvisorCpuThrottling.ADVISOR_NAME;
+    }
+
+    /**
+     * Get a description of the advisor.
+     *
+     * @return a description of the advisor
+     */
+    @Override
+    public String getDescription() {
+        return AdvisorCpuThrottling.ADVISOR_DESCRIPTION;
+    }
+
+    /**
+     * Execute advisor on selected monitoring results and produce a list of
+     * advice.
+     *
+     * @param monitoringStartTime a start time of the monitoring results
+     * @param monitoringEndTime an end time of the monitoring results
+     * @return a list of advice
+     * @throws AdvisorException if there is error while reading the monitoring
+     * results
+     */
+    @Override
+    public Advice[] execute(Timestamp monitoringStartTime, Timestamp monitoringEndTime) throws AdvisorException {
+        ArrayList<Advice> result = new ArrayList<>();
+        try (Connection connection = this.getMonitoringDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(QUERY)) {
+            final int parameterIndex = this.setRollupAggregatesParameters(preparedStatement, 1, monitoringStartTime, monitoringEndTime);
+            preparedStatement.setDouble(parameterIndex, this.throttledTimeRatio);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    final int programInstanceId = resultSet.getInt("ProgramGlobalRank");
+                    final ProgramInstance programInstance
+                            = this.getJuniperApplication().getProgramModel().getProgramInstanceById(programInstanceId);
+                    if (programInstance == null) {
+                        throw new AdvisorException("Cannot find Juniper program instance with ID " + programInstanceId);
+                    }
+                    result.add(new Advice(AdvisorCpuThrottling.ADVICE_NAME, String.format(
+                            AdvisorCpuThrottling.ADVISOR_LOCALE, AdvisorCpuThrottling.ADVICE_TEXT,
+                            resultSet.getLong("CpuThrottledCountSum"),
+                            resultSet.getDouble("CpuThrottledTimeSum"),
+                            resultSet.getDouble("ProgramDurationSum"),
+                            resultSet.getDouble("ThrottledTimeRatio"),
+                            this.throttledTimeRatio
+                    ), programInstance, programInstance.getCloudNode()));
+                }
+            }
+        }
+        catch (SQLException ex) {
+            throw new AdvisorException("SQL exception when retrieving monitoring data", ex);
+        }
+        return result.toArray(new Advice[0]);
+    }
+
+    /**
+     * Create the advisor that will utilize a database connection to get
+     * monitoring data and to detect CPU throttling of Juniper programs of a
+     * given Juniper application.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDatabaseConnection a database connection to get
+     * monitoring data
+     */
+    public AdvisorCpuThrottling(JuniperApplication juniperApplication, Connection monitoringDatabaseConnection) {
+        super(juniperApplication, monitoringDatabaseConnection);
+    }
+
+    /**
+     * Create the advisor that will borrow database connections from a data
+     * source to get monitoring data and to detect CPU throttling of Juniper
+     * programs of a given Juniper application.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDataSource a data source of database connections to get
+     * monitoring data
+     */
+    public AdvisorCpuThrottling(JuniperApplication juniperApplication, DataSource monitoringDataSource) {
+        super(juniperApplication, monitoringDataSource);
+    }
+
+    /**
+     * Get a maximal ratio of throttled time to execution time of a Juniper
+     * program (reaching of this ratio causes the advice generation).
+     *
+     * @return a maximal ratio of throttled time to execution time
+     */
+    public double getThrottledTimeRatio() {
+        return throttledTimeRatio;
+    }
+
+    /**
+     * Set a maximal ratio of throttled time to execution time of a Juniper
+     * program (reaching of this ratio causes the advice generation).
+     *
+     * @param throttledTimeRatio a maximal ratio of throttled time to execution
+     * time
+     */
+    public void setThrottledTimeRatio(double throttledTimeRatio) {
+        this.throttledTimeRatio = throttledTimeRatio;
+    }
+
+    public static void main(String[] args) {
+        System.err.println(
+                "\nAdvisor Name: " + AdvisorCpuThrottling.ADVISOR_NAME
+                + "\nAdvisor Description: " + AdvisorCpuThrottling.ADVISOR_DESCRIPTION
+                + "\nAdvice Name: " + AdvisorCpuThrottling.ADVICE_NAME
+                + "\nAdvice Text: " + AdvisorCpuThrottling.ADVICE_TEXT
+                + "\nSQL:\n" + AdvisorCpuThrottling.QUERY
+        );
+    }
+
+}
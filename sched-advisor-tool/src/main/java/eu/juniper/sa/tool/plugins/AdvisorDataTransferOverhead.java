@@ -29,6 +29,8 @@ package eu.juniper.sa.tool.plugins;
 
 import eu.juniper.sa.deployment.model.JuniperApplication;
 import eu.juniper.sa.deployment.model.ProgramInstance;
+import eu.juniper.sa.monitoring.sensor.DataConnectionAggregatingSensor;
+import eu.juniper.sa.deployment.monitor.db.TypedMetricTables;
 import eu.juniper.sa.tool.Advice;
 import eu.juniper.sa.tool.AdvisorException;
 import eu.juniper.sa.tool.AdvisorInterface;
@@ -40,6 +42,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Locale;
+import javax.sql.DataSource;
 
 /**
  * The class of an advisor that detects Juniper programs with long data transfer
@@ -69,33 +72,48 @@ public class AdvisorDataTransferOverhead extends AdvisorUsingDatabaseAbstract im
             + " That makes %f percentage of execution time spent by receiving data"
             + " (the cases with %f percentage and above are reported).";
     // Monitoring information processing SQL query
-    private final static String[] QUERY_metricsInProgramRuntime = {"ProgramGlobalRank", "ProgramDuration"};
-    private final static String[] QUERY_metricsInSendReceive = {"ReceiverGlobalRank", "SendReceiveDuration"};
+    private final static String[] QUERY_measuresOfProgramRuntime = {"ProgramDuration", "ProgramInvocations"};
+    private final static String[] QUERY_measuresOfSendReceive = {"SendReceiveDuration"};
+    private final static String[] QUERY_metricsInSendReceiveSummary = {"ReceiverGlobalRank",
+        "SendReceiveDuration" + DataConnectionAggregatingSensor.SUFFIX_SUM, "SendReceiveDuration" + DataConnectionAggregatingSensor.SUFFIX_COUNT};
     private final static String QUERY
             = "SELECT ProgramGlobalRank,\n"
             + "  ProgramDurationSum,\n"
             + "  ProgramDurationAvg,\n"
-            + "  ProgramDurationCount,\n"
+            + "  ProgramInvocationsCount,\n"
             + "  SendReceiveDurationSum,\n"
             + "  SendReceiveDurationAvg,\n"
             + "  SendReceiveDurationCount,\n"
             + "  SendReceiveDurationSum/ProgramDurationSum AS TransferToExecutionDurationRatio\n"
             + "FROM\n"
-            + "  (SELECT m0.numericvalue AS ProgramGlobalRank,\n"
-            + "    SUM(m1.numericvalue) AS ProgramDurationSum,\n"
-            + "    AVG(m1.numericvalue) AS ProgramDurationAvg,\n"
-            + "    COUNT(m1.numericvalue) AS ProgramDurationCount\n"
-            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("ProgramRuntime", QUERY_metricsInProgramRuntime)
-            + "  AND (records.time BETWEEN ? AND ?)\n"
-            + "  GROUP BY ProgramGlobalRank\n"
+            + "  (SELECT ProgramGlobalRank,\n"
+            + "    ProgramDurationSum,\n"
+            + "    ProgramDurationSum/ProgramInvocationsSum AS ProgramDurationAvg,\n"
+            + "    ROUND(ProgramInvocationsSum) AS ProgramInvocationsCount\n"
+            + "  FROM " + AdvisorUsingDatabaseAbstract.generateRollupAggregatesSubquery(TypedMetricTables.PROGRAM_RUNTIME_TABLE, QUERY_measuresOfProgramRuntime) + " ProgramRuntimeAggregates\n"
+            + "  WHERE ProgramRuntimeAggregates.ProgramDurationCount > 0\n"
             + "  ) ProgramRuntime\n"
             + "JOIN\n"
-            + "  (SELECT m0.numericvalue AS ReceiverGlobalRank,\n"
-            + "    SUM(m1.numericvalue) AS SendReceiveDurationSum,\n"
-            + "    AVG(m1.numericvalue) AS SendReceiveDurationAvg,\n"
-            + "    COUNT(m1.numericvalue) AS SendReceiveDurationCount\n"
-            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("SendReceive", QUERY_metricsInSendReceive)
-            + "  AND (records.time BETWEEN ? AND ?)\n"
+            + "  (SELECT ReceiverGlobalRank,\n"
+            + "    SUM(DurationSum) AS SendReceiveDurationSum,\n"
+            + "    SUM(DurationSum)/SUM(DurationCount) AS SendReceiveDurationAvg,\n"
+            + "    SUM(DurationCount) AS SendReceiveDurationCount\n"
+            + "  FROM\n"
+            // individual transfers
+            + "    (SELECT ReceiverGlobalRank,\n"
+            + "      SendReceiveDurationSum AS DurationSum,\n"
+            + "      SendReceiveDurationCount AS DurationCount\n"
+            + "    FROM " + AdvisorUsingDatabaseAbstract.generateRollupAggregatesSubquery(TypedMetricTables.SEND_RECEIVE_TABLE, QUERY_measuresOfSendReceive) + " SendReceiveAggregates\n"
+            + "    WHERE SendReceiveAggregates.SendReceiveDurationCount > 0\n"
+            + "    UNION ALL\n"
+            // windows of transfers aggregated by sensors
+            + "    SELECT m0.numericvalue AS ReceiverGlobalRank,\n"
+            + "      SUM(m1.numericvalue) AS DurationSum,\n"
+            + "      SUM(m2.numericvalue) AS DurationCount\n"
+            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment(DataConnectionAggregatingSensor.METRIC_TYPE, QUERY_metricsInSendReceiveSummary)
+            + "    AND (records.time BETWEEN ? AND ?)\n"
+            + "    GROUP BY m0.numericvalue\n"
+            + "    ) SendReceiveParts\n"
             + "  GROUP BY ReceiverGlobalRank\n"
             + "  ) SendReceive ON (ProgramRuntime.ProgramGlobalRank = SendReceive.ReceiverGlobalRank)\n"
             + "WHERE SendReceiveDurationSum/ProgramDurationSum     >= ?\n"
@@ -140,12 +158,13 @@ public class AdvisorDataTransferOverhead extends AdvisorUsingDatabaseAbstract im
     @Override
     public Advice[] execute(Timestamp monitoringStartTime, Timestamp monitoringEndTime) throws AdvisorException {
         ArrayList<Advice> result = new ArrayList<>();
-        try (PreparedStatement preparedStatement = this.getMonitoringDatabaseConnection().prepareStatement(QUERY)) {
-            preparedStatement.setTimestamp(1, monitoringStartTime);
-            preparedStatement.setTimestamp(2, monitoringEndTime);
-            preparedStatement.setTimestamp(3, monitoringStartTime);
-            preparedStatement.setTimestamp(4, monitoringEndTime);
-            preparedStatement.setDouble(5, this.receivingToExecutionDurationRatio);
+        try (Connection connection = this.getMonitoringDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(QUERY)) {
+            int parameterIndex = this.setRollupAggregatesParameters(preparedStatement, 1, monitoringStartTime, monitoringEndTime);
+            parameterIndex = this.setRollupAggregatesParameters(preparedStatement, parameterIndex, monitoringStartTime, monitoringEndTime);
+            preparedStatement.setLong(parameterIndex++, toTimestampNanos(monitoringStartTime));
+            preparedStatement.setLong(parameterIndex++, toTimestampNanos(monitoringEndTime));
+            preparedStatement.setDouble(parameterIndex, this.receivingToExecutionDurationRatio);
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
                 while (resultSet.next()) {
                     final int programInstanceId = resultSet.getInt("ProgramGlobalRank");
@@ -161,7 +180,7 @@ public class AdvisorDataTransferOverhead extends AdvisorUsingDatabaseAbstract im
                             resultSet.getDouble("SendReceiveDurationAvg"),
                             resultSet.getInt("SendReceiveDurationCount"),
                             resultSet.getDouble("ProgramDurationAvg"),
-                            resultSet.getInt("ProgramDurationCount"),
+                            resultSet.getInt("ProgramInvocationsCount"),
                             resultSet.getDouble("TransferToExecutionDurationRatio") * 100,
                             this.receivingToExecutionDurationRatio * 100
                     ), programInstance, programInstance.getCloudNode()));
@@ -188,6 +207,20 @@ public class AdvisorDataTransferOverhead extends AdvisorUsingDatabaseAbstract im
         super(juniperApplication, monitoringDatabaseConnection);
     }
 
+    /**
+     * Create the advisor that will borrow database connections from a data
+     * source to get monitoring data and to detect high overhead of data
+     * transfers in programs of a given Juniper application.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDataSource a data source of database connections to get
+     * monitoring data
+     */
+    public AdvisorDataTransferOverhead(JuniperApplication juniperApplication, DataSource monitoringDataSource) {
+        super(juniperApplication, monitoringDataSource);
+    }
+
     /**
      * Get a maximal ratio of total data communication duration to total execution
      * time of a Juniper program (reaching of this ration causes the advice
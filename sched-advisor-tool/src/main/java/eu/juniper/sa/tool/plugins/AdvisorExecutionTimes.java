@@ -29,6 +29,7 @@ package eu.juniper.sa.tool.plugins;
 
 import eu.juniper.sa.deployment.model.JuniperApplication;
 import eu.juniper.sa.deployment.model.ProgramInstance;
+import eu.juniper.sa.deployment.monitor.db.TypedMetricTables;
 import eu.juniper.sa.tool.Advice;
 import eu.juniper.sa.tool.AdvisorException;
 import eu.juniper.sa.tool.AdvisorInterface;
@@ -40,6 +41,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Locale;
+import javax.sql.DataSource;
 
 /**
  * The class of an advisor that just computes execution time statistics for
@@ -61,17 +63,17 @@ public class AdvisorExecutionTimes extends AdvisorUsingDatabaseAbstract implemen
             + " has the following execution time statistics for its %d executions:"
             + " total %f seconds, average %f seconds, minimal %f seconds, maximal %f seconds.";
     // Monitoring information processing SQL query
-    private final static String[] QUERY_metricsInProgramRuntime = {"ProgramGlobalRank", "ProgramDuration"};
+    private final static String[] QUERY_measuresOfProgramRuntime = {"ProgramDuration", "ProgramInvocations", "ProgramDurationPerInvocation"};
     private final static String QUERY
-            = "SELECT m0.numericvalue AS ProgramGlobalRank,\n"
-            + "  SUM(m1.numericvalue) AS ProgramDurationSum,\n"
-            + "  AVG(m1.numericvalue) AS ProgramDurationAvg,\n"
-            + "  MIN(m1.numericvalue) AS ProgramDurationMin,\n"
-            + "  MAX(m1.numericvalue) AS ProgramDurationMax,\n"
-            + "  COUNT(m1.numericvalue) AS ProgramDurationCount\n"
-            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("ProgramRuntime", QUERY_metricsInProgramRuntime)
-            + "  AND (records.time BETWEEN ? AND ?)\n"
-            + "GROUP BY ProgramGlobalRank;";
+            = "SELECT ProgramGlobalRank,\n"
+            + "  ProgramDurationSum,\n"
+            + "  ProgramDurationSum/ProgramInvocationsSum AS ProgramDurationAvg,\n"
+            // records of sampling sensors provide average durations of the invocations which they represent
+            + "  ProgramDurationPerInvocationMin AS ProgramDurationMin,\n"
+            + "  ProgramDurationPerInvocationMax AS ProgramDurationMax,\n"
+            + "  ROUND(ProgramInvocationsSum) AS ProgramInvocationsCount\n"
+            + "FROM " + AdvisorUsingDatabaseAbstract.generateRollupAggregatesSubquery(TypedMetricTables.PROGRAM_RUNTIME_TABLE, QUERY_measuresOfProgramRuntime) + " ProgramRuntime\n"
+            + "WHERE ProgramRuntime.ProgramDurationCount > 0;";
 
     /**
      * Get a name of the advisor.
@@ -106,9 +108,9 @@ public class AdvisorExecutionTimes extends AdvisorUsingDatabaseAbstract implemen
     @Override
     public Advice[] execute(Timestamp monitoringStartTime, Timestamp monitoringEndTime) throws AdvisorException {
         ArrayList<Advice> result = new ArrayList<>();
-        try (PreparedStatement preparedStatement = this.getMonitoringDatabaseConnection().prepareStatement(QUERY)) {
-            preparedStatement.setTimestamp(1, monitoringStartTime);
-            preparedStatement.setTimestamp(2, monitoringEndTime);
+        try (Connection connection = this.getMonitoringDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(QUERY)) {
+            this.setRollupAggregatesParameters(preparedStatement, 1, monitoringStartTime, monitoringEndTime);
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
                 while (resultSet.next()) {
                     final int programInstanceId = resultSet.getInt("ProgramGlobalRank");
@@ -118,7 +120,7 @@ public class AdvisorExecutionTimes extends AdvisorUsingDatabaseAbstract implemen
                         throw new AdvisorException("Cannot find Juniper program instance with ID " + programInstanceId);
                     }
                     result.add(new Advice(AdvisorExecutionTimes.ADVICE_NAME, String.format(AdvisorExecutionTimes.ADVISOR_LOCALE, AdvisorExecutionTimes.ADVICE_TEXT,
-                            resultSet.getInt("ProgramDurationCount"),
+                            resultSet.getInt("ProgramInvocationsCount"),
                             resultSet.getDouble("ProgramDurationSum"),
                             resultSet.getDouble("ProgramDurationAvg"),
                             resultSet.getDouble("ProgramDurationMin"),
@@ -146,6 +148,19 @@ public class AdvisorExecutionTimes extends AdvisorUsingDatabaseAbstract implemen
         super(juniperApplication, monitoringDatabaseConnection);
     }
 
+    /**
+     * Create the advisor that just computes execution time statistics for
+     * Juniper programs of a given Juniper application.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDataSource a data source of database connections to get
+     * monitoring data
+     */
+    public AdvisorExecutionTimes(JuniperApplication juniperApplication, DataSource monitoringDataSource) {
+        super(juniperApplication, monitoringDataSource);
+    }
+
     public static void main(String[] args) {
         System.err.println("\nAdvisor Name: " + AdvisorExecutionTimes.ADVISOR_NAME
                 + "\nAdvisor Description: " + AdvisorExecutionTimes.ADVISOR_DESCRIPTION
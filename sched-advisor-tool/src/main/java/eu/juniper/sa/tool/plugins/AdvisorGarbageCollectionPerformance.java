@@ -29,6 +29,7 @@ package eu.juniper.sa.tool.plugins;
 
 import eu.juniper.sa.deployment.model.JuniperApplication;
 import eu.juniper.sa.deployment.model.ProgramInstance;
+import eu.juniper.sa.deployment.monitor.db.TypedMetricTables;
 import eu.juniper.sa.tool.Advice;
 import eu.juniper.sa.tool.AdvisorException;
 import eu.juniper.sa.tool.AdvisorInterface;
@@ -39,11 +40,16 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
+import javax.sql.DataSource;
 
 /**
  * The class of an advisor that detects Juniper programs that spent much time on
- * garbage collecting.
+ * garbage collecting. If the monitoring data include "GcPause" records of
+ * individual garbage collection pauses (see
+ * <code>GarbageCollectionPauseSensor</code>), the advisor also reports the
+ * longest pauses and percentiles of pause durations of the programs.
  *
  * @author rychly
  */
@@ -66,27 +72,67 @@ public class AdvisorGarbageCollectionPerformance extends AdvisorUsingDatabaseAbs
             + " (averages are %f seconds per garbage collection and %f seconds for the execution time)."
             + " That makes %f percentage of execution time spent by garbage collections"
             + " (the cases with %f percentage and above are reported).";
+    private final static String ADVICE_NAME_LONGEST_PAUSE = "LongestGarbageCollectionPause";
+    private final static String ADVICE_TEXT_LONGEST_PAUSE
+            = "The Java Hotspot JVM of the $ running at $"
+            + " was paused for %f seconds by garbage collector %s due to %s"
+            + " starting at %s (used heap memory was %d bytes before and %d bytes after the collection)."
+            + " It is one of %d longest garbage collection pauses of the application.";
+    private final static String ADVICE_NAME_PAUSE_PERCENTILES = "GarbageCollectionPauseTimes";
+    private final static String ADVICE_TEXT_PAUSE_PERCENTILES
+            = "The Java Hotspot JVM of the $ running at $"
+            + " was paused %d times for %f seconds in total by garbage collections"
+            + " (pause durations are %f seconds in median, %f seconds in 90th percentile,"
+            + " %f seconds in 99th percentile, and %f seconds in maximum)."
+            + " The cases with %f seconds and above in 99th percentile are reported.";
     private final static Locale ADVISOR_LOCALE = Locale.ENGLISH;
     // Monitoring information processing SQL query
-    private final static String[] QUERY_metricsInProgramRuntime = {
-        "ProgramGlobalRank",
+    // the garbage collection metrics are reported with the duration by all the program instance sensors
+    private final static String[] QUERY_measuresOfProgramRuntime = {
         "ProgramDuration",
+        "ProgramInvocations",
         "GarbageCollectionCount",
         "GarbageCollectionTime"
     };
     private final static String QUERY
+            = "SELECT ProgramGlobalRank,\n"
+            + "  ProgramDurationSum,\n"
+            + "  ProgramDurationSum/ProgramInvocationsSum AS ProgramDurationAvg,\n"
+            + "  ROUND(GarbageCollectionCountSum) AS GarbageCollectionCount,\n"
+            + "  GarbageCollectionTimeSum,\n"
+            + "  CASE WHEN GarbageCollectionCountSum=0 THEN 0 ELSE GarbageCollectionTimeSum/GarbageCollectionCountSum END AS GarbageCollectionTimeAvg,\n"
+            + "  CASE WHEN ProgramDurationSum=0 THEN 0 ELSE GarbageCollectionTimeSum/ProgramDurationSum END AS GarbageCollectionToExecutionDurationRatio\n"
+            + "FROM " + AdvisorUsingDatabaseAbstract.generateRollupAggregatesSubquery(TypedMetricTables.PROGRAM_RUNTIME_TABLE, QUERY_measuresOfProgramRuntime) + " ProgramRuntime\n"
+            + "WHERE (ProgramRuntime.GarbageCollectionTimeCount > 0)\n"
+            + "AND (CASE WHEN ProgramDurationSum=0 THEN 0 ELSE GarbageCollectionTimeSum/ProgramDurationSum END >= ?)\n"
+            + "ORDER BY GarbageCollectionToExecutionDurationRatio DESC;";
+    private final static String[] QUERY_metricsInGcPause = {
+        "ProgramGlobalRank",
+        "GcPauseDuration",
+        "GcCollector",
+        "GcCause",
+        "GcStartTimestamp",
+        "HeapBeforeGc",
+        "HeapAfterGc"
+    };
+    private final static String QUERY_LONGEST_PAUSES
             = "SELECT m0.numericvalue AS ProgramGlobalRank,\n"
-            + "  SUM(m1.numericvalue) AS ProgramDurationSum,\n"
-            + "  AVG(m1.numericvalue) AS ProgramDurationAvg,\n"
-            + "  SUM(m2.numericvalue) AS GarbageCollectionCount,\n"
-            + "  SUM(m3.numericvalue) AS GarbageCollectionTimeSum,\n"
-            + "  CASE WHEN SUM(m2.numericvalue)=0 THEN 0 ELSE SUM(m3.numericvalue)/SUM(m2.numericvalue) END AS GarbageCollectionTimeAvg,\n"
-            + "  CASE WHEN SUM(m1.numericvalue)=0 THEN 0 ELSE SUM(m3.numericvalue)/SUM(m1.numericvalue) END AS GarbageCollectionToExecutionDurationRatio\n"
-            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("ProgramRuntime", QUERY_metricsInProgramRuntime)
+            + "  m1.numericvalue AS GcPauseDuration,\n"
+            + "  m2.textvalue AS GcCollector,\n"
+            + "  m3.textvalue AS GcCause,\n"
+            + "  m4.numericvalue AS GcStartTimestamp,\n"
+            + "  m5.numericvalue AS HeapBeforeGc,\n"
+            + "  m6.numericvalue AS HeapAfterGc\n"
+            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("GcPause", QUERY_metricsInGcPause)
             + "AND (records.time BETWEEN ? AND ?)\n"
-            + "GROUP BY ProgramGlobalRank\n"
-            + "HAVING CASE WHEN SUM(m1.numericvalue)=0 THEN 0 ELSE SUM(m3.numericvalue)/SUM(m1.numericvalue) END >= ?\n"
-            + "ORDER BY GarbageCollectionToExecutionDurationRatio DESC;";
+            + "ORDER BY GcPauseDuration DESC\n"
+            + "LIMIT ?;";
+    private final static String QUERY_PAUSE_DURATIONS
+            = "SELECT m0.numericvalue AS ProgramGlobalRank,\n"
+            + "  m1.numericvalue AS GcPauseDuration\n"
+            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("GcPause", Arrays.copyOf(QUERY_metricsInGcPause, 2))
+            + "AND (records.time BETWEEN ? AND ?)\n"
+            + "ORDER BY ProgramGlobalRank, GcPauseDuration;";
 
     /**
      * Maximal ratio of total garbage collection duration to total execution
@@ -95,6 +141,19 @@ public class AdvisorGarbageCollectionPerformance extends AdvisorUsingDatabaseAbs
      */
     protected double garbageCollectionToExecutionDurationRatio = 0; // 0.02
 
+    /**
+     * Number of the longest garbage collection pauses to report (no pauses
+     * are reported if it is not positive).
+     */
+    protected int longestPausesCount = 5;
+
+    /**
+     * Maximal 99th percentile of durations of garbage collection pauses of a
+     * Juniper program in seconds (reaching of this percentile causes the
+     * advice generation).
+     */
+    protected double pauseDuration99thPercentile = 0; // 0.1
+
     /**
      * Get a name of the advisor.
      *
@@ -128,10 +187,10 @@ public class AdvisorGarbageCollectionPerformance extends AdvisorUsingDatabaseAbs
     @Override
     public Advice[] execute(Timestamp monitoringStartTime, Timestamp monitoringEndTime) throws AdvisorException {
         ArrayList<Advice> result = new ArrayList<>();
-        try (PreparedStatement preparedStatement = this.getMonitoringDatabaseConnection().prepareStatement(QUERY)) {
-            preparedStatement.setTimestamp(1, monitoringStartTime);
-            preparedStatement.setTimestamp(2, monitoringEndTime);
-            preparedStatement.setDouble(3, this.garbageCollectionToExecutionDurationRatio);
+        try (Connection connection = this.getMonitoringDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(QUERY)) {
+            final int parameterIndex = this.setRollupAggregatesParameters(preparedStatement, 1, monitoringStartTime, monitoringEndTime);
+            preparedStatement.setDouble(parameterIndex, this.garbageCollectionToExecutionDurationRatio);
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
                 while (resultSet.next()) {
                     final int programInstanceId = resultSet.getInt("ProgramGlobalRank");
@@ -156,9 +215,106 @@ public class AdvisorGarbageCollectionPerformance extends AdvisorUsingDatabaseAbs
         catch (SQLException ex) {
             throw new AdvisorException("SQL exception when retrieving monitoring data", ex);
         }
+        this.adviseOnLongestPauses(monitoringStartTime, monitoringEndTime, result);
+        this.adviseOnPausePercentiles(monitoringStartTime, monitoringEndTime, result);
         return result.toArray(new Advice[0]);
     }
 
+    private ProgramInstance getProgramInstance(int programInstanceId) throws AdvisorException {
+        final ProgramInstance programInstance
+                = this.getJuniperApplication().getProgramModel().getProgramInstanceById(programInstanceId);
+        if (programInstance == null) {
+            throw new AdvisorException("Cannot find Juniper program instance with ID " + programInstanceId);
+        }
+        return programInstance;
+    }
+
+    private void adviseOnLongestPauses(Timestamp monitoringStartTime, Timestamp monitoringEndTime, ArrayList<Advice> result) throws AdvisorException {
+        if (this.longestPausesCount <= 0) {
+            return;
+        }
+        try (Connection connection = this.getMonitoringDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(QUERY_LONGEST_PAUSES)) {
+            preparedStatement.setLong(1, toTimestampNanos(monitoringStartTime));
+            preparedStatement.setLong(2, toTimestampNanos(monitoringEndTime));
+            preparedStatement.setInt(3, this.longestPausesCount);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    final ProgramInstance programInstance = this.getProgramInstance(resultSet.getInt("ProgramGlobalRank"));
+                    result.add(new Advice(AdvisorGarbageCollectionPerformance.ADVICE_NAME_LONGEST_PAUSE, String.format(
+                            AdvisorGarbageCollectionPerformance.ADVISOR_LOCALE, AdvisorGarbageCollectionPerformance.ADVICE_TEXT_LONGEST_PAUSE,
+                            resultSet.getDouble("GcPauseDuration"),
+                            resultSet.getString("GcCollector"),
+                            resultSet.getString("GcCause"),
+                            new Timestamp((long) (resultSet.getDouble("GcStartTimestamp") * 1000)),
+                            resultSet.getLong("HeapBeforeGc"),
+                            resultSet.getLong("HeapAfterGc"),
+                            this.longestPausesCount
+                    ), programInstance, programInstance.getCloudNode()));
+                }
+            }
+        }
+        catch (SQLException ex) {
+            throw new AdvisorException("SQL exception when retrieving monitoring data", ex);
+        }
+    }
+
+    private void adviseOnPausePercentiles(Timestamp monitoringStartTime, Timestamp monitoringEndTime, ArrayList<Advice> result) throws AdvisorException {
+        try (Connection connection = this.getMonitoringDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(QUERY_PAUSE_DURATIONS)) {
+            preparedStatement.setLong(1, toTimestampNanos(monitoringStartTime));
+            preparedStatement.setLong(2, toTimestampNanos(monitoringEndTime));
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                // the durations are sorted per program, so the percentiles are computed exactly for each program
+                final ArrayList<Double> pauseDurations = new ArrayList<>();
+                int programInstanceId = -1;
+                while (resultSet.next()) {
+                    final int nextProgramInstanceId = resultSet.getInt("ProgramGlobalRank");
+                    if ((nextProgramInstanceId != programInstanceId) && !pauseDurations.isEmpty()) {
+                        this.adviseOnPausePercentiles(programInstanceId, pauseDurations, result);
+                        pauseDurations.clear();
+                    }
+                    programInstanceId = nextProgramInstanceId;
+                    pauseDurations.add(resultSet.getDouble("GcPauseDuration"));
+                }
+                if (!pauseDurations.isEmpty()) {
+                    this.adviseOnPausePercentiles(programInstanceId, pauseDurations, result);
+                }
+            }
+        }
+        catch (SQLException ex) {
+            throw new AdvisorException("SQL exception when retrieving monitoring data", ex);
+        }
+    }
+
+    private void adviseOnPausePercentiles(int programInstanceId, ArrayList<Double> sortedPauseDurations, ArrayList<Advice> result) throws AdvisorException {
+        final double percentile99 = getPercentile(sortedPauseDurations, 99);
+        if (percentile99 < this.pauseDuration99thPercentile) {
+            return;
+        }
+        double pauseDurationsSum = 0;
+        for (double pauseDuration : sortedPauseDurations) {
+            pauseDurationsSum += pauseDuration;
+        }
+        final ProgramInstance programInstance = this.getProgramInstance(programInstanceId);
+        result.add(new Advice(AdvisorGarbageCollectionPerformance.ADVICE_NAME_PAUSE_PERCENTILES, String.format(
+                AdvisorGarbageCollectionPerformance.ADVISOR_LOCALE, AdvisorGarbageCollectionPerformance.ADVICE_TEXT_PAUSE_PERCENTILES,
+                sortedPauseDurations.size(),
+                pauseDurationsSum,
+                getPercentile(sortedPauseDurations, 50),
+                getPercentile(sortedPauseDurations, 90),
+                percentile99,
+                sortedPauseDurations.get(sortedPauseDurations.size() - 1),
+                this.pauseDuration99thPercentile
+        ), programInstance, programInstance.getCloudNode()));
+    }
+
+    private static double getPercentile(ArrayList<Double> sortedValues, double percentile) {
+        // the nearest-rank method
+        final int rank = (int) Math.ceil(percentile / 100 * sortedValues.size());
+        return sortedValues.get(Math.max(rank, 1) - 1);
+    }
+
     /**
      * Create the advisor that will utilize a database connection to get
      * monitoring data and to detect Juniper programs of a given Juniper
@@ -173,6 +329,20 @@ public class AdvisorGarbageCollectionPerformance extends AdvisorUsingDatabaseAbs
         super(juniperApplication, monitoringDatabaseConnection);
     }
 
+    /**
+     * Create the advisor that will borrow database connections from a data
+     * source to get monitoring data and to detect Juniper programs of a given
+     * Juniper application that spent much time on garbage collecting.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDataSource a data source of database connections to get
+     * monitoring data
+     */
+    public AdvisorGarbageCollectionPerformance(JuniperApplication juniperApplication, DataSource monitoringDataSource) {
+        super(juniperApplication, monitoringDataSource);
+    }
+
     /**
      * Get a maximal ratio of total garbage collection duration to total
      * execution time of a Juniper program (reaching of this ration causes the
@@ -197,6 +367,50 @@ public class AdvisorGarbageCollectionPerformance extends AdvisorUsingDatabaseAbs
         this.garbageCollectionToExecutionDurationRatio = garbageCollectionToExecutionDurationRatio;
     }
 
+    /**
+     * Get a number of the longest garbage collection pauses to report.
+     *
+     * @return a number of the longest garbage collection pauses to report
+     */
+    public int getLongestPausesCount() {
+        return longestPausesCount;
+    }
+
+    /**
+     * Set a number of the longest garbage collection pauses to report (no
+     * pauses are reported if it is not positive).
+     *
+     * @param longestPausesCount a number of the longest garbage collection
+     * pauses to report
+     */
+    public void setLongestPausesCount(int longestPausesCount) {
+        this.longestPausesCount = longestPausesCount;
+    }
+
+    /**
+     * Get a maximal 99th percentile of durations of garbage collection pauses
+     * of a Juniper program in seconds (reaching of this percentile causes the
+     * advice generation).
+     *
+     * @return a maximal 99th percentile of durations of garbage collection
+     * pauses of a Juniper program in seconds
+     */
+    public double getPauseDuration99thPercentile() {
+        return pauseDuration99thPercentile;
+    }
+
+    /**
+     * Set a maximal 99th percentile of durations of garbage collection pauses
+     * of a Juniper program in seconds (reaching of this percentile causes the
+     * advice generation).
+     *
+     * @param pauseDuration99thPercentile a maximal 99th percentile of
+     * durations of garbage collection pauses of a Juniper program in seconds
+     */
+    public void setPauseDuration99thPercentile(double pauseDuration99thPercentile) {
+        this.pauseDuration99thPercentile = pauseDuration99thPercentile;
+    }
+
     public static void main(String[] args) {
         System.err.println(
                 "\nAdvisor Name: " + AdvisorGarbageCollectionPerformance.ADVISOR_NAME
@@ -204,6 +418,12 @@ public class AdvisorGarbageCollectionPerformance extends AdvisorUsingDatabaseAbs
                 + "\nAdvice Name: " + AdvisorGarbageCollectionPerformance.ADVICE_NAME
                 + "\nAdvice Text: " + AdvisorGarbageCollectionPerformance.ADVICE_TEXT
                 + "\nSQL:\n" + AdvisorGarbageCollectionPerformance.QUERY
+                + "\nAdvice Name: " + AdvisorGarbageCollectionPerformance.ADVICE_NAME_LONGEST_PAUSE
+                + "\nAdvice Text: " + AdvisorGarbageCollectionPerformance.ADVICE_TEXT_LONGEST_PAUSE
+                + "\nSQL:\n" + AdvisorGarbageCollectionPerformance.QUERY_LONGEST_PAUSES
+                + "\nAdvice Name: " + AdvisorGarbageCollectionPerformance.ADVICE_NAME_PAUSE_PERCENTILES
+                + "\nAdvice Text: " + AdvisorGarbageCollectionPerformance.ADVICE_TEXT_PAUSE_PERCENTILES
+                + "\nSQL:\n" + AdvisorGarbageCollectionPerformance.QUERY_PAUSE_DURATIONS
         );
     }
 
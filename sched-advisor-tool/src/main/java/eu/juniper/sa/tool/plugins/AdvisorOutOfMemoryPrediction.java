@@ -29,6 +29,7 @@ package eu.juniper.sa.tool.plugins;
 
 import eu.juniper.sa.deployment.model.JuniperApplication;
 import eu.juniper.sa.deployment.model.ProgramInstance;
+import eu.juniper.sa.deployment.monitor.db.TypedMetricTables;
 import eu.juniper.sa.tool.Advice;
 import eu.juniper.sa.tool.AdvisorException;
 import eu.juniper.sa.tool.AdvisorInterface;
@@ -44,6 +45,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Locale;
 import java.util.TimeZone;
+import javax.sql.DataSource;
 
 /**
  * The class of an advisor that detects Juniper programs where the memory usage
@@ -105,23 +107,23 @@ public class AdvisorOutOfMemoryPrediction extends AdvisorUsingDatabaseAbstract i
             + "  CASE WHEN SUM(ProgramRuntime.Time-ProgramRuntimeAvg.AvgTime)=0 THEN 0 ELSE SUM((ProgramRuntime.Time-ProgramRuntimeAvg.AvgTime)*(ProgramRuntime.UsedSwapSpaceSize-ProgramRuntimeAvg.AvgUsedSwapSpaceSize))/SUM(POWER(ProgramRuntime.Time-ProgramRuntimeAvg.AvgTime, 2)) END AS Beta1UsedSwapSpaceSize,\n"
             + "  ProgramRuntimeAvg.AvgUsedSwapSpaceSize AS AvgUsedSwapSpaceSize\n"
             + "FROM\n"
-            + "  (SELECT m0.numericvalue AS ProgramGlobalRank,\n"
-            + "    m1.numericvalue AS UsedHeapMemory,\n"
-            + "    m2.numericvalue AS UsedNonHeapMemory,\n"
-            + "    m3.numericvalue AS UsedSwapSpaceSize,\n"
-            + "    EXTRACT(SECOND FROM CAST(? AS timestamp)) - EXTRACT(SECOND FROM records.time) AS Time\n"
-            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("ProgramRuntime", QUERY_metricsInProgramRuntime)
-            + "  AND (records.time BETWEEN ? AND ?)\n"
+            + "  (SELECT ProgramGlobalRank,\n"
+            + "    UsedHeapMemory,\n"
+            + "    UsedNonHeapMemory,\n"
+            + "    UsedSwapSpaceSize,\n"
+            + "    (? - time) / 1000000000.0 AS Time\n"
+            + AdvisorUsingDatabaseAbstract.generateFromWhereFragmentForTypedTable(TypedMetricTables.PROGRAM_RUNTIME_TABLE, QUERY_metricsInProgramRuntime)
+            + "  AND (time BETWEEN ? AND ?)\n"
             + "  ) ProgramRuntime\n"
             + "JOIN\n"
-            + "  (SELECT m0.numericvalue AS ProgramGlobalRank,\n"
-            + "    AVG(m1.numericvalue) AS AvgUsedHeapMemory,\n"
-            + "    AVG(m2.numericvalue) AS AvgUsedNonHeapMemory,\n"
-            + "    AVG(m3.numericvalue) AS AvgUsedSwapSpaceSize,\n"
-            + "    AVG(EXTRACT(SECOND FROM CAST(? AS timestamp)) - EXTRACT(SECOND FROM records.time)) AS AvgTime\n"
-            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("ProgramRuntime", QUERY_metricsInProgramRuntime)
-            + "  AND (records.time BETWEEN ? AND ?)\n"
-            + "  GROUP BY m0.numericvalue\n"
+            + "  (SELECT ProgramGlobalRank,\n"
+            + "    AVG(UsedHeapMemory) AS AvgUsedHeapMemory,\n"
+            + "    AVG(UsedNonHeapMemory) AS AvgUsedNonHeapMemory,\n"
+            + "    AVG(UsedSwapSpaceSize) AS AvgUsedSwapSpaceSize,\n"
+            + "    AVG((? - time) / 1000000000.0) AS AvgTime\n"
+            + AdvisorUsingDatabaseAbstract.generateFromWhereFragmentForTypedTable(TypedMetricTables.PROGRAM_RUNTIME_TABLE, QUERY_metricsInProgramRuntime)
+            + "  AND (time BETWEEN ? AND ?)\n"
+            + "  GROUP BY ProgramGlobalRank\n"
             + "  ) ProgramRuntimeAvg ON (ProgramRuntime.ProgramGlobalRank = ProgramRuntimeAvg.ProgramGlobalRank)\n"
             + "GROUP BY ProgramRuntime.ProgramGlobalRank, ProgramRuntimeAvg.AvgTime, ProgramRuntimeAvg.AvgUsedHeapMemory, ProgramRuntimeAvg.AvgUsedNonHeapMemory, ProgramRuntimeAvg.AvgUsedSwapSpaceSize\n"
             + "HAVING CASE WHEN SUM(ProgramRuntime.Time-ProgramRuntimeAvg.AvgTime)=0 THEN 0 ELSE SUM((ProgramRuntime.Time-ProgramRuntimeAvg.AvgTime)*(ProgramRuntime.UsedHeapMemory-ProgramRuntimeAvg.AvgUsedHeapMemory))/SUM(POWER(ProgramRuntime.Time-ProgramRuntimeAvg.AvgTime, 2)) END >= ?\n"
@@ -131,12 +133,11 @@ public class AdvisorOutOfMemoryPrediction extends AdvisorUsingDatabaseAbstract i
     //      + "ORDER BY Beta1UsedHeapMemory+Beta1UsedNonHeapMemory+Beta1UsedSwapSpaceSize;"; // cannot by ordered by calculated columns
     private final static String[] QUERY_metricsInProgramRuntime_max = {"ProgramGlobalRank"};
     private final static String QUERY_MAX
-            = "SELECT"
-            + "  (SELECT numericvalue FROM metrics WHERE name = 'MaxSwapSpaceSize' AND recordid = records.id) AS MaxSwapSpaceSize,\n"
-            + "  (SELECT numericvalue FROM metrics WHERE name = 'MaxHeapMemory' AND recordid = records.id) AS MaxHeapMemory,\n"
-            + "  (SELECT numericvalue FROM metrics WHERE name = 'MaxNonHeapMemory' AND recordid = records.id) AS MaxNonHeapMemory\n"
-            + AdvisorUsingDatabaseAbstract.generateFromWhereFragment("ProgramRuntime", QUERY_metricsInProgramRuntime_max)
-            + "  AND (m0.numericvalue = ?) AND (records.time BETWEEN ? AND ?)\n"
+            = "SELECT MaxSwapSpaceSize,\n"
+            + "  MaxHeapMemory,\n"
+            + "  MaxNonHeapMemory\n"
+            + AdvisorUsingDatabaseAbstract.generateFromWhereFragmentForTypedTable(TypedMetricTables.PROGRAM_RUNTIME_TABLE, QUERY_metricsInProgramRuntime_max)
+            + "  AND (ProgramGlobalRank = ?) AND (time BETWEEN ? AND ?)\n"
             + "LIMIT 1;";
 
     /**
@@ -191,14 +192,15 @@ public class AdvisorOutOfMemoryPrediction extends AdvisorUsingDatabaseAbstract i
     @Override
     public Advice[] execute(Timestamp monitoringStartTime, Timestamp monitoringEndTime) throws AdvisorException {
         ArrayList<Advice> result = new ArrayList<>();
-        try (PreparedStatement preparedStatement = this.getMonitoringDatabaseConnection().prepareStatement(QUERY);
-                PreparedStatement preparedStatementMax = this.getMonitoringDatabaseConnection().prepareStatement(QUERY_MAX)) {
-            preparedStatement.setTimestamp(1, monitoringStartTime);
-            preparedStatement.setTimestamp(2, monitoringStartTime);
-            preparedStatement.setTimestamp(3, monitoringEndTime);
-            preparedStatement.setTimestamp(4, monitoringStartTime);
-            preparedStatement.setTimestamp(5, monitoringStartTime);
-            preparedStatement.setTimestamp(6, monitoringEndTime);
+        try (Connection connection = this.getMonitoringDataSource().getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(QUERY);
+                PreparedStatement preparedStatementMax = connection.prepareStatement(QUERY_MAX)) {
+            preparedStatement.setLong(1, toTimestampNanos(monitoringStartTime));
+            preparedStatement.setLong(2, toTimestampNanos(monitoringStartTime));
+            preparedStatement.setLong(3, toTimestampNanos(monitoringEndTime));
+            preparedStatement.setLong(4, toTimestampNanos(monitoringStartTime));
+            preparedStatement.setLong(5, toTimestampNanos(monitoringStartTime));
+            preparedStatement.setLong(6, toTimestampNanos(monitoringEndTime));
             preparedStatement.setDouble(7, this.linearRegressionBeta1ForHeapMemory);
             preparedStatement.setDouble(8, this.linearRegressionBeta1ForNonHeapMemory);
             preparedStatement.setDouble(9, this.linearRegressionBeta1ForSwapSpace);
@@ -212,8 +214,8 @@ public class AdvisorOutOfMemoryPrediction extends AdvisorUsingDatabaseAbstract i
                     }
                     // get limits for heap/non-heap memory and swap space of the program instance
                     preparedStatementMax.setInt(1, programInstanceId);
-                    preparedStatementMax.setTimestamp(2, monitoringStartTime);
-                    preparedStatementMax.setTimestamp(3, monitoringEndTime);
+                    preparedStatementMax.setLong(2, toTimestampNanos(monitoringStartTime));
+                    preparedStatementMax.setLong(3, toTimestampNanos(monitoringEndTime));
                     long maxHeapMemory = 0;
                     long maxNonHeapMemory = 0;
                     long maxSwapSpaceSize = 0;
@@ -306,6 +308,20 @@ public class AdvisorOutOfMemoryPrediction extends AdvisorUsingDatabaseAbstract i
         super(juniperApplication, monitoringDatabaseConnection);
     }
 
+    /**
+     * Create the advisor that will borrow database connections from a data
+     * source to get monitoring data and to detect Juniper programs of a given
+     * Juniper application where the memory usage is growing over time.
+     *
+     * @param juniperApplication a Juniper application model related to
+     * monitoring data
+     * @param monitoringDataSource a data source of database connections to get
+     * monitoring data
+     */
+    public AdvisorOutOfMemoryPrediction(JuniperApplication juniperApplication, DataSource monitoringDataSource) {
+        super(juniperApplication, monitoringDataSource);
+    }
+
     /**
      * Get a maximal value of a Beta_1 coefficient in a simple linear regression
      * formula for the heap memory growth of a Juniper program (Bytes per